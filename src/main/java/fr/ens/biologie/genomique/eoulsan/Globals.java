@@ -44,6 +44,7 @@ import java.util.logging.LogRecord;
 
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
 import fr.ens.biologie.genomique.eoulsan.core.Version;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
 import fr.ens.biologie.genomique.eoulsan.io.FileCharsets;
 
 /**
@@ -219,6 +220,16 @@ public final class Globals {
   /** ZooKeeper default session timeout. */
   public static final int ZOOKEEPER_SESSION_TIMEOUT_DEFAULT = 10000;
 
+  /** Default number of threads to use for gzip compression. */
+  public static final int COMPRESSION_THREADS_NUMBER_DEFAULT = 1;
+
+  /** Default maximum size in MB of the mapper index cache. */
+  public static final long MAPPER_INDEX_CACHE_MAX_SIZE_DEFAULT = 100 * 1024;
+
+  /** Default compression of the intermediate outputs. */
+  public static final CompressionType INTERMEDIATE_OUTPUT_COMPRESSION_DEFAULT =
+      CompressionType.NONE;
+
   /** Write results using old Eoulsan format. */
   public static final boolean USE_OLD_EOULSAN_RESULT_FORMAT_DEFAULT = false;
 
@@ -45,6 +45,7 @@ import java.util.Properties;
 import java.util.Set;
 
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
 import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 import fr.ens.biologie.genomique.eoulsan.util.Utils;
 
@@ -78,6 +79,18 @@ public final class Settings implements Serializable {
   private static final String LOCAL_THREADS_NUMBER =
       MAIN_PREFIX_KEY + "local.threads";
 
+  private static final String COMPRESSION_THREADS_NUMBER =
+      MAIN_PREFIX_KEY + "compression.threads";
+
+  private static final String MAPPER_INDEX_CACHE_DIR_KEY =
+      MAIN_PREFIX_KEY + "mapper.index.cache.dir";
+
+  private static final String MAPPER_INDEX_CACHE_MAX_SIZE_KEY =
+      MAIN_PREFIX_KEY + "mapper.index.cache.max.size";
+
+  private static final String INTERMEDIATE_OUTPUT_COMPRESSION_KEY =
+      MAIN_PREFIX_KEY + "intermediate.output.compression";
+
   private static final String OUTPUT_TREE_TYPE =
       MAIN_PREFIX_KEY + "output.tree.type";
 
@@ -129,6 +142,9 @@ public final class Settings implements Serializable {
   private static final String GENOME_DESC_STORAGE_KEY =
       MAIN_PREFIX_KEY + "genome.desc.storage.path";
 
+  private static final String ANNOTATION_INDEX_STORAGE_KEY =
+      MAIN_PREFIX_KEY + "annotation.index.storage.path";
+
   private static final String GENOME_STORAGE_KEY =
       MAIN_PREFIX_KEY + "genome.storage.path";
 
@@ -399,6 +415,71 @@ public final class Settings implements Serializable {
         "" + Runtime.getRuntime().availableProcessors()));
   }
 
+  /**
+   * Get the number of threads to use to compress and uncompress gzip files.
+   * @return the number of threads to use
+   */
+  public int getCompressionThreadsNumber() {
+
+    return Integer.parseInt(this.properties.getProperty(
+        COMPRESSION_THREADS_NUMBER,
+        "" + Globals.COMPRESSION_THREADS_NUMBER_DEFAULT));
+  }
+
+  /**
+   * Get the directory of the node local cache of the uncompressed mapper
+   * indexes.
+   * @return the directory of the mapper index cache or null if not set
+   */
+  public String getMapperIndexCacheDirectory() {
+
+    return this.properties.getProperty(MAPPER_INDEX_CACHE_DIR_KEY);
+  }
+
+  /**
+   * Get the maximum size in MB of the uncompressed mapper index cache. A
+   * value lower or equals to 0 means no limit.
+   * @return the maximum size in MB of the mapper index cache
+   */
+  public long getMapperIndexCacheMaxSize() {
+
+    return Long.parseLong(
+        this.properties.getProperty(MAPPER_INDEX_CACHE_MAX_SIZE_KEY,
+            "" + Globals.MAPPER_INDEX_CACHE_MAX_SIZE_DEFAULT));
+  }
+
+  /**
+   * Get the compression to use for the intermediate outputs, i.e. the outputs
+   * of the steps that will be removed at the end of the workflow.
+   * @return the compression of the intermediate outputs
+   */
+  public CompressionType getIntermediateOutputCompression() {
+
+    final String value =
+        this.properties.getProperty(INTERMEDIATE_OUTPUT_COMPRESSION_KEY);
+
+    if (value == null) {
+      return Globals.INTERMEDIATE_OUTPUT_COMPRESSION_DEFAULT;
+    }
+
+    final String name = value.trim().toLowerCase();
+
+    if ("none".equals(name)) {
+      return CompressionType.NONE;
+    }
+
+    for (CompressionType ct : CompressionType.values()) {
+      if (ct != CompressionType.NONE && ct.getContentEncoding().equals(name)) {
+        return ct;
+      }
+    }
+
+    getLogger().warning("Unknown intermediate output compression: "
+        + value + ", use the default compression instead");
+
+    return Globals.INTERMEDIATE_OUTPUT_COMPRESSION_DEFAULT;
+  }
+
   /**
    * Get the default fastq format.
    * @return the default fastq format
@@ -437,6 +518,15 @@ public final class Settings implements Serializable {
     return this.properties.getProperty(GENOME_DESC_STORAGE_KEY);
   }
 
+  /**
+   * Get the compiled annotation index storage path.
+   * @return the path to compiled annotation index storage path
+   */
+  public String getAnnotationIndexStoragePath() {
+
+    return this.properties.getProperty(ANNOTATION_INDEX_STORAGE_KEY);
+  }
+
   /**
    * Get the genome storage path.
    * @return the path to genome storage path
@@ -978,6 +1068,59 @@ public final class Settings implements Serializable {
         Boolean.toString(remove));
   }
 
+  /**
+   * Set the directory of the node local cache of the uncompressed mapper
+   * indexes.
+   * @param directory the directory of the mapper index cache
+   */
+  public void setMapperIndexCacheDirectory(final String directory) {
+
+    if (directory == null) {
+      return;
+    }
+
+    this.properties.setProperty(MAPPER_INDEX_CACHE_DIR_KEY, directory);
+  }
+
+  /**
+   * Set the maximum size in MB of the uncompressed mapper index cache.
+   * @param maxSize the maximum size in MB of the mapper index cache
+   */
+  public void setMapperIndexCacheMaxSize(final long maxSize) {
+
+    this.properties.setProperty(MAPPER_INDEX_CACHE_MAX_SIZE_KEY,
+        Long.toString(maxSize));
+  }
+
+  /**
+   * Set the number of threads to use to compress and uncompress gzip files.
+   * @param threadsNumber the number of threads to use
+   */
+  public void setCompressionThreadsNumber(final int threadsNumber) {
+
+    if (threadsNumber < 1) {
+      return;
+    }
+
+    this.properties.setProperty(COMPRESSION_THREADS_NUMBER,
+        Integer.toString(threadsNumber));
+  }
+
+  /**
+   * Set the compression to use for the intermediate outputs.
+   * @param compression the compression to use
+   */
+  public void setIntermediateOutputCompression(
+      final CompressionType compression) {
+
+    if (compression == null) {
+      return;
+    }
+
+    this.properties.setProperty(INTERMEDIATE_OUTPUT_COMPRESSION_KEY,
+        compression.getContentEncoding());
+  }
+
   /**
    * Set the number of threads to use in local mode.
    * @param threadsNumber the number of threads to use in local mode
@@ -1035,6 +1178,18 @@ public final class Settings implements Serializable {
     this.properties.setProperty(GENOME_DESC_STORAGE_KEY, genomeDescStoragePath);
   }
 
+  /**
+   * Set the compiled annotation index storage path.
+   * @param annotationIndexStoragePath the path to compiled annotation index
+   *          storage path
+   */
+  public void setAnnotationIndexStoragePath(
+      final String annotationIndexStoragePath) {
+
+    this.properties.setProperty(ANNOTATION_INDEX_STORAGE_KEY,
+        annotationIndexStoragePath);
+  }
+
   /**
    * Set the genome storage path.
    * @param genomeStoragePath the path to genome index storage path
@@ -35,6 +35,8 @@ import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import fr.ens.biologie.genomique.eoulsan.util.GuavaCompatibility;
 import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
@@ -48,6 +50,7 @@ public class GFFEntry {
 
   private static final Pattern SEMI_COMA_SPLIT_PATTERN = Pattern.compile(";");
   private static final Pattern COMA_SPLIT_PATTERN = Pattern.compile(",");
+  private static final Interner<String> INTERNER = Interners.newWeakInterner();
 
   private final EntryMetadata metadata;
   private String seqId;
@@ -60,6 +63,11 @@ public class GFFEntry {
   private int phase;
   private final Map<String, String> attributes = new LinkedHashMap<>();
 
+  // Attribute field not yet parsed and its format
+  private String unparsedAttributes;
+  private boolean unparsedGTFAttributes;
+  private boolean internStrings;
+
   //
   // Getters
   //
@@ -170,6 +178,8 @@ public class GFFEntry {
    */
   public final Set<String> getAttributesNames() {
 
+    parseAttributesIfNeeded();
+
     return Collections.unmodifiableSet(this.attributes.keySet());
   }
 
@@ -191,6 +201,8 @@ public class GFFEntry {
    */
   public final boolean isAttribute(final String attributeName) {
 
+    parseAttributesIfNeeded();
+
     return this.attributes.containsKey(attributeName);
   }
 
@@ -214,6 +226,8 @@ public class GFFEntry {
    */
   public final String getAttributeValue(final String attributeName) {
 
+    parseAttributesIfNeeded();
+
     return this.attributes.get(attributeName);
   }
 
@@ -373,6 +387,7 @@ public class GFFEntry {
       return false;
     }
 
+    parseAttributesIfNeeded();
     this.attributes.put(attributeName, value);
 
     return true;
@@ -396,6 +411,8 @@ public class GFFEntry {
    */
   public final boolean removeAttribute(final String attributeName) {
 
+    parseAttributesIfNeeded();
+
     return this.attributes.remove(attributeName) != null;
   }
 
@@ -417,6 +434,7 @@ public class GFFEntry {
     this.strand = '.';
     this.phase = -1;
     this.attributes.clear();
+    this.unparsedAttributes = null;
   }
 
   /**
@@ -535,6 +553,12 @@ public class GFFEntry {
     setSource(fields.get(1));
     setType(fields.get(2));
 
+    if (this.internStrings) {
+      this.seqId = INTERNER.intern(this.seqId);
+      this.source = INTERNER.intern(this.source);
+      this.type = INTERNER.intern(this.type);
+    }
+
     setStart(parseInt(fields.get(3), Integer.MIN_VALUE));
     setEnd(parseInt(fields.get(4), Integer.MIN_VALUE));
     setScore(parseDouble(fields.get(5), Double.NaN));
@@ -567,7 +591,7 @@ public class GFFEntry {
         continue;
       }
 
-      final String key = f.substring(0, indexEquals).trim();
+      final String key = intern(f.substring(0, indexEquals).trim());
       final String value = f.substring(indexEquals + 1).trim();
 
       setAttributeValue(key, value);
@@ -602,7 +626,7 @@ public class GFFEntry {
         continue;
       }
 
-      final String key = f.substring(0, indexEquals).trim();
+      final String key = intern(f.substring(0, indexEquals).trim());
       final String value = StringUtils
           .unDoubleQuotes(f.substring(indexEquals + 1).trim()).trim();
 
@@ -614,6 +638,36 @@ public class GFFEntry {
     }
   }
 
+  /**
+   * Parse the attribute field if its parsing has been deferred.
+   */
+  private void parseAttributesIfNeeded() {
+
+    final String attributesField = this.unparsedAttributes;
+
+    if (attributesField == null) {
+      return;
+    }
+
+    this.unparsedAttributes = null;
+
+    if (this.unparsedGTFAttributes) {
+      parseGTFAttributes(attributesField);
+    } else {
+      parseGFF3Attributes(attributesField);
+    }
+  }
+
+  /**
+   * Intern a string if the entry has been parsed in streaming mode.
+   * @param s the string to intern
+   * @return the interned string or the original string
+   */
+  private String intern(final String s) {
+
+    return this.internStrings ? INTERNER.intern(s) : s;
+  }
+
   /**
    * Parse a GFF entry. This method is deprecated, use <tt>parseGFF3()</tt>
    * instead.
@@ -632,6 +686,8 @@ public class GFFEntry {
    */
   public void parseGFF3(final String s) throws BadBioEntryException {
 
+    this.internStrings = false;
+    this.unparsedAttributes = null;
     final String attributeField = parseCommon(s);
     parseGFF3Attributes(attributeField);
   }
@@ -642,16 +698,58 @@ public class GFFEntry {
    */
   public void parseGTF(final String s) throws BadBioEntryException {
 
+    this.internStrings = false;
+    this.unparsedAttributes = null;
     final String attributeField = parseCommon(s);
     parseGTFAttributes(attributeField);
   }
 
+  /**
+   * Parse a GFF3 entry in streaming mode. The sequence id, the source, the
+   * type and the attribute names are interned and the attribute field is only
+   * parsed on the first access to the attributes.
+   * @param s String to parse
+   */
+  public void parseGFF3Lazily(final String s) throws BadBioEntryException {
+
+    parseLazily(s, false);
+  }
+
+  /**
+   * Parse a GTF entry in streaming mode. The sequence id, the source, the type
+   * and the attribute names are interned and the attribute field is only
+   * parsed on the first access to the attributes.
+   * @param s String to parse
+   */
+  public void parseGTFLazily(final String s) throws BadBioEntryException {
+
+    parseLazily(s, true);
+  }
+
+  /**
+   * Parse an entry in streaming mode.
+   * @param s String to parse
+   * @param gtfFormat true if the entry is in GTF format
+   */
+  private void parseLazily(final String s, final boolean gtfFormat)
+      throws BadBioEntryException {
+
+    this.internStrings = true;
+    this.unparsedAttributes = null;
+    final String attributeField = parseCommon(s);
+    this.attributes.clear();
+    this.unparsedAttributes = attributeField;
+    this.unparsedGTFAttributes = gtfFormat;
+  }
+
   /**
    * Convert the attributes to a GFF3 string.
    * @return a the attribute in the GFF3 format
    */
   private String attributesToGFF3String() {
 
+    parseAttributesIfNeeded();
+
     if (this.attributes.size() == 0) {
       return ".";
     }
@@ -682,6 +780,8 @@ public class GFFEntry {
    */
   private String attributesToGTFString() {
 
+    parseAttributesIfNeeded();
+
     if (this.attributes.size() == 0) {
       return ".";
     }
@@ -771,6 +871,8 @@ public class GFFEntry {
   @Override
   public int hashCode() {
 
+    parseAttributesIfNeeded();
+
     return Objects.hash(this.metadata, this.seqId, this.source, this.type,
         this.start, this.end, this.score, this.strand, this.phase,
         this.attributes);
@@ -789,6 +891,9 @@ public class GFFEntry {
 
     final GFFEntry that = (GFFEntry) o;
 
+    parseAttributesIfNeeded();
+    that.parseAttributesIfNeeded();
+
     return Objects.equals(this.metadata, that.metadata)
         && Objects.equals(this.seqId, that.seqId)
         && Objects.equals(this.source, that.source)
@@ -44,6 +44,8 @@ import java.util.List;
 import java.util.Map;
 
 import fr.ens.biologie.genomique.eoulsan.Globals;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastaIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastaIndexBuilder;
 import fr.ens.biologie.genomique.eoulsan.bio.io.FastaLineParser;
 import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
@@ -61,9 +63,11 @@ public class GenomeDescription {
   private static final String MD5_PREFIX = PREFIX + "md5";
   private static final String SEQUENCE_PREFIX = PREFIX + "sequence.";
   private static final String SEQUENCES_COUNT_PREFIX = PREFIX + "sequences";
+  private static final String SEQUENCE_MD5_PREFIX = PREFIX + "sequencemd5.";
 
   private String genomeName;
   private final Map<String, Long> sequences = new LinkedHashMap<>();
+  private final Map<String, String> sequenceMD5Sums = new LinkedHashMap<>();
   private String md5Sum;
 
   //
@@ -102,6 +106,20 @@ public class GenomeDescription {
     this.md5Sum = md5Digest;
   }
 
+  /**
+   * Set the md5 digest of a sequence.
+   * @param sequenceName name of the sequence
+   * @param md5Digest the md5 digest of the upper case bases of the sequence
+   */
+  public void setSequenceMD5Sum(final String sequenceName,
+      final String md5Digest) {
+
+    requireNonNull(sequenceName, "sequenceName argument cannot be null");
+    requireNonNull(md5Digest, "md5Digest argument cannot be null");
+
+    this.sequenceMD5Sums.put(sequenceName, md5Digest);
+  }
+
   //
   // Getters
   //
@@ -158,6 +176,17 @@ public class GenomeDescription {
     return this.md5Sum;
   }
 
+  /**
+   * Get the md5 sum of a sequence. The md5 sum is computed on the upper case
+   * bases of the sequence like the M5 tag of the SAM format.
+   * @param sequenceName name of the sequence
+   * @return the md5 sum of the sequence or null if not known
+   */
+  public String getSequenceMD5Sum(final String sequenceName) {
+
+    return this.sequenceMD5Sums.get(sequenceName);
+  }
+
   /**
    * Get the number of sequences in the genome.
    * @return the number of sequences in the genome
@@ -214,6 +243,12 @@ public class GenomeDescription {
           SEQUENCE_PREFIX + seqName + "=" + getSequenceLength(seqName) + "\n");
     }
 
+    for (Map.Entry<String, String> e : this.sequenceMD5Sums.entrySet()) {
+
+      writer.write(
+          SEQUENCE_MD5_PREFIX + e.getKey() + "=" + e.getValue() + "\n");
+    }
+
     writer.close();
   }
 
@@ -259,6 +294,9 @@ public class GenomeDescription {
         }
         if (key.startsWith(MD5_PREFIX)) {
           result.setMD5Sum(fields.get(1));
+        } else if (key.startsWith(SEQUENCE_MD5_PREFIX)) {
+          result.setSequenceMD5Sum(key.substring(SEQUENCE_MD5_PREFIX.length()),
+              fields.get(1).trim());
         } else {
           try {
             if (key.startsWith(SEQUENCE_PREFIX)) {
@@ -317,6 +355,78 @@ public class GenomeDescription {
     return createGenomeDesc(genomeFastaIs, filename, false);
   }
 
+  /**
+   * Create a GenomeDescription object from a Fasta file in one pass using a
+   * FASTA index. The MD5 sum is the same as the one computed by
+   * createGenomeDescFromFasta().
+   * @param genomeFastaIs genome fasta input stream
+   * @param filename name of the file of the input stream
+   * @return a new GenomeDescription object
+   * @throws BadBioEntryException if the sequences contains invalid bases or if
+   *           the length of the lines of a sequence is not constant
+   * @throws IOException if an error occurs while reading the stream
+   */
+  public static GenomeDescription createGenomeDescFromFastaIndex(
+      final InputStream genomeFastaIs, final String filename)
+      throws BadBioEntryException, IOException {
+
+    requireNonNull(genomeFastaIs, "The input stream of the genome is null");
+
+    getLogger().fine(
+        "Compute genome description and index from genome fasta file.");
+
+    MessageDigest md5Digest;
+    try {
+      md5Digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      md5Digest = null;
+    }
+
+    final FastaIndexBuilder builder = new FastaIndexBuilder(
+        Alphabets.AMBIGUOUS_DNA_ALPHABET, md5Digest, true, true);
+    final FastaIndex index = FastaIndex.create(genomeFastaIs, builder);
+
+    final GenomeDescription result = createGenomeDescFromIndex(index, filename,
+        md5Digest == null ? null : md5DigestToString(md5Digest));
+
+    for (Map.Entry<String, String> e : builder.getSequenceMD5Sums()
+        .entrySet()) {
+      result.setSequenceMD5Sum(e.getKey(), e.getValue());
+    }
+
+    return result;
+  }
+
+  /**
+   * Create a GenomeDescription object from a FASTA index.
+   * @param index the FASTA index
+   * @param filename name of the genome file
+   * @param md5Sum MD5 sum of the genome, can be null
+   * @return a new GenomeDescription object
+   */
+  public static GenomeDescription createGenomeDescFromIndex(
+      final FastaIndex index, final String filename, final String md5Sum) {
+
+    requireNonNull(index, "index argument cannot be null");
+
+    final GenomeDescription result = new GenomeDescription();
+    result.setGenomeName(StringUtils.basename(filename));
+
+    for (FastaIndex.Entry e : index.getEntries()) {
+
+      // Like in the FASTA parser, empty sequences are ignored
+      if (e.getLength() > 0) {
+        result.addSequence(e.getName(), e.getLength());
+      }
+    }
+
+    if (md5Sum != null) {
+      result.setMD5Sum(md5Sum);
+    }
+
+    return result;
+  }
+
   /**
    * Create a GenomeDescription object from a GFF file.
    * @param gffFile genome in GFF file
@@ -0,0 +1,482 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.md5DigestToString;
+import static java.util.Objects.requireNonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastaIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastaIndexBuilder;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
+
+/**
+ * This class compute in one pass the description of a genome, the MD5 sum of
+ * the genome file and the MD5 sum of each sequence of the genome. When the
+ * genome file is an uncompressed local file, the MD5 sum of the file and the
+ * checking of the sequences are computed in parallel, sequence by sequence.
+ * The last result is kept in memory as the genome description storage and the
+ * genome description generator usually process the same genome file.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class GenomeDescriptionComputer {
+
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private static final Alphabet ALPHABET = Alphabets.AMBIGUOUS_DNA_ALPHABET;
+
+  private static final Object LOCK = new Object();
+  private static DataFile lastGenomeFile;
+  private static long lastGenomeFileModified;
+  private static Result lastResult;
+
+  private final int threads;
+
+  /**
+   * This class define the result of the computation.
+   */
+  public static final class Result {
+
+    private final GenomeDescription genomeDescription;
+    private final String fileMD5Sum;
+    private final FastaIndex index;
+
+    /**
+     * Get the genome description.
+     * @return the genome description
+     */
+    public GenomeDescription getGenomeDescription() {
+      return this.genomeDescription;
+    }
+
+    /**
+     * Get the MD5 sum of the genome file. For compressed files, the MD5 sum is
+     * computed on the compressed data.
+     * @return the MD5 sum of the genome file
+     */
+    public String getFileMD5Sum() {
+      return this.fileMD5Sum;
+    }
+
+    /**
+     * Get the index of the genome.
+     * @return the index of the genome or null if the genome cannot be indexed
+     */
+    public FastaIndex getIndex() {
+      return this.index;
+    }
+
+    private Result(final GenomeDescription genomeDescription,
+        final String fileMD5Sum, final FastaIndex index) {
+
+      this.genomeDescription = genomeDescription;
+      this.fileMD5Sum = fileMD5Sum;
+      this.index = index;
+    }
+  }
+
+  //
+  // Computation
+  //
+
+  /**
+   * Compute the genome description and the MD5 sums of a genome file. If the
+   * genome file has been already processed and not modified since, the
+   * previous result is returned.
+   * @param genomeFile the genome file
+   * @return a Result object
+   * @throws IOException if an error occurs while reading the genome file
+   * @throws BadBioEntryException if the genome file is invalid
+   */
+  public Result compute(final DataFile genomeFile)
+      throws IOException, BadBioEntryException {
+
+    requireNonNull(genomeFile, "genomeFile argument cannot be null");
+
+    long lastModified = -1;
+    try {
+      final DataFileMetadata md = genomeFile.getMetaData();
+      lastModified = md.getLastModified();
+    } catch (IOException e) {
+      // The result will not be cached
+    }
+
+    synchronized (LOCK) {
+
+      if (lastModified != -1
+          && genomeFile.equals(lastGenomeFile)
+          && lastModified == lastGenomeFileModified && lastResult != null) {
+        return lastResult;
+      }
+
+      final Result result;
+      if (this.threads > 1
+          && genomeFile.isLocalFile()
+          && genomeFile.getCompressionType() == CompressionType.NONE) {
+        result = computeParallel(genomeFile.toFile(), genomeFile.getName());
+      } else {
+        result = computeSequential(genomeFile);
+      }
+
+      if (lastModified != -1) {
+        lastGenomeFile = genomeFile;
+        lastGenomeFileModified = lastModified;
+        lastResult = result;
+      }
+
+      return result;
+    }
+  }
+
+  /**
+   * Get the result of the last computation if it has been computed for a
+   * genome file that has not been modified since. This method never reads the
+   * genome file.
+   * @param genomeFile the genome file
+   * @return a Result object or null if the genome file has not been processed
+   */
+  public static Result getCachedResult(final DataFile genomeFile) {
+
+    requireNonNull(genomeFile, "genomeFile argument cannot be null");
+
+    final long lastModified;
+    try {
+      lastModified = genomeFile.getMetaData().getLastModified();
+    } catch (IOException e) {
+      return null;
+    }
+
+    synchronized (LOCK) {
+
+      if (genomeFile.equals(lastGenomeFile)
+          && lastModified == lastGenomeFileModified) {
+        return lastResult;
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * Compute the genome description and the MD5 sums of a genome file using
+   * only the current thread.
+   * @param genomeFile the genome file
+   * @return a Result object
+   * @throws IOException if an error occurs while reading the genome file
+   * @throws BadBioEntryException if the genome file is invalid
+   */
+  private Result computeSequential(final DataFile genomeFile)
+      throws IOException, BadBioEntryException {
+
+    getLogger().fine("Compute genome description and MD5 sums of "
+        + genomeFile + " in one thread");
+
+    final MessageDigest fileDigest = newMD5Digest();
+    final MessageDigest genomeDigest = newMD5Digest();
+    final FastaIndexBuilder builder =
+        new FastaIndexBuilder(ALPHABET, genomeDigest, true, false);
+    final FastaIndex index;
+
+    try (InputStream raw =
+        new DigestInputStream(genomeFile.rawOpen(), fileDigest);
+        InputStream is = genomeFile.getCompressionType().createInputStream(raw)) {
+
+      // The stream will be closed at the end of the try block
+      index = FastaIndex.create(new FilterInputStream(is) {
+        @Override
+        public void close() {
+        }
+      }, builder);
+
+      // Read the remaining bytes to compute the MD5 sum of the whole file
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      while (raw.read(buffer) != -1) {
+        continue;
+      }
+    }
+
+    return createResult(genomeFile.getName(), builder, index,
+        md5DigestToString(genomeDigest), md5DigestToString(fileDigest),
+        builder.getSequenceMD5Sums());
+  }
+
+  /**
+   * Compute the genome description and the MD5 sums of an uncompressed local
+   * genome file using several threads. The current thread parse the lines of
+   * the file and compute the genome digest, one thread compute the MD5 sum of
+   * the file and the other threads check the bases and compute the MD5 sum of
+   * each sequence.
+   * @param file the genome file
+   * @param filename the name of the genome file
+   * @return a Result object
+   * @throws IOException if an error occurs while reading the genome file
+   * @throws BadBioEntryException if the genome file is invalid
+   */
+  private Result computeParallel(final File file, final String filename)
+      throws IOException, BadBioEntryException {
+
+    getLogger().fine("Compute genome description and MD5 sums of "
+        + file + " using " + this.threads + " threads");
+
+    final ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+    final boolean[] validBases =
+        FastaIndexBuilder.createValidBasesTable(ALPHABET);
+
+    try (FileChannel channel =
+        FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+      // Compute the MD5 sum of the file
+      final long fileSize = channel.size();
+      final Future<String> fileMD5Sum =
+          executor.submit(() -> md5DigestToString(
+              digestRegion(channel, 0, fileSize, null, null, null)));
+
+      // Check the bases and compute the MD5 sum of each sequence once its
+      // limits are known
+      final Map<String, Future<String>> sequenceFutures = new LinkedHashMap<>();
+      final MessageDigest genomeDigest = newMD5Digest();
+      final FastaIndexBuilder builder =
+          new FastaIndexBuilder(null, genomeDigest, false, false);
+      builder.setSequenceListener((entry, endOffset) -> {
+
+        if (entry.getLength() > 0) {
+          sequenceFutures.put(entry.getName(),
+              executor.submit(() -> md5DigestToString(
+                  digestRegion(channel, entry.getOffset(), endOffset,
+                      validBases, new byte[BUFFER_SIZE], entry.getName()))));
+        }
+      });
+
+      final FastaIndex index =
+          FastaIndex.create(new FileInputStream(file), builder);
+
+      final Map<String, String> sequenceMD5Sums = new LinkedHashMap<>();
+      for (Map.Entry<String, Future<String>> e : sequenceFutures.entrySet()) {
+        sequenceMD5Sums.put(e.getKey(), getFutureResult(e.getValue()));
+      }
+
+      return createResult(filename, builder, index,
+          md5DigestToString(genomeDigest), getFutureResult(fileMD5Sum),
+          sequenceMD5Sums);
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Compute the digest of a region of a file. If an alphabet table is
+   * provided, the region is processed as the bases of a sequence: the white
+   * spaces are discarded, the bases are checked and converted to upper case.
+   * @param channel file channel
+   * @param start start of the region
+   * @param end end of the region
+   * @param validBases table of the valid bases, null to process raw bytes
+   * @param upperCaseBuffer buffer for the upper case bases
+   * @param sequenceName name of the sequence
+   * @return the digest of the region
+   * @throws IOException if an error occurs while reading the file
+   * @throws BadBioEntryException if a base is invalid
+   */
+  private static MessageDigest digestRegion(final FileChannel channel,
+      final long start, final long end, final boolean[] validBases,
+      final byte[] upperCaseBuffer, final String sequenceName)
+      throws IOException, BadBioEntryException {
+
+    final MessageDigest digest = newMD5Digest();
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    final byte[] bytes = buffer.array();
+
+    long pos = start;
+    while (pos < end) {
+
+      buffer.clear();
+      buffer.limit((int) Math.min(BUFFER_SIZE, end - pos));
+
+      final int n = channel.read(buffer, pos);
+      if (n == -1) {
+        break;
+      }
+      pos += n;
+
+      if (validBases == null) {
+        digest.update(bytes, 0, n);
+        continue;
+      }
+
+      for (int i = 0; i < n; i++) {
+        final int b = bytes[i] & 0xff;
+        if (b > ' ' && !validBases[b]) {
+          throw new BadBioEntryException(
+              "Invalid base in genome: " + (char) b, sequenceName);
+        }
+      }
+
+      final int count =
+          FastaIndexBuilder.toUpperCaseBases(bytes, 0, n, upperCaseBuffer);
+      digest.update(upperCaseBuffer, 0, count);
+    }
+
+    return digest;
+  }
+
+  //
+  // Utility methods
+  //
+
+  /**
+   * Create the result object.
+   * @param filename name of the genome file
+   * @param builder the index builder
+   * @param index the index
+   * @param genomeMD5Sum MD5 sum of the genome
+   * @param fileMD5Sum MD5 sum of the file
+   * @param sequenceMD5Sums MD5 sums of the sequences
+   * @return a new Result object
+   */
+  private static Result createResult(final String filename,
+      final FastaIndexBuilder builder, final FastaIndex index,
+      final String genomeMD5Sum, final String fileMD5Sum,
+      final Map<String, String> sequenceMD5Sums) {
+
+    final GenomeDescription desc = GenomeDescription
+        .createGenomeDescFromIndex(index, filename, genomeMD5Sum);
+
+    for (Map.Entry<String, String> e : sequenceMD5Sums.entrySet()) {
+      desc.setSequenceMD5Sum(e.getKey(), e.getValue());
+    }
+
+    return new Result(desc, fileMD5Sum, builder.isIndexable() ? index : null);
+  }
+
+  /**
+   * Get the result of a future.
+   * @param future the future
+   * @return the result of the future
+   * @throws IOException if the computation has thrown an IOException
+   * @throws BadBioEntryException if the computation has thrown a
+   *           BadBioEntryException
+   */
+  private static String getFutureResult(final Future<String> future)
+      throws IOException, BadBioEntryException {
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+
+      final Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof BadBioEntryException) {
+        throw (BadBioEntryException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Create a new MD5 digest.
+   * @return a new MD5 digest
+   * @throws IOException if the MD5 algorithm is not available
+   */
+  private static MessageDigest newMD5Digest() throws IOException {
+
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("No MD5 digest algorithm found: " + e.getMessage());
+    }
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor. The number of threads is the number of local threads
+   * defined in the settings.
+   */
+  public GenomeDescriptionComputer() {
+
+    this(getDefaultThreadsNumber());
+  }
+
+  /**
+   * Public constructor.
+   * @param threads number of threads to use
+   */
+  public GenomeDescriptionComputer(final int threads) {
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    this.threads = threads;
+  }
+
+  /**
+   * Get the default number of threads.
+   * @return the default number of threads
+   */
+  private static int getDefaultThreadsNumber() {
+
+    final int processors = Runtime.getRuntime().availableProcessors();
+
+    if (!EoulsanRuntime.isRuntime()) {
+      return processors;
+    }
+
+    final int threads = EoulsanRuntime.getSettings().getLocalThreadsNumber();
+
+    return threads > 0 ? threads : processors;
+  }
+
+}
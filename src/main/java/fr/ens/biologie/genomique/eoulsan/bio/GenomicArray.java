@@ -24,8 +24,10 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -48,6 +50,25 @@ public class GenomicArray<T> implements Serializable {
 
   private final Map<String, ChromosomeZones<T>> chromosomes = new HashMap<>();
 
+  /**
+   * This interface define a handler that receive the zones of a genomic array.
+   * @since 2.5
+   */
+  public interface ZoneHandler<T> {
+
+    /**
+     * Handle a zone.
+     * @param chromosomeName name of the chromosome of the zone
+     * @param start start position of the zone
+     * @param end end position of the zone
+     * @param strand strand of the zone
+     * @param values values of the zone, null if the zone is empty
+     * @throws IOException if an error occurs while handling the zone
+     */
+    void handle(String chromosomeName, int start, int end, char strand,
+        Set<T> values) throws IOException;
+  }
+
   /**
    * This class define a zone in a ChromosomeZone object.
    * @author Laurent Jourdren
@@ -280,6 +301,26 @@ public class GenomicArray<T> implements Serializable {
       this.zones.add(index, zone);
     }
 
+    /**
+     * Append a zone after the last zone.
+     * @param start start of the zone
+     * @param end end of the zone
+     * @param strand strand of the zone
+     * @param values values of the zone
+     */
+    private void appendZone(final int start, final int end, final char strand,
+        final Set<T> values) {
+
+      if (start != this.length + 1 || end < start) {
+        throw new IllegalArgumentException("Invalid zone position: ["
+            + start + ", " + end + "], the zone must start at "
+            + (this.length + 1));
+      }
+
+      add(new Zone<>(start, end, strand, values));
+      this.length = end;
+    }
+
     /**
      * Find the zone index for a position.
      * @param pos the position on the chromosome
@@ -806,6 +847,62 @@ public class GenomicArray<T> implements Serializable {
     return results;
   }
 
+  /**
+   * Append a zone at the end of the zones of a chromosome. This method allow
+   * to quickly rebuild a genomic array from the zones provided by the
+   * handleZones() method of another genomic array.
+   * @param chromosomeName name of the chromosome
+   * @param start start position of the zone, must follow the end of the last
+   *          zone of the chromosome on the same strand
+   * @param end end position of the zone
+   * @param strand strand of the zone
+   * @param values values of the zone, can be null
+   */
+  public void appendZone(final String chromosomeName, final int start,
+      final int end, final char strand, final Set<T> values) {
+
+    if (chromosomeName == null) {
+      throw new NullPointerException("chromosomeName argument cannot be null");
+    }
+
+    addChromosome(chromosomeName);
+
+    final ChromosomeZones<T> chr = this.chromosomes.get(chromosomeName);
+
+    if (strand == '-') {
+      chr.minus.appendZone(start, end, strand, values);
+    } else {
+      chr.plus.appendZone(start, end, strand, values);
+    }
+  }
+
+  /**
+   * Send all the zones of the genomic array to a handler. The zones of each
+   * chromosome and strand are sent in position order.
+   * @param handler the handler
+   * @throws IOException if the handler throws an exception
+   */
+  public void handleZones(final ZoneHandler<T> handler) throws IOException {
+
+    if (handler == null) {
+      throw new NullPointerException("handler argument cannot be null");
+    }
+
+    for (Map.Entry<String, ChromosomeZones<T>> e : this.chromosomes
+        .entrySet()) {
+
+      final String chromosomeName = e.getKey();
+
+      for (ChromosomeStrandedZones<T> strandedZones : Arrays
+          .asList(e.getValue().plus, e.getValue().minus)) {
+        for (Zone<T> zone : strandedZones.zones) {
+          handler.handle(chromosomeName, zone.start, zone.end, zone.strand,
+              zone.getValues());
+        }
+      }
+    }
+  }
+
   /**
    * Get the names of the chromosomes that contains the GenomicArray.
    * @return a set with the name of the chromosomes
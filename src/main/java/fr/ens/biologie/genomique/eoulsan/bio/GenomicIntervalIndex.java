@@ -0,0 +1,676 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class define an immutable and compact version of a genomic array. The
+ * zones of each chromosome strand are stored in sorted arrays of primitive
+ * integers, the features are identified by integer ordinals and the features
+ * of the zones are stored as offsets in a shared array of ordinals. Queries
+ * are performed with a reusable cursor that does not allocate any object.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public final class GenomicIntervalIndex implements Serializable {
+
+  private static final long serialVersionUID = -2735021476920856617L;
+
+  private final String[] featureIds;
+  private final Map<String, ChromosomeIndex> chromosomes;
+  private final String[] chromosomeNames;
+  private final ChromosomeIndex[] chromosomeIndexes;
+  private final int[] valuePool;
+
+  /**
+   * This class define the zones of a strand of a chromosome.
+   */
+  private static final class StrandIndex implements Serializable {
+
+    private static final long serialVersionUID = 6328941733052215683L;
+
+    private static final StrandIndex EMPTY =
+        new StrandIndex(new int[0], new int[0], new byte[0], new int[] {0});
+
+    private final int[] starts;
+    private final int[] ends;
+    private final byte[] strands;
+    private final int[] valueOffsets;
+
+    /**
+     * Get the number of zones.
+     * @return the number of zones
+     */
+    private int size() {
+
+      return this.starts.length;
+    }
+
+    /**
+     * Get the length of the strand.
+     * @return the end position of the last zone or 0 if there is no zone
+     */
+    private int length() {
+
+      final int n = this.ends.length;
+
+      return n == 0 ? 0 : this.ends[n - 1];
+    }
+
+    /**
+     * Find the zone index for a position.
+     * @param pos the position on the chromosome
+     * @return the index of the zone or -1 if the position if lower than 1 or
+     *         greater than the length of the strand
+     */
+    private int findIndexPos(final int pos) {
+
+      if (pos < 1 || pos > length()) {
+        return -1;
+      }
+
+      // The zones are contiguous, search the first zone that ends after pos
+      int low = 0;
+      int high = this.ends.length - 1;
+
+      while (low < high) {
+
+        final int mid = (low + high) >>> 1;
+
+        if (this.ends[mid] < pos) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+
+      return low;
+    }
+
+    //
+    // Constructor
+    //
+
+    private StrandIndex(final int[] starts, final int[] ends,
+        final byte[] strands, final int[] valueOffsets) {
+
+      this.starts = starts;
+      this.ends = ends;
+      this.strands = strands;
+      this.valueOffsets = valueOffsets;
+    }
+  }
+
+  /**
+   * This class define the zones of the two strands of a chromosome.
+   */
+  private static final class ChromosomeIndex implements Serializable {
+
+    private static final long serialVersionUID = -4402856262095338721L;
+
+    private StrandIndex plus = StrandIndex.EMPTY;
+    private StrandIndex minus = StrandIndex.EMPTY;
+  }
+
+  /**
+   * This class define a reusable cursor on the zones that overlap a query
+   * interval. The results are the same than the ones of the
+   * GenomicArray.getEntries() method, including the empty interval that is
+   * returned when the query interval ends after the last zone of a strand. A
+   * cursor is not thread-safe, each thread must use its own cursor.
+   */
+  public final class Cursor {
+
+    private int queryStart;
+    private int queryEnd;
+
+    // Current strand: 0 for plus, 1 for minus, 2 when all strands has been
+    // processed
+    private int strandIndex;
+    private StrandIndex plus;
+    private StrandIndex minus;
+
+    private StrandIndex current;
+    private int index;
+    private int to;
+    private boolean extraPending;
+
+    private int zoneStart;
+    private int zoneEnd;
+    private char zoneStrand;
+    private int valueFrom;
+    private int valueTo;
+
+    /**
+     * Get the index of the cursor.
+     * @return the genomic interval index
+     */
+    public GenomicIntervalIndex getIndex() {
+
+      return GenomicIntervalIndex.this;
+    }
+
+    /**
+     * Start a new query.
+     * @param chromosome chromosome of the interval
+     * @param start start of the interval
+     * @param end end of the interval
+     * @return false if the chromosome is unknown
+     */
+    public boolean query(final String chromosome, final int start,
+        final int end) {
+
+      if (chromosome == null) {
+        throw new NullPointerException("chromosome argument cannot be null");
+      }
+
+      return query(GenomicIntervalIndex.this.chromosomes.get(chromosome),
+          start, end);
+    }
+
+    /**
+     * Start a new query using the ordinal of the chromosome.
+     * @param chromosomeOrdinal ordinal of the chromosome of the interval
+     * @param start start of the interval
+     * @param end end of the interval
+     * @return false if the chromosome is unknown
+     */
+    public boolean query(final int chromosomeOrdinal, final int start,
+        final int end) {
+
+      final ChromosomeIndex[] indexes =
+          GenomicIntervalIndex.this.chromosomeIndexes;
+
+      return query(
+          chromosomeOrdinal >= 0 && chromosomeOrdinal < indexes.length
+              ? indexes[chromosomeOrdinal] : null,
+          start, end);
+    }
+
+    private boolean query(final ChromosomeIndex chr, final int start,
+        final int end) {
+
+      if (chr == null) {
+        this.strandIndex = 2;
+        return false;
+      }
+
+      this.queryStart = start;
+      this.queryEnd = end;
+      this.plus = chr.plus;
+      this.minus = chr.minus;
+      this.strandIndex = -1;
+      this.current = null;
+
+      return true;
+    }
+
+    /**
+     * Move to the next zone that overlap the query interval.
+     * @return false if there is no more zone
+     */
+    public boolean next() {
+
+      while (this.strandIndex < 2) {
+
+        if (this.current != null) {
+
+          final StrandIndex s = this.current;
+
+          while (this.index <= this.to) {
+
+            final int i = this.index++;
+
+            if (intersect(this.queryStart, this.queryEnd, s.starts[i],
+                s.ends[i])) {
+
+              setZone(s.starts[i], s.ends[i], (char) s.strands[i],
+                  s.valueOffsets[i], s.valueOffsets[i + 1]);
+              return true;
+            }
+          }
+
+          // Empty interval after the end of the last zone
+          if (this.extraPending) {
+
+            this.extraPending = false;
+
+            final int last = this.to;
+            final int start = this.queryStart > s.starts[last]
+                ? this.queryStart : s.ends[last] + 1;
+            setZone(start, this.queryEnd, (char) s.strands[last], 0, 0);
+            return true;
+          }
+
+          this.current = null;
+        }
+
+        // Next strand
+        this.strandIndex++;
+        if (this.strandIndex < 2) {
+          startStrand(this.strandIndex == 0 ? this.plus : this.minus);
+        }
+      }
+
+      return false;
+    }
+
+    /**
+     * Start the processing of a strand.
+     * @param s the strand
+     */
+    private void startStrand(final StrandIndex s) {
+
+      final int indexStart = s.findIndexPos(this.queryStart);
+
+      if (indexStart == -1) {
+        this.current = null;
+        return;
+      }
+
+      final int indexEnd = s.findIndexPos(this.queryEnd);
+
+      this.current = s;
+      this.index = indexStart;
+      this.to = indexEnd == -1 ? s.size() - 1 : indexEnd;
+      this.extraPending = this.queryEnd > s.ends[this.to];
+    }
+
+    private void setZone(final int start, final int end, final char strand,
+        final int valueFrom, final int valueTo) {
+
+      this.zoneStart = start;
+      this.zoneEnd = end;
+      this.zoneStrand = strand;
+      this.valueFrom = valueFrom;
+      this.valueTo = valueTo;
+    }
+
+    /**
+     * Get the start position of the current zone.
+     * @return the start position of the current zone
+     */
+    public int getStart() {
+
+      return this.zoneStart;
+    }
+
+    /**
+     * Get the end position of the current zone.
+     * @return the end position of the current zone
+     */
+    public int getEnd() {
+
+      return this.zoneEnd;
+    }
+
+    /**
+     * Get the strand of the current zone.
+     * @return the strand of the current zone
+     */
+    public char getStrand() {
+
+      return this.zoneStrand;
+    }
+
+    /**
+     * Get the number of features of the current zone.
+     * @return the number of features of the current zone
+     */
+    public int getFeatureCount() {
+
+      return this.valueTo - this.valueFrom;
+    }
+
+    /**
+     * Get the ordinal of a feature of the current zone.
+     * @param i index of the feature in the zone
+     * @return the ordinal of the feature
+     */
+    public int getFeatureOrdinal(final int i) {
+
+      if (i < 0 || i >= getFeatureCount()) {
+        throw new IndexOutOfBoundsException(
+            "Invalid feature index: " + i);
+      }
+
+      return GenomicIntervalIndex.this.valuePool[this.valueFrom + i];
+    }
+
+    //
+    // Constructor
+    //
+
+    private Cursor() {
+
+      this.strandIndex = 2;
+    }
+  }
+
+  /**
+   * This class allow to build a genomic interval index from the zones of a
+   * genomic array.
+   */
+  private static final class Builder
+      implements GenomicArray.ZoneHandler<String> {
+
+    private final Map<String, Integer> ordinals;
+    private final Map<String, ChromosomeIndex> chromosomes = new HashMap<>();
+
+    private String currentChromosome;
+    private boolean currentMinus;
+
+    private int[] starts = new int[1024];
+    private int[] ends = new int[1024];
+    private byte[] strands = new byte[1024];
+    private int[] valueOffsets = new int[1025];
+    private int zoneCount;
+
+    private int[] pool = new int[1024];
+    private int poolSize;
+
+    @Override
+    public void handle(final String chromosomeName, final int start,
+        final int end, final char strand, final Set<String> values) {
+
+      final boolean minus = strand == '-';
+
+      if (!chromosomeName.equals(this.currentChromosome)
+          || minus != this.currentMinus) {
+        flush();
+        this.currentChromosome = chromosomeName;
+        this.currentMinus = minus;
+      }
+
+      // Grow the arrays if needed
+      if (this.zoneCount == this.starts.length) {
+        final int newSize = this.starts.length * 2;
+        this.starts = Arrays.copyOf(this.starts, newSize);
+        this.ends = Arrays.copyOf(this.ends, newSize);
+        this.strands = Arrays.copyOf(this.strands, newSize);
+        this.valueOffsets = Arrays.copyOf(this.valueOffsets, newSize + 1);
+      }
+
+      final int n = this.zoneCount++;
+      this.starts[n] = start;
+      this.ends[n] = end;
+      this.strands[n] = (byte) strand;
+
+      final int from = this.poolSize;
+
+      if (values != null) {
+
+        for (String value : values) {
+
+          if (this.poolSize == this.pool.length) {
+            this.pool = Arrays.copyOf(this.pool, this.pool.length * 2);
+          }
+          this.pool[this.poolSize++] = this.ordinals.get(value);
+        }
+
+        // Sort the ordinals of the zone to get reproducible results
+        Arrays.sort(this.pool, from, this.poolSize);
+      }
+
+      this.valueOffsets[n] = from;
+      this.valueOffsets[n + 1] = this.poolSize;
+    }
+
+    /**
+     * Save the zones of the current chromosome strand.
+     */
+    private void flush() {
+
+      if (this.currentChromosome == null || this.zoneCount == 0) {
+        return;
+      }
+
+      final int n = this.zoneCount;
+      final StrandIndex s = new StrandIndex(Arrays.copyOf(this.starts, n),
+          Arrays.copyOf(this.ends, n), Arrays.copyOf(this.strands, n),
+          Arrays.copyOf(this.valueOffsets, n + 1));
+
+      ChromosomeIndex chr = this.chromosomes.get(this.currentChromosome);
+      if (chr == null) {
+        chr = new ChromosomeIndex();
+        this.chromosomes.put(this.currentChromosome, chr);
+      }
+
+      if (this.currentMinus) {
+        chr.minus = s;
+      } else {
+        chr.plus = s;
+      }
+
+      this.zoneCount = 0;
+    }
+
+    private Builder(final Map<String, Integer> ordinals) {
+
+      this.ordinals = ordinals;
+    }
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Create a new cursor on the index.
+   * @return a new cursor
+   */
+  public Cursor newCursor() {
+
+    return new Cursor();
+  }
+
+  /**
+   * Get the number of features of the index.
+   * @return the number of features of the index
+   */
+  public int getFeatureCount() {
+
+    return this.featureIds.length;
+  }
+
+  /**
+   * Get the identifier of a feature.
+   * @param ordinal the ordinal of the feature
+   * @return the identifier of the feature
+   */
+  public String getFeatureId(final int ordinal) {
+
+    return this.featureIds[ordinal];
+  }
+
+  /**
+   * Get the identifiers of the features of the index. The ordinal of a feature
+   * is the index of its identifier in this set.
+   * @return a set with the identifiers of the features
+   */
+  public Set<String> getFeaturesIds() {
+
+    return Collections
+        .unmodifiableSet(new LinkedHashSet<>(Arrays.asList(this.featureIds)));
+  }
+
+  /**
+   * Test if the index contains a chromosome.
+   * @param chromosomeName name of the chromosome to test
+   * @return true if the index contains the chromosome
+   */
+  public boolean containsChromosome(final String chromosomeName) {
+
+    if (chromosomeName == null) {
+      return false;
+    }
+
+    return this.chromosomes.containsKey(chromosomeName);
+  }
+
+  /**
+   * Get the ordinal of a chromosome. The ordinals of the chromosomes follow
+   * the order of their names.
+   * @param chromosomeName name of the chromosome
+   * @return the ordinal of the chromosome or -1 if the chromosome is unknown
+   */
+  public int getChromosomeOrdinal(final String chromosomeName) {
+
+    if (chromosomeName == null) {
+      return -1;
+    }
+
+    final int result =
+        Arrays.binarySearch(this.chromosomeNames, chromosomeName);
+
+    return result < 0 ? -1 : result;
+  }
+
+  /**
+   * Get the name of a chromosome.
+   * @param ordinal the ordinal of the chromosome
+   * @return the name of the chromosome
+   */
+  public String getChromosomeName(final int ordinal) {
+
+    return this.chromosomeNames[ordinal];
+  }
+
+  /**
+   * Get the names of the chromosomes of the index.
+   * @return a set with the name of the chromosomes
+   */
+  public Set<String> getChromosomesNames() {
+
+    return Collections.unmodifiableSet(this.chromosomes.keySet());
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Test if an interval intersect a zone.
+   * @param start start of the interval
+   * @param end end of the interval
+   * @param startZone start of the zone
+   * @param endZone end of the zone
+   * @return true if the interval intersect a zone
+   */
+  private static boolean intersect(final int start, final int end,
+      final int startZone, final int endZone) {
+
+    return (start >= startZone && start <= endZone)
+        || (end >= startZone && end <= endZone)
+        || (start < startZone && end > endZone);
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Create a genomic interval index from a genomic array.
+   * @param array the genomic array
+   * @return a new GenomicIntervalIndex object
+   */
+  public static GenomicIntervalIndex create(final GenomicArray<String> array) {
+
+    if (array == null) {
+      throw new NullPointerException("array argument cannot be null");
+    }
+
+    // The ordinals of the features follow the order of their identifiers
+    final String[] featureIds =
+        array.getFeaturesIds().toArray(new String[0]);
+    final Map<String, Integer> ordinals = new HashMap<>();
+    for (int i = 0; i < featureIds.length; i++) {
+      ordinals.put(featureIds[i], i);
+    }
+
+    final Builder builder = new Builder(ordinals);
+    try {
+      array.handleZones(builder);
+    } catch (IOException e) {
+      // The builder never throws IOException
+      throw new UncheckedIOException(e);
+    }
+    builder.flush();
+
+    // Add the chromosomes without zones
+    for (String chromosomeName : array.getChromosomesNames()) {
+      if (!builder.chromosomes.containsKey(chromosomeName)) {
+        builder.chromosomes.put(chromosomeName, new ChromosomeIndex());
+      }
+    }
+
+    return new GenomicIntervalIndex(featureIds, builder.chromosomes,
+        Arrays.copyOf(builder.pool, builder.poolSize));
+  }
+
+  @Override
+  public String toString() {
+
+    return this.getClass().getSimpleName()
+        + "{chromosomes=" + this.chromosomes.size() + ", features="
+        + this.featureIds.length + ", values=" + this.valuePool.length + "}";
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   * @param featureIds identifiers of the features
+   * @param chromosomes chromosome indexes
+   * @param valuePool ordinals of the features of the zones
+   */
+  private GenomicIntervalIndex(final String[] featureIds,
+      final Map<String, ChromosomeIndex> chromosomes, final int[] valuePool) {
+
+    this.featureIds = featureIds;
+    this.chromosomes = chromosomes;
+    this.valuePool = valuePool;
+
+    // The ordinals of the chromosomes follow the order of their names
+    this.chromosomeNames = chromosomes.keySet().toArray(new String[0]);
+    Arrays.sort(this.chromosomeNames);
+    this.chromosomeIndexes = new ChromosomeIndex[this.chromosomeNames.length];
+    for (int i = 0; i < this.chromosomeNames.length; i++) {
+      this.chromosomeIndexes[i] = chromosomes.get(this.chromosomeNames[i]);
+    }
+  }
+
+}
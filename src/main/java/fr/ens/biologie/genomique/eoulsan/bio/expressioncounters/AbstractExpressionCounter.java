@@ -24,9 +24,12 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
 
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
 import static java.util.Objects.requireNonNull;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -34,12 +37,18 @@ import java.util.Iterator;
 import java.util.Map;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.io.BAMReader;
 import fr.ens.biologie.genomique.eoulsan.bio.io.GFFReader;
 import fr.ens.biologie.genomique.eoulsan.bio.io.GTFReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.IndexedBAMFile;
 import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.storages.AnnotationIndexStorage;
+import fr.ens.biologie.genomique.eoulsan.data.storages.SimpleAnnotationIndexStorage;
 import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
@@ -58,6 +67,11 @@ public abstract class AbstractExpressionCounter implements ExpressionCounter {
   private static final String MAX_RECORDS_IN_RAM_KEY = "max.entries.in.ram";
 
   private int maxRecordsInRam = DEFAULT_MAX_RECORDS_IN_RAM;
+  private transient String sharedAnnotationKey;
+
+  // The annotation index storage is shared by all the counters
+  private static AnnotationIndexStorage annotationIndexStorage;
+  private static String annotationIndexStoragePath;
 
   /**
    * This class allow to save the modified SAM entries after the counting.
@@ -119,6 +133,124 @@ public abstract class AbstractExpressionCounter implements ExpressionCounter {
     }
   }
 
+  //
+  // Compiled annotation index methods
+  //
+
+  /**
+   * Get the parameters of the counter that are used to compile the annotation
+   * index. These parameters and the annotation file identify the compiled
+   * index in the annotation index storage. The default implementation returns
+   * null as the counter does not support compiled annotation indexes.
+   * @param gtfFormat true if the annotation is in GTF format
+   * @return a map with the parameters or null if the counter does not support
+   *         compiled annotation indexes
+   */
+  protected Map<String, String> getAnnotationIndexParameters(
+      final boolean gtfFormat) {
+
+    return null;
+  }
+
+  /**
+   * Initialize the counter from a compiled annotation index. This method is
+   * only called if getAnnotationIndexParameters() returns a non null value, so
+   * counters that support compiled annotation indexes must override both
+   * methods.
+   * @param genomeDesc genome description
+   * @param indexFile compiled annotation index file
+   * @throws EoulsanException if an error occurs while initialize the counter
+   * @throws IOException if an error occurs while reading the index
+   */
+  protected void loadAnnotationIndex(final GenomeDescription genomeDesc,
+      final DataFile indexFile) throws EoulsanException, IOException {
+
+    throw new UnsupportedOperationException(
+        getName() + " counter does not support compiled annotation indexes");
+  }
+
+  /**
+   * Write the compiled annotation index of an initialized counter. This method
+   * is only called if getAnnotationIndexParameters() returns a non null value.
+   * @param out output stream
+   * @throws IOException if an error occurs while writing the index
+   */
+  protected void saveAnnotationIndex(final OutputStream out)
+      throws IOException {
+
+    throw new UnsupportedOperationException(
+        getName() + " counter does not support compiled annotation indexes");
+  }
+
+  //
+  // Shared annotation methods
+  //
+
+  /**
+   * Test if the counter supports shared annotations. Counters that return true
+   * must override both getSharedAnnotation() and setSharedAnnotation().
+   * @return true if the counter supports shared annotations
+   */
+  protected boolean isSharedAnnotationSupported() {
+
+    return false;
+  }
+
+  /**
+   * Get the annotation of an initialized counter to share it with other
+   * counters. The shared annotation is used concurrently by several counters
+   * and must not be modified. This method is only called if
+   * isSharedAnnotationSupported() returns true.
+   * @return the annotation of the counter
+   */
+  protected Object getSharedAnnotation() {
+
+    throw new UnsupportedOperationException(
+        getName() + " counter does not support shared annotations");
+  }
+
+  /**
+   * Initialize the counter from a shared annotation. If the counter is already
+   * initialized with this annotation, this method does nothing. This method is
+   * only called if isSharedAnnotationSupported() returns true.
+   * @param annotation an annotation returned by the getSharedAnnotation()
+   *          method of a counter of the same class with the same parameters
+   */
+  protected void setSharedAnnotation(final Object annotation) {
+
+    throw new UnsupportedOperationException(
+        getName() + " counter does not support shared annotations");
+  }
+
+  /**
+   * Get the annotation index storage if defined in the settings. The storage
+   * is created once and then reused while its path remains unchanged.
+   * @return an AnnotationIndexStorage object or null if no annotation index
+   *         storage has been defined
+   */
+  private static synchronized AnnotationIndexStorage
+      getAnnotationIndexStorage() {
+
+    if (!EoulsanRuntime.isRuntime()) {
+      return null;
+    }
+
+    final String path =
+        EoulsanRuntime.getSettings().getAnnotationIndexStoragePath();
+
+    if (path == null) {
+      return null;
+    }
+
+    if (!path.equals(annotationIndexStoragePath)) {
+      annotationIndexStorage =
+          SimpleAnnotationIndexStorage.getInstance(new DataFile(path));
+      annotationIndexStoragePath = path;
+    }
+
+    return annotationIndexStorage;
+  }
+
   /**
    * Set a common parameter of the counter.
    * @param key name of the parameter to set
@@ -148,7 +280,100 @@ public abstract class AbstractExpressionCounter implements ExpressionCounter {
       final DataFile annotationFile, final boolean gtfFormat)
       throws EoulsanException, IOException {
 
+    final AnnotationIndexStorage storage = getAnnotationIndexStorage();
+    final Map<String, String> parameters =
+        storage == null ? null : getAnnotationIndexParameters(gtfFormat);
+
+    // Load the compiled annotation index if it exists in the storage
+    if (parameters != null) {
+
+      final DataFile indexFile = storage.get(annotationFile, parameters);
+
+      if (indexFile != null) {
+        try {
+          loadAnnotationIndex(genomeDesc, indexFile);
+          getLogger().info("Use compiled annotation index: " + indexFile);
+          return;
+        } catch (IOException e) {
+          getLogger().warning("Unable to load compiled annotation index "
+              + indexFile + ": " + e.getMessage());
+        }
+      }
+    }
+
     init(genomeDesc, annotationFile.open(), gtfFormat);
+
+    // Save the compiled annotation index in the storage
+    if (parameters != null) {
+
+      final File indexFile =
+          EoulsanRuntime.getRuntime().createTempFile("annotation-", ".annidx");
+
+      try {
+        try (OutputStream out = new FileOutputStream(indexFile)) {
+          saveAnnotationIndex(out);
+        }
+        storage.put(annotationFile, parameters, new DataFile(indexFile));
+      } finally {
+        if (!indexFile.delete()) {
+          getLogger().warning(
+              "Unable to delete temporary annotation index: " + indexFile);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void initShared(final DataFile genomeDescFile,
+      final DataFile annotationFile, final boolean gtfFormat)
+      throws EoulsanException, IOException {
+
+    requireNonNull(genomeDescFile, "the genomeDescFile argument is null");
+    requireNonNull(annotationFile, "the annotationFile argument is null");
+
+    if (this.sharedAnnotationKey != null) {
+      throw new IllegalStateException(
+          "the counter has been already initialized");
+    }
+
+    // The parameters of the compiled annotation index identify the annotation
+    final Map<String, String> parameters = isSharedAnnotationSupported()
+        ? getAnnotationIndexParameters(gtfFormat) : null;
+
+    // The counter does not support shared annotations
+    if (parameters == null) {
+      init(genomeDescFile, annotationFile, gtfFormat);
+      return;
+    }
+
+    final String key = getName()
+        + '\t' + genomeDescFile.getSource() + '\t' + annotationFile.getSource()
+        + '\t' + parameters;
+
+    final SharedAnnotationCache cache = SharedAnnotationCache.getInstance();
+    final Object annotation = cache.acquire(key, () -> {
+
+      init(genomeDescFile, annotationFile, gtfFormat);
+      return getSharedAnnotation();
+    });
+
+    try {
+      setSharedAnnotation(annotation);
+    } catch (RuntimeException e) {
+      cache.release(key);
+      throw e;
+    }
+
+    this.sharedAnnotationKey = key;
+  }
+
+  @Override
+  public void releaseSharedAnnotation() {
+
+    if (this.sharedAnnotationKey != null) {
+      SharedAnnotationCache.getInstance().release(this.sharedAnnotationKey);
+      this.sharedAnnotationKey = null;
+    }
   }
 
   @Override
@@ -167,7 +392,8 @@ public abstract class AbstractExpressionCounter implements ExpressionCounter {
   public void init(final DataFile genomeDescFile, final DataFile annotationFile,
       final boolean gtfFormat) throws EoulsanException, IOException {
 
-    init(genomeDescFile.open(), annotationFile.open(), gtfFormat);
+    init(GenomeDescription.load(genomeDescFile.open()), annotationFile,
+        gtfFormat);
   }
 
   @Override
@@ -193,6 +419,219 @@ public abstract class AbstractExpressionCounter implements ExpressionCounter {
     return count(samFile.open(), reporter, counterGroup);
   }
 
+  @Override
+  public Map<String, Integer> count(final DataFile samFile,
+      final ReporterIncrementer reporter, final String counterGroup,
+      final int threads) throws EoulsanException, IOException {
+
+    if (samFile == null) {
+      throw new NullPointerException("the samFile argument is null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    if (threads == 1) {
+      return count(samFile, reporter, counterGroup);
+    }
+
+    try (SamReader reader = SamReaderFactory.makeDefault()
+        .open(SamInputResource.of(samFile.open()))) {
+
+      return count(reader, reporter, counterGroup, threads);
+    }
+  }
+
+  @Override
+  public Map<String, Integer> count(final DataFile bamFile,
+      final DataFile indexFile, final ReporterIncrementer reporter,
+      final String counterGroup, final int threads)
+      throws EoulsanException, IOException {
+
+    if (bamFile == null) {
+      throw new NullPointerException("the bamFile argument is null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    // The regions of an indexed BAM file sorted by coordinate can be counted
+    // in parallel
+    if (indexFile != null
+        && threads > 1 && bamFile.isLocalFile() && indexFile.isLocalFile()) {
+
+      final IndexedBAMFile indexedFile =
+          new IndexedBAMFile(bamFile.toFile(), indexFile.toFile());
+
+      if (indexedFile.getFileHeader().getSortOrder() == SortOrder.coordinate) {
+        return count(indexedFile, reporter, counterGroup, threads);
+      }
+    }
+
+    try (BAMReader reader = new BAMReader(bamFile.open(), threads)) {
+
+      return count(reader, reporter, counterGroup, threads);
+    }
+  }
+
+  /**
+   * Count the the features of the regions of an indexed BAM file using
+   * several threads. The default implementation reads the whole BAM file.
+   * @param bamFile indexed BAM file
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @param threads number of threads to use
+   * @return a map with the counts
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading the BAM file
+   */
+  protected Map<String, Integer> count(final IndexedBAMFile bamFile,
+      final ReporterIncrementer reporter, final String counterGroup,
+      final int threads) throws EoulsanException, IOException {
+
+    try (BAMReader reader =
+        new BAMReader(new FileInputStream(bamFile.getBAMFile()), threads)) {
+
+      return count(reader, reporter, counterGroup, threads);
+    }
+  }
+
+  /**
+   * Count the the features using several threads. The default implementation
+   * use only one thread.
+   * @param samRecords SAM entries
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @param threads number of threads to use
+   * @return a map with the counts
+   * @throws EoulsanException if an error occurs while counting
+   */
+  protected Map<String, Integer> count(final Iterable<SAMRecord> samRecords,
+      final ReporterIncrementer reporter, final String counterGroup,
+      final int threads) throws EoulsanException {
+
+    return count(samRecords, reporter, counterGroup);
+  }
+
+  //
+  // Alignment pairing methods
+  //
+
+  /**
+   * Read the alignments, pair the mates of the paired-end alignments and send
+   * the single-end alignments and the pairs to a counting state. The mates of
+   * the alignments sorted by coordinate are paired using a buffer, otherwise
+   * the mates must be consecutive.
+   * @param samRecords the alignments
+   * @param state the counting state
+   * @param counters the counters of the input alignments and of the missing
+   *          mates
+   * @param maxReadsInBuffer the maximal number of alignments waiting for their
+   *          mate in memory
+   * @throws EoulsanException if an error occurs while counting
+   */
+  static void pairAndCount(final Iterable<SAMRecord> samRecords,
+      final AlignmentBatchDispatcher.CountingState state,
+      final AlignmentCounters counters, final int maxReadsInBuffer)
+      throws EoulsanException {
+
+    // Handler of the pairs of the alignments sorted by coordinate
+    final MatePairBuffer.PairHandler pairHandler = (first, second) -> {
+
+      if (first == null || second == null) {
+        counters.missingMate++;
+      } else {
+        state.count(first, second);
+      }
+    };
+
+    MatePairBuffer mateBuffer = null;
+
+    try {
+
+      SAMRecord sam1 = null, sam2 = null;
+
+      for (final SAMRecord samRecord : samRecords) {
+
+        counters.input++;
+
+        // single-end mode
+        if (!samRecord.getReadPairedFlag()) {
+          state.count(samRecord, null);
+          continue;
+        }
+
+        // paired-end mode, the mates of the alignments sorted by coordinate
+        // are paired using a buffer
+        if (samRecord.getHeader().getSortOrder() == SortOrder.coordinate) {
+
+          if (mateBuffer == null) {
+            mateBuffer = newMatePairBuffer(maxReadsInBuffer);
+          }
+          mateBuffer.add(samRecord, pairHandler);
+          continue;
+        }
+
+        if (sam1 != null && sam2 != null) {
+          sam1 = null;
+          sam2 = null;
+        }
+
+        if (samRecord.getFirstOfPairFlag()) {
+          sam1 = samRecord;
+        } else {
+          sam2 = samRecord;
+        }
+
+        if (sam1 == null || sam2 == null) {
+          continue;
+        }
+
+        if (!sam1.getReadName().equals(sam2.getReadName())) {
+          sam1 = sam2;
+          sam2 = null;
+          counters.missingMate++;
+          continue;
+        }
+
+        state.count(sam1, sam2);
+      }
+
+      // Pair the remaining mates
+      if (mateBuffer != null) {
+        mateBuffer.finish(pairHandler);
+      }
+
+    } catch (IOException e) {
+      throw new EoulsanException(
+          "Error while pairing the mates of the alignments: " + e.getMessage(),
+          e);
+    } finally {
+
+      if (mateBuffer != null) {
+        mateBuffer.close();
+      }
+    }
+  }
+
+  /**
+   * Create a buffer to pair the mates of alignments sorted by coordinate.
+   * @param maxReadsInBuffer the maximal number of alignments waiting for their
+   *          mate in memory
+   * @return a new MatePairBuffer object
+   */
+  static MatePairBuffer newMatePairBuffer(final int maxReadsInBuffer) {
+
+    final File temporaryDirectory = EoulsanRuntime.isRuntime()
+        ? EoulsanRuntime.getSettings().getTempDirectoryFile() : null;
+
+    return new MatePairBuffer(maxReadsInBuffer, temporaryDirectory);
+  }
+
   @Override
   public Map<String, Integer> count(final InputStream inputSam,
       final ReporterIncrementer reporter, final String counterGroup)
@@ -0,0 +1,248 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * This class dispatch the alignments to count in batches to counting threads.
+ * Each counting thread takes a counting state from a queue, counts a whole
+ * batch with this state and put back the state in the queue. The number of
+ * batches waiting to be counted is bounded to limit the memory used.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class AlignmentBatchDispatcher {
+
+  private static final int BATCH_SIZE = 4096;
+
+  private final ExecutorService executor;
+  private final BlockingQueue<CountingState> states;
+  private final Queue<Future<Void>> pendingBatches = new ArrayDeque<>();
+  private final int maxPendingBatches;
+  private Batch batch = new Batch();
+
+  /**
+   * This interface define the state of a counting thread.
+   */
+  interface CountingState {
+
+    /**
+     * Count a single-end alignment or the two alignments of a pair.
+     * @param sam1 the first alignment
+     * @param sam2 the second alignment, null in single-end mode
+     * @throws EoulsanException if an error occurs while counting
+     */
+    void count(SAMRecord sam1, SAMRecord sam2) throws EoulsanException;
+  }
+
+  /**
+   * This class define a batch of alignments to count. An entry of the batch
+   * is a single-end alignment or the two alignments of a pair.
+   */
+  private static final class Batch {
+
+    private final SAMRecord[] first = new SAMRecord[BATCH_SIZE];
+    private final SAMRecord[] second = new SAMRecord[BATCH_SIZE];
+    private int size;
+
+    private void add(final SAMRecord sam1, final SAMRecord sam2) {
+
+      this.first[this.size] = sam1;
+      this.second[this.size] = sam2;
+      this.size++;
+    }
+
+    private boolean isFull() {
+
+      return this.size == BATCH_SIZE;
+    }
+
+    /**
+     * Count the alignments of the batch.
+     * @param state the counting state to use
+     * @throws EoulsanException if an error occurs while counting
+     */
+    private void count(final CountingState state) throws EoulsanException {
+
+      for (int i = 0; i < this.size; i++) {
+        state.count(this.first[i], this.second[i]);
+      }
+    }
+  }
+
+  //
+  // Dispatch methods
+  //
+
+  /**
+   * Add an entry to count.
+   * @param sam1 the first alignment
+   * @param sam2 the second alignment, null in single-end mode
+   * @throws EoulsanException if an error has occurred while counting a
+   *           previous batch
+   */
+  void add(final SAMRecord sam1, final SAMRecord sam2)
+      throws EoulsanException {
+
+    this.batch.add(sam1, sam2);
+
+    if (this.batch.isFull()) {
+      submitBatch();
+
+      // Limit the number of batches in memory
+      while (this.pendingBatches.size() > this.maxPendingBatches) {
+        waitBatch(this.pendingBatches.remove());
+      }
+    }
+  }
+
+  /**
+   * Submit the last batch and wait the end of the counting.
+   * @throws EoulsanException if an error has occurred while counting
+   */
+  void finish() throws EoulsanException {
+
+    if (this.batch.size > 0) {
+      submitBatch();
+    }
+
+    while (!this.pendingBatches.isEmpty()) {
+      waitBatch(this.pendingBatches.remove());
+    }
+  }
+
+  /**
+   * Stop the counting threads.
+   */
+  void close() {
+
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Submit the current batch to the counting threads.
+   */
+  private void submitBatch() {
+
+    final Batch b = this.batch;
+
+    this.pendingBatches.add(this.executor.submit(() -> {
+
+      final CountingState state = this.states.take();
+      try {
+        b.count(state);
+      } finally {
+        this.states.put(state);
+      }
+
+      return null;
+    }));
+
+    this.batch = new Batch();
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Create a pool of daemon counting threads.
+   * @param threads number of threads
+   * @param threadName name of the threads
+   * @return a new ExecutorService object
+   */
+  static ExecutorService newCountingThreadPool(final int threads,
+      final String threadName) {
+
+    return Executors.newFixedThreadPool(threads, r -> {
+      final Thread t = new Thread(r, threadName);
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Wait the end of the counting of a batch.
+   * @param future the future of the batch
+   * @throws EoulsanException if an error has occurred while counting the batch
+   */
+  static void waitBatch(final Future<Void> future) throws EoulsanException {
+
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EoulsanException(e);
+    } catch (ExecutionException e) {
+
+      if (e.getCause() instanceof EoulsanException) {
+        throw (EoulsanException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new EoulsanException(e.getCause());
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param states the queue of the states of the counting threads
+   * @param threads number of counting threads
+   * @param threadName name of the counting threads
+   */
+  AlignmentBatchDispatcher(final BlockingQueue<CountingState> states, final int threads,
+      final String threadName) {
+
+    if (states == null) {
+      throw new NullPointerException("states argument cannot be null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    this.states = states;
+    this.maxPendingBatches = threads * 2;
+    this.executor = newCountingThreadPool(threads, threadName);
+  }
+
+}
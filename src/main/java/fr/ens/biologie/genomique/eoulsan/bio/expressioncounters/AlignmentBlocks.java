@@ -0,0 +1,372 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.StrandUsage.REVERSE;
+
+import java.util.Arrays;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+
+/**
+ * This class define a reusable list of the aligned blocks of one or more
+ * alignments. The blocks are decoded from the CIGAR of the alignments and
+ * stored in arrays of primitive values, the chromosome of a block is stored as
+ * the ordinal of the chromosome in a genomic interval index. The ordinals are
+ * resolved from the reference index of the alignments using a mapping computed
+ * once for each SAM header. An object of this class is not thread-safe, each
+ * thread must use its own object.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public final class AlignmentBlocks {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private final GenomicIntervalIndex index;
+
+  private int[] chromosomes = new int[DEFAULT_CAPACITY];
+  private String[] chromosomeNames = new String[DEFAULT_CAPACITY];
+  private int[] starts = new int[DEFAULT_CAPACITY];
+  private int[] ends = new int[DEFAULT_CAPACITY];
+  private char[] strands = new char[DEFAULT_CAPACITY];
+  private int size;
+
+  // Mapping between the reference indexes of a SAM header and the chromosome
+  // ordinals of the index
+  private SAMFileHeader header;
+  private int[] referenceOrdinals = new int[0];
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the genomic interval index used to resolve the chromosomes.
+   * @return the genomic interval index
+   */
+  public GenomicIntervalIndex getIndex() {
+
+    return this.index;
+  }
+
+  /**
+   * Get the number of blocks.
+   * @return the number of blocks
+   */
+  public int size() {
+
+    return this.size;
+  }
+
+  /**
+   * Test if there is no block.
+   * @return true if there is no block
+   */
+  public boolean isEmpty() {
+
+    return this.size == 0;
+  }
+
+  /**
+   * Get the ordinal of the chromosome of a block.
+   * @param i index of the block
+   * @return the ordinal of the chromosome in the index or -1 if the
+   *         chromosome is unknown
+   */
+  public int getChromosomeOrdinal(final int i) {
+
+    checkIndex(i);
+    return this.chromosomes[i];
+  }
+
+  /**
+   * Get the name of the chromosome of a block.
+   * @param i index of the block
+   * @return the name of the chromosome
+   */
+  public String getChromosomeName(final int i) {
+
+    checkIndex(i);
+    return this.chromosomeNames[i];
+  }
+
+  /**
+   * Get the start position of a block.
+   * @param i index of the block
+   * @return the start position of the block
+   */
+  public int getStart(final int i) {
+
+    checkIndex(i);
+    return this.starts[i];
+  }
+
+  /**
+   * Get the end position of a block.
+   * @param i index of the block
+   * @return the end position of the block
+   */
+  public int getEnd(final int i) {
+
+    checkIndex(i);
+    return this.ends[i];
+  }
+
+  /**
+   * Get the strand of a block.
+   * @param i index of the block
+   * @return the strand of the block
+   */
+  public char getStrand(final int i) {
+
+    checkIndex(i);
+    return this.strands[i];
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Remove all the blocks.
+   */
+  public void clear() {
+
+    this.size = 0;
+  }
+
+  /**
+   * Add a block.
+   * @param chromosome name of the chromosome of the block
+   * @param start start position of the block
+   * @param end end position of the block
+   * @param strand strand of the block
+   */
+  public void add(final String chromosome, final int start, final int end,
+      final char strand) {
+
+    if (chromosome == null) {
+      throw new NullPointerException("chromosome argument cannot be null");
+    }
+
+    add(this.index.getChromosomeOrdinal(chromosome), chromosome, start, end,
+        strand);
+  }
+
+  /**
+   * Add the blocks of an alignment that are alignment matches (thanks to the
+   * CIGAR code). This method gives the same blocks as the
+   * HTSeqUtils.addIntervals() method.
+   * @param record the alignment
+   * @param stranded strand usage
+   */
+  public void add(final SAMRecord record, final StrandUsage stranded) {
+
+    add(record, stranded, 0, 0);
+  }
+
+  /**
+   * Add the blocks of an alignment that are alignment matches (thanks to the
+   * CIGAR code). The first and the last blocks of the alignment are extended
+   * upstream of the 5' end and downstream of the 3' end of the read.
+   * @param record the alignment
+   * @param stranded strand usage
+   * @param extension5 number of bases of the extension at the 5' end
+   * @param extension3 number of bases of the extension at the 3' end
+   */
+  public void add(final SAMRecord record, final StrandUsage stranded,
+      final int extension5, final int extension3) {
+
+    if (record == null) {
+      throw new NullPointerException("record argument cannot be null");
+    }
+
+    if (extension5 < 0 || extension3 < 0) {
+      throw new IllegalArgumentException("Invalid read extension: "
+          + extension5 + ", " + extension3);
+    }
+
+    final Cigar cigar = record.getCigar();
+    if (cigar == null) {
+      return;
+    }
+
+    // The strand of the second read of a pair is the opposite of the strand
+    // of the alignment
+    final boolean negative = record.getReadNegativeStrandFlag()
+        ^ (record.getReadPairedFlag() && !record.getFirstOfPairFlag());
+    final char strand = negative ^ (stranded == REVERSE) ? '-' : '+';
+
+    final int chromosome = chromosomeOrdinal(record);
+    final String chromosomeName = record.getReferenceName();
+    final int first = this.size;
+
+    int pos = record.getAlignmentStart();
+    for (int i = 0, n = cigar.numCigarElements(); i < n; i++) {
+
+      final CigarElement ce = cigar.getCigarElement(i);
+      final int len = ce.getLength();
+      final CigarOperator co = ce.getOperator();
+
+      switch (co) {
+
+      // the CIGAR element correspond to a mapped region
+      case M:
+      case EQ:
+      case X:
+        add(chromosome, chromosomeName, pos, pos + len - 1, strand);
+        pos += len;
+        break;
+
+      // the CIGAR element did not correspond to a mapped region
+      default:
+        if (co.consumesReferenceBases()) {
+          pos += len;
+        }
+        break;
+      }
+    }
+
+    if (this.size == first || (extension5 == 0 && extension3 == 0)) {
+      return;
+    }
+
+    // The 5' end of a read aligned on the reverse strand is the end of the
+    // alignment
+    final boolean reverse = record.getReadNegativeStrandFlag();
+    final int last = this.size - 1;
+    this.starts[first] =
+        Math.max(1, this.starts[first] - (reverse ? extension3 : extension5));
+    this.ends[last] += reverse ? extension5 : extension3;
+  }
+
+  /**
+   * Add a block.
+   * @param chromosome ordinal of the chromosome of the block
+   * @param chromosomeName name of the chromosome of the block
+   * @param start start position of the block
+   * @param end end position of the block
+   * @param strand strand of the block
+   */
+  private void add(final int chromosome, final String chromosomeName,
+      final int start, final int end, final char strand) {
+
+    if (this.size == this.starts.length) {
+
+      final int capacity = this.size * 2;
+      this.chromosomes = Arrays.copyOf(this.chromosomes, capacity);
+      this.chromosomeNames = Arrays.copyOf(this.chromosomeNames, capacity);
+      this.starts = Arrays.copyOf(this.starts, capacity);
+      this.ends = Arrays.copyOf(this.ends, capacity);
+      this.strands = Arrays.copyOf(this.strands, capacity);
+    }
+
+    final int i = this.size++;
+    this.chromosomes[i] = chromosome;
+    this.chromosomeNames[i] = chromosomeName;
+    this.starts[i] = start;
+    this.ends[i] = end;
+    this.strands[i] = strand;
+  }
+
+  /**
+   * Get the ordinal in the index of the chromosome of an alignment.
+   * @param record the alignment
+   * @return the ordinal of the chromosome or -1 if the chromosome is unknown
+   */
+  private int chromosomeOrdinal(final SAMRecord record) {
+
+    final SAMFileHeader header = record.getHeader();
+
+    if (header != null) {
+
+      if (header != this.header) {
+        updateReferenceOrdinals(header);
+      }
+
+      // The reference index is null if the chromosome is not in the header
+      final Integer referenceIndex = record.getReferenceIndex();
+      if (referenceIndex != null
+          && referenceIndex >= 0
+          && referenceIndex < this.referenceOrdinals.length) {
+        return this.referenceOrdinals[referenceIndex];
+      }
+    }
+
+    // No sequence dictionary, use the name of the chromosome
+    return this.index.getChromosomeOrdinal(record.getReferenceName());
+  }
+
+  /**
+   * Compute the ordinals in the index of the references of a SAM header.
+   * @param header the SAM header
+   */
+  private void updateReferenceOrdinals(final SAMFileHeader header) {
+
+    final SAMSequenceDictionary dictionary = header.getSequenceDictionary();
+    final int count = dictionary == null ? 0 : dictionary.size();
+
+    this.referenceOrdinals = new int[count];
+    for (int i = 0; i < count; i++) {
+      this.referenceOrdinals[i] = this.index
+          .getChromosomeOrdinal(dictionary.getSequence(i).getSequenceName());
+    }
+
+    this.header = header;
+  }
+
+  private void checkIndex(final int i) {
+
+    if (i < 0 || i >= this.size) {
+      throw new IndexOutOfBoundsException("Invalid block index: " + i);
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param index the genomic interval index used to resolve the chromosomes
+   */
+  public AlignmentBlocks(final GenomicIntervalIndex index) {
+
+    if (index == null) {
+      throw new NullPointerException("index argument cannot be null");
+    }
+
+    this.index = index;
+  }
+
+}
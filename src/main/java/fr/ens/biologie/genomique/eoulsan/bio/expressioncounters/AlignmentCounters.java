@@ -0,0 +1,139 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter;
+import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
+
+/**
+ * This class define the counters of the alignments processed by an expression
+ * counter. Each counting thread use its own counters that are merged at the end
+ * of the counting. The counters that are not used by a counter remain to 0.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class AlignmentCounters {
+
+  private final ReporterIncrementer reporter;
+  private final String counterGroup;
+
+  int input;
+  int empty;
+  int ambiguous;
+  int notAligned;
+  int lowQual;
+  int nonUnique;
+  int secondaryAlignments;
+  int supplementaryAlignments;
+  int duplicates;
+  int missingMate;
+  long overlapCacheHits;
+  long overlapCacheMisses;
+
+  /**
+   * Add the values of other counters to the counters.
+   * @param counters the counters to add
+   */
+  void add(final AlignmentCounters counters) {
+
+    this.input += counters.input;
+    this.empty += counters.empty;
+    this.ambiguous += counters.ambiguous;
+    this.notAligned += counters.notAligned;
+    this.lowQual += counters.lowQual;
+    this.nonUnique += counters.nonUnique;
+    this.secondaryAlignments += counters.secondaryAlignments;
+    this.supplementaryAlignments += counters.supplementaryAlignments;
+    this.duplicates += counters.duplicates;
+    this.missingMate += counters.missingMate;
+    this.overlapCacheHits += counters.overlapCacheHits;
+    this.overlapCacheMisses += counters.overlapCacheMisses;
+  }
+
+  /**
+   * Add the statistics of an overlap cache to the counters.
+   * @param cache the cache, can be null
+   */
+  void add(final OverlapCache cache) {
+
+    if (cache == null) {
+      return;
+    }
+
+    this.overlapCacheHits += cache.getHits();
+    this.overlapCacheMisses += cache.getMisses();
+  }
+
+  /**
+   * Set the counters common to all the expression counters in the reporter.
+   * @param eliminated the number of eliminated alignments, that depends of the
+   *          parameters of the expression counter
+   */
+  void fillReporter(final long eliminated) {
+
+    incrCounter(ExpressionCounterCounter.TOTAL_ALIGNMENTS_COUNTER, this.input);
+
+    incrCounter(ExpressionCounterCounter.EMPTY_ALIGNMENTS_COUNTER, this.empty);
+    incrCounter(ExpressionCounterCounter.AMBIGUOUS_ALIGNMENTS_COUNTER,
+        this.ambiguous);
+    incrCounter(ExpressionCounterCounter.LOW_QUAL_ALIGNMENTS_COUNTER,
+        this.lowQual);
+    incrCounter(ExpressionCounterCounter.NOT_ALIGNED_ALIGNMENTS_COUNTER,
+        this.notAligned);
+    incrCounter(ExpressionCounterCounter.NOT_UNIQUE_ALIGNMENTS_COUNTER,
+        this.nonUnique);
+    incrCounter(ExpressionCounterCounter.MISSING_MATES_COUNTER,
+        this.missingMate);
+
+    incrCounter(ExpressionCounterCounter.ELIMINATED_READS_COUNTER, eliminated);
+  }
+
+  /**
+   * Increment a counter of the reporter.
+   * @param counter the counter to increment
+   * @param value the value to add
+   */
+  void incrCounter(final ExpressionCounterCounter counter, final long value) {
+
+    this.reporter.incrCounter(this.counterGroup, counter.counterName(), value);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   */
+  AlignmentCounters(final ReporterIncrementer reporter,
+      final String counterGroup) {
+
+    this.reporter = reporter;
+    this.counterGroup = counterGroup;
+  }
+
+}
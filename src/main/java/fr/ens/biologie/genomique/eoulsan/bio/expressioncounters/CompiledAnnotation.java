@@ -0,0 +1,330 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.io.ByteStreams;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
+
+/**
+ * This class allow to save and load the features of an annotation in a
+ * compiled binary format. Loading a compiled annotation avoid the parsing of
+ * the annotation file and the building of the genomic array, that are the most
+ * costly steps of the initialization of an expression counter.
+ * <p>
+ * The format of the file is the following (all the integers are big endian):
+ * <ul>
+ * <li>magic number and version of the format</li>
+ * <li>number of features followed by the identifiers of the features</li>
+ * <li>number of zones lists, each list starting with the chromosome name and
+ * the zones count, each zone being defined by its start, end, strand, values
+ * count and the indexes of its values</li>
+ * </ul>
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public final class CompiledAnnotation {
+
+  /** Version of the format. */
+  public static final int FORMAT_VERSION = 1;
+
+  private static final int MAGIC_NUMBER = 0x45414e49; // "EANI"
+
+  //
+  // Write methods
+  //
+
+  /**
+   * Write the features of a genomic array in compiled format.
+   * @param features the genomic array to write
+   * @param out output stream
+   * @throws IOException if an error occurs while writing the data
+   */
+  public static void write(final GenomicArray<String> features,
+      final OutputStream out) throws IOException {
+
+    if (features == null) {
+      throw new NullPointerException("features argument cannot be null");
+    }
+
+    if (out == null) {
+      throw new NullPointerException("out argument cannot be null");
+    }
+
+    // Collect the zones lists and the features identifiers
+    final Map<String, Integer> featureIndexes = new HashMap<>();
+    final List<String> featureIds = new ArrayList<>();
+    final Map<String, List<int[]>> zonesLists = new LinkedHashMap<>();
+
+    features.handleZones((chromosomeName, start, end, strand, values) -> {
+
+      final int[] zone = new int[4 + (values == null ? 0 : values.size())];
+      zone[0] = start;
+      zone[1] = end;
+      zone[2] = strand;
+      zone[3] = zone.length - 4;
+
+      if (values != null) {
+
+        int i = 4;
+        for (String value : values) {
+
+          Integer index = featureIndexes.get(value);
+          if (index == null) {
+            index = featureIds.size();
+            featureIndexes.put(value, index);
+            featureIds.add(value);
+          }
+          zone[i++] = index;
+        }
+      }
+
+      final String key = chromosomeName + (strand == '-' ? '-' : '+');
+      List<int[]> zones = zonesLists.get(key);
+      if (zones == null) {
+        zones = new ArrayList<>();
+        zonesLists.put(key, zones);
+      }
+      zones.add(zone);
+    });
+
+    final DataOutputStream dos =
+        new DataOutputStream(new BufferedOutputStream(out));
+
+    dos.writeInt(MAGIC_NUMBER);
+    dos.writeInt(FORMAT_VERSION);
+
+    dos.writeInt(featureIds.size());
+    for (String id : featureIds) {
+      writeString(dos, id);
+    }
+
+    dos.writeInt(zonesLists.size());
+    for (Map.Entry<String, List<int[]>> e : zonesLists.entrySet()) {
+
+      final String key = e.getKey();
+      writeString(dos, key.substring(0, key.length() - 1));
+      dos.writeInt(e.getValue().size());
+
+      for (int[] zone : e.getValue()) {
+        for (int v : zone) {
+          dos.writeInt(v);
+        }
+      }
+    }
+
+    dos.flush();
+  }
+
+  /**
+   * Write a string.
+   * @param dos output stream
+   * @param s string to write
+   * @throws IOException if an error occurs while writing the string
+   */
+  private static void writeString(final DataOutputStream dos, final String s)
+      throws IOException {
+
+    final byte[] bytes = s.getBytes(UTF_8);
+    dos.writeInt(bytes.length);
+    dos.write(bytes);
+  }
+
+  //
+  // Read methods
+  //
+
+  /**
+   * Load a compiled annotation file. The file is memory-mapped.
+   * @param file the file to read
+   * @return a new GenomicArray object
+   * @throws IOException if an error occurs while reading the file or if the
+   *           file is not a valid compiled annotation
+   */
+  public static GenomicArray<String> read(final File file) throws IOException {
+
+    if (file == null) {
+      throw new NullPointerException("file argument cannot be null");
+    }
+
+    try (FileChannel channel =
+        FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Compiled annotation file too large: " + file);
+      }
+
+      return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * Load a compiled annotation from a stream.
+   * @param in the input stream to read
+   * @return a new GenomicArray object
+   * @throws IOException if an error occurs while reading the stream or if the
+   *           data is not a valid compiled annotation
+   */
+  public static GenomicArray<String> read(final InputStream in)
+      throws IOException {
+
+    if (in == null) {
+      throw new NullPointerException("in argument cannot be null");
+    }
+
+    return read(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+  }
+
+  /**
+   * Load a compiled annotation from a buffer.
+   * @param buffer buffer to read
+   * @return a new GenomicArray object
+   * @throws IOException if the data is not a valid compiled annotation
+   */
+  private static GenomicArray<String> read(final ByteBuffer buffer)
+      throws IOException {
+
+    try {
+
+      if (buffer.getInt() != MAGIC_NUMBER) {
+        throw new IOException("Invalid compiled annotation file");
+      }
+
+      final int version = buffer.getInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException(
+            "Unsupported compiled annotation format version: " + version);
+      }
+
+      final String[] featureIds = new String[checkCount(buffer.getInt())];
+      for (int i = 0; i < featureIds.length; i++) {
+        featureIds[i] = readString(buffer);
+      }
+
+      final GenomicArray<String> result = new GenomicArray<>();
+
+      final int listCount = checkCount(buffer.getInt());
+      for (int i = 0; i < listCount; i++) {
+
+        final String chromosomeName = readString(buffer);
+        final int zoneCount = checkCount(buffer.getInt());
+
+        for (int j = 0; j < zoneCount; j++) {
+
+          final int start = buffer.getInt();
+          final int end = buffer.getInt();
+          final char strand = (char) buffer.getInt();
+          final int valueCount = checkCount(buffer.getInt());
+
+          final Set<String> values;
+          switch (valueCount) {
+
+          case 0:
+            values = null;
+            break;
+
+          case 1:
+            values = Collections.singleton(featureIds[buffer.getInt()]);
+            break;
+
+          default:
+            values = new HashSet<>(valueCount * 2);
+            for (int k = 0; k < valueCount; k++) {
+              values.add(featureIds[buffer.getInt()]);
+            }
+          }
+
+          result.appendZone(chromosomeName, start, end, strand, values);
+        }
+      }
+
+      return result;
+
+    } catch (BufferUnderflowException | IndexOutOfBoundsException
+        | IllegalArgumentException e) {
+      throw new IOException("Invalid compiled annotation file", e);
+    }
+  }
+
+  /**
+   * Read a string.
+   * @param buffer the buffer
+   * @return a String
+   */
+  private static String readString(final ByteBuffer buffer) {
+
+    final byte[] bytes = new byte[checkCount(buffer.getInt())];
+    buffer.get(bytes);
+
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Check a count value read from the file.
+   * @param count count to check
+   * @return the count
+   */
+  private static int checkCount(final int count) {
+
+    if (count < 0) {
+      throw new IllegalArgumentException("Invalid count: " + count);
+    }
+
+    return count;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private CompiledAnnotation() {
+  }
+
+}
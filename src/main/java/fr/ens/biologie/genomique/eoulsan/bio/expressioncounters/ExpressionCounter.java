@@ -127,6 +127,27 @@ public interface ExpressionCounter {
   void init(GenomeDescription desc, Iterable<GFFEntry> annotations)
       throws EoulsanException;
 
+  /**
+   * Initialize the counter with an annotation shared with the other counters
+   * of the JVM. The annotation is loaded only once for all the counters
+   * initialized with the same files and the same annotation parameters. The
+   * releaseSharedAnnotation() method must be called once the counter is no
+   * more used.
+   * @param genomeDescFile genome description file
+   * @param annotationFile annotation file
+   * @param gtfFormat true if the input format is in GTF format
+   * @throws EoulsanException if an error occurs while initialize the counter
+   * @throws IOException if an error occurs while reading input files
+   */
+  void initShared(DataFile genomeDescFile, DataFile annotationFile,
+      boolean gtfFormat) throws EoulsanException, IOException;
+
+  /**
+   * Release the shared annotation used by the counter. This method does
+   * nothing if the counter does not use a shared annotation.
+   */
+  void releaseSharedAnnotation();
+
   /**
    * Count the the features.
    * @param samFile SAM file
@@ -139,6 +160,38 @@ public interface ExpressionCounter {
   Map<String, Integer> count(DataFile samFile, ReporterIncrementer reporter,
       String counterGroup) throws EoulsanException, IOException;
 
+  /**
+   * Count the the features using several threads. The result is the same as
+   * the result of the count() method that use only one thread.
+   * @param samFile SAM file
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @param threads number of threads to use
+   * @return a map with the counts
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading the input file
+   */
+  Map<String, Integer> count(DataFile samFile, ReporterIncrementer reporter,
+      String counterGroup, int threads) throws EoulsanException, IOException;
+
+  /**
+   * Count the the features of a BAM file using several threads. The BAM file
+   * is uncompressed in background threads. If the index of the BAM file is
+   * provided, the regions of the BAM file are counted in parallel. The result
+   * is the same as the result of the count() method that use only one thread.
+   * @param bamFile BAM file
+   * @param indexFile index of the BAM file, can be null
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @param threads number of threads to use
+   * @return a map with the counts
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading the input file
+   */
+  Map<String, Integer> count(DataFile bamFile, DataFile indexFile,
+      ReporterIncrementer reporter, String counterGroup, int threads)
+      throws EoulsanException, IOException;
+
   /**
    * Count the the features.
    * @param inputSam SAM file as an InputStream
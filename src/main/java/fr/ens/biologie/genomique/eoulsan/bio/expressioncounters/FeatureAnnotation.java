@@ -0,0 +1,358 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Splitter;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.io.GFFReader;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.GuavaCompatibility;
+
+/**
+ * This class define the features of an annotation used by the counters that
+ * assign alignments to features. It handles the parsing of the annotation, the
+ * compiled annotation index, the index of the features and the sharing of the
+ * annotation between counters. Once loaded, the annotation is never modified
+ * and the same instance can be used by several counters.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class FeatureAnnotation implements Serializable {
+
+  private static final long serialVersionUID = 6109522873346981215L;
+
+  private GenomicArray<String> features = new GenomicArray<>();
+  private transient GenomicIntervalIndex index;
+  private boolean initialized;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Test if the annotation has been loaded.
+   * @return true if the annotation has been loaded
+   */
+  boolean isInitialized() {
+
+    return this.initialized;
+  }
+
+  /**
+   * Get the index of the features. The index is created at the first call of
+   * this method as it is not serialized with the annotation.
+   * @return the index of the features
+   */
+  synchronized GenomicIntervalIndex getIndex() {
+
+    checkInitialized();
+
+    if (this.index == null) {
+      this.index = GenomicIntervalIndex.create(this.features);
+    }
+
+    return this.index;
+  }
+
+  //
+  // Load methods
+  //
+
+  /**
+   * Load the features from annotation entries.
+   * @param desc genome description
+   * @param annotations annotation entries
+   * @param genomicType type of the features to load
+   * @param attributeId attribute that contains the identifier of the features
+   * @param splitAttributeValues true if the attribute values must be split
+   * @param stranded strand usage of the counter
+   * @param programName name of the counting program for the error messages
+   * @throws EoulsanException if the annotation is invalid
+   */
+  void load(final GenomeDescription desc, final Iterable<GFFEntry> annotations,
+      final String genomicType, final String attributeId,
+      final boolean splitAttributeValues, final StrandUsage stranded,
+      final String programName) throws EoulsanException {
+
+    requireNonNull(desc, "the desc argument is null");
+    requireNonNull(annotations, "the annotations argument is null");
+    checkNotInitialized();
+
+    this.features.addChromosomes(desc);
+
+    final Splitter splitter = Splitter.on(',').omitEmptyStrings().trimResults();
+
+    // Only parse the annotation entries of the wanted type
+    if (annotations instanceof GFFReader) {
+      ((GFFReader) annotations).setStreamingMode(genomicType::equals);
+    }
+
+    // Read the annotation file
+    for (final GFFEntry gff : annotations) {
+
+      if (!genomicType.equals(gff.getType())) {
+        continue;
+      }
+
+      final String featureId = gff.getAttributeValue(attributeId);
+      if (featureId == null) {
+
+        throw new EoulsanException("Feature "
+            + genomicType + " does not contain a " + attributeId
+            + " attribute");
+      }
+
+      if ((stranded == StrandUsage.YES || stranded == StrandUsage.REVERSE)
+          && '.' == gff.getStrand()) {
+
+        throw new EoulsanException("Feature "
+            + genomicType
+            + " does not have strand information but you are running "
+            + programName + " in stranded mode.");
+      }
+
+      // Addition to the list of features of a GenomicInterval object
+      // corresponding to the current annotation line
+
+      final List<String> featureIds;
+
+      if (splitAttributeValues) {
+        featureIds = GuavaCompatibility.splitToList(splitter, featureId);
+      } else {
+        featureIds = Collections.singletonList(featureId);
+      }
+
+      // Split parent if needed
+      for (String f : featureIds) {
+        this.features.addEntry(
+            new GenomicInterval(gff, stranded.isSaveStrandInfo()), f);
+      }
+    }
+
+    if (this.features.getFeaturesIds().size() == 0) {
+      throw new EoulsanException(
+          "Warning: No features of type '" + genomicType + "' found.\n");
+    }
+
+    // The annotation is now loaded
+    this.initialized = true;
+  }
+
+  //
+  // Compiled annotation index methods
+  //
+
+  /**
+   * Get the parameters that identify a compiled annotation index.
+   * @param counterName name of the counter
+   * @param gtfFormat true if the annotation is in GTF format
+   * @param genomicType type of the features to load
+   * @param attributeId attribute that contains the identifier of the features
+   * @param splitAttributeValues true if the attribute values must be split
+   * @param stranded strand usage of the counter
+   * @return a map with the parameters
+   */
+  static Map<String, String> getIndexParameters(final String counterName,
+      final boolean gtfFormat, final String genomicType,
+      final String attributeId, final boolean splitAttributeValues,
+      final StrandUsage stranded) {
+
+    final Map<String, String> result = new LinkedHashMap<>();
+    result.put("counter", counterName);
+    result.put("index.format.version",
+        Integer.toString(CompiledAnnotation.FORMAT_VERSION));
+    result.put("annotation.format", gtfFormat ? "gtf" : "gff3");
+    result.put(HTSeqCounter.GENOMIC_TYPE_PARAMETER_NAME, genomicType);
+    result.put(HTSeqCounter.ATTRIBUTE_ID_PARAMETER_NAME, attributeId);
+    result.put(HTSeqCounter.SPLIT_ATTRIBUTE_VALUES_PARAMETER_NAME,
+        Boolean.toString(splitAttributeValues));
+    result.put(HTSeqCounter.STRANDED_PARAMETER_NAME, stranded.getName());
+
+    return result;
+  }
+
+  /**
+   * Load the features from a compiled annotation index.
+   * @param desc genome description
+   * @param indexFile compiled annotation index file
+   * @throws IOException if an error occurs while reading the index
+   */
+  void loadIndex(final GenomeDescription desc, final DataFile indexFile)
+      throws IOException {
+
+    requireNonNull(desc, "the desc argument is null");
+    requireNonNull(indexFile, "the indexFile argument is null");
+    checkNotInitialized();
+
+    // Memory-map the compiled annotation if possible
+    final GenomicArray<String> features;
+    if (indexFile.isLocalFile()) {
+      features = CompiledAnnotation.read(indexFile.toFile());
+    } else {
+      try (InputStream in = indexFile.open()) {
+        features = CompiledAnnotation.read(in);
+      }
+    }
+
+    features.addChromosomes(desc);
+    this.features = features;
+
+    // The annotation is now loaded
+    this.initialized = true;
+  }
+
+  /**
+   * Write the features in the compiled annotation index format.
+   * @param out output stream
+   * @throws IOException if an error occurs while writing the index
+   */
+  void saveIndex(final OutputStream out) throws IOException {
+
+    checkInitialized();
+
+    CompiledAnnotation.write(this.features, out);
+  }
+
+  //
+  // Shared annotation methods
+  //
+
+  /**
+   * Get the annotation to share with other counters. The index of the
+   * features is created now to be shared too.
+   * @return this annotation
+   */
+  FeatureAnnotation share() {
+
+    getIndex();
+
+    return this;
+  }
+
+  /**
+   * Get the annotation to use instead of this annotation from a shared
+   * annotation.
+   * @param shared an annotation returned by the share() method
+   * @return the shared annotation
+   */
+  FeatureAnnotation useShared(final Object shared) {
+
+    requireNonNull(shared, "the annotation argument is null");
+
+    final FeatureAnnotation result = (FeatureAnnotation) shared;
+
+    // This annotation may be the shared annotation
+    if (result != this) {
+      checkNotInitialized();
+    }
+
+    return result;
+  }
+
+  //
+  // Count methods
+  //
+
+  /**
+   * Create the map of the counts from the counts of the features.
+   * @param counts the counts, indexed by feature ordinal
+   * @return a map with the counts of the features with at least one count
+   */
+  Map<String, Integer> createCountsMap(final int[] counts) {
+
+    final GenomicIntervalIndex index = getIndex();
+
+    final Map<String, Integer> result = new HashMap<>();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        result.put(index.getFeatureId(i), counts[i]);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Add the features with no count to a map of counts.
+   * @param counts the map of counts
+   */
+  void addZeroCountFeatures(final Map<String, Integer> counts) {
+
+    requireNonNull(counts, "The counts arguments cannot be null");
+
+    for (String feature : getIndex().getFeaturesIds()) {
+
+      if (!counts.containsKey(feature)) {
+        counts.put(feature, 0);
+      }
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Check if the annotation has been loaded.
+   * @throws IllegalStateException if the annotation has not been loaded
+   */
+  void checkInitialized() {
+
+    if (!this.initialized) {
+      throw new IllegalStateException("the counter has not been initialized");
+    }
+  }
+
+  /**
+   * Check if the annotation has not been loaded.
+   * @throws IllegalStateException if the annotation has been already loaded
+   */
+  private void checkNotInitialized() {
+
+    if (this.initialized) {
+      throw new IllegalStateException(
+          "the counter has been already initialized");
+    }
+  }
+
+}
@@ -0,0 +1,838 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter;
+import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * This class define a counter with the semantics of the featureCounts program
+ * of the Subread package. The features (e.g. exons) that share the same
+ * attribute value are aggregated in a meta-feature (e.g. a gene) and a read
+ * or a fragment is assigned to the meta-features that it overlaps by at least
+ * a minimal number of bases. Unlike the htseq-count counter, the multi-mapping
+ * alignments and the alignments that overlap several meta-features can be
+ * counted, optionally as fractional counts, and the reads can be extended
+ * before the assignment.
+ * <p>
+ * The fractional counts are summed using fixed-point arithmetic to get the
+ * same result whatever the number of counting threads, and are rounded to the
+ * nearest integer at the end of the counting.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class FeatureCountsCounter extends AbstractExpressionCounter
+    implements Serializable {
+
+  private static final long serialVersionUID = -3920545717307839512L;
+
+  /** Counter name. */
+  public static final String COUNTER_NAME = "featurecounts";
+
+  public static final String GENOMIC_TYPE_PARAMETER_NAME =
+      HTSeqCounter.GENOMIC_TYPE_PARAMETER_NAME;
+  public static final String ATTRIBUTE_ID_PARAMETER_NAME =
+      HTSeqCounter.ATTRIBUTE_ID_PARAMETER_NAME;
+  public static final String SPLIT_ATTRIBUTE_VALUES_PARAMETER_NAME =
+      HTSeqCounter.SPLIT_ATTRIBUTE_VALUES_PARAMETER_NAME;
+  public static final String STRANDED_PARAMETER_NAME =
+      HTSeqCounter.STRANDED_PARAMETER_NAME;
+  public static final String MINIMUM_ALIGNMENT_QUALITY_PARAMETER_NAME =
+      HTSeqCounter.MINIMUM_ALIGNMENT_QUALITY_PARAMETER_NAME;
+  public static final String SAM_TAG_TO_USE_PARAMETER_NAME =
+      HTSeqCounter.SAM_TAG_TO_USE_PARAMETER_NAME;
+  public static final String MAX_READS_IN_BUFFER_PARAMETER_NAME =
+      HTSeqCounter.MAX_READS_IN_BUFFER_PARAMETER_NAME;
+  public static final String MIN_OVERLAP_PARAMETER_NAME = "min.overlap";
+  public static final String LARGEST_OVERLAP_PARAMETER_NAME =
+      "largest.overlap";
+  public static final String ALLOW_MULTI_OVERLAP_PARAMETER_NAME =
+      "allow.multi.overlap";
+  public static final String COUNT_MULTI_MAPPING_READS_PARAMETER_NAME =
+      "count.multi.mapping.reads";
+  public static final String FRACTION_PARAMETER_NAME = "fraction";
+  public static final String PRIMARY_ONLY_PARAMETER_NAME = "primary.only";
+  public static final String IGNORE_DUPLICATES_PARAMETER_NAME =
+      "ignore.duplicates";
+  public static final String REQUIRE_BOTH_ENDS_MAPPED_PARAMETER_NAME =
+      "require.both.ends.mapped";
+  public static final String READ_EXTENSION_5_PARAMETER_NAME =
+      "read.extension.5";
+  public static final String READ_EXTENSION_3_PARAMETER_NAME =
+      "read.extension.3";
+
+  public static final String SAM_TAG_DEFAULT = "XT";
+
+  // Value of a count of 1 in fixed-point arithmetic
+  private static final long ONE = 1L << 20;
+
+  private String genomicType = "exon";
+  private String attributeId = "gene_id";
+  private boolean splitAttributeValues = false;
+  private StrandUsage stranded = StrandUsage.NO;
+  private int minimalQuality = 0;
+  private int minOverlap = 1;
+  private boolean largestOverlap = false;
+  private boolean allowMultiOverlap = false;
+  private boolean countMultiMappingReads = false;
+  private boolean fraction = false;
+  private boolean primaryOnly = false;
+  private boolean ignoreDuplicates = false;
+  private boolean requireBothEndsMapped = false;
+  private int readExtension5 = 0;
+  private int readExtension3 = 0;
+
+  private String samTag = SAM_TAG_DEFAULT;
+  private int maxReadsInBuffer = 1000000;
+
+  private FeatureAnnotation annotation = new FeatureAnnotation();
+
+  /**
+   * This class define the state of a counting thread. Each thread use its own
+   * cursor on the shared index of the features and its own counts that are
+   * merged at the end of the counting.
+   */
+  private final class CountingState
+      implements AlignmentBatchDispatcher.CountingState {
+
+    private final GenomicIntervalIndex.Cursor cursor;
+    private final AlignmentBlocks blocks;
+    private final FeatureOrdinalSet overlapped;
+    private final FeatureOrdinalSet assigned;
+    private final int[] overlaps;
+    private final long[] counts;
+    private final AlignmentCounters counters;
+
+    @Override
+    public void count(final SAMRecord sam1, final SAMRecord sam2)
+        throws EoulsanException {
+
+      this.blocks.clear();
+
+      if (sam2 == null) {
+
+        // single-end mode
+        if (!singleEnd(sam1, this.blocks, this.counters)) {
+          return;
+        }
+      } else {
+
+        // paired-end mode
+        if (!pairedEnd(sam1, sam2, this.blocks, this.counters)) {
+          return;
+        }
+      }
+
+      assign(sam1, sam2);
+    }
+
+    /**
+     * Assign an alignment or a pair of alignments to the meta-features that
+     * overlap its blocks.
+     * @param sam1 the first alignment
+     * @param sam2 the second alignment, null in single-end mode
+     */
+    private void assign(final SAMRecord sam1, final SAMRecord sam2) {
+
+      final boolean filterStrand =
+          stranded == StrandUsage.YES || stranded == StrandUsage.REVERSE;
+
+      this.overlapped.clear();
+
+      // Compute the number of overlapping bases of each meta-feature
+      for (int i = 0; i < this.blocks.size(); i++) {
+
+        final int start = this.blocks.getStart(i);
+        final int end = this.blocks.getEnd(i);
+        final char strand = this.blocks.getStrand(i);
+
+        // Alignments on unknown chromosomes overlap no feature
+        if (!this.cursor.query(this.blocks.getChromosomeOrdinal(i), start,
+            end)) {
+          continue;
+        }
+
+        while (this.cursor.next()) {
+
+          // Filter zones if necessary
+          if (filterStrand && this.cursor.getStrand() != strand) {
+            continue;
+          }
+
+          final int length = Math.min(end, this.cursor.getEnd())
+              - Math.max(start, this.cursor.getStart()) + 1;
+
+          for (int j = 0, n = this.cursor.getFeatureCount(); j < n; j++) {
+
+            final int ordinal = this.cursor.getFeatureOrdinal(j);
+
+            if (!this.overlapped.contains(ordinal)) {
+              this.overlapped.add(ordinal);
+              this.overlaps[ordinal] = 0;
+            }
+            this.overlaps[ordinal] += length;
+          }
+        }
+      }
+
+      // Keep the meta-features with enough overlapping bases
+      this.assigned.clear();
+      int bestOverlap = 0;
+
+      for (int i = 0; i < this.overlapped.size(); i++) {
+
+        final int ordinal = this.overlapped.get(i);
+        final int overlap = this.overlaps[ordinal];
+
+        if (overlap < minOverlap) {
+          continue;
+        }
+
+        if (largestOverlap) {
+
+          if (overlap < bestOverlap) {
+            continue;
+          }
+
+          if (overlap > bestOverlap) {
+            this.assigned.clear();
+            bestOverlap = overlap;
+          }
+        }
+
+        this.assigned.add(ordinal);
+      }
+
+      final int n = this.assigned.size();
+
+      if (n == 0) {
+        this.counters.empty++;
+        return;
+      }
+
+      if (n > 1 && !allowMultiOverlap) {
+        this.counters.ambiguous++;
+        return;
+      }
+
+      // Fractional counts of multi-mapping reads and multi-overlap reads
+      long weight = ONE;
+      if (fraction) {
+        weight = weight / (hitCount(sam1, sam2) * n);
+      }
+
+      for (int i = 0; i < n; i++) {
+        this.counts[this.assigned.get(i)] += weight;
+      }
+
+      assignment(sam1, sam2, this.cursor.getIndex(), this.assigned);
+    }
+
+    private CountingState(final GenomicIntervalIndex index,
+        final ReporterIncrementer reporter, final String counterGroup) {
+
+      final int featureCount = index.getFeatureCount();
+
+      this.cursor = index.newCursor();
+      this.blocks = new AlignmentBlocks(index);
+      this.overlapped = new FeatureOrdinalSet(featureCount);
+      this.assigned = new FeatureOrdinalSet(featureCount);
+      this.overlaps = new int[featureCount];
+      this.counts = new long[featureCount];
+      this.counters = new AlignmentCounters(reporter, counterGroup);
+    }
+  }
+
+  @Override
+  public String getName() {
+
+    return COUNTER_NAME;
+  }
+
+  @Override
+  public String getDescription() {
+
+    return COUNTER_NAME + " counter";
+  }
+
+  @Override
+  public void setParameter(final String key, final String value)
+      throws EoulsanException {
+
+    // Set parameter if common
+    if (setCommonParameter(key, value)) {
+      return;
+    }
+
+    switch (key) {
+
+    case GENOMIC_TYPE_PARAMETER_NAME:
+      this.genomicType = value;
+      break;
+
+    case ATTRIBUTE_ID_PARAMETER_NAME:
+      this.attributeId = value;
+      break;
+
+    case SPLIT_ATTRIBUTE_VALUES_PARAMETER_NAME:
+      this.splitAttributeValues = Boolean.parseBoolean(value);
+      break;
+
+    case STRANDED_PARAMETER_NAME:
+
+      this.stranded = StrandUsage.getStrandUsageFromName(value);
+
+      if (this.stranded == null) {
+        throw new EoulsanException("Unknown strand mode");
+      }
+      break;
+
+    case MINIMUM_ALIGNMENT_QUALITY_PARAMETER_NAME:
+      this.minimalQuality = parseInt(value, 0, "minimal quality value");
+      break;
+
+    case MIN_OVERLAP_PARAMETER_NAME:
+      this.minOverlap = parseInt(value, 1, "minimal overlap");
+      break;
+
+    case LARGEST_OVERLAP_PARAMETER_NAME:
+      this.largestOverlap = Boolean.parseBoolean(value);
+      break;
+
+    case ALLOW_MULTI_OVERLAP_PARAMETER_NAME:
+      this.allowMultiOverlap = Boolean.parseBoolean(value);
+      break;
+
+    case COUNT_MULTI_MAPPING_READS_PARAMETER_NAME:
+      this.countMultiMappingReads = Boolean.parseBoolean(value);
+      break;
+
+    case FRACTION_PARAMETER_NAME:
+      this.fraction = Boolean.parseBoolean(value);
+      break;
+
+    case PRIMARY_ONLY_PARAMETER_NAME:
+      this.primaryOnly = Boolean.parseBoolean(value);
+      break;
+
+    case IGNORE_DUPLICATES_PARAMETER_NAME:
+      this.ignoreDuplicates = Boolean.parseBoolean(value);
+      break;
+
+    case REQUIRE_BOTH_ENDS_MAPPED_PARAMETER_NAME:
+      this.requireBothEndsMapped = Boolean.parseBoolean(value);
+      break;
+
+    case READ_EXTENSION_5_PARAMETER_NAME:
+      this.readExtension5 = parseInt(value, 0, "read extension");
+      break;
+
+    case READ_EXTENSION_3_PARAMETER_NAME:
+      this.readExtension3 = parseInt(value, 0, "read extension");
+      break;
+
+    case SAM_TAG_TO_USE_PARAMETER_NAME:
+      this.samTag = value.toUpperCase().trim();
+      if (this.samTag.length() != 2
+          || this.samTag.charAt(0) < 'X' || this.samTag.charAt(0) > 'Z'
+          || this.samTag.charAt(1) < 'A' || this.samTag.charAt(1) > 'Z') {
+        throw new EoulsanException("Invalid SAM tag: " + value);
+      }
+      break;
+
+    case MAX_READS_IN_BUFFER_PARAMETER_NAME:
+      this.maxReadsInBuffer =
+          parseInt(value, 1, "maximal number of reads in buffer");
+      break;
+
+    default:
+      throw new EoulsanException("Unknown parameter: " + key);
+    }
+  }
+
+  @Override
+  public void checkConfiguration() throws EoulsanException {
+
+    if (this.genomicType == null) {
+      throw new EoulsanException("No parent type set");
+    }
+
+    if (this.attributeId == null) {
+      throw new EoulsanException("No attribute id set");
+    }
+
+    if (this.stranded == null) {
+      throw new EoulsanException("Unknown strand mode");
+    }
+  }
+
+  /**
+   * Test if the counter computes fractional counts. The fractional counts are
+   * rounded at the end of the counting, so they must not be computed for
+   * subsets of the alignments.
+   * @return true if the counter computes fractional counts
+   */
+  public boolean isFractionalCounting() {
+
+    return this.fraction;
+  }
+
+  @Override
+  public void init(final GenomeDescription desc,
+      final Iterable<GFFEntry> annotations) throws EoulsanException {
+
+    // Check configuration
+    checkConfiguration();
+
+    // The features with the same identifier are merged in a meta-feature
+    this.annotation.load(desc, annotations, this.genomicType,
+        this.attributeId, this.splitAttributeValues, this.stranded,
+        "featureCounts");
+  }
+
+  @Override
+  protected Map<String, String> getAnnotationIndexParameters(
+      final boolean gtfFormat) {
+
+    return FeatureAnnotation.getIndexParameters(COUNTER_NAME, gtfFormat,
+        this.genomicType, this.attributeId, this.splitAttributeValues,
+        this.stranded);
+  }
+
+  @Override
+  protected void loadAnnotationIndex(final GenomeDescription desc,
+      final DataFile indexFile) throws EoulsanException, IOException {
+
+    // Check configuration
+    checkConfiguration();
+
+    this.annotation.loadIndex(desc, indexFile);
+  }
+
+  @Override
+  protected void saveAnnotationIndex(final OutputStream out)
+      throws IOException {
+
+    this.annotation.saveIndex(out);
+  }
+
+  @Override
+  protected boolean isSharedAnnotationSupported() {
+
+    return true;
+  }
+
+  @Override
+  protected Object getSharedAnnotation() {
+
+    return this.annotation.share();
+  }
+
+  @Override
+  protected void setSharedAnnotation(final Object annotation) {
+
+    this.annotation = this.annotation.useShared(annotation);
+  }
+
+  @Override
+  public Map<String, Integer> count(final Iterable<SAMRecord> samRecords,
+      final ReporterIncrementer reporter, final String counterGroup)
+      throws EoulsanException {
+
+    checkCount(reporter, counterGroup);
+
+    final GenomicIntervalIndex index = this.annotation.getIndex();
+    final CountingState state =
+        new CountingState(index, reporter, counterGroup);
+    final AlignmentCounters internalCounters =
+        new AlignmentCounters(reporter, counterGroup);
+
+    // Count the alignments in the current thread
+    pairAndCount(samRecords, state, internalCounters, this.maxReadsInBuffer);
+
+    // Set the counters in the reporter
+    internalCounters.add(state.counters);
+    fillReporter(internalCounters);
+
+    return createCountsMap(state.counts);
+  }
+
+  @Override
+  protected Map<String, Integer> count(final Iterable<SAMRecord> samRecords,
+      final ReporterIncrementer reporter, final String counterGroup,
+      final int threads) throws EoulsanException {
+
+    if (threads < 2) {
+      return count(samRecords, reporter, counterGroup);
+    }
+
+    checkCount(reporter, counterGroup);
+
+    final GenomicIntervalIndex index = this.annotation.getIndex();
+    final AlignmentCounters internalCounters =
+        new AlignmentCounters(reporter, counterGroup);
+
+    // Create the states of the counting threads
+    final BlockingQueue<AlignmentBatchDispatcher.CountingState> states =
+        new ArrayBlockingQueue<>(threads);
+    final List<CountingState> allStates = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final CountingState state =
+          new CountingState(index, reporter, counterGroup);
+      states.add(state);
+      allStates.add(state);
+    }
+
+    final AlignmentBatchDispatcher dispatcher = new AlignmentBatchDispatcher(
+        states, threads, "FeatureCountsCounter");
+
+    // Read the SAM file and pair the alignments in the current thread, the
+    // counting of the alignments is done by the counting threads
+    try {
+      pairAndCount(samRecords, dispatcher::add, internalCounters,
+          this.maxReadsInBuffer);
+      dispatcher.finish();
+    } finally {
+      dispatcher.close();
+    }
+
+    // Merge the counts of the counting threads
+    final long[] counts = new long[index.getFeatureCount()];
+    for (CountingState state : allStates) {
+
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += state.counts[i];
+      }
+      internalCounters.add(state.counters);
+    }
+
+    // Set the counters in the reporter
+    fillReporter(internalCounters);
+
+    return createCountsMap(counts);
+  }
+
+  @Override
+  public void addZeroCountFeatures(final Map<String, Integer> counts) {
+
+    this.annotation.addZeroCountFeatures(counts);
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Check the arguments and the state of the counter before counting.
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   */
+  private void checkCount(final ReporterIncrementer reporter,
+      final String counterGroup) {
+
+    if (reporter == null) {
+      throw new NullPointerException("the reporter argument is null");
+    }
+
+    if (counterGroup == null) {
+      throw new NullPointerException("the counterGroup argument is null");
+    }
+
+    this.annotation.checkInitialized();
+  }
+
+  /**
+   * Set the counters in the reporter.
+   * @param counters the counters
+   */
+  private static void fillReporter(final AlignmentCounters counters) {
+
+    counters.incrCounter(ExpressionCounterCounter.SECONDARY_ALIGNMENTS_COUNTER,
+        counters.secondaryAlignments);
+    counters.incrCounter(ExpressionCounterCounter.DUPLICATE_ALIGNMENTS_COUNTER,
+        counters.duplicates);
+
+    counters.fillReporter(counters.empty
+        + counters.ambiguous + counters.lowQual + counters.notAligned
+        + counters.nonUnique + counters.secondaryAlignments
+        + counters.duplicates + counters.missingMate);
+  }
+
+  /**
+   * Filter a single-end alignment and add its blocks.
+   * @param samRecord SAM record
+   * @param blocks aligned blocks
+   * @param counters the counters
+   * @return false if the alignment must not be assigned
+   */
+  private boolean singleEnd(final SAMRecord samRecord,
+      final AlignmentBlocks blocks, final AlignmentCounters counters) {
+
+    // unmapped read
+    if (samRecord.getReadUnmappedFlag()) {
+      counters.notAligned++;
+      return false;
+    }
+
+    // secondary alignment
+    if (this.primaryOnly && samRecord.getNotPrimaryAlignmentFlag()) {
+      counters.secondaryAlignments++;
+      return false;
+    }
+
+    // duplicate read
+    if (this.ignoreDuplicates && samRecord.getDuplicateReadFlag()) {
+      counters.duplicates++;
+      return false;
+    }
+
+    // multi-mapping read
+    if (!this.countMultiMappingReads && hitCount(samRecord, null) > 1) {
+      counters.nonUnique++;
+      return false;
+    }
+
+    // too low quality
+    if (samRecord.getMappingQuality() < this.minimalQuality) {
+      counters.lowQual++;
+      return false;
+    }
+
+    addBlocks(samRecord, blocks);
+
+    return true;
+  }
+
+  /**
+   * Filter a pair of alignments and add the blocks of the fragment.
+   * @param sam1 first SAM record
+   * @param sam2 second SAM record
+   * @param blocks aligned blocks
+   * @param counters the counters
+   * @return false if the fragment must not be assigned
+   */
+  private boolean pairedEnd(final SAMRecord sam1, final SAMRecord sam2,
+      final AlignmentBlocks blocks, final AlignmentCounters counters) {
+
+    final boolean mapped1 = !sam1.getReadUnmappedFlag();
+    final boolean mapped2 = !sam2.getReadUnmappedFlag();
+
+    // unmapped fragment or singleton
+    if ((!mapped1 && !mapped2)
+        || (this.requireBothEndsMapped && (!mapped1 || !mapped2))) {
+      counters.notAligned++;
+      return false;
+    }
+
+    // secondary alignment
+    if (this.primaryOnly
+        && ((mapped1 && sam1.getNotPrimaryAlignmentFlag())
+            || (mapped2 && sam2.getNotPrimaryAlignmentFlag()))) {
+      counters.secondaryAlignments++;
+      return false;
+    }
+
+    // duplicate fragment
+    if (this.ignoreDuplicates
+        && (sam1.getDuplicateReadFlag() || sam2.getDuplicateReadFlag())) {
+      counters.duplicates++;
+      return false;
+    }
+
+    // multi-mapping fragment
+    if (!this.countMultiMappingReads && hitCount(sam1, sam2) > 1) {
+      counters.nonUnique++;
+      return false;
+    }
+
+    // too low quality
+    if ((mapped1 && sam1.getMappingQuality() < this.minimalQuality)
+        || (mapped2 && sam2.getMappingQuality() < this.minimalQuality)) {
+      counters.lowQual++;
+      return false;
+    }
+
+    if (mapped1) {
+      addBlocks(sam1, blocks);
+    }
+
+    if (mapped2) {
+      addBlocks(sam2, blocks);
+    }
+
+    return true;
+  }
+
+  /**
+   * Add the blocks of an alignment, extended if required.
+   * @param samRecord the SAM record
+   * @param blocks aligned blocks
+   */
+  private void addBlocks(final SAMRecord samRecord,
+      final AlignmentBlocks blocks) {
+
+    blocks.add(samRecord, this.stranded, this.readExtension5,
+        this.readExtension3);
+  }
+
+  /**
+   * Get the number of reported alignments of a read or of a fragment.
+   * @param sam1 first SAM record
+   * @param sam2 second SAM record, can be null
+   * @return the greatest value of the NH tag of the alignments or 1 if the
+   *         alignments have no NH tag
+   */
+  private static int hitCount(final SAMRecord sam1, final SAMRecord sam2) {
+
+    int result = 1;
+
+    final Integer nh1 = sam1.getIntegerAttribute("NH");
+    if (nh1 != null && nh1 > result) {
+      result = nh1;
+    }
+
+    if (sam2 != null) {
+      final Integer nh2 = sam2.getIntegerAttribute("NH");
+      if (nh2 != null && nh2 > result) {
+        result = nh2;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Assign meta-features to SAM entries.
+   * @param samRecord1 first entry
+   * @param samRecord2 second entry
+   * @param index the index of the features
+   * @param features ordinals of the assigned meta-features
+   */
+  private void assignment(final SAMRecord samRecord1,
+      final SAMRecord samRecord2, final GenomicIntervalIndex index,
+      final FeatureOrdinalSet features) {
+
+    // Sort the features to always have the same feature order in outputs
+    features.sort();
+
+    final String assignment;
+    if (features.size() == 1) {
+      assignment = index.getFeatureId(features.get(0));
+    } else {
+
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < features.size(); i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append(index.getFeatureId(features.get(i)));
+      }
+      assignment = sb.toString();
+    }
+
+    samRecord1.setAttribute(this.samTag, assignment);
+
+    if (samRecord2 != null) {
+      samRecord2.setAttribute(this.samTag, assignment);
+    }
+  }
+
+  /**
+   * Create the map of the counts from the fixed-point counts of the
+   * meta-features. The counts are rounded to the nearest integer.
+   * @param counts the fixed-point counts, indexed by feature ordinal
+   * @return a map with the counts of the meta-features with a rounded count
+   *         greater than 0
+   */
+  private Map<String, Integer> createCountsMap(final long[] counts) {
+
+    final int[] result = new int[counts.length];
+    for (int i = 0; i < counts.length; i++) {
+      result[i] = (int) ((counts[i] + ONE / 2) / ONE);
+    }
+
+    return this.annotation.createCountsMap(result);
+  }
+
+  /**
+   * Parse an integer parameter value.
+   * @param value the value to parse
+   * @param min the minimal value
+   * @param description description of the parameter for the error message
+   * @return the parsed value
+   * @throws EoulsanException if the value is invalid
+   */
+  private static int parseInt(final String value, final int min,
+      final String description) throws EoulsanException {
+
+    final int result;
+    try {
+      result = Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new EoulsanException("Invalid " + description + ": " + value);
+    }
+
+    if (result < min) {
+      throw new EoulsanException("Invalid " + description + ": " + value);
+    }
+
+    return result;
+  }
+
+  @Override
+  public String toString() {
+
+    return "FeatureCountsCounter{genomicType="
+        + this.genomicType + ", attributeId=" + this.attributeId
+        + ", splitAttributeValues=" + this.splitAttributeValues
+        + ", stranded=" + this.stranded + ", minimalQuality="
+        + this.minimalQuality + ", minOverlap=" + this.minOverlap
+        + ", largestOverlap=" + this.largestOverlap + ", allowMultiOverlap="
+        + this.allowMultiOverlap + ", countMultiMappingReads="
+        + this.countMultiMappingReads + ", fraction=" + this.fraction
+        + ", primaryOnly=" + this.primaryOnly + ", ignoreDuplicates="
+        + this.ignoreDuplicates + ", requireBothEndsMapped="
+        + this.requireBothEndsMapped + ", readExtension5="
+        + this.readExtension5 + ", readExtension3=" + this.readExtension3
+        + ", initialized=" + this.annotation.isInitialized() + "}";
+  }
+
+}
@@ -0,0 +1,244 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.util.Arrays;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+
+/**
+ * This class define a reusable set of feature ordinals. The membership of the
+ * ordinals is stored in a bitset and the ordinals of the set are also kept in
+ * an array to allow fast iteration and clearing without allocating objects.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public final class FeatureOrdinalSet {
+
+  private final long[] bits;
+  private int[] members = new int[8];
+  private int size;
+
+  /**
+   * Get the number of ordinals in the set.
+   * @return the number of ordinals in the set
+   */
+  public int size() {
+
+    return this.size;
+  }
+
+  /**
+   * Test if the set is empty.
+   * @return true if the set is empty
+   */
+  public boolean isEmpty() {
+
+    return this.size == 0;
+  }
+
+  /**
+   * Get an ordinal of the set.
+   * @param i index of the ordinal in the set, in insertion order
+   * @return the ordinal
+   */
+  public int get(final int i) {
+
+    if (i < 0 || i >= this.size) {
+      throw new IndexOutOfBoundsException("Invalid index: " + i);
+    }
+
+    return this.members[i];
+  }
+
+  /**
+   * Test if the set contains an ordinal.
+   * @param ordinal the ordinal to test
+   * @return true if the set contains the ordinal
+   */
+  public boolean contains(final int ordinal) {
+
+    return (this.bits[ordinal >>> 6] & (1L << ordinal)) != 0;
+  }
+
+  /**
+   * Add an ordinal to the set.
+   * @param ordinal the ordinal to add
+   */
+  public void add(final int ordinal) {
+
+    final int word = ordinal >>> 6;
+    final long mask = 1L << ordinal;
+
+    if ((this.bits[word] & mask) != 0) {
+      return;
+    }
+
+    this.bits[word] |= mask;
+
+    if (this.size == this.members.length) {
+      this.members = Arrays.copyOf(this.members, this.size * 2);
+    }
+    this.members[this.size++] = ordinal;
+  }
+
+  /**
+   * Add the features of the current zone of a cursor to the set.
+   * @param cursor the cursor
+   */
+  public void addAll(final GenomicIntervalIndex.Cursor cursor) {
+
+    for (int i = 0, n = cursor.getFeatureCount(); i < n; i++) {
+      add(cursor.getFeatureOrdinal(i));
+    }
+  }
+
+  /**
+   * Add the ordinals of another set to the set.
+   * @param set the set to add
+   */
+  public void addAll(final FeatureOrdinalSet set) {
+
+    for (int i = 0; i < set.size; i++) {
+      add(set.members[i]);
+    }
+  }
+
+  /**
+   * Keep only the ordinals of the set that are contained in another set.
+   * @param set the other set
+   */
+  public void retainAll(final FeatureOrdinalSet set) {
+
+    int newSize = 0;
+
+    for (int i = 0; i < this.size; i++) {
+
+      final int ordinal = this.members[i];
+
+      if (set.contains(ordinal)) {
+        this.members[newSize++] = ordinal;
+      } else {
+        this.bits[ordinal >>> 6] &= ~(1L << ordinal);
+      }
+    }
+
+    this.size = newSize;
+  }
+
+  /**
+   * Keep only the ordinals of the set that are features of the current zone of
+   * a cursor.
+   * @param cursor the cursor
+   */
+  public void retainAll(final GenomicIntervalIndex.Cursor cursor) {
+
+    int newSize = 0;
+
+    for (int i = 0; i < this.size; i++) {
+
+      final int ordinal = this.members[i];
+
+      if (zoneContains(cursor, ordinal)) {
+        this.members[newSize++] = ordinal;
+      } else {
+        this.bits[ordinal >>> 6] &= ~(1L << ordinal);
+      }
+    }
+
+    this.size = newSize;
+  }
+
+  /**
+   * Sort the ordinals of the set. As the ordinals follow the order of the
+   * identifiers of the features, the identifiers will be also sorted.
+   */
+  public void sort() {
+
+    Arrays.sort(this.members, 0, this.size);
+  }
+
+  /**
+   * Remove all the ordinals of the set.
+   */
+  public void clear() {
+
+    for (int i = 0; i < this.size; i++) {
+      this.bits[this.members[i] >>> 6] = 0;
+    }
+
+    this.size = 0;
+  }
+
+  /**
+   * Test if the current zone of a cursor contains a feature.
+   * @param cursor the cursor
+   * @param ordinal the ordinal of the feature
+   * @return true if the zone contains the feature
+   */
+  private static boolean zoneContains(final GenomicIntervalIndex.Cursor cursor,
+      final int ordinal) {
+
+    // The ordinals of a zone are sorted
+    int low = 0;
+    int high = cursor.getFeatureCount() - 1;
+
+    while (low <= high) {
+
+      final int mid = (low + high) >>> 1;
+      final int value = cursor.getFeatureOrdinal(mid);
+
+      if (value < ordinal) {
+        low = mid + 1;
+      } else if (value > ordinal) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param featureCount the number of features
+   */
+  public FeatureOrdinalSet(final int featureCount) {
+
+    if (featureCount < 0) {
+      throw new IllegalArgumentException(
+          "Invalid number of features: " + featureCount);
+    }
+
+    this.bits = new long[(featureCount + 63) >>> 6];
+  }
+
+}
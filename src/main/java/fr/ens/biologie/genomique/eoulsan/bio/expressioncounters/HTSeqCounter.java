@@ -24,29 +24,30 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
 
-import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.join;
-
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import com.google.common.base.Splitter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
-import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
-import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqUtils.UnknownChromosomeException;
+import fr.ens.biologie.genomique.eoulsan.bio.io.IndexedBAMFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
 import fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter;
-import fr.ens.biologie.genomique.eoulsan.util.GuavaCompatibility;
 import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
-import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
 
 /**
  * This class defines a wrapper on the HTSeq-count counter.
@@ -56,7 +57,7 @@ import htsjdk.samtools.SAMRecord;
 public class HTSeqCounter extends AbstractExpressionCounter
     implements Serializable {
 
-  private static final long serialVersionUID = 4750866178483111062L;
+  private static final long serialVersionUID = -513807293264852640L;
 
   /** Counter name. */
   public static final String COUNTER_NAME = "htseq-count";
@@ -81,6 +82,10 @@ public class HTSeqCounter extends AbstractExpressionCounter
   public static final String REMOVE_NON_ASSIGNED_FEATURES_SAM_TAGS_PARAMETER_NAME =
       "remove.non.assigned.sam.tags";
   public static final String SAM_TAG_TO_USE_PARAMETER_NAME = "sam.tag.to.use";
+  public static final String MAX_READS_IN_BUFFER_PARAMETER_NAME =
+      "max.reads.in.buffer";
+  public static final String OVERLAP_CACHE_SIZE_PARAMETER_NAME =
+      "overlap.cache.size";
 
   public static final String SAM_TAG_DEFAULT = "XF";
 
@@ -97,70 +102,59 @@ public class HTSeqCounter extends AbstractExpressionCounter
   private boolean removeNonAssignedFeatureSamTags = false;
 
   private String samTag = SAM_TAG_DEFAULT;
+  private int maxReadsInBuffer = 1000000;
+  private int overlapCacheSize = 16384;
 
-  private final GenomicArray<String> features = new GenomicArray<>();
-  private boolean initialized;
+  private FeatureAnnotation annotation = new FeatureAnnotation();
 
   /**
-   * Internal class for counters
+   * This class define the state of a counting thread. Each thread use its own
+   * cursor on the shared index of the features and its own counts that are
+   * merged at the end of the counting.
    */
-  private static class InternalCounters {
-
-    final ReporterIncrementer reporter;
-    final String counterGroup;
-
-    private int input;
-    private int empty;
-    private int ambiguous;
-    private int notAligned;
-    private int lowQual;
-    private int secondaryAlignments;
-    private int supplementaryAlignments;
-    private int nonUnique;
-    private int missingMate;
-
-    private void fillReporter(final HTSeqCounter counter) {
-
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.TOTAL_ALIGNMENTS_COUNTER.counterName(),
-          this.input);
-
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.EMPTY_ALIGNMENTS_COUNTER.counterName(),
-          this.empty);
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.AMBIGUOUS_ALIGNMENTS_COUNTER.counterName(),
-          this.ambiguous);
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.LOW_QUAL_ALIGNMENTS_COUNTER.counterName(),
-          this.lowQual);
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.NOT_ALIGNED_ALIGNMENTS_COUNTER.counterName(),
-          this.notAligned);
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.NOT_UNIQUE_ALIGNMENTS_COUNTER.counterName(),
-          this.nonUnique);
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.MISSING_MATES_COUNTER.counterName(),
-          this.missingMate);
-
-      reporter.incrCounter(counterGroup,
-          ExpressionCounterCounter.ELIMINATED_READS_COUNTER.counterName(),
-          this.empty
-              + (counter.removeAmbiguousCases ? this.ambiguous : 0)
-              + this.lowQual + this.notAligned
-              + (counter.removeNonUnique ? this.nonUnique : 0)
-              + this.secondaryAlignments + this.supplementaryAlignments
-              + this.missingMate);
-    }
-
-    private InternalCounters(final ReporterIncrementer reporter,
-        final String counterGroup) {
-
-      this.reporter = reporter;
-      this.counterGroup = counterGroup;
+  private final class CountingState
+      implements AlignmentBatchDispatcher.CountingState {
+
+    private final GenomicIntervalIndex.Cursor cursor;
+    private final FeatureOrdinalSet fs;
+    private final AlignmentBlocks blocks;
+    private final OverlapCache cache;
+    private final int[] counts;
+    private final AlignmentCounters counters;
+
+    @Override
+    public void count(final SAMRecord sam1, final SAMRecord sam2)
+        throws EoulsanException {
+
+      if (sam2 == null) {
+
+        // single-end mode
+        if (!processSingleEnd(sam1, this.blocks, this.counters)) {
+          return;
+        }
+      } else {
+
+        // paired-end mode
+        this.blocks.clear();
+        if (!pairedEnd(sam1, sam2, this.blocks, this.counters)) {
+          return;
+        }
+      }
+
+      updateCounts(sam1, sam2, this.blocks, this.cursor, this.cache, this.fs,
+          this.counts, this.counters);
     }
 
+    private CountingState(final GenomicIntervalIndex index,
+        final ReporterIncrementer reporter, final String counterGroup) {
+
+      this.cursor = index.newCursor();
+      this.blocks = new AlignmentBlocks(index);
+      this.cache = newOverlapCache(index);
+      this.counts = new int[index.getFeatureCount()];
+      this.fs = new FeatureOrdinalSet(this.counts.length);
+      this.counters = new AlignmentCounters(reporter, counterGroup);
+    }
   }
 
   @Override
@@ -253,6 +247,30 @@ public class HTSeqCounter extends AbstractExpressionCounter
       }
       break;
 
+    case MAX_READS_IN_BUFFER_PARAMETER_NAME:
+      try {
+        this.maxReadsInBuffer = Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        throw new EoulsanException(
+            "Invalid maximal number of reads in buffer: " + value);
+      }
+      if (this.maxReadsInBuffer < 1) {
+        throw new EoulsanException(
+            "Invalid maximal number of reads in buffer: " + value);
+      }
+      break;
+
+    case OVERLAP_CACHE_SIZE_PARAMETER_NAME:
+      try {
+        this.overlapCacheSize = Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        throw new EoulsanException("Invalid overlap cache size: " + value);
+      }
+      if (this.overlapCacheSize < 0 || this.overlapCacheSize > 1 << 30) {
+        throw new EoulsanException("Invalid overlap cache size: " + value);
+      }
+      break;
+
     default:
       throw new EoulsanException("Unknown parameter: " + key);
     }
@@ -282,75 +300,56 @@ public class HTSeqCounter extends AbstractExpressionCounter
   public void init(final GenomeDescription desc,
       final Iterable<GFFEntry> annotations) throws EoulsanException {
 
-    if (desc == null) {
-      throw new NullPointerException("the desc argument is null");
-    }
-
-    if (annotations == null) {
-      throw new NullPointerException("the annotations argument is null");
-    }
-
-    if (this.initialized) {
-      throw new IllegalStateException(
-          "the counter has been already initialized");
-    }
-
     // Check configuration
     checkConfiguration();
 
-    this.features.addChromosomes(desc);
+    this.annotation.load(desc, annotations, this.genomicType,
+        this.attributeId, this.splitAttributeValues, this.stranded,
+        "htseq-count");
+  }
 
-    final Splitter splitter = Splitter.on(',').omitEmptyStrings().trimResults();
+  @Override
+  protected Map<String, String> getAnnotationIndexParameters(
+      final boolean gtfFormat) {
 
-    // Read the annotation file
-    for (final GFFEntry gff : annotations) {
+    return FeatureAnnotation.getIndexParameters(COUNTER_NAME, gtfFormat,
+        this.genomicType, this.attributeId, this.splitAttributeValues,
+        this.stranded);
+  }
 
-      if (this.genomicType.equals(gff.getType())) {
+  @Override
+  protected void loadAnnotationIndex(final GenomeDescription desc,
+      final DataFile indexFile) throws EoulsanException, IOException {
 
-        final String featureId = gff.getAttributeValue(attributeId);
-        if (featureId == null) {
+    // Check configuration
+    checkConfiguration();
 
-          throw new EoulsanException("Feature "
-              + this.genomicType + " does not contain a " + attributeId
-              + " attribute");
-        }
+    this.annotation.loadIndex(desc, indexFile);
+  }
 
-        if ((this.stranded == StrandUsage.YES
-            || this.stranded == StrandUsage.REVERSE)
-            && '.' == gff.getStrand()) {
+  @Override
+  protected void saveAnnotationIndex(final OutputStream out)
+      throws IOException {
 
-          throw new EoulsanException("Feature "
-              + this.genomicType
-              + " does not have strand information but you are running "
-              + "htseq-count in stranded mode.");
-        }
+    this.annotation.saveIndex(out);
+  }
 
-        // Addition to the list of features of a GenomicInterval object
-        // corresponding to the current annotation line
+  @Override
+  protected boolean isSharedAnnotationSupported() {
 
-        final List<String> featureIds;
+    return true;
+  }
 
-        if (this.splitAttributeValues) {
-          featureIds = GuavaCompatibility.splitToList(splitter, featureId);
-        } else {
-          featureIds = Collections.singletonList(featureId);
-        }
+  @Override
+  protected Object getSharedAnnotation() {
 
-        // Split parent if needed
-        for (String f : featureIds) {
-          this.features.addEntry(
-              new GenomicInterval(gff, this.stranded.isSaveStrandInfo()), f);
-        }
-      }
-    }
+    return this.annotation.share();
+  }
 
-    if (this.features.getFeaturesIds().size() == 0) {
-      throw new EoulsanException(
-          "Warning: No features of type '" + this.genomicType + "' found.\n");
-    }
+  @Override
+  protected void setSharedAnnotation(final Object annotation) {
 
-    // The counter is now initialized
-    this.initialized = true;
+    this.annotation = this.annotation.useShared(annotation);
   }
 
   @Override
@@ -366,92 +365,308 @@ public class HTSeqCounter extends AbstractExpressionCounter
       throw new NullPointerException("the counterGroup argument is null");
     }
 
-    if (!this.initialized) {
-      throw new IllegalStateException("the counter has not been initialized");
+    this.annotation.checkInitialized();
+
+    final GenomicIntervalIndex index = this.annotation.getIndex();
+    final CountingState state =
+        new CountingState(index, reporter, counterGroup);
+    final AlignmentCounters internalCounters =
+        new AlignmentCounters(reporter, counterGroup);
+
+    // Count the alignments in the current thread
+    pairAndCount(samRecords, state, internalCounters, this.maxReadsInBuffer);
+
+    // Set the counters in the reporter
+    internalCounters.add(state.counters);
+    internalCounters.add(state.cache);
+    fillReporter(internalCounters);
+
+    return this.annotation.createCountsMap(state.counts);
+  }
+
+  @Override
+  protected Map<String, Integer> count(final Iterable<SAMRecord> samRecords,
+      final ReporterIncrementer reporter, final String counterGroup,
+      final int threads) throws EoulsanException {
+
+    if (threads < 2) {
+      return count(samRecords, reporter, counterGroup);
     }
 
-    SAMRecord sam1 = null, sam2 = null;
-    final Map<String, Integer> counts = new HashMap<>();
-    final List<GenomicInterval> ivSeq = new ArrayList<>();
-    final InternalCounters internalCounters =
-        new InternalCounters(reporter, counterGroup);
+    if (reporter == null) {
+      throw new NullPointerException("the reporter argument is null");
+    }
 
-    // Read the SAM file
-    for (final SAMRecord samRecord : samRecords) {
+    if (counterGroup == null) {
+      throw new NullPointerException("the counterGroup argument is null");
+    }
 
-      internalCounters.input++;
+    this.annotation.checkInitialized();
 
-      // single-end mode
-      if (!samRecord.getReadPairedFlag()) {
+    final GenomicIntervalIndex index = this.annotation.getIndex();
+    final AlignmentCounters internalCounters =
+        new AlignmentCounters(reporter, counterGroup);
 
-        sam1 = samRecord;
+    // Create the states of the counting threads
+    final BlockingQueue<AlignmentBatchDispatcher.CountingState> states =
+        new ArrayBlockingQueue<>(threads);
+    final List<CountingState> allStates = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final CountingState state =
+          new CountingState(index, reporter, counterGroup);
+      states.add(state);
+      allStates.add(state);
+    }
 
-        if (!processSingleEnd(sam1, ivSeq, internalCounters)) {
-          continue;
-        }
+    final AlignmentBatchDispatcher dispatcher =
+        new AlignmentBatchDispatcher(states, threads, "HTSeqCounter");
+
+    // Read the SAM file and pair the alignments in the current thread, the
+    // counting of the alignments is done by the counting threads
+    try {
+      pairAndCount(samRecords, dispatcher::add, internalCounters,
+          this.maxReadsInBuffer);
+      dispatcher.finish();
+    } finally {
+      dispatcher.close();
+    }
+
+    // Merge the counts of the counting threads
+    final int[] counts = new int[index.getFeatureCount()];
+    for (CountingState state : allStates) {
+
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += state.counts[i];
       }
+      internalCounters.add(state.counters);
+      internalCounters.add(state.cache);
+    }
 
-      // paired-end mode
-      else {
+    // Set the counters in the reporter
+    fillReporter(internalCounters);
 
-        if (samRecord.getHeader().getSortOrder() == SortOrder.coordinate) {
-          throw new EoulsanException(
-              "The counter does not support SAM data sorted by coordinate in paired-end mode");
-        }
+    return this.annotation.createCountsMap(counts);
+  }
 
-        if (sam1 != null && sam2 != null) {
-          sam1 = null;
-          sam2 = null;
-          ivSeq.clear();
-        }
+  @Override
+  protected Map<String, Integer> count(final IndexedBAMFile bamFile,
+      final ReporterIncrementer reporter, final String counterGroup,
+      final int threads) throws EoulsanException, IOException {
+
+    if (threads < 2) {
+      return super.count(bamFile, reporter, counterGroup, threads);
+    }
+
+    if (reporter == null) {
+      throw new NullPointerException("the reporter argument is null");
+    }
+
+    if (counterGroup == null) {
+      throw new NullPointerException("the counterGroup argument is null");
+    }
+
+    this.annotation.checkInitialized();
+
+    final GenomicIntervalIndex index = this.annotation.getIndex();
+
+    // The alignments whose mate is in another region are paired at the end
+    final CountingState pairingState =
+        new CountingState(index, reporter, counterGroup);
+    final MatePairBuffer otherRegionMates =
+        newMatePairBuffer(this.maxReadsInBuffer);
+
+    final AtomicInteger nextRegion = new AtomicInteger();
+    final List<CountingState> allStates = new ArrayList<>();
+    final List<Future<Void>> futures = new ArrayList<>();
+    final ExecutorService executor =
+        AlignmentBatchDispatcher.newCountingThreadPool(threads, "HTSeqCounter");
 
-        if (samRecord.getFirstOfPairFlag()) {
-          sam1 = samRecord;
+    try {
+
+      // Each thread counts the next region to process with its own reader
+      for (int i = 0; i < threads; i++) {
+
+        final CountingState state =
+            new CountingState(index, reporter, counterGroup);
+        allStates.add(state);
+
+        futures.add(executor.submit(() -> {
+          countRegions(bamFile, nextRegion, state, otherRegionMates);
+          return null;
+        }));
+      }
+
+      for (Future<Void> future : futures) {
+        AlignmentBatchDispatcher.waitBatch(future);
+      }
+
+      // Pair the remaining mates
+      otherRegionMates.finish((first, second) -> {
+
+        if (first == null || second == null) {
+          pairingState.counters.missingMate++;
         } else {
-          sam2 = samRecord;
+          pairingState.count(first, second);
         }
+      });
 
-        if (sam1 == null || sam2 == null) {
-          continue;
-        }
+    } catch (IOException e) {
+      throw new EoulsanException(
+          "Error while pairing the mates of the alignments: " + e.getMessage(),
+          e);
+    } finally {
 
-        if (!sam1.getReadName().equals(sam2.getReadName())) {
-          sam1 = sam2;
-          sam2 = null;
-          internalCounters.missingMate++;
-          continue;
-        }
+      executor.shutdownNow();
+      otherRegionMates.close();
+    }
 
-        if (!pairedEnd(sam1, sam2, ivSeq, internalCounters)) {
-          continue;
-        }
-      }
+    allStates.add(pairingState);
+
+    // Merge the counts of the counting threads
+    final AlignmentCounters internalCounters =
+        new AlignmentCounters(reporter, counterGroup);
+    final int[] counts = new int[index.getFeatureCount()];
+    for (CountingState state : allStates) {
 
-      // Update counts
-      updateCounts(sam1, sam2, ivSeq, counts, internalCounters);
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += state.counts[i];
+      }
+      internalCounters.add(state.counters);
+      internalCounters.add(state.cache);
     }
 
     // Set the counters in the reporter
-    internalCounters.fillReporter(this);
+    fillReporter(internalCounters);
 
-    return counts;
+    return this.annotation.createCountsMap(counts);
   }
 
   //
   // Other methods
   //
 
+  /**
+   * Count the regions of an indexed BAM file until all the regions have been
+   * processed. The mates of a pair are paired in the region of the pair. The
+   * alignments whose mate has not been found in the region are added to a
+   * buffer shared by all the threads.
+   * @param bamFile the indexed BAM file
+   * @param nextRegion the next region to process
+   * @param state the state of the counting thread
+   * @param otherRegionMates buffer for the alignments whose mate is not in
+   *          the same region
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading the BAM file
+   */
+  private void countRegions(final IndexedBAMFile bamFile,
+      final AtomicInteger nextRegion, final CountingState state,
+      final MatePairBuffer otherRegionMates)
+      throws EoulsanException, IOException {
+
+    final MatePairBuffer.PairHandler otherRegionHandler = (first, second) -> {
+
+      if (first == null || second == null) {
+        state.counters.missingMate++;
+      } else {
+        state.count(first, second);
+      }
+    };
+
+    final MatePairBuffer.PairHandler pairHandler = (first, second) -> {
+
+      if (first != null && second != null) {
+        state.count(first, second);
+        return;
+      }
+
+      // The mate may be in another region
+      try {
+        synchronized (otherRegionMates) {
+          otherRegionMates.add(first != null ? first : second,
+              otherRegionHandler);
+        }
+      } catch (IOException e) {
+        throw new EoulsanException(e);
+      }
+    };
+
+    try (SamReader reader = bamFile.newReader()) {
+
+      int region;
+      while ((region = nextRegion.getAndIncrement()) < bamFile
+          .getRegionCount()) {
+
+        try (
+            MatePairBuffer mateBuffer = newMatePairBuffer(this.maxReadsInBuffer);
+            SAMRecordIterator it = bamFile.query(reader, region)) {
+
+          while (it.hasNext()) {
+
+            final SAMRecord samRecord = it.next();
+            state.counters.input++;
+
+            if (samRecord.getReadPairedFlag()) {
+              mateBuffer.add(samRecord, pairHandler);
+            } else {
+              state.count(samRecord, null);
+            }
+          }
+
+          mateBuffer.finish(pairHandler);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Set the counters in the reporter.
+   * @param counters the counters
+   */
+  private void fillReporter(final AlignmentCounters counters) {
+
+    if (this.overlapCacheSize > 0) {
+      counters.incrCounter(
+          ExpressionCounterCounter.OVERLAP_CACHE_HITS_COUNTER,
+          counters.overlapCacheHits);
+      counters.incrCounter(
+          ExpressionCounterCounter.OVERLAP_CACHE_MISSES_COUNTER,
+          counters.overlapCacheMisses);
+    }
+
+    counters.fillReporter(counters.empty
+        + (this.removeAmbiguousCases ? counters.ambiguous : 0)
+        + counters.lowQual + counters.notAligned
+        + (this.removeNonUnique ? counters.nonUnique : 0)
+        + counters.secondaryAlignments + counters.supplementaryAlignments
+        + counters.missingMate);
+  }
+
+  /**
+   * Create a cache of the features overlapped by the aligned blocks.
+   * @param index the index of the features
+   * @return a new OverlapCache object or null if the cache is disabled
+   */
+  private OverlapCache newOverlapCache(final GenomicIntervalIndex index) {
+
+    if (this.overlapCacheSize == 0) {
+      return null;
+    }
+
+    return new OverlapCache(index, this.overlapCacheSize);
+  }
+
   /**
    * Process single-end alignment.
    * @param samRecord SAM record
-   * @param ivSeq genomic intervals
+   * @param blocks aligned blocks
    * @param counters the counters
    * @return false if the alignment has not been processed
    */
   private boolean processSingleEnd(final SAMRecord samRecord,
-      final List<GenomicInterval> ivSeq, final InternalCounters counters) {
+      final AlignmentBlocks blocks, final AlignmentCounters counters) {
 
-    ivSeq.clear();
+    blocks.clear();
 
     // unmapped read
     if (samRecord.getReadUnmappedFlag()) {
@@ -491,7 +706,7 @@ public class HTSeqCounter extends AbstractExpressionCounter
       return false;
     }
 
-    ivSeq.addAll(HTSeqUtils.addIntervals(samRecord, this.stranded));
+    blocks.add(samRecord, this.stranded);
 
     return true;
   }
@@ -500,19 +715,19 @@ public class HTSeqCounter extends AbstractExpressionCounter
    * Process paired-end alignment.
    * @param sam1 first SAM record
    * @param sam2 second SAM record
-   * @param ivSeq genomic intervals
+   * @param blocks aligned blocks
    * @param counters the counters
    * @return false if the alignments has not been processed
    */
   private boolean pairedEnd(final SAMRecord sam1, final SAMRecord sam2,
-      final List<GenomicInterval> ivSeq, final InternalCounters counters) {
+      final AlignmentBlocks blocks, final AlignmentCounters counters) {
 
     if (!sam1.getReadUnmappedFlag()) {
-      ivSeq.addAll(HTSeqUtils.addIntervals(sam1, this.stranded));
+      blocks.add(sam1, this.stranded);
     }
 
     if (!sam2.getReadUnmappedFlag()) {
-      ivSeq.addAll(HTSeqUtils.addIntervals(sam2, this.stranded));
+      blocks.add(sam2, this.stranded);
     }
 
     // unmapped read
@@ -566,19 +781,24 @@ public class HTSeqCounter extends AbstractExpressionCounter
 
   /**
    * Update the counts.
-   * @param ivSeq the genomic intervals
-   * @param counts the counts
+   * @param blocks the aligned blocks
+   * @param cursor cursor on the index of the features
+   * @param cache the cache of the features overlapped by the blocks, can be
+   *          null
+   * @param fs the set of overlapped features to use
+   * @param counts the counts, indexed by feature ordinal
    * @param internalCounters the counters
    * @throws EoulsanException if an error occurs while counting
    */
   private void updateCounts(final SAMRecord samRecord1,
-      final SAMRecord samRecord2, final List<GenomicInterval> ivSeq,
-      final Map<String, Integer> counts,
-      final InternalCounters internalCounters) throws EoulsanException {
+      final SAMRecord samRecord2, final AlignmentBlocks blocks,
+      final GenomicIntervalIndex.Cursor cursor, final OverlapCache cache,
+      final FeatureOrdinalSet fs, final int[] counts,
+      final AlignmentCounters internalCounters) throws EoulsanException {
 
     try {
-      Set<String> fs = HTSeqUtils.featuresOverlapped(ivSeq, this.features,
-          this.overlapMode, this.stranded);
+      HTSeqUtils.featuresOverlapped(blocks, cursor, this.overlapMode,
+          this.stranded, fs, cache);
 
       switch (fs.size()) {
       case 0:
@@ -587,19 +807,20 @@ public class HTSeqCounter extends AbstractExpressionCounter
         break;
 
       case 1:
-        String id = fs.iterator().next();
-        increment(counts, id);
-        assignment(samRecord1, samRecord2, id);
+        final int ordinal = fs.get(0);
+        counts[ordinal]++;
+        assignment(samRecord1, samRecord2,
+            cursor.getIndex().getFeatureId(ordinal));
         break;
 
       default:
 
         internalCounters.ambiguous++;
-        assignment(samRecord1, samRecord2, fs);
+        assignment(samRecord1, samRecord2, cursor.getIndex(), fs);
 
         if (!this.removeAmbiguousCases) {
-          for (String id2 : fs) {
-            increment(counts, id2);
+          for (int i = 0; i < fs.size(); i++) {
+            counts[fs.get(i)]++;
           }
         }
         break;
@@ -610,21 +831,6 @@ public class HTSeqCounter extends AbstractExpressionCounter
     }
   }
 
-  /**
-   * Increment a count.
-   * @param counts the counts
-   * @param key the feature to increment
-   */
-  private static void increment(final Map<String, Integer> counts,
-      final String key) {
-
-    if (!counts.containsKey(key)) {
-      counts.put(key, 1);
-    } else {
-      counts.put(key, counts.get(key) + 1);
-    }
-  }
-
   /**
    * Assign a feature to SAM entries.
    * @param samRecord1 first entry
@@ -651,35 +857,37 @@ public class HTSeqCounter extends AbstractExpressionCounter
    * Assign features to SAM entries.
    * @param samRecord1 first entry
    * @param samRecord2 second entry
-   * @param features ambiguous features of the assignment
+   * @param index the index of the features
+   * @param features ordinals of the ambiguous features of the assignment
    */
   private void assignment(final SAMRecord samRecord1,
-      final SAMRecord samRecord2, final Set<String> features) {
-
-    // Sort the features to always have the same feature order in outputs
-    List<String> list = new ArrayList<>(features);
-    Collections.sort(list);
+      final SAMRecord samRecord2, final GenomicIntervalIndex index,
+      final FeatureOrdinalSet features) {
 
-    assignment(samRecord1, samRecord2, "__ambiguous[" + join(list, "+") + ']');
-  }
+    if (this.removeNonAssignedFeatureSamTags) {
+      return;
+    }
 
-  @Override
-  public void addZeroCountFeatures(final Map<String, Integer> counts) {
+    // Sort the features to always have the same feature order in outputs, the
+    // order of the ordinals is the order of the identifiers
+    features.sort();
 
-    if (counts == null) {
-      throw new NullPointerException("The counts arguments cannot be null");
+    final StringBuilder sb = new StringBuilder("__ambiguous[");
+    for (int i = 0; i < features.size(); i++) {
+      if (i > 0) {
+        sb.append('+');
+      }
+      sb.append(index.getFeatureId(features.get(i)));
     }
+    sb.append(']');
 
-    if (!this.initialized) {
-      throw new IllegalStateException("the counter has not been initialized");
-    }
+    assignment(samRecord1, samRecord2, sb.toString());
+  }
 
-    for (String feature : this.features.getFeaturesIds()) {
+  @Override
+  public void addZeroCountFeatures(final Map<String, Integer> counts) {
 
-      if (!counts.containsKey(feature)) {
-        counts.put(feature, 0);
-      }
-    }
+    this.annotation.addZeroCountFeatures(counts);
   }
 
   @Override
@@ -694,7 +902,8 @@ public class HTSeqCounter extends AbstractExpressionCounter
         + ", removeSecondaryAlignments=" + this.removeSecondaryAlignments
         + ", removeSupplementaryAlignments="
         + this.removeSupplementaryAlignments + " minAverageQuality="
-        + this.minimalQuality + ", initialized=" + this.initialized + "}";
+        + this.minimalQuality + ", initialized="
+        + this.annotation.isInitialized() + "}";
   }
 
 }
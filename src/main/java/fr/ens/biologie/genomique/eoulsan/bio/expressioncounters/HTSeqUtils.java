@@ -46,6 +46,7 @@ import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
 import fr.ens.biologie.genomique.eoulsan.bio.io.GFFReader;
 import fr.ens.biologie.genomique.eoulsan.bio.io.GTFReader;
 import fr.ens.biologie.genomique.eoulsan.util.GuavaCompatibility;
@@ -87,6 +88,9 @@ public class HTSeqUtils {
     try (final GFFReader gffReader =
         gtfFormat ? new GTFReader(annotationIs) : new GFFReader(annotationIs)) {
 
+      // Only parse the entries of the wanted type
+      gffReader.setStreamingMode(featureType::equals);
+
       // Read the annotation file
       for (final GFFEntry gff : gffReader) {
 
@@ -354,6 +358,298 @@ public class HTSeqUtils {
     return fs;
   }
 
+  /**
+   * Determine features that overlap genomic intervals using a genomic interval
+   * index. This method gives the same results as the featuresOverlapped()
+   * method that use a genomic array but does not create any object for the
+   * zones that overlap the intervals.
+   * @param ivList the list of genomic intervals.
+   * @param cursor a cursor on the index of the features
+   * @param mode the overlap mode.
+   * @param stranded strand usage
+   * @return the set of features that overlap genomic intervals according to the
+   *         overlap mode.
+   * @throws EoulsanException if an error occurs while getting overlapped
+   *           features
+   */
+  public static Set<String> featuresOverlapped(
+      final List<GenomicInterval> ivList,
+      final GenomicIntervalIndex.Cursor cursor, final OverlapMode mode,
+      final StrandUsage stranded) throws EoulsanException {
+
+    final GenomicIntervalIndex index = cursor.getIndex();
+    final FeatureOrdinalSet fs =
+        new FeatureOrdinalSet(index.getFeatureCount());
+
+    featuresOverlapped(ivList, cursor, mode, stranded, fs);
+
+    if (fs.isEmpty()) {
+      return Collections.emptySet();
+    }
+
+    final Set<String> result = new HashSet<>();
+    for (int i = 0; i < fs.size(); i++) {
+      result.add(index.getFeatureId(fs.get(i)));
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine the ordinals of the features that overlap genomic intervals
+   * using a genomic interval index.
+   * @param ivList the list of genomic intervals.
+   * @param cursor a cursor on the index of the features
+   * @param mode the overlap mode.
+   * @param stranded strand usage
+   * @param result the set where store the ordinals of the features that
+   *          overlap genomic intervals according to the overlap mode. The set
+   *          is cleared before adding the ordinals
+   * @throws EoulsanException if an error occurs while getting overlapped
+   *           features
+   */
+  public static void featuresOverlapped(final List<GenomicInterval> ivList,
+      final GenomicIntervalIndex.Cursor cursor, final OverlapMode mode,
+      final StrandUsage stranded, final FeatureOrdinalSet result)
+      throws EoulsanException {
+
+    final AlignmentBlocks blocks = new AlignmentBlocks(cursor.getIndex());
+    for (final GenomicInterval iv : ivList) {
+      blocks.add(iv.getChromosome(), iv.getStart(), iv.getEnd(),
+          iv.getStrand());
+    }
+
+    featuresOverlapped(blocks, cursor, mode, stranded, result);
+  }
+
+  /**
+   * Determine the ordinals of the features that overlap the aligned blocks of
+   * alignments using a genomic interval index. The blocks, the cursor and the
+   * result set can be reused between calls to avoid any object allocation.
+   * @param blocks the aligned blocks
+   * @param cursor a cursor on the index of the features
+   * @param mode the overlap mode.
+   * @param stranded strand usage
+   * @param result the set where store the ordinals of the features that
+   *          overlap the blocks according to the overlap mode. The set is
+   *          cleared before adding the ordinals
+   * @throws EoulsanException if an error occurs while getting overlapped
+   *           features
+   */
+  public static void featuresOverlapped(final AlignmentBlocks blocks,
+      final GenomicIntervalIndex.Cursor cursor, final OverlapMode mode,
+      final StrandUsage stranded, final FeatureOrdinalSet result)
+      throws EoulsanException {
+
+    final boolean filterStrand = stranded == YES || stranded == REVERSE;
+
+    result.clear();
+
+    // Overlap mode "union"
+    if (mode == UNION) {
+
+      for (int i = 0; i < blocks.size(); i++) {
+
+        if (!cursor.query(blocks.getChromosomeOrdinal(i), blocks.getStart(i),
+            blocks.getEnd(i))) {
+          throw new UnknownChromosomeException(blocks.getChromosomeName(i));
+        }
+
+        final char strand = blocks.getStrand(i);
+
+        // Get features that overlap the current block of the read
+        while (cursor.next()) {
+
+          // Filter intervals if necessary
+          if (filterStrand && cursor.getStrand() != strand) {
+            continue;
+          }
+
+          result.addAll(cursor);
+        }
+      }
+    }
+
+    // Overlap modes : "intersection-nonempty" or "intersection-strict"
+    else if (mode == INTERSECTION_NONEMPTY || mode == INTERSECTION_STRICT) {
+
+      boolean first = true;
+
+      for (int i = 0; i < blocks.size(); i++) {
+
+        if (!cursor.query(blocks.getChromosomeOrdinal(i), blocks.getStart(i),
+            blocks.getEnd(i))) {
+          throw new EoulsanException(
+              "Unknown chromosome: " + blocks.getChromosomeName(i));
+        }
+
+        final char strand = blocks.getStrand(i);
+        boolean found = false;
+
+        // Get features that overlap the current block of the read
+        while (cursor.next()) {
+
+          // Filter intervals if necessary
+          if (filterStrand && cursor.getStrand() != strand) {
+            continue;
+          }
+
+          found = true;
+
+          if (cursor.getFeatureCount() > 0 || mode == INTERSECTION_STRICT) {
+
+            if (first) {
+              result.addAll(cursor);
+              first = false;
+            } else {
+              result.retainAll(cursor);
+            }
+          }
+        }
+
+        // If no interval has been found, the requested interval is an empty
+        // interval (HTSeq compatibility)
+        if (!found && mode == INTERSECTION_STRICT) {
+          result.clear();
+          first = false;
+        }
+      }
+    } else {
+      throw new EoulsanException("Error : illegal overlap mode.");
+    }
+  }
+
+  /**
+   * Determine the ordinals of the features that overlap the aligned blocks of
+   * alignments using a genomic interval index and a cache of the features of
+   * the blocks. This method gives the same results as the featuresOverlapped()
+   * method without cache.
+   * @param blocks the aligned blocks
+   * @param cursor a cursor on the index of the features
+   * @param mode the overlap mode.
+   * @param stranded strand usage
+   * @param result the set where store the ordinals of the features that
+   *          overlap the blocks according to the overlap mode. The set is
+   *          cleared before adding the ordinals
+   * @param cache the cache of the features of the blocks, can be null
+   * @throws EoulsanException if an error occurs while getting overlapped
+   *           features
+   */
+  public static void featuresOverlapped(final AlignmentBlocks blocks,
+      final GenomicIntervalIndex.Cursor cursor, final OverlapMode mode,
+      final StrandUsage stranded, final FeatureOrdinalSet result,
+      final OverlapCache cache) throws EoulsanException {
+
+    if (cache == null) {
+      featuresOverlapped(blocks, cursor, mode, stranded, result);
+      return;
+    }
+
+    if (mode != UNION
+        && mode != INTERSECTION_NONEMPTY && mode != INTERSECTION_STRICT) {
+      throw new EoulsanException("Error : illegal overlap mode.");
+    }
+
+    final boolean filterStrand = stranded == YES || stranded == REVERSE;
+    final FeatureOrdinalSet blockFeatures = cache.getBlockFeatures();
+    boolean first = true;
+
+    cache.setOverlapMode(mode);
+    result.clear();
+
+    for (int i = 0; i < blocks.size(); i++) {
+
+      final int chromosome = blocks.getChromosomeOrdinal(i);
+      final int start = blocks.getStart(i);
+      final int end = blocks.getEnd(i);
+
+      // The strand of the block is only used to filter the features
+      final char strand = filterStrand ? blocks.getStrand(i) : '.';
+
+      final boolean constrained;
+      if (cache.get(chromosome, start, end, strand, blockFeatures)) {
+        constrained = cache.isConstrained();
+      } else {
+        constrained = blockFeaturesOverlapped(blocks, i, cursor, mode,
+            filterStrand, blockFeatures);
+        cache.put(chromosome, start, end, strand, blockFeatures, constrained);
+      }
+
+      if (mode == UNION) {
+        result.addAll(blockFeatures);
+      } else if (constrained) {
+
+        if (first) {
+          result.addAll(blockFeatures);
+          first = false;
+        } else {
+          result.retainAll(blockFeatures);
+        }
+      }
+    }
+  }
+
+  /**
+   * Determine the ordinals of the features that overlap an aligned block.
+   * @param blocks the aligned blocks
+   * @param block the index of the block
+   * @param cursor a cursor on the index of the features
+   * @param mode the overlap mode.
+   * @param filterStrand true if the features must be on the strand of the
+   *          block
+   * @param result the set where store the ordinals of the features that
+   *          overlap the block according to the overlap mode. The set is
+   *          cleared before adding the ordinals
+   * @return false if the features of the block must be ignored, this is the
+   *         case in intersection-nonempty mode when the block only overlaps
+   *         zones without features
+   * @throws EoulsanException if the chromosome of the block is unknown
+   */
+  private static boolean blockFeaturesOverlapped(final AlignmentBlocks blocks,
+      final int block, final GenomicIntervalIndex.Cursor cursor,
+      final OverlapMode mode, final boolean filterStrand,
+      final FeatureOrdinalSet result) throws EoulsanException {
+
+    if (!cursor.query(blocks.getChromosomeOrdinal(block),
+        blocks.getStart(block), blocks.getEnd(block))) {
+
+      if (mode == UNION) {
+        throw new UnknownChromosomeException(blocks.getChromosomeName(block));
+      }
+      throw new EoulsanException(
+          "Unknown chromosome: " + blocks.getChromosomeName(block));
+    }
+
+    final char strand = blocks.getStrand(block);
+    boolean first = true;
+
+    result.clear();
+
+    while (cursor.next()) {
+
+      // Filter intervals if necessary
+      if (filterStrand && cursor.getStrand() != strand) {
+        continue;
+      }
+
+      if (mode == UNION) {
+        result.addAll(cursor);
+      } else if (cursor.getFeatureCount() > 0 || mode == INTERSECTION_STRICT) {
+
+        if (first) {
+          result.addAll(cursor);
+          first = false;
+        } else {
+          result.retainAll(cursor);
+        }
+      }
+    }
+
+    // In intersection-strict mode, a block without zone is an empty
+    // interval (HTSeq compatibility)
+    return mode != INTERSECTION_NONEMPTY || !first;
+  }
+
   /**
    * Filter the output of GenomicArray.getEntries() by keeping only features on
    * a strand
@@ -0,0 +1,385 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import htsjdk.samtools.DefaultSAMRecordFactory;
+import htsjdk.samtools.SAMLineParser;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.ValidationStringency;
+
+/**
+ * This class allow to pair the mates of paired-end alignments that are sorted
+ * by coordinate. The alignments waiting for their mate are kept in memory
+ * until a maximal number of alignments is reached. Then the waiting
+ * alignments are sorted and written in a temporary file. At the end of the
+ * alignments, the temporary files and the alignments in memory are merged to
+ * pair the remaining mates.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class MatePairBuffer implements Closeable {
+
+  private final int maxRecordsInMemory;
+  private final File temporaryDirectory;
+  private final Map<String, SAMRecord> records = new HashMap<>();
+  private final List<File> spillFiles = new ArrayList<>();
+  private SAMLineParser parser;
+
+  /**
+   * This interface define a handler for the paired alignments.
+   */
+  interface PairHandler {
+
+    /**
+     * Handle a pair of alignments.
+     * @param first the first alignment of the pair, null if the mate is
+     *          missing
+     * @param second the second alignment of the pair, null if the mate is
+     *          missing
+     * @throws EoulsanException if an error occurs while handling the pair
+     */
+    void handle(SAMRecord first, SAMRecord second) throws EoulsanException;
+  }
+
+  /**
+   * This class define a sorted run of waiting alignments, in memory or in a
+   * temporary file.
+   */
+  private final class Run {
+
+    private final BufferedReader reader;
+    private final Iterator<SAMRecord> iterator;
+    private SAMRecord current;
+    private String key;
+
+    /**
+     * Move to the next alignment of the run.
+     * @return false if there is no more alignment in the run
+     * @throws IOException if an error occurs while reading the run
+     */
+    private boolean next() throws IOException {
+
+      if (this.reader != null) {
+
+        final String line = this.reader.readLine();
+        this.current = line == null ? null : parser.parseLine(line);
+
+      } else {
+        this.current = this.iterator.hasNext() ? this.iterator.next() : null;
+      }
+
+      this.key = this.current == null ? null : pairKey(this.current);
+
+      return this.current != null;
+    }
+
+    private Run(final BufferedReader reader) {
+
+      this.reader = reader;
+      this.iterator = null;
+    }
+
+    private Run(final Iterator<SAMRecord> iterator) {
+
+      this.reader = null;
+      this.iterator = iterator;
+    }
+  }
+
+  //
+  // Public methods
+  //
+
+  /**
+   * Add an alignment to the buffer. If the mate of the alignment is in memory,
+   * the pair is sent to the handler.
+   * @param record the alignment to add
+   * @param handler the handler of the pairs
+   * @throws EoulsanException if an error occurs while handling a pair
+   * @throws IOException if an error occurs while writing waiting alignments
+   */
+  void add(final SAMRecord record, final PairHandler handler)
+      throws EoulsanException, IOException {
+
+    final String key = pairKey(record);
+    final SAMRecord other = this.records.remove(key);
+
+    if (other != null) {
+
+      if (other.getFirstOfPairFlag() != record.getFirstOfPairFlag()) {
+        sendPair(record, other, handler);
+        return;
+      }
+
+      // Two alignments of the same mate with the same positions
+      sendPair(other, null, handler);
+    }
+
+    this.records.put(key, record);
+
+    // The spilled alignments have been already validated when read, the
+    // default strict validation of the parser would reject some of them
+    if (this.parser == null) {
+      this.parser = new SAMLineParser(new DefaultSAMRecordFactory(),
+          ValidationStringency.SILENT, record.getHeader(), null, null);
+    }
+
+    if (this.records.size() >= this.maxRecordsInMemory) {
+      spill();
+    }
+  }
+
+  /**
+   * Pair the waiting alignments once all the alignments have been added. The
+   * alignments without mate are sent alone to the handler.
+   * @param handler the handler of the pairs
+   * @throws EoulsanException if an error occurs while handling a pair
+   * @throws IOException if an error occurs while reading waiting alignments
+   */
+  void finish(final PairHandler handler)
+      throws EoulsanException, IOException {
+
+    // Sort the alignments in memory
+    final List<String> keys = new ArrayList<>(this.records.keySet());
+    Collections.sort(keys);
+    final List<SAMRecord> sorted = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      sorted.add(this.records.get(key));
+    }
+    this.records.clear();
+
+    final PriorityQueue<Run> queue =
+        new PriorityQueue<>(this.spillFiles.size() + 1,
+            (r1, r2) -> r1.key.compareTo(r2.key));
+
+    final List<Run> runs = new ArrayList<>();
+    runs.add(new Run(sorted.iterator()));
+
+    try {
+
+      for (File f : this.spillFiles) {
+        runs.add(new Run(new BufferedReader(new InputStreamReader(
+            new FileInputStream(f), StandardCharsets.UTF_8))));
+      }
+
+      for (Run run : runs) {
+        if (run.next()) {
+          queue.add(run);
+        }
+      }
+
+      // Merge the sorted runs, the mates have the same key
+      final List<SAMRecord> group = new ArrayList<>();
+
+      while (!queue.isEmpty()) {
+
+        final String key = queue.peek().key;
+        group.clear();
+
+        while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+
+          final Run run = queue.poll();
+          group.add(run.current);
+
+          if (run.next()) {
+            queue.add(run);
+          }
+        }
+
+        sendGroup(group, handler);
+      }
+
+    } finally {
+
+      for (Run run : runs) {
+        if (run.reader != null) {
+          run.reader.close();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+
+    for (File f : this.spillFiles) {
+      if (!f.delete()) {
+        getLogger().warning("Unable to delete temporary file: " + f);
+      }
+    }
+
+    this.spillFiles.clear();
+    this.records.clear();
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Write the waiting alignments in a temporary file, sorted by key.
+   * @throws IOException if an error occurs while writing the alignments
+   */
+  private void spill() throws IOException {
+
+    final File f =
+        File.createTempFile("mates-", ".sam", this.temporaryDirectory);
+    this.spillFiles.add(f);
+
+    getLogger().fine("Write "
+        + this.records.size() + " alignments waiting for their mate in " + f);
+
+    final List<String> keys = new ArrayList<>(this.records.keySet());
+    Collections.sort(keys);
+
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(f), StandardCharsets.UTF_8))) {
+
+      for (String key : keys) {
+        writer.write(this.records.get(key).getSAMString());
+      }
+    }
+
+    this.records.clear();
+  }
+
+  /**
+   * Send a group of alignments with the same key to the handler.
+   * @param group the alignments
+   * @param handler the handler
+   * @throws EoulsanException if an error occurs while handling a pair
+   */
+  private static void sendGroup(final List<SAMRecord> group,
+      final PairHandler handler) throws EoulsanException {
+
+    SAMRecord first = null;
+    SAMRecord second = null;
+
+    for (SAMRecord r : group) {
+
+      if (r.getFirstOfPairFlag() && first == null) {
+        first = r;
+      } else if (!r.getFirstOfPairFlag() && second == null) {
+        second = r;
+      } else {
+        handler.handle(r, null);
+      }
+    }
+
+    if (first != null && second != null) {
+      handler.handle(first, second);
+    } else if (first != null) {
+      handler.handle(first, null);
+    } else if (second != null) {
+      handler.handle(null, second);
+    }
+  }
+
+  /**
+   * Send a pair to the handler.
+   * @param record an alignment
+   * @param mate the mate of the alignment, can be null
+   * @param handler the handler
+   * @throws EoulsanException if an error occurs while handling a pair
+   */
+  private static void sendPair(final SAMRecord record, final SAMRecord mate,
+      final PairHandler handler) throws EoulsanException {
+
+    if (mate == null) {
+      handler.handle(record, null);
+    } else if (record.getFirstOfPairFlag()) {
+      handler.handle(record, mate);
+    } else {
+      handler.handle(mate, record);
+    }
+  }
+
+  /**
+   * Get the key of the pair of an alignment. The two mates of a pair have the
+   * same key that contains the name of the read and the positions of the
+   * mates.
+   * @param record the alignment
+   * @return the key of the pair
+   */
+  private static String pairKey(final SAMRecord record) {
+
+    final String pos = record.getReferenceName()
+        + ':' + record.getAlignmentStart();
+    final String matePos = record.getMateReferenceName()
+        + ':' + record.getMateAlignmentStart();
+
+    if (record.getFirstOfPairFlag()) {
+      return record.getReadName() + '\t' + pos + '\t' + matePos;
+    }
+
+    return record.getReadName() + '\t' + matePos + '\t' + pos;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param maxRecordsInMemory the maximal number of alignments waiting for
+   *          their mate to keep in memory
+   * @param temporaryDirectory the temporary directory, can be null
+   */
+  MatePairBuffer(final int maxRecordsInMemory, final File temporaryDirectory) {
+
+    if (maxRecordsInMemory < 1) {
+      throw new IllegalArgumentException(
+          "Invalid maximal number of alignments in memory: "
+              + maxRecordsInMemory);
+    }
+
+    this.maxRecordsInMemory = maxRecordsInMemory;
+    this.temporaryDirectory = temporaryDirectory;
+  }
+
+}
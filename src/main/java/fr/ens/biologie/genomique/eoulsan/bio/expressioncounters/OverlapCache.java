@@ -0,0 +1,255 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.util.Arrays;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+
+/**
+ * This class define a bounded cache of the features that overlap an aligned
+ * block. In deeply sequenced libraries, many alignments share the same blocks
+ * (highly expressed genes, PCR duplicates) and the cache avoid to search again
+ * the zones of the features that overlap these blocks. The cache is direct
+ * mapped: a block can only be stored in one entry of the cache and replaces
+ * the previous block of the entry. As the features of a block depend on the
+ * overlap mode, the cache is emptied when the overlap mode changes. This
+ * class is not thread safe, each counting thread must use its own cache.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public final class OverlapCache {
+
+  private final int mask;
+  private final int[] chromosomes;
+  private final int[] starts;
+  private final int[] ends;
+  private final char[] strands;
+  private final boolean[] constrained;
+  private final int[] sizes;
+  private final int[][] ordinals;
+  private final FeatureOrdinalSet blockFeatures;
+
+  private OverlapMode mode;
+  private boolean lastConstrained;
+  private long hits;
+  private long misses;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of blocks found in the cache.
+   * @return the number of blocks found in the cache
+   */
+  public long getHits() {
+
+    return this.hits;
+  }
+
+  /**
+   * Get the number of blocks not found in the cache.
+   * @return the number of blocks not found in the cache
+   */
+  public long getMisses() {
+
+    return this.misses;
+  }
+
+  /**
+   * Get the number of entries of the cache.
+   * @return the number of entries of the cache
+   */
+  public int getCapacity() {
+
+    return this.mask + 1;
+  }
+
+  /**
+   * Get a reusable set to store the features of a block.
+   * @return a FeatureOrdinalSet object
+   */
+  FeatureOrdinalSet getBlockFeatures() {
+
+    return this.blockFeatures;
+  }
+
+  /**
+   * Test if the features of the last block found in the cache constrain the
+   * features of the alignment. In intersection-nonempty mode, the blocks that
+   * only overlap zones without features are ignored.
+   * @return true if the features of the block must be used
+   */
+  boolean isConstrained() {
+
+    return this.lastConstrained;
+  }
+
+  //
+  // Cache methods
+  //
+
+  /**
+   * Set the overlap mode of the features of the blocks. If the overlap mode
+   * differs from the overlap mode of the entries of the cache, the cache is
+   * emptied.
+   * @param mode the overlap mode
+   */
+  void setOverlapMode(final OverlapMode mode) {
+
+    if (mode != this.mode) {
+      Arrays.fill(this.sizes, -1);
+      this.mode = mode;
+    }
+  }
+
+  /**
+   * Get the features of a block.
+   * @param chromosome ordinal of the chromosome of the block
+   * @param start start of the block
+   * @param end end of the block
+   * @param strand strand of the block
+   * @param features the set where store the features of the block if the
+   *          block is in the cache. The set is cleared before adding the
+   *          features
+   * @return true if the block is in the cache
+   */
+  boolean get(final int chromosome, final int start, final int end,
+      final char strand, final FeatureOrdinalSet features) {
+
+    final int slot = slot(chromosome, start, end, strand);
+
+    if (this.sizes[slot] < 0
+        || this.chromosomes[slot] != chromosome || this.starts[slot] != start
+        || this.ends[slot] != end || this.strands[slot] != strand) {
+      this.misses++;
+      return false;
+    }
+
+    this.hits++;
+    this.lastConstrained = this.constrained[slot];
+
+    features.clear();
+    final int[] slotOrdinals = this.ordinals[slot];
+    for (int i = 0, n = this.sizes[slot]; i < n; i++) {
+      features.add(slotOrdinals[i]);
+    }
+
+    return true;
+  }
+
+  /**
+   * Put the features of a block in the cache.
+   * @param chromosome ordinal of the chromosome of the block
+   * @param start start of the block
+   * @param end end of the block
+   * @param strand strand of the block
+   * @param features the features of the block
+   * @param constrained true if the features of the block constrain the
+   *          features of the alignment
+   */
+  void put(final int chromosome, final int start, final int end,
+      final char strand, final FeatureOrdinalSet features,
+      final boolean constrained) {
+
+    final int slot = slot(chromosome, start, end, strand);
+    final int size = features.size();
+
+    // Reuse the array of the entry if possible
+    if (this.ordinals[slot] == null || this.ordinals[slot].length < size) {
+      this.ordinals[slot] = new int[Math.max(4, size)];
+    }
+
+    for (int i = 0; i < size; i++) {
+      this.ordinals[slot][i] = features.get(i);
+    }
+
+    this.chromosomes[slot] = chromosome;
+    this.starts[slot] = start;
+    this.ends[slot] = end;
+    this.strands[slot] = strand;
+    this.constrained[slot] = constrained;
+    this.sizes[slot] = size;
+  }
+
+  /**
+   * Get the entry of the cache of a block.
+   * @param chromosome ordinal of the chromosome of the block
+   * @param start start of the block
+   * @param end end of the block
+   * @param strand strand of the block
+   * @return the index of the entry
+   */
+  private int slot(final int chromosome, final int start, final int end,
+      final char strand) {
+
+    int h = chromosome;
+    h = 31 * h + start;
+    h = 31 * h + end;
+    h = 31 * h + strand;
+
+    return (h ^ (h >>> 16)) & this.mask;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param index the index of the features
+   * @param capacity the number of entries of the cache, rounded to the next
+   *          power of two
+   */
+  public OverlapCache(final GenomicIntervalIndex index, final int capacity) {
+
+    if (index == null) {
+      throw new NullPointerException("index argument cannot be null");
+    }
+
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+
+    final int n = Integer.highestOneBit(capacity) == capacity
+        ? capacity : Integer.highestOneBit(capacity) << 1;
+
+    this.mask = n - 1;
+    this.chromosomes = new int[n];
+    this.starts = new int[n];
+    this.ends = new int[n];
+    this.strands = new char[n];
+    this.constrained = new boolean[n];
+    this.sizes = new int[n];
+    this.ordinals = new int[n][];
+    this.blockFeatures = new FeatureOrdinalSet(index.getFeatureCount());
+
+    // All the entries are empty
+    Arrays.fill(this.sizes, -1);
+  }
+
+}
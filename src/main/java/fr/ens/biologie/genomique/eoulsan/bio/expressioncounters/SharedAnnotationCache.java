@@ -0,0 +1,283 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+
+/**
+ * This class define a cache for the annotations of the counters that is
+ * shared by all the counters of the JVM. The annotations are immutable once
+ * loaded and can be used concurrently by several counting tasks. Each
+ * annotation is loaded only once, the tasks that need an annotation that is
+ * being loaded wait the end of the loading. The annotations are reference
+ * counted. To allow the tasks that run one after another to reuse an
+ * annotation, the last annotations that are no more used are kept in the
+ * cache until other released annotations replace them.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class SharedAnnotationCache {
+
+  private static final SharedAnnotationCache INSTANCE =
+      new SharedAnnotationCache();
+
+  /** Default number of unused annotations kept in the cache. */
+  static final int DEFAULT_MAX_RELEASED_ANNOTATIONS = 1;
+
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  // The unused annotations, from the least recently released
+  private final Map<String, Entry> released = new LinkedHashMap<>();
+  private int maxReleasedAnnotations = DEFAULT_MAX_RELEASED_ANNOTATIONS;
+
+  /**
+   * This interface define a loader of annotation.
+   */
+  interface Loader {
+
+    /**
+     * Load an annotation.
+     * @return the annotation
+     * @throws EoulsanException if an error occurs while loading the
+     *           annotation
+     * @throws IOException if an error occurs while reading the annotation
+     */
+    Object load() throws EoulsanException, IOException;
+  }
+
+  /**
+   * This class define an entry of the cache.
+   */
+  private static final class Entry {
+
+    private volatile Object annotation;
+    private int references;
+  }
+
+  //
+  // Singleton method
+  //
+
+  /**
+   * Get the singleton instance of the cache.
+   * @return the singleton instance of the cache
+   */
+  static SharedAnnotationCache getInstance() {
+
+    return INSTANCE;
+  }
+
+  //
+  // Cache methods
+  //
+
+  /**
+   * Get an annotation from the cache and increment its reference count. If
+   * the annotation is not in the cache, the annotation is loaded. The
+   * release() method must be called once the annotation is no more used.
+   * @param key the key of the annotation
+   * @param loader the loader of the annotation
+   * @return the annotation
+   * @throws EoulsanException if an error occurs while loading the annotation
+   * @throws IOException if an error occurs while reading the annotation
+   */
+  Object acquire(final String key, final Loader loader)
+      throws EoulsanException, IOException {
+
+    requireNonNull(key, "key argument cannot be null");
+    requireNonNull(loader, "loader argument cannot be null");
+
+    final Entry entry;
+    synchronized (this.entries) {
+
+      entry = this.entries.computeIfAbsent(key, k -> new Entry());
+      entry.references++;
+
+      // The annotation is used again
+      this.released.remove(key);
+    }
+
+    boolean success = false;
+
+    try {
+
+      // Only one task load the annotation, the other tasks wait the end of
+      // the loading
+      synchronized (entry) {
+
+        if (entry.annotation == null) {
+
+          getLogger().info("Load shared annotation: " + key);
+          entry.annotation = requireNonNull(loader.load(),
+              "the loader returned a null annotation");
+        } else {
+          getLogger().info("Reuse shared annotation: " + key);
+        }
+
+        success = true;
+
+        return entry.annotation;
+      }
+
+    } finally {
+
+      if (!success) {
+        release(key);
+      }
+    }
+  }
+
+  /**
+   * Decrement the reference count of an annotation. When the annotation is no
+   * more used, it is kept in the cache for the next tasks and the least
+   * recently released annotations are removed from the cache if there are too
+   * many unused annotations.
+   * @param key the key of the annotation
+   */
+  void release(final String key) {
+
+    requireNonNull(key, "key argument cannot be null");
+
+    synchronized (this.entries) {
+
+      final Entry entry = this.entries.get(key);
+
+      if (entry == null) {
+        throw new IllegalStateException(
+            "Unknown shared annotation: " + key);
+      }
+
+      entry.references--;
+
+      if (entry.references == 0) {
+
+        // The annotation has not been loaded
+        if (entry.annotation == null) {
+          this.entries.remove(key);
+          return;
+        }
+
+        this.released.put(key, entry);
+        removeReleasedAnnotations();
+      }
+    }
+  }
+
+  /**
+   * Set the maximal number of unused annotations kept in the cache.
+   * @param maxReleasedAnnotations the maximal number of unused annotations
+   */
+  void setMaxReleasedAnnotations(final int maxReleasedAnnotations) {
+
+    if (maxReleasedAnnotations < 0) {
+      throw new IllegalArgumentException(
+          "maxReleasedAnnotations cannot be lower than 0: "
+              + maxReleasedAnnotations);
+    }
+
+    synchronized (this.entries) {
+
+      this.maxReleasedAnnotations = maxReleasedAnnotations;
+      removeReleasedAnnotations();
+    }
+  }
+
+  /**
+   * Remove the least recently released annotations while there are too many
+   * unused annotations in the cache. The lock on the entries must be held.
+   */
+  private void removeReleasedAnnotations() {
+
+    final Iterator<String> it = this.released.keySet().iterator();
+
+    while (this.released.size() > this.maxReleasedAnnotations) {
+
+      final String key = it.next();
+      it.remove();
+      this.entries.remove(key);
+      getLogger().info("Remove shared annotation from cache: " + key);
+    }
+  }
+
+  /**
+   * Get the number of annotations in the cache.
+   * @return the number of annotations in the cache
+   */
+  int size() {
+
+    synchronized (this.entries) {
+      return this.entries.size();
+    }
+  }
+
+  /**
+   * Test if an annotation is in the cache.
+   * @param key the key of the annotation
+   * @return true if the annotation is in the cache, even if it is no more
+   *         used
+   */
+  boolean contains(final String key) {
+
+    synchronized (this.entries) {
+      return this.entries.containsKey(key);
+    }
+  }
+
+  /**
+   * Get the reference count of an annotation.
+   * @param key the key of the annotation
+   * @return the reference count of the annotation or 0 if the annotation is
+   *         not in the cache
+   */
+  int getReferenceCount(final String key) {
+
+    synchronized (this.entries) {
+
+      final Entry entry = this.entries.get(key);
+      return entry == null ? 0 : entry.references;
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private SharedAnnotationCache() {
+  }
+
+}
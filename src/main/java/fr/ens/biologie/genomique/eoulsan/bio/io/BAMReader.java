@@ -0,0 +1,244 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import fr.ens.biologie.genomique.eoulsan.io.ParallelGZIPInputStream;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.util.StringLineReader;
+
+/**
+ * This class implements a BAM reader. The BGZF blocks of the BAM file are
+ * uncompressed in background threads by a {@link ParallelGZIPInputStream} and
+ * the entries are decoded from the uncompressed data in the current thread.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class BAMReader implements Iterable<SAMRecord>, Closeable {
+
+  private static final byte[] BAM_MAGIC = {'B', 'A', 'M', 1};
+
+  private final ParallelGZIPInputStream in;
+  private final SAMFileHeader header;
+  private final BAMRecordCodec codec;
+
+  private SAMRecord next;
+  private boolean end;
+  private boolean iteratorCreated;
+
+  //
+  // Reader methods
+  //
+
+  /**
+   * Get the header of the BAM file.
+   * @return the header of the BAM file
+   */
+  public SAMFileHeader getFileHeader() {
+
+    return this.header;
+  }
+
+  @Override
+  public Iterator<SAMRecord> iterator() {
+
+    if (this.iteratorCreated) {
+      throw new IllegalStateException(
+          "the entries of the BAM file can only be read once");
+    }
+    this.iteratorCreated = true;
+
+    return new Iterator<SAMRecord>() {
+
+      @Override
+      public boolean hasNext() {
+
+        if (next == null && !end) {
+          next = codec.decode();
+          end = next == null;
+        }
+
+        return next != null;
+      }
+
+      @Override
+      public SAMRecord next() {
+
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        final SAMRecord result = next;
+        next = null;
+
+        return result;
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    this.in.close();
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Read the header of the BAM file.
+   * @param in uncompressed input stream
+   * @return the header of the BAM file
+   * @throws IOException if an error occurs while reading the header
+   */
+  private static SAMFileHeader readHeader(final DataInputStream in)
+      throws IOException {
+
+    final byte[] magic = new byte[BAM_MAGIC.length];
+    in.readFully(magic);
+
+    for (int i = 0; i < magic.length; i++) {
+      if (magic[i] != BAM_MAGIC[i]) {
+        throw new IOException("Invalid BAM file header");
+      }
+    }
+
+    // Text of the header, the text may be padded with NUL characters
+    final byte[] textBytes = new byte[readLength(in)];
+    in.readFully(textBytes);
+
+    int textLength = 0;
+    while (textLength < textBytes.length && textBytes[textLength] != 0) {
+      textLength++;
+    }
+
+    final SAMFileHeader header = new SAMTextHeaderCodec().decode(
+        new StringLineReader(
+            new String(textBytes, 0, textLength, StandardCharsets.ISO_8859_1)),
+        null);
+
+    // Binary list of the references
+    final int referenceCount = readLength(in);
+    final List<SAMSequenceRecord> references = new ArrayList<>(referenceCount);
+
+    for (int i = 0; i < referenceCount; i++) {
+
+      final byte[] nameBytes = new byte[readLength(in)];
+      in.readFully(nameBytes);
+
+      // The name of the reference is terminated by a NUL character
+      final String name = new String(nameBytes, 0,
+          Math.max(0, nameBytes.length - 1), StandardCharsets.ISO_8859_1);
+
+      references.add(new SAMSequenceRecord(name, readLength(in)));
+    }
+
+    // The binary list of the references is used if the text of the header
+    // does not contain the references
+    if (header.getSequenceDictionary().size() == 0 && !references.isEmpty()) {
+      header.setSequenceDictionary(new SAMSequenceDictionary(references));
+    }
+
+    return header;
+  }
+
+  /**
+   * Read a positive little endian 32 bits integer.
+   * @param in input stream
+   * @return the value of the integer
+   * @throws IOException if an error occurs while reading the integer or if the
+   *           value is negative
+   */
+  private static int readLength(final DataInputStream in) throws IOException {
+
+    final int result;
+    try {
+      result = Integer.reverseBytes(in.readInt());
+    } catch (EOFException e) {
+      throw new IOException("Truncated BAM file header", e);
+    }
+
+    if (result < 0) {
+      throw new IOException("Invalid BAM file header");
+    }
+
+    return result;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param in BAM input stream
+   * @param threads number of threads to use to uncompress the BAM file
+   * @throws IOException if an error occurs while reading the header of the BAM
+   *           file
+   */
+  public BAMReader(final InputStream in, final int threads)
+      throws IOException {
+
+    if (in == null) {
+      throw new NullPointerException("in argument cannot be null");
+    }
+
+    this.in = new ParallelGZIPInputStream(in, threads);
+
+    try {
+
+      if (!this.in.isBGZF()) {
+        throw new IOException("The input stream is not in BAM format");
+      }
+
+      final DataInputStream dis = new DataInputStream(this.in);
+      this.header = readHeader(dis);
+      this.codec = new BAMRecordCodec(this.header);
+      this.codec.setInputStream(dis);
+
+    } catch (IOException | RuntimeException e) {
+      this.in.close();
+      throw e;
+    }
+  }
+
+}
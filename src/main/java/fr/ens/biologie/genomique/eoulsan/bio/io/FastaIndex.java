@@ -0,0 +1,473 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.ens.biologie.genomique.eoulsan.Globals;
+import fr.ens.biologie.genomique.eoulsan.bio.Alphabet;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+
+/**
+ * This class define an index of a FASTA file. The index is compatible with the
+ * ".fai" index files created by "samtools faidx" and allow random access to
+ * the sequences of an uncompressed FASTA file.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class FastaIndex {
+
+  /** Extension of the index files. */
+  public static final String INDEX_EXTENSION = ".fai";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+  /**
+   * This class define an entry of the index.
+   */
+  public static final class Entry {
+
+    private final String name;
+    private final long length;
+    private final long offset;
+    private final int lineBases;
+    private final int lineWidth;
+
+    /**
+     * Get the name of the sequence.
+     * @return the name of the sequence
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Get the length of the sequence.
+     * @return the number of bases of the sequence
+     */
+    public long getLength() {
+      return this.length;
+    }
+
+    /**
+     * Get the offset in the FASTA file of the first base of the sequence.
+     * @return the offset of the first base of the sequence
+     */
+    public long getOffset() {
+      return this.offset;
+    }
+
+    /**
+     * Get the number of bases by line.
+     * @return the number of bases by line
+     */
+    public int getLineBases() {
+      return this.lineBases;
+    }
+
+    /**
+     * Get the number of bytes by line, including the end of line characters.
+     * @return the number of bytes by line
+     */
+    public int getLineWidth() {
+      return this.lineWidth;
+    }
+
+    /**
+     * Get the offset in the FASTA file of a base of the sequence.
+     * @param position position of the base in the sequence, 0-based
+     * @return the offset of the base in the file
+     */
+    public long getBaseOffset(final long position) {
+
+      if (this.lineBases == 0) {
+        return this.offset + position;
+      }
+
+      return this.offset
+          + (position / this.lineBases) * this.lineWidth
+          + position % this.lineBases;
+    }
+
+    @Override
+    public String toString() {
+
+      return this.name
+          + '\t' + this.length + '\t' + this.offset + '\t' + this.lineBases
+          + '\t' + this.lineWidth;
+    }
+
+    /**
+     * Constructor.
+     * @param name name of the sequence
+     * @param length length of the sequence
+     * @param offset offset of the first base of the sequence
+     * @param lineBases number of bases by line
+     * @param lineWidth number of bytes by line
+     */
+    public Entry(final String name, final long length, final long offset,
+        final int lineBases, final int lineWidth) {
+
+      requireNonNull(name, "name argument cannot be null");
+
+      if (length < 0 || offset < 0 || lineBases < 0 || lineWidth < lineBases) {
+        throw new IllegalArgumentException("Invalid FASTA index entry: "
+            + name + ", " + length + ", " + offset + ", " + lineBases + ", "
+            + lineWidth);
+      }
+
+      this.name = name;
+      this.length = length;
+      this.offset = offset;
+      this.lineBases = lineBases;
+      this.lineWidth = lineWidth;
+    }
+  }
+
+  /**
+   * This class allow to read the lines of a stream as bytes.
+   */
+  private static final class ByteLineReader {
+
+    private final InputStream is;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    private byte[] line = new byte[1024];
+    private int lineLength;
+
+    /**
+     * Read the next line.
+     * @return the number of bytes read including the end of line character or
+     *         -1 if the end of the stream has been reached
+     * @throws IOException if an error occurs while reading the stream
+     */
+    int readLine() throws IOException {
+
+      this.lineLength = 0;
+      int count = 0;
+
+      while (true) {
+
+        if (this.pos == this.limit) {
+
+          final int n = this.is.read(this.buffer);
+          if (n == -1) {
+            return count == 0 ? -1 : count;
+          }
+          this.pos = 0;
+          this.limit = n;
+        }
+
+        final byte b = this.buffer[this.pos++];
+        count++;
+
+        if (b == '\n') {
+          return count;
+        }
+
+        if (this.lineLength == this.line.length) {
+          final byte[] newLine = new byte[this.line.length * 2];
+          System.arraycopy(this.line, 0, newLine, 0, this.lineLength);
+          this.line = newLine;
+        }
+        this.line[this.lineLength++] = b;
+      }
+    }
+
+    /**
+     * Get the buffer that contains the last line read, without the end of line
+     * character.
+     * @return the buffer of the last line
+     */
+    byte[] getLine() {
+
+      return this.line;
+    }
+
+    /**
+     * Get the length of the last line read without the new line character.
+     * @return the length of the line
+     */
+    int getLineLength() {
+
+      return this.lineLength;
+    }
+
+    ByteLineReader(final InputStream is) {
+      this.is = is;
+    }
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the entry of a sequence.
+   * @param sequenceName name of the sequence
+   * @return the entry of the sequence or null if the sequence is not in the
+   *         index
+   */
+  public Entry getEntry(final String sequenceName) {
+
+    return this.entries.get(sequenceName);
+  }
+
+  /**
+   * Get the entries of the index.
+   * @return an unmodifiable list with the entries of the index in the order of
+   *         the FASTA file
+   */
+  public List<Entry> getEntries() {
+
+    return Collections.unmodifiableList(new ArrayList<>(this.entries.values()));
+  }
+
+  /**
+   * Get the names of the sequences of the index.
+   * @return an unmodifiable list with the names of the sequences
+   */
+  public List<String> getSequenceNames() {
+
+    return Collections.unmodifiableList(new ArrayList<>(this.entries.keySet()));
+  }
+
+  /**
+   * Get the number of sequences in the index.
+   * @return the number of sequences in the index
+   */
+  public int getSequenceCount() {
+
+    return this.entries.size();
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Add an entry to the index.
+   * @param entry entry to add
+   * @throws BadBioEntryException if the name of the sequence is already in the
+   *           index
+   */
+  void add(final Entry entry) throws BadBioEntryException {
+
+    if (this.entries.containsKey(entry.getName())) {
+      throw new BadBioEntryException(
+          "Sequence name found twice: " + entry.getName(), entry.getName());
+    }
+
+    this.entries.put(entry.getName(), entry);
+  }
+
+  /**
+   * Write the index.
+   * @param os output stream
+   * @throws IOException if an error occurs while writing the index
+   */
+  public void write(final OutputStream os) throws IOException {
+
+    requireNonNull(os, "os argument cannot be null");
+
+    try (Writer writer = new BufferedWriter(
+        new OutputStreamWriter(os, Globals.DEFAULT_CHARSET))) {
+
+      for (Entry e : this.entries.values()) {
+        writer.write(e.toString());
+        writer.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Write the index.
+   * @param file output file
+   * @throws IOException if an error occurs while writing the index
+   */
+  public void write(final File file) throws IOException {
+
+    requireNonNull(file, "file argument cannot be null");
+
+    write(new FileOutputStream(file));
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Get the index file of a FASTA file.
+   * @param fastaFile the FASTA file
+   * @return the index file of the FASTA file
+   */
+  public static File getIndexFile(final File fastaFile) {
+
+    requireNonNull(fastaFile, "fastaFile argument cannot be null");
+
+    return new File(fastaFile.getPath() + INDEX_EXTENSION);
+  }
+
+  /**
+   * Read an index.
+   * @param is input stream
+   * @return a new FastaIndex object
+   * @throws IOException if an error occurs while reading the index
+   */
+  public static FastaIndex read(final InputStream is) throws IOException {
+
+    requireNonNull(is, "is argument cannot be null");
+
+    final FastaIndex result = new FastaIndex();
+
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(is, Globals.DEFAULT_CHARSET))) {
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+
+        final String[] fields = line.split("\t");
+        if (fields.length < 5) {
+          throw new IOException("Invalid FASTA index line: " + line);
+        }
+
+        try {
+          result.add(new Entry(fields[0], Long.parseLong(fields[1]),
+              Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+              Integer.parseInt(fields[4])));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Invalid FASTA index line: " + line, e);
+        } catch (BadBioEntryException e) {
+          throw new IOException(e.getMessage(), e);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Read an index.
+   * @param file index file
+   * @return a new FastaIndex object
+   * @throws IOException if an error occurs while reading the index
+   */
+  public static FastaIndex read(final File file) throws IOException {
+
+    requireNonNull(file, "file argument cannot be null");
+
+    return read(new FileInputStream(file));
+  }
+
+  /**
+   * Create the index of a FASTA file.
+   * @param fastaFile FASTA file
+   * @return a new FastaIndex object
+   * @throws IOException if an error occurs while reading the FASTA file
+   * @throws BadBioEntryException if the FASTA file cannot be indexed
+   */
+  public static FastaIndex create(final File fastaFile)
+      throws IOException, BadBioEntryException {
+
+    requireNonNull(fastaFile, "fastaFile argument cannot be null");
+
+    return create(new FileInputStream(fastaFile), null, null);
+  }
+
+  /**
+   * Create the index of a FASTA stream. The stream is read only once and can
+   * also be used to check the bases of the sequences and to compute a digest
+   * of the genome. The digest is updated with the names of the sequences and
+   * the bases of each line of the sequences.
+   * @param is FASTA input stream
+   * @param alphabet alphabet used to check the bases, can be null
+   * @param digest digest to update, can be null
+   * @return a new FastaIndex object
+   * @throws IOException if an error occurs while reading the FASTA stream
+   * @throws BadBioEntryException if the FASTA stream contains an invalid base
+   *           or if the length of the lines of a sequence is not constant
+   */
+  public static FastaIndex create(final InputStream is,
+      final Alphabet alphabet, final MessageDigest digest)
+      throws IOException, BadBioEntryException {
+
+    return create(is, new FastaIndexBuilder(alphabet, digest, false, true));
+  }
+
+  /**
+   * Create the index of a FASTA stream using a builder.
+   * @param is FASTA input stream
+   * @param builder the builder to use
+   * @return a new FastaIndex object
+   * @throws IOException if an error occurs while reading the FASTA stream
+   * @throws BadBioEntryException if the FASTA stream is invalid
+   */
+  public static FastaIndex create(final InputStream is,
+      final FastaIndexBuilder builder)
+      throws IOException, BadBioEntryException {
+
+    requireNonNull(is, "is argument cannot be null");
+    requireNonNull(builder, "builder argument cannot be null");
+
+    try (InputStream in = is) {
+
+      final ByteLineReader reader = new ByteLineReader(in);
+
+      int n;
+      while ((n = reader.readLine()) != -1) {
+        builder.addLine(reader.getLine(), reader.getLineLength(), n);
+      }
+    }
+
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,394 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static fr.ens.biologie.genomique.eoulsan.bio.io.BioCharsets.FASTA_CHARSET;
+import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.md5DigestToString;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.ens.biologie.genomique.eoulsan.Globals;
+import fr.ens.biologie.genomique.eoulsan.bio.Alphabet;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+
+/**
+ * This class allow to build a FastaIndex from the lines of a FASTA file. The
+ * lines are provided as bytes and the builder can also check the bases of the
+ * sequences, compute a digest of the whole genome and compute the MD5 sum of
+ * each sequence.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class FastaIndexBuilder {
+
+  private final FastaIndex index = new FastaIndex();
+  private final boolean[] validBases;
+  private final MessageDigest genomeDigest;
+  private final MessageDigest sequenceDigest;
+  private final boolean strict;
+  private final Map<String, String> sequenceMD5Sums = new LinkedHashMap<>();
+  private SequenceListener listener;
+
+  private byte[] upperCaseBuffer = new byte[1024];
+
+  private long offset;
+  private String name;
+  private long sequenceOffset;
+  private long length;
+  private int lineBases;
+  private int lineWidth;
+  private boolean lastLine;
+  private boolean indexable = true;
+
+  /**
+   * This interface define a listener called at the end of each sequence.
+   */
+  public interface SequenceListener {
+
+    /**
+     * Method called at the end of each sequence.
+     * @param entry the index entry of the sequence
+     * @param endOffset the offset of the end of the sequence in the file, i.e.
+     *          the offset of the next header or the end of the file
+     */
+    void sequenceParsed(FastaIndex.Entry entry, long endOffset);
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Test if the FASTA data can be indexed, i.e. if the length of the lines of
+   * each sequence is constant. Always true in strict mode.
+   * @return true if the FASTA data can be indexed
+   */
+  public boolean isIndexable() {
+
+    return this.indexable;
+  }
+
+  /**
+   * Get the MD5 sums of the sequences. The MD5 sum of a sequence is computed
+   * on its upper case bases without white spaces like the M5 tag of the SAM
+   * format.
+   * @return an unmodifiable map with the MD5 sums of the sequences
+   */
+  public Map<String, String> getSequenceMD5Sums() {
+
+    return Collections.unmodifiableMap(this.sequenceMD5Sums);
+  }
+
+  //
+  // Setters
+  //
+
+  /**
+   * Set the listener called at the end of each sequence.
+   * @param listener the listener
+   */
+  public void setSequenceListener(final SequenceListener listener) {
+
+    this.listener = listener;
+  }
+
+  //
+  // Parsing
+  //
+
+  /**
+   * Add a line of the FASTA file.
+   * @param bytes bytes of the line
+   * @param lineLength length of the line without the new line character
+   * @param rawLength number of bytes of the line in the file, including the
+   *          new line character if exists
+   * @throws BadBioEntryException if the line is invalid
+   */
+  public void addLine(final byte[] bytes, final int lineLength,
+      final int rawLength) throws BadBioEntryException {
+
+    // Trim the end of the line
+    int trimmedLength = lineLength;
+    while (trimmedLength > 0 && (bytes[trimmedLength - 1] & 0xff) <= ' ') {
+      trimmedLength--;
+    }
+
+    this.offset += rawLength;
+
+    // Empty lines are only allowed at the end of a sequence
+    if (trimmedLength == 0) {
+      if (this.length > 0) {
+        this.lastLine = true;
+      }
+      return;
+    }
+
+    // Header of a new sequence
+    if (bytes[0] == '>') {
+
+      endSequence(this.offset - rawLength);
+
+      this.name = parseSequenceName(bytes, trimmedLength);
+      this.sequenceOffset = this.offset;
+      this.length = 0;
+      this.lineBases = 0;
+      this.lineWidth = 0;
+      this.lastLine = false;
+      if (this.sequenceDigest != null) {
+        this.sequenceDigest.reset();
+      }
+      return;
+    }
+
+    if (this.name == null) {
+      throw new BadBioEntryException(
+          "No fasta header found at the beginning of the fasta file",
+          new String(bytes, 0, trimmedLength, FASTA_CHARSET));
+    }
+
+    if (this.lastLine || (bytes[0] & 0xff) <= ' ') {
+      irregularSequence();
+    }
+
+    // Check the bases
+    if (this.validBases != null) {
+      for (int i = 0; i < trimmedLength; i++) {
+        if (!this.validBases[bytes[i] & 0xff]) {
+          throw new BadBioEntryException(
+              "Invalid base in genome: " + (char) (bytes[i] & 0xff),
+              this.name);
+        }
+      }
+    }
+
+    // Update the genome digest with the name of the sequence on its first line
+    // and with the bases of the line
+    if (this.genomeDigest != null) {
+      if (this.length == 0) {
+        this.genomeDigest.update(this.name.getBytes(Globals.DEFAULT_CHARSET));
+      }
+      this.genomeDigest.update(bytes, 0, trimmedLength);
+    }
+
+    // Update the digest of the sequence
+    if (this.sequenceDigest != null) {
+      updateSequenceDigest(bytes, trimmedLength);
+    }
+
+    if (this.length == 0) {
+      this.lineBases = trimmedLength;
+      this.lineWidth = rawLength;
+    } else if (trimmedLength > this.lineBases) {
+      irregularSequence();
+    } else if (trimmedLength < this.lineBases || rawLength != this.lineWidth) {
+      this.lastLine = true;
+    }
+
+    this.length += trimmedLength;
+  }
+
+  /**
+   * Create the index once all the lines have been added.
+   * @return the FASTA index
+   * @throws BadBioEntryException if a sequence name has been found twice
+   */
+  public FastaIndex build() throws BadBioEntryException {
+
+    endSequence(this.offset);
+    this.name = null;
+
+    return this.index;
+  }
+
+  /**
+   * End the current sequence.
+   * @param endOffset offset of the end of the sequence
+   * @throws BadBioEntryException if the sequence name has been already found
+   */
+  private void endSequence(final long endOffset) throws BadBioEntryException {
+
+    if (this.name == null) {
+      return;
+    }
+
+    final FastaIndex.Entry entry = new FastaIndex.Entry(this.name,
+        this.length, this.sequenceOffset, this.lineBases, this.lineWidth);
+    this.index.add(entry);
+
+    if (this.sequenceDigest != null && this.length > 0) {
+      this.sequenceMD5Sums.put(this.name,
+          md5DigestToString(this.sequenceDigest));
+    }
+
+    if (this.listener != null) {
+      this.listener.sequenceParsed(entry, endOffset);
+    }
+  }
+
+  /**
+   * Handle a sequence where the length of the lines is not constant.
+   * @throws BadBioEntryException in strict mode
+   */
+  private void irregularSequence() throws BadBioEntryException {
+
+    if (this.strict) {
+      throw new BadBioEntryException(
+          "Different line length in sequence: " + this.name, this.name);
+    }
+
+    this.indexable = false;
+  }
+
+  /**
+   * Update the digest of the current sequence with the upper case bases of a
+   * line.
+   * @param bytes bytes of the line
+   * @param len length of the line
+   */
+  private void updateSequenceDigest(final byte[] bytes, final int len) {
+
+    if (this.upperCaseBuffer.length < len) {
+      this.upperCaseBuffer = new byte[len];
+    }
+
+    final int n = toUpperCaseBases(bytes, 0, len, this.upperCaseBuffer);
+    this.sequenceDigest.update(this.upperCaseBuffer, 0, n);
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Copy the bases of an array in upper case, discarding white spaces.
+   * @param src source array
+   * @param off offset in the source array
+   * @param len number of bytes to process
+   * @param dst destination array
+   * @return the number of bases copied in the destination array
+   */
+  public static int toUpperCaseBases(final byte[] src, final int off,
+      final int len, final byte[] dst) {
+
+    int count = 0;
+    final int end = off + len;
+
+    for (int i = off; i < end; i++) {
+
+      final byte b = src[i];
+
+      if ((b & 0xff) <= ' ') {
+        continue;
+      }
+
+      dst[count++] = b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+    }
+
+    return count;
+  }
+
+  /**
+   * Create a lookup table of the valid bases of an alphabet.
+   * @param alphabet the alphabet
+   * @return an array of 256 booleans or null if the alphabet is null
+   */
+  public static boolean[] createValidBasesTable(final Alphabet alphabet) {
+
+    if (alphabet == null) {
+      return null;
+    }
+
+    final boolean[] result = new boolean[256];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = alphabet.isLetterValid((char) i);
+    }
+
+    return result;
+  }
+
+  /**
+   * Parse the name of a sequence from a FASTA header. The name of the sequence
+   * is the first word of the header.
+   * @param header the bytes of the header
+   * @param length the length of the header
+   * @return the name of the sequence
+   * @throws BadBioEntryException if the header is invalid
+   */
+  private static String parseSequenceName(final byte[] header,
+      final int length) throws BadBioEntryException {
+
+    final String s = new String(header, 1, length - 1, FASTA_CHARSET);
+
+    if (s.trim().isEmpty()) {
+      throw new BadBioEntryException("Sequence header is empty", ">" + s);
+    }
+
+    if (Character.isWhitespace(s.charAt(0))) {
+      throw new BadBioEntryException(
+          "A whitespace was found at the beginning of the sequence name",
+          ">" + s);
+    }
+
+    return s.split("\\s")[0];
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param alphabet alphabet used to check the bases, can be null
+   * @param genomeDigest digest to update with the names of the sequences and
+   *          the bases of each line, can be null
+   * @param computeSequenceMD5Sums true if the MD5 sum of each sequence must be
+   *          computed
+   * @param strict if true, an exception is thrown if the length of the lines of
+   *          a sequence is not constant
+   */
+  public FastaIndexBuilder(final Alphabet alphabet,
+      final MessageDigest genomeDigest, final boolean computeSequenceMD5Sums,
+      final boolean strict) {
+
+    this.validBases = createValidBasesTable(alphabet);
+    this.genomeDigest = genomeDigest;
+    this.strict = strict;
+
+    MessageDigest digest = null;
+    if (computeSequenceMD5Sums) {
+      try {
+        digest = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        digest = null;
+      }
+    }
+    this.sequenceDigest = digest;
+  }
+
+}
@@ -0,0 +1,348 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static fr.ens.biologie.genomique.eoulsan.bio.io.BioCharsets.FASTQ_CHARSET;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+
+/**
+ * This class allow to parse FASTQ entries directly from the bytes of an
+ * InputStream. The lines of the entries are located in a reusable buffer
+ * without creating any intermediate String object.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class FastqByteParser implements Closeable {
+
+  /** Default size of the buffer. */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private static final int LINES_PER_ENTRY = 4;
+
+  private final InputStream is;
+  private byte[] buffer;
+  private int pos;
+  private int limit;
+  private boolean eof;
+
+  // Start and end (exclusive) of the trimmed lines of the current entry
+  private final int[] lineStarts = new int[LINES_PER_ENTRY];
+  private final int[] lineEnds = new int[LINES_PER_ENTRY];
+
+  private int lineCount;
+
+  /**
+   * Parse the next entry of the FASTQ stream.
+   * @return true if an entry has been parsed, false if the end of the stream
+   *         has been reached
+   * @throws IOException if an error occurs while reading the stream
+   * @throws BadBioEntryException if the entry is not a valid FASTQ entry
+   */
+  public boolean parseNextEntry() throws IOException, BadBioEntryException {
+
+    int entryLine = 0;
+    int lineStart = this.pos;
+    int scan = this.pos;
+
+    while (entryLine < LINES_PER_ENTRY) {
+
+      // Search the end of the current line
+      int eol = -1;
+      final byte[] buf = this.buffer;
+      final int lim = this.limit;
+      for (int i = scan; i < lim; i++) {
+        if (buf[i] == '\n') {
+          eol = i;
+          break;
+        }
+      }
+
+      if (eol == -1) {
+
+        if (this.eof) {
+
+          // Last line without final new line character
+          if (lineStart < this.limit) {
+            eol = this.limit;
+          } else {
+
+            if (entryLine == 0) {
+              return false;
+            }
+
+            throw new BadBioEntryException(
+                "Invalid Fastq file. Truncated entry at line "
+                    + this.lineCount,
+                toString(this.lineStarts[0], this.lineEnds[0]));
+          }
+        } else {
+
+          // Fill the buffer and restart the search of the line end
+          final int shift = fill();
+          lineStart -= shift;
+          scan = lim - shift;
+          for (int i = 0; i < entryLine; i++) {
+            this.lineStarts[i] -= shift;
+            this.lineEnds[i] -= shift;
+          }
+          continue;
+        }
+      }
+
+      // Increment line count
+      this.lineCount++;
+
+      // Trim the line
+      int start = lineStart;
+      int end = eol;
+      while (start < end && (this.buffer[start] & 0xff) <= ' ') {
+        start++;
+      }
+      while (end > start && (this.buffer[end - 1] & 0xff) <= ' ') {
+        end--;
+      }
+
+      // The next line starts after the new line character
+      lineStart = Math.min(eol + 1, this.limit);
+      scan = lineStart;
+
+      // Discard empty lines between entries
+      if (entryLine == 0 && start == end) {
+        this.pos = lineStart;
+        continue;
+      }
+
+      if (entryLine == 0 && this.buffer[start] != '@') {
+        throw new BadBioEntryException(
+            "Invalid Fastq file. First line of the entry don't start with '@' at line "
+                + this.lineCount,
+            toString(start, end));
+      }
+
+      if (entryLine == 2 && (start == end || this.buffer[start] != '+')) {
+        throw new BadBioEntryException(
+            "Invalid Fastq file. Third line of the entry don't start with '+' at line "
+                + this.lineCount,
+            toString(start, end));
+      }
+
+      this.lineStarts[entryLine] = start;
+      this.lineEnds[entryLine] = end;
+      entryLine++;
+    }
+
+    this.pos = lineStart;
+
+    return true;
+  }
+
+  /**
+   * Fill the buffer with new data from the stream. The unprocessed bytes are
+   * moved at the beginning of the buffer and the buffer is enlarged if it is
+   * full.
+   * @return the number of bytes the unprocessed data has been shifted to the
+   *         left
+   * @throws IOException if an error occurs while reading the stream
+   */
+  private int fill() throws IOException {
+
+    final int shift = this.pos;
+    final int remaining = this.limit - this.pos;
+
+    if (shift > 0) {
+      System.arraycopy(this.buffer, this.pos, this.buffer, 0, remaining);
+      this.pos = 0;
+      this.limit = remaining;
+    }
+
+    // Enlarge the buffer if an entry does not fit in it
+    if (this.limit == this.buffer.length) {
+      final byte[] newBuffer = new byte[this.buffer.length * 2];
+      System.arraycopy(this.buffer, 0, newBuffer, 0, this.limit);
+      this.buffer = newBuffer;
+    }
+
+    final int n =
+        this.is.read(this.buffer, this.limit, this.buffer.length - this.limit);
+
+    if (n == -1) {
+      this.eof = true;
+    } else {
+      this.limit += n;
+    }
+
+    return shift;
+  }
+
+  private String toString(final int start, final int end) {
+
+    return new String(this.buffer, start, end - start, FASTQ_CHARSET);
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the buffer that contains the current entry. The content of the buffer
+   * is only valid until the next call to parseNextEntry().
+   * @return the internal buffer of the parser
+   */
+  public byte[] getBuffer() {
+
+    return this.buffer;
+  }
+
+  /**
+   * Get the start offset in the buffer of the name of the current entry,
+   * without the leading '@' character.
+   * @return the start offset of the name
+   */
+  public int getNameStart() {
+
+    return this.lineStarts[0] + 1;
+  }
+
+  /**
+   * Get the length of the name of the current entry.
+   * @return the length of the name
+   */
+  public int getNameLength() {
+
+    return this.lineEnds[0] - this.lineStarts[0] - 1;
+  }
+
+  /**
+   * Get the start offset in the buffer of the sequence of the current entry.
+   * @return the start offset of the sequence
+   */
+  public int getSequenceStart() {
+
+    return this.lineStarts[1];
+  }
+
+  /**
+   * Get the length of the sequence of the current entry.
+   * @return the length of the sequence
+   */
+  public int getSequenceLength() {
+
+    return this.lineEnds[1] - this.lineStarts[1];
+  }
+
+  /**
+   * Get the start offset in the buffer of the quality of the current entry.
+   * @return the start offset of the quality
+   */
+  public int getQualityStart() {
+
+    return this.lineStarts[3];
+  }
+
+  /**
+   * Get the length of the quality of the current entry.
+   * @return the length of the quality
+   */
+  public int getQualityLength() {
+
+    return this.lineEnds[3] - this.lineStarts[3];
+  }
+
+  /**
+   * Get the number of lines read.
+   * @return the number of lines read
+   */
+  public int getLineCount() {
+
+    return this.lineCount;
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Fill a ReadSequence object with the current entry.
+   * @param read the read to fill
+   */
+  public void fill(final ReadSequence read) {
+
+    if (read == null) {
+      throw new NullPointerException("read argument cannot be null");
+    }
+
+    read.setName(toString(getNameStart(), getNameStart() + getNameLength()));
+    read.setSequence(
+        toString(getSequenceStart(), getSequenceStart() + getSequenceLength()));
+    read.setQuality(
+        toString(getQualityStart(), getQualityStart() + getQualityLength()));
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    this.is.close();
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   * @param is InputStream to use
+   */
+  public FastqByteParser(final InputStream is) {
+
+    this(is, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Public constructor.
+   * @param is InputStream to use
+   * @param bufferSize initial size of the buffer
+   */
+  public FastqByteParser(final InputStream is, final int bufferSize) {
+
+    if (is == null) {
+      throw new NullPointerException("InputStream is null");
+    }
+
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException(
+          "Invalid buffer size: " + bufferSize);
+    }
+
+    this.is = is;
+    this.buffer = new byte[bufferSize];
+  }
+
+}
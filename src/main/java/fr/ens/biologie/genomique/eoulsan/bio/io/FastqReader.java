@@ -24,14 +24,10 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.io;
 
-import static fr.ens.biologie.genomique.eoulsan.bio.io.BioCharsets.FASTQ_CHARSET;
-
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -40,17 +36,17 @@ import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
 import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 
 /**
- * This class implements a Fastq reader.
+ * This class implements a Fastq reader. The entries are parsed directly from
+ * the bytes of the input stream using a {@link FastqByteParser}.
  * @since 1.0
  * @author Laurent Jourdren
  */
 public class FastqReader implements ReadSequenceReader {
 
-  private final BufferedReader reader;
+  private final FastqByteParser parser;
 
   private ReadSequence result = null;
-  private final StringBuilder sb = new StringBuilder();
-  private int lineCount = 0;
+  private boolean reuse;
 
   private boolean end = false;
   private boolean nextCallDone = true;
@@ -60,7 +56,7 @@ public class FastqReader implements ReadSequenceReader {
   @Override
   public void close() throws IOException {
 
-    this.reader.close();
+    this.parser.close();
   }
 
   @Override
@@ -78,47 +74,18 @@ public class FastqReader implements ReadSequenceReader {
 
     this.nextCallDone = false;
 
-    String line = null;
-    int entryLine = 0;
-
     try {
-      while ((line = this.reader.readLine()) != null) {
-
-        // Increment line count
-        this.lineCount++;
-
-        // Trim the line
-        final String trim = line.trim();
-
-        entryLine++;
-        this.sb.append(trim);
-
-        if (entryLine == 1 && trim.charAt(0) != '@') {
-          throw new BadBioEntryException(
-              "Invalid Fastq file. First line of the entry don't start with '@' at line "
-                  + this.lineCount,
-              line);
-        }
-
-        if (entryLine == 3 && trim.charAt(0) != '+') {
-          throw new BadBioEntryException(
-              "Invalid Fastq file. Third line of the entry don't start with '+' at line "
-                  + this.lineCount,
-              line);
-        }
 
-        if (entryLine == 4) {
+      if (this.parser.parseNextEntry()) {
 
-          // Fill the ReadSequence object
+        // Fill the ReadSequence object
+        if (!this.reuse || this.result == null) {
           this.result = new ReadSequence();
-          this.result.parseFastQ(this.sb.toString());
-          this.sb.setLength(0);
-          return true;
         }
-        this.sb.append('\n');
+        this.parser.fill(this.result);
+        return true;
       }
 
-      this.sb.setLength(0);
       this.end = true;
 
       return false;
@@ -153,6 +120,18 @@ public class FastqReader implements ReadSequenceReader {
     throw new UnsupportedOperationException("Unsupported operation");
   }
 
+  @Override
+  public void setReuseResultObject(final boolean reuse) {
+
+    this.reuse = reuse;
+  }
+
+  @Override
+  public boolean isReuseResultObject() {
+
+    return this.reuse;
+  }
+
   @Override
   public void throwException() throws IOException, BadBioEntryException {
 
@@ -179,7 +158,7 @@ public class FastqReader implements ReadSequenceReader {
       throw new NullPointerException("InputStream is null");
     }
 
-    this.reader = new BufferedReader(new InputStreamReader(is, FASTQ_CHARSET));
+    this.parser = new FastqByteParser(is);
   }
 
   /**
@@ -192,7 +171,7 @@ public class FastqReader implements ReadSequenceReader {
       throw new NullPointerException("File is null");
     }
 
-    this.reader = FileUtils.createBufferedReader(file, FASTQ_CHARSET);
+    this.parser = new FastqByteParser(FileUtils.createInputStream(file));
   }
 
   /**
@@ -201,7 +180,7 @@ public class FastqReader implements ReadSequenceReader {
    */
   public FastqReader(final String filename) throws FileNotFoundException {
 
-    this.reader = FileUtils.createBufferedReader(filename, FASTQ_CHARSET);
+    this.parser = new FastqByteParser(FileUtils.createInputStream(filename));
   }
 
 }
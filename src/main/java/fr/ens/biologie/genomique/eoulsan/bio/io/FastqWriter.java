@@ -31,29 +31,121 @@ import java.io.OutputStream;
 import java.io.Writer;
 
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
 import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 
 /**
- * this class implements a FastQ writer.
+ * this class implements a FastQ writer. When the writer is created from an
+ * OutputStream or a file, the entries are directly written as bytes in a
+ * reusable buffer without creating intermediate String objects.
  * @since 1.0
  * @author Laurent Jourdren
  */
 public class FastqWriter implements ReadSequenceWriter {
 
+  /** Default size of the output buffer. */
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
   private final Writer writer;
+  private final OutputStream os;
+  private final byte[] buffer;
+  private int count;
 
   @Override
   public void write(final ReadSequence readSequence) throws IOException {
 
-    if (readSequence != null) {
+    if (readSequence == null) {
+      return;
+    }
+
+    if (this.writer != null) {
       this.writer.write(readSequence.toFastQ() + '\n');
+      return;
+    }
+
+    final String name = readSequence.getName();
+    final String sequence = readSequence.getSequence();
+    final String quality = readSequence.getQuality();
+
+    // Incomplete reads are written as before
+    if (name == null || sequence == null || quality == null) {
+      write(readSequence.toFastQ() + '\n');
+      return;
+    }
+
+    write('@');
+    write(name);
+    write('\n');
+    write(sequence);
+    write('\n');
+    write('+');
+    write('\n');
+    write(quality);
+    write('\n');
+  }
+
+  /**
+   * Write an ASCII character in the buffer.
+   * @param c the character to write
+   * @throws IOException if an error occurs while flushing the buffer
+   */
+  private void write(final char c) throws IOException {
+
+    if (this.count == this.buffer.length) {
+      flushBuffer();
+    }
+
+    this.buffer[this.count++] = (byte) c;
+  }
+
+  /**
+   * Write the characters of a string in the buffer. The characters are
+   * expected to be ASCII characters, so no charset encoder is used.
+   * @param s the string to write
+   * @throws IOException if an error occurs while flushing the buffer
+   */
+  private void write(final String s) throws IOException {
+
+    final byte[] buf = this.buffer;
+    final int len = s.length();
+    int i = 0;
+
+    while (i < len) {
+
+      if (this.count == buf.length) {
+        flushBuffer();
+      }
+
+      final int end = Math.min(len, i + buf.length - this.count);
+      int pos = this.count;
+      for (; i < end; i++) {
+        buf[pos++] = (byte) s.charAt(i);
+      }
+      this.count = pos;
+    }
+  }
+
+  /**
+   * Write the content of the buffer in the output stream.
+   * @throws IOException if an error occurs while writing the buffer
+   */
+  private void flushBuffer() throws IOException {
+
+    if (this.count > 0) {
+      this.os.write(this.buffer, 0, this.count);
+      this.count = 0;
     }
   }
 
   @Override
   public void close() throws IOException {
 
-    this.writer.close();
+    if (this.writer != null) {
+      this.writer.close();
+    } else {
+      flushBuffer();
+      this.os.close();
+    }
   }
 
   //
@@ -71,6 +163,8 @@ public class FastqWriter implements ReadSequenceWriter {
     }
 
     this.writer = writer;
+    this.os = null;
+    this.buffer = null;
   }
 
   /**
@@ -79,7 +173,24 @@ public class FastqWriter implements ReadSequenceWriter {
    */
   public FastqWriter(final OutputStream os) throws FileNotFoundException {
 
-    this.writer = FileUtils.createFastBufferedWriter(os);
+    if (os == null) {
+      throw new NullPointerException("The output stream is null.");
+    }
+
+    this.writer = null;
+    this.os = os;
+    this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+  }
+
+  /**
+   * Public constructor.
+   * @param os OutputStream to use
+   * @param compression compression to use for the output stream
+   */
+  public FastqWriter(final OutputStream os, final CompressionType compression)
+      throws IOException {
+
+    this(compression == null ? os : compression.createOutputStream(os));
   }
 
   /**
@@ -88,7 +199,7 @@ public class FastqWriter implements ReadSequenceWriter {
    */
   public FastqWriter(final File outputFile) throws IOException {
 
-    this.writer = FileUtils.createFastBufferedWriter(outputFile);
+    this(FileUtils.createOutputStream(outputFile));
   }
 
   /**
@@ -97,7 +208,7 @@ public class FastqWriter implements ReadSequenceWriter {
    */
   public FastqWriter(final String outputFilename) throws IOException {
 
-    this.writer = FileUtils.createFastBufferedWriter(outputFilename);
+    this(FileUtils.createOutputStream(outputFilename));
   }
 
 }
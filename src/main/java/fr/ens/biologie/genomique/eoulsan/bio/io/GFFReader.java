@@ -35,6 +35,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.function.Predicate;
 
 import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.EntryMetadata;
@@ -61,6 +62,9 @@ public class GFFReader
 
   private boolean gff3Format = true;
 
+  private boolean streamingMode;
+  private Predicate<String> typePredicate;
+
   @Override
   public Iterator<GFFEntry> iterator() {
 
@@ -113,10 +117,23 @@ public class GFFReader
           continue;
         } else {
 
+          // Skip the entries with an unwanted type before parsing them
+          if (this.typePredicate != null && !acceptType(line)) {
+            continue;
+          }
+
           // Create a new object with metadata
           this.result = new GFFEntry(this.metadata);
 
-          if (this.gff3Format) {
+          if (this.streamingMode) {
+
+            if (this.gff3Format) {
+              this.result.parseGFF3Lazily(line.trim());
+            } else {
+              this.result.parseGTFLazily(line.trim());
+            }
+
+          } else if (this.gff3Format) {
             this.result.parseGFF3(line.trim());
           } else {
             this.result.parseGTF(line.trim());
@@ -183,6 +200,51 @@ public class GFFReader
     }
   }
 
+  /**
+   * Enable the streaming mode. In this mode, the entries whose type is not
+   * accepted by the predicate are skipped before the parsing of their
+   * attributes, the sequence ids and the attribute names are interned and the
+   * attributes of the entries are only parsed when they are accessed. This
+   * mode avoids a lot of allocations when only a few types of features of a
+   * large annotation are used.
+   * @param typePredicate predicate on the type of the entries to return, if
+   *          null all the entries are returned
+   */
+  public void setStreamingMode(final Predicate<String> typePredicate) {
+
+    this.streamingMode = true;
+    this.typePredicate = typePredicate;
+  }
+
+  /**
+   * Test if the type of an entry is accepted by the type predicate. If the
+   * line does not contain enough fields, the line is accepted to let the
+   * parser report the error.
+   * @param line the line of the entry
+   * @return true if the type of the entry is accepted
+   */
+  private boolean acceptType(final String line) {
+
+    final int tab1 = line.indexOf('\t');
+    if (tab1 == -1) {
+      return true;
+    }
+
+    final int tab2 = line.indexOf('\t', tab1 + 1);
+    if (tab2 == -1) {
+      return true;
+    }
+
+    final int tab3 = line.indexOf('\t', tab2 + 1);
+    if (tab3 == -1) {
+      return true;
+    }
+
+    final String type = line.substring(tab2 + 1, tab3).trim();
+
+    return this.typePredicate.test(".".equals(type) ? "" : type);
+  }
+
   //
   // Protected methods
   //
@@ -0,0 +1,347 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static fr.ens.biologie.genomique.eoulsan.bio.io.BioCharsets.FASTA_CHARSET;
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+
+/**
+ * This class allow random access to the sequences of an uncompressed FASTA
+ * file. The FASTA file is memory-mapped and only the requested subsequences
+ * are loaded in the heap. The positions are 1-based and inclusive like in
+ * GenomicInterval.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class GenomeSequenceStore implements Closeable {
+
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = (int) (SEGMENT_SIZE - 1);
+
+  private final FastaIndex index;
+  private final RandomAccessFile file;
+  private final MappedByteBuffer[] segments;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the index of the FASTA file.
+   * @return the index of the FASTA file
+   */
+  public FastaIndex getIndex() {
+
+    return this.index;
+  }
+
+  /**
+   * Get the names of the sequences.
+   * @return a list with the names of the sequences
+   */
+  public List<String> getSequenceNames() {
+
+    return this.index.getSequenceNames();
+  }
+
+  /**
+   * Get the length of a sequence.
+   * @param sequenceName name of the sequence
+   * @return the length of the sequence or -1 if the sequence does not exist
+   */
+  public long getSequenceLength(final String sequenceName) {
+
+    final FastaIndex.Entry entry = this.index.getEntry(sequenceName);
+
+    return entry == null ? -1 : entry.getLength();
+  }
+
+  /**
+   * Test if the store contains a sequence.
+   * @param sequenceName name of the sequence
+   * @return true if the store contains the sequence
+   */
+  public boolean containsSequence(final String sequenceName) {
+
+    return this.index.getEntry(sequenceName) != null;
+  }
+
+  //
+  // Sequence access
+  //
+
+  /**
+   * Get a base of a sequence.
+   * @param sequenceName name of the sequence
+   * @param position position of the base, 1-based
+   * @return the base
+   */
+  public char getBase(final String sequenceName, final long position) {
+
+    final FastaIndex.Entry entry = getEntry(sequenceName, position, position);
+
+    return (char) (get(entry.getBaseOffset(position - 1)) & 0xff);
+  }
+
+  /**
+   * Get a subsequence.
+   * @param interval genomic interval of the subsequence
+   * @return a String with the subsequence
+   */
+  public String getSubSequence(final GenomicInterval interval) {
+
+    requireNonNull(interval, "interval argument cannot be null");
+
+    return getSubSequence(interval.getChromosome(), interval.getStart(),
+        interval.getEnd());
+  }
+
+  /**
+   * Get a subsequence.
+   * @param sequenceName name of the sequence
+   * @param start start position of the subsequence, 1-based
+   * @param end end position of the subsequence, inclusive
+   * @return a String with the subsequence
+   */
+  public String getSubSequence(final String sequenceName, final long start,
+      final long end) {
+
+    final byte[] bytes = getSubSequenceBytes(sequenceName, start, end);
+
+    return new String(bytes, FASTA_CHARSET);
+  }
+
+  /**
+   * Get the bytes of a subsequence.
+   * @param sequenceName name of the sequence
+   * @param start start position of the subsequence, 1-based
+   * @param end end position of the subsequence, inclusive
+   * @return an array with the bytes of the subsequence
+   */
+  public byte[] getSubSequenceBytes(final String sequenceName,
+      final long start, final long end) {
+
+    final FastaIndex.Entry entry = getEntry(sequenceName, start, end);
+
+    final long length = end - start + 1;
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "Subsequence too long: " + sequenceName + ":" + start + "-" + end);
+    }
+
+    final byte[] result = new byte[(int) length];
+    final int lineBases = entry.getLineBases();
+
+    // Copy the bases line by line
+    long pos = start - 1;
+    int count = 0;
+    while (count < result.length) {
+
+      final int n = (int) Math.min(result.length - count,
+          lineBases - pos % lineBases);
+      copy(entry.getBaseOffset(pos), result, count, n);
+      count += n;
+      pos += n;
+    }
+
+    return result;
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Get the index entry of a sequence and check the coordinates.
+   * @param sequenceName name of the sequence
+   * @param start start position, 1-based
+   * @param end end position, inclusive
+   * @return the index entry of the sequence
+   */
+  private FastaIndex.Entry getEntry(final String sequenceName,
+      final long start, final long end) {
+
+    requireNonNull(sequenceName, "sequenceName argument cannot be null");
+
+    final FastaIndex.Entry entry = this.index.getEntry(sequenceName);
+
+    if (entry == null) {
+      throw new IllegalArgumentException(
+          "Unknown sequence: " + sequenceName);
+    }
+
+    if (start < 1 || end < start || end > entry.getLength()) {
+      throw new IllegalArgumentException("Invalid coordinates for sequence "
+          + sequenceName + " (length: " + entry.getLength() + "): " + start
+          + "-" + end);
+    }
+
+    return entry;
+  }
+
+  /**
+   * Get a byte of the file.
+   * @param offset offset of the byte in the file
+   * @return the byte
+   */
+  private byte get(final long offset) {
+
+    return this.segments[(int) (offset >>> SEGMENT_SHIFT)]
+        .get((int) (offset & SEGMENT_MASK));
+  }
+
+  /**
+   * Copy bytes of the file to an array.
+   * @param offset offset of the first byte in the file
+   * @param dst destination array
+   * @param dstOffset offset in the destination array
+   * @param length number of bytes to copy
+   */
+  private void copy(final long offset, final byte[] dst, final int dstOffset,
+      final int length) {
+
+    long pos = offset;
+    int count = 0;
+
+    // The bytes may be located in several segments
+    while (count < length) {
+
+      final int segmentOffset = (int) (pos & SEGMENT_MASK);
+      final MappedByteBuffer segment =
+          this.segments[(int) (pos >>> SEGMENT_SHIFT)];
+      final int n = Math.min(length - count, segment.limit() - segmentOffset);
+
+      // Use a duplicate to be thread safe
+      final ByteBuffer buffer = segment.duplicate();
+      buffer.position(segmentOffset);
+      buffer.get(dst, dstOffset + count, n);
+
+      count += n;
+      pos += n;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    this.file.close();
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor. The index of the FASTA file is read from the ".fai"
+   * file if exists, otherwise it is computed.
+   * @param fastaFile the uncompressed FASTA file
+   * @throws IOException if an error occurs while reading the FASTA file
+   * @throws BadBioEntryException if the FASTA file cannot be indexed
+   */
+  public GenomeSequenceStore(final File fastaFile)
+      throws IOException, BadBioEntryException {
+
+    this(fastaFile, loadOrCreateIndex(fastaFile));
+  }
+
+  /**
+   * Public constructor.
+   * @param fastaFile the uncompressed FASTA file
+   * @param index the index of the FASTA file
+   * @throws IOException if an error occurs while reading the FASTA file
+   */
+  public GenomeSequenceStore(final File fastaFile, final FastaIndex index)
+      throws IOException {
+
+    requireNonNull(fastaFile, "fastaFile argument cannot be null");
+    requireNonNull(index, "index argument cannot be null");
+
+    this.index = index;
+    this.file = new RandomAccessFile(fastaFile, "r");
+
+    try {
+      final FileChannel channel = this.file.getChannel();
+      final long size = channel.size();
+      final int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+
+      this.segments = new MappedByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+
+        final long position = i * SEGMENT_SIZE;
+        this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+            position, Math.min(SEGMENT_SIZE, size - position));
+      }
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+
+    // Check that the index matches the file
+    for (FastaIndex.Entry e : index.getEntries()) {
+      if (e.getLength() > 0
+          && e.getBaseOffset(e.getLength() - 1) >= this.file.length()) {
+        this.file.close();
+        throw new IOException("The index does not match the FASTA file: "
+            + fastaFile + " (sequence " + e.getName() + ")");
+      }
+    }
+  }
+
+  /**
+   * Load the index of a FASTA file if exists or compute it.
+   * @param fastaFile the FASTA file
+   * @return the index of the FASTA file
+   * @throws IOException if an error occurs while reading the FASTA file
+   * @throws BadBioEntryException if the FASTA file cannot be indexed
+   */
+  private static FastaIndex loadOrCreateIndex(final File fastaFile)
+      throws IOException, BadBioEntryException {
+
+    requireNonNull(fastaFile, "fastaFile argument cannot be null");
+
+    final File indexFile = FastaIndex.getIndexFile(fastaFile);
+
+    if (indexFile.isFile()
+        && indexFile.lastModified() >= fastaFile.lastModified()) {
+      return FastaIndex.read(indexFile);
+    }
+
+    return FastaIndex.create(fastaFile);
+  }
+
+}
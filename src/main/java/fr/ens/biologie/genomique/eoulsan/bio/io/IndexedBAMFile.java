@@ -0,0 +1,188 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+/**
+ * This class define a BAM file with its index. The file is split in regions
+ * that can be read independently: one region for each reference of the file
+ * and one region for the unmapped alignments without position. The regions
+ * are sorted to process first the unmapped alignments and then the longest
+ * references.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class IndexedBAMFile {
+
+  private final File bamFile;
+  private final File indexFile;
+  private final SAMFileHeader header;
+  private final List<String> regions;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the BAM file.
+   * @return the BAM file
+   */
+  public File getBAMFile() {
+
+    return this.bamFile;
+  }
+
+  /**
+   * Get the index file.
+   * @return the index file
+   */
+  public File getIndexFile() {
+
+    return this.indexFile;
+  }
+
+  /**
+   * Get the header of the BAM file.
+   * @return the header of the BAM file
+   */
+  public SAMFileHeader getFileHeader() {
+
+    return this.header;
+  }
+
+  /**
+   * Get the number of regions of the file.
+   * @return the number of regions of the file
+   */
+  public int getRegionCount() {
+
+    return this.regions.size();
+  }
+
+  /**
+   * Get the name of a region.
+   * @param region the region
+   * @return the name of the reference of the region or null for the region of
+   *         the unmapped alignments
+   */
+  public String getRegionName(final int region) {
+
+    return this.regions.get(region);
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Create a new reader on the file. A reader can only be used by one thread
+   * and can only query one region at a time.
+   * @return a new SamReader object
+   */
+  public SamReader newReader() {
+
+    return SamReaderFactory.makeDefault()
+        .open(SamInputResource.of(this.bamFile).index(this.indexFile));
+  }
+
+  /**
+   * Get the alignments of a region.
+   * @param reader reader created with the newReader() method
+   * @param region the region
+   * @return an iterator on the alignments of the region in the order of the
+   *         file
+   */
+  public SAMRecordIterator query(final SamReader reader, final int region) {
+
+    requireNonNull(reader, "reader argument cannot be null");
+
+    final String name = this.regions.get(region);
+
+    // Query the whole reference, including the unmapped alignments that have
+    // the position of their mate
+    return name == null
+        ? reader.queryUnmapped() : reader.query(name, 0, 0, false);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param bamFile BAM file
+   * @param indexFile index of the BAM file
+   * @throws IOException if the index cannot be used
+   */
+  public IndexedBAMFile(final File bamFile, final File indexFile)
+      throws IOException {
+
+    requireNonNull(bamFile, "bamFile argument cannot be null");
+    requireNonNull(indexFile, "indexFile argument cannot be null");
+
+    this.bamFile = bamFile;
+    this.indexFile = indexFile;
+
+    try (SamReader reader = newReader()) {
+
+      if (!reader.hasIndex()) {
+        throw new IOException("Unable to use the index of the BAM file: "
+            + indexFile);
+      }
+
+      this.header = reader.getFileHeader();
+    }
+
+    // Process the longest references first to balance the work of the threads
+    final List<SAMSequenceRecord> references =
+        new ArrayList<>(this.header.getSequenceDictionary().getSequences());
+    Collections.sort(references, (a, b) -> Integer
+        .compare(b.getSequenceLength(), a.getSequenceLength()));
+
+    final List<String> regions = new ArrayList<>();
+    regions.add(null);
+    for (SAMSequenceRecord r : references) {
+      regions.add(r.getSequenceName());
+    }
+
+    this.regions = Collections.unmodifiableList(regions);
+  }
+
+}
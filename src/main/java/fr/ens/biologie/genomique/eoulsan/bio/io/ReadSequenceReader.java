@@ -49,4 +49,20 @@ public interface ReadSequenceReader
    */
   void throwException() throws IOException, BadBioEntryException;
 
+  /**
+   * Set if the reader must reuse the same ReadSequence object for all the
+   * reads. In this mode, each call to next() returns the same object filled
+   * with the values of the new read, so the returned object must not be kept
+   * or modified by the caller after the next call to hasNext(). Only the name,
+   * the sequence and the quality of the object are updated for each read.
+   * @param reuse true to reuse the same ReadSequence object for all the reads
+   */
+  void setReuseResultObject(boolean reuse);
+
+  /**
+   * Test if the reader reuse the same ReadSequence object for all the reads.
+   * @return true if the reader reuse the same ReadSequence object
+   */
+  boolean isReuseResultObject();
+
 }
@@ -37,7 +37,9 @@ import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
 public interface ReadSequenceWriter extends Closeable {
 
   /**
-   * Write a read.
+   * Write a read. Implementations must not keep a reference to the read after
+   * the end of the call, as the reads may be reused by a ReadSequenceReader
+   * (see {@link ReadSequenceReader#setReuseResultObject(boolean)}).
    * @param readSequence the read to write
    * @throws IOException if an error occurs while writing data
    */
@@ -0,0 +1,297 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class allow to process the SAM output of a mapper without decoding it.
+ * The bytes of the output are scanned to count the alignment lines and to give
+ * the non empty lines to an optional handler, without creating objects for
+ * each line. A line is an alignment line if it is not a header line and if it
+ * contains a tab character.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class SAMOutputPump {
+
+  /** Default size of the buffer. */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final LineHandler handler;
+
+  // State of the current line
+  private boolean content;
+  private boolean header;
+  private boolean pendingTab;
+  private boolean tab;
+
+  // Start of the current line when it is split between two chunks, only used
+  // with a handler
+  private byte[] carry = new byte[0];
+  private int carryLength;
+
+  private long alignmentCount;
+
+  /**
+   * This interface define a handler for the lines of a SAM output.
+   */
+  public interface LineHandler {
+
+    /**
+     * Handle a non empty line. The content of the buffer is only valid during
+     * the call of this method.
+     * @param buffer the buffer that contains the line
+     * @param start start of the line in the buffer, without the leading
+     *          whitespaces
+     * @param end end of the line in the buffer (exclusive), without the
+     *          trailing whitespaces and the newline
+     * @param header true if the line is a header line
+     * @throws IOException if an error occurs while handling the line
+     */
+    void handleLine(byte[] buffer, int start, int end, boolean header)
+        throws IOException;
+  }
+
+  //
+  // Getter
+  //
+
+  /**
+   * Get the number of alignment lines processed.
+   * @return the number of alignment lines processed
+   */
+  public long getAlignmentCount() {
+
+    return this.alignmentCount;
+  }
+
+  //
+  // Processing methods
+  //
+
+  /**
+   * Process a chunk of the SAM output.
+   * @param buffer buffer that contains the chunk
+   * @param offset offset of the chunk in the buffer
+   * @param length length of the chunk
+   * @throws IOException if an error occurs while handling a line
+   */
+  public void update(final byte[] buffer, final int offset, final int length)
+      throws IOException {
+
+    final int end = offset + length;
+    int lineStart = offset;
+
+    for (int i = offset; i < end; i++) {
+
+      final int c = buffer[i] & 0xff;
+
+      if (c == '\n') {
+
+        endLine(buffer, lineStart, i);
+        lineStart = i + 1;
+
+      } else if (c > ' ') {
+
+        if (!this.content) {
+          this.content = true;
+          this.header = c == '@';
+        } else if (this.pendingTab) {
+          this.tab = true;
+        }
+
+      } else if (c == '\t' && this.content) {
+
+        // A tab only counts if it is not a trailing whitespace
+        this.pendingTab = true;
+      }
+    }
+
+    // Keep the start of the last line for the handler
+    if (this.handler != null && lineStart < end) {
+      appendToCarry(buffer, lineStart, end);
+    }
+  }
+
+  /**
+   * Process the last line of the SAM output if it does not end with a newline.
+   * @throws IOException if an error occurs while handling the line
+   */
+  public void finish() throws IOException {
+
+    endLine(this.carry, this.carryLength, this.carryLength);
+  }
+
+  /**
+   * Process the end of the current line.
+   * @param buffer buffer that contains the end of the line
+   * @param start start of the end of the line in the buffer
+   * @param end end of the line in the buffer (exclusive)
+   * @throws IOException if an error occurs while handling the line
+   */
+  private void endLine(final byte[] buffer, final int start, final int end)
+      throws IOException {
+
+    if (this.content) {
+
+      if (!this.header && this.tab) {
+        this.alignmentCount++;
+      }
+
+      if (this.handler != null) {
+
+        if (this.carryLength > 0) {
+
+          if (buffer != this.carry) {
+            appendToCarry(buffer, start, end);
+          }
+          handleLine(this.carry, 0, this.carryLength);
+        } else {
+          handleLine(buffer, start, end);
+        }
+      }
+    }
+
+    this.carryLength = 0;
+    this.content = false;
+    this.header = false;
+    this.pendingTab = false;
+    this.tab = false;
+  }
+
+  /**
+   * Trim a line and give it to the handler.
+   * @param buffer buffer that contains the line
+   * @param start start of the line in the buffer
+   * @param end end of the line in the buffer (exclusive)
+   * @throws IOException if an error occurs while handling the line
+   */
+  private void handleLine(final byte[] buffer, final int start, final int end)
+      throws IOException {
+
+    int s = start;
+    int e = end;
+
+    while ((buffer[s] & 0xff) <= ' ') {
+      s++;
+    }
+
+    while ((buffer[e - 1] & 0xff) <= ' ') {
+      e--;
+    }
+
+    this.handler.handleLine(buffer, s, e, this.header);
+  }
+
+  /**
+   * Append bytes to the carry buffer.
+   * @param buffer source buffer
+   * @param start start of the bytes to append
+   * @param end end of the bytes to append (exclusive)
+   */
+  private void appendToCarry(final byte[] buffer, final int start,
+      final int end) {
+
+    final int len = end - start;
+    final int required = this.carryLength + len;
+
+    if (required > this.carry.length) {
+      this.carry =
+          Arrays.copyOf(this.carry, Math.max(required, 2 * this.carry.length));
+    }
+
+    System.arraycopy(buffer, start, this.carry, this.carryLength, len);
+    this.carryLength = required;
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Copy the SAM output of a mapper in large chunks and count its alignment
+   * lines. The streams are not closed by this method.
+   * @param in the SAM output of the mapper
+   * @param out the output stream
+   * @return the number of alignment lines copied
+   * @throws IOException if an error occurs while copying the data
+   */
+  public static long copy(final InputStream in, final OutputStream out)
+      throws IOException {
+
+    if (in == null) {
+      throw new NullPointerException("in argument cannot be null");
+    }
+
+    if (out == null) {
+      throw new NullPointerException("out argument cannot be null");
+    }
+
+    final SAMOutputPump pump = new SAMOutputPump();
+    final byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+
+      out.write(buffer, 0, n);
+      pump.update(buffer, 0, n);
+    }
+
+    pump.finish();
+
+    return pump.getAlignmentCount();
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Constructor that only count the alignment lines.
+   */
+  public SAMOutputPump() {
+
+    this.handler = null;
+  }
+
+  /**
+   * Constructor.
+   * @param handler the handler of the lines
+   */
+  public SAMOutputPump(final LineHandler handler) {
+
+    if (handler == null) {
+      throw new NullPointerException("handler argument cannot be null");
+    }
+
+    this.handler = handler;
+  }
+
+}
@@ -48,6 +48,7 @@ public class TFQReader implements ReadSequenceReader {
   private final BufferedReader reader;
 
   private ReadSequence result = null;
+  private boolean reuse;
 
   private boolean end = false;
   private boolean nextCallDone = true;
@@ -87,7 +88,9 @@ public class TFQReader implements ReadSequenceReader {
           continue;
         }
 
-        this.result = new ReadSequence();
+        if (!this.reuse || this.result == null) {
+          this.result = new ReadSequence();
+        }
         this.result.parse(trim);
         return true;
       }
@@ -121,6 +124,18 @@ public class TFQReader implements ReadSequenceReader {
     throw new UnsupportedOperationException("Unsupported operation");
   }
 
+  @Override
+  public void setReuseResultObject(final boolean reuse) {
+
+    this.reuse = reuse;
+  }
+
+  @Override
+  public boolean isReuseResultObject() {
+
+    return this.reuse;
+  }
+
   @Override
   public void throwException() throws IOException, BadBioEntryException {
 
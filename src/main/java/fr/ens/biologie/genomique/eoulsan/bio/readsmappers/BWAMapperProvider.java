@@ -256,7 +256,7 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
             // Create FASTQ writer
             this.writer = new FastqWriterThread(this.fastqFile,
-                "BWA samse writeFirstPairEntries thread");
+                "BWA samse writeFirstPairEntries thread", "writer1");
           }
 
           // Add FASTQ copy file and sai file to files to remove
@@ -284,6 +284,7 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
           super.closeWriter1();
           this.writer.close();
+          reportWriterCounters(this.writer);
         }
 
         @Override
@@ -291,6 +292,7 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
           super.closeWriter1();
           this.writer.close();
+          reportWriterCounters(this.writer);
         }
 
         @Override
@@ -416,9 +418,9 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
             // Create writer on FASTQ files
             this.writer1 = new FastqWriterThread(this.fastqFile1,
-                "BWA sampe writeFirstPairEntries thread");
+                "BWA sampe writeFirstPairEntries thread", "writer1");
             this.writer2 = new FastqWriterThread(this.fastqFile2,
-                "BWA sampe writeSecondPairEntries thread");
+                "BWA sampe writeSecondPairEntries thread", "writer2");
           }
 
           // Create named pipes
@@ -463,7 +465,9 @@ public class BWAMapperProvider extends AbstractMapperProvider {
           super.closeWriter1();
           super.closeWriter2();
           this.writer1.close();
+          reportWriterCounters(this.writer1);
           this.writer2.close();
+          reportWriterCounters(this.writer2);
         }
 
         @Override
@@ -471,6 +475,7 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
           super.closeWriter1();
           this.writer1.close();
+          reportWriterCounters(this.writer1);
         }
 
         @Override
@@ -478,6 +483,7 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
           super.closeWriter2();
           this.writer2.close();
+          reportWriterCounters(this.writer2);
         }
 
         @Override
@@ -77,6 +77,12 @@ public class BundledMapperExecutor implements MapperExecutor {
       }
     }
 
+    @Override
+    public void destroy() {
+
+      process.destroy();
+    }
+
     //
     // Constructor
     //
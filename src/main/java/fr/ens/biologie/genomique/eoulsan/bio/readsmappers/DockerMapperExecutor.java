@@ -119,6 +119,14 @@ public class DockerMapperExecutor implements MapperExecutor {
       return result;
     }
 
+    @Override
+    public void destroy() {
+
+      // The container cannot be killed, it ends when the named pipes used as
+      // input by the mapper are closed
+      getLogger().fine("Cannot destroy a Docker container, wait its end");
+    }
+
     //
     // Constructor
     //
@@ -56,6 +56,11 @@ interface MapperExecutor {
      * @throws IOException if an error occurs while waiting the process
      */
     int waitFor() throws IOException;
+
+    /**
+     * Stop the process without waiting its end.
+     */
+    void destroy();
   }
 
   /**
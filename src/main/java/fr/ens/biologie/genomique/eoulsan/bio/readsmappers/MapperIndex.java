@@ -132,7 +132,7 @@ public class MapperIndex {
     synchronized (this) {
       if (!unzipped) {
         unzipArchiveIndexFile(getInputStream(), getIndexDirectory());
-        this.unzipped = false;
+        this.unzipped = true;
       }
     }
 
@@ -182,7 +182,7 @@ public class MapperIndex {
     synchronized (this) {
       if (!unzipped) {
         unzipArchiveIndexFile(getInputStream(), getIndexDirectory());
-        this.unzipped = false;
+        this.unzipped = true;
       }
     }
 
@@ -252,4 +252,25 @@ public class MapperIndex {
     this.in = archiveIndexFileInputStream;
     this.indexDirectory = indexOutputDirectory;
   }
+
+  /**
+   * Constructor for an index that is already uncompressed.
+   * @param mapperInstance mapper instance object
+   * @param indexDirectory directory of the uncompressed index
+   * @throws IOException if the index directory does not exist
+   */
+  MapperIndex(final MapperInstance mapperInstance, final File indexDirectory)
+      throws IOException {
+
+    requireNonNull(mapperInstance, "mapperInstance cannot be null");
+    requireNonNull(indexDirectory, "indexDirectory cannot be null");
+
+    FileUtils.checkExistingDirectoryFile(indexDirectory,
+        mapperInstance.getMapper().getName() + " index directory");
+
+    this.mapperInstance = mapperInstance;
+    this.in = null;
+    this.indexDirectory = indexDirectory;
+    this.unzipped = true;
+  }
 }
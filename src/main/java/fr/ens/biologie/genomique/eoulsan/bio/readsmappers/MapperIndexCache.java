@@ -0,0 +1,614 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static java.util.Objects.requireNonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+/**
+ * This class define a node local cache for the uncompressed mapper indexes.
+ * The uncompressed indexes are stored in directories named with the checksum
+ * of their archive, so the same index is only uncompressed once for all the
+ * tasks and the JVMs of a node. An index is uncompressed in a temporary
+ * directory that is renamed once the index is complete.
+ * <p>
+ * The indexes in use are reference counted: in a JVM with a counter and
+ * between the JVMs with a shared lock on a file of the index. When the size
+ * of the cache exceeds its maximal size, the least recently used indexes that
+ * are not in use are removed.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class MapperIndexCache {
+
+  private static final String LOCK_EXTENSION = ".lock";
+  private static final String IN_USE_EXTENSION = ".inuse";
+  private static final String SIZE_EXTENSION = ".size";
+  private static final String TEMPORARY_EXTENSION = ".tmp";
+  private static final String REMOVED_EXTENSION = ".removed";
+
+  /** References of the indexes of the cache used by the JVM. */
+  private static final Map<File, References> REFERENCES =
+      new ConcurrentHashMap<>();
+
+  private final File cacheDirectory;
+  private final long maxSize;
+
+  //
+  // Inner classes
+  //
+
+  /**
+   * This class store the references of the JVM on an index. The object is
+   * also used to synchronize the threads that use the same index.
+   */
+  private static final class References {
+
+    private int count;
+    private FileChannel channel;
+    private FileLock lock;
+  }
+
+  /**
+   * This class define a reference on an index of the cache. The index cannot
+   * be removed from the cache until the reference is closed.
+   */
+  public final class Lease implements AutoCloseable {
+
+    private final File indexDirectory;
+    private final References references;
+    private boolean closed;
+
+    /**
+     * Get the directory of the uncompressed index.
+     * @return the directory of the uncompressed index
+     */
+    public File getIndexDirectory() {
+
+      return this.indexDirectory;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      synchronized (this.references) {
+
+        if (this.closed) {
+          return;
+        }
+        this.closed = true;
+
+        // Release the shared lock when the index is no more used by the JVM
+        if (--this.references.count == 0) {
+          this.references.lock.release();
+          this.references.channel.close();
+          this.references.lock = null;
+          this.references.channel = null;
+        }
+
+        touch(this.indexDirectory);
+      }
+    }
+
+    private Lease(final File indexDirectory, final References references) {
+
+      this.indexDirectory = indexDirectory;
+      this.references = references;
+    }
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the directory of the cache.
+   * @return the directory of the cache
+   */
+  public File getCacheDirectory() {
+
+    return this.cacheDirectory;
+  }
+
+  /**
+   * Get the maximal size of the cache in bytes.
+   * @return the maximal size of the cache in bytes, a value lower or equals to
+   *         0 means no limit
+   */
+  public long getMaxSize() {
+
+    return this.maxSize;
+  }
+
+  //
+  // Cache methods
+  //
+
+  /**
+   * Get an index from the cache. If the index is not in the cache, the archive
+   * of the index is uncompressed in the cache. The returned lease must be
+   * closed when the index is no more used.
+   * @param mapperName name of the mapper of the index
+   * @param checksum checksum of the archive of the index
+   * @param archiveFile archive of the index
+   * @return a lease on the uncompressed index
+   * @throws IOException if an error occurs while uncompressing the index
+   */
+  public Lease acquire(final String mapperName, final String checksum,
+      final DataFile archiveFile) throws IOException {
+
+    requireNonNull(mapperName, "mapperName argument cannot be null");
+    requireNonNull(checksum, "checksum argument cannot be null");
+    requireNonNull(archiveFile, "archiveFile argument cannot be null");
+
+    if (checksum.isEmpty() || checksum.indexOf(File.separatorChar) != -1) {
+      throw new IllegalArgumentException("Invalid checksum: " + checksum);
+    }
+
+    final File indexDirectory = new File(this.cacheDirectory,
+        mapperName.toLowerCase() + "-index-" + checksum);
+    final References references = references(indexDirectory);
+
+    synchronized (references) {
+
+      try (FileChannel lockChannel = openLockFile(indexDirectory);
+          FileLock lock = lockChannel.lock()) {
+
+        if (!indexDirectory.isDirectory()) {
+          unzip(archiveFile, indexDirectory);
+        } else {
+          getLogger().fine("Use cached " + mapperName + " index: "
+              + indexDirectory);
+        }
+
+        // Take a shared lock on the index for the JVM
+        if (references.count == 0) {
+          references.channel = FileChannel.open(
+              sibling(indexDirectory, IN_USE_EXTENSION).toPath(),
+              StandardOpenOption.CREATE, StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+          references.lock = references.channel.lock(0, Long.MAX_VALUE, true);
+        }
+        references.count++;
+
+        touch(indexDirectory);
+      }
+    }
+
+    // Remove the least recently used indexes if the cache is too large
+    removeUnusedIndexes();
+
+    return new Lease(indexDirectory, references);
+  }
+
+  /**
+   * Remove the least recently used indexes that are not in use until the size
+   * of the cache is lower than its maximal size.
+   */
+  public void removeUnusedIndexes() {
+
+    if (this.maxSize <= 0) {
+      return;
+    }
+
+    final File[] sizeFiles = this.cacheDirectory
+        .listFiles((dir, name) -> name.endsWith(SIZE_EXTENSION));
+
+    if (sizeFiles == null) {
+      return;
+    }
+
+    // Sort the indexes from the least recently used
+    final List<File> indexes = new ArrayList<>();
+    final Map<File, Long> sizes = new HashMap<>();
+    final Map<File, Long> lastUses = new HashMap<>();
+    long totalSize = 0;
+
+    for (File f : sizeFiles) {
+
+      final String name = f.getName();
+      final File indexDirectory = new File(this.cacheDirectory,
+          name.substring(0, name.length() - SIZE_EXTENSION.length()));
+
+      final long size = readSize(f);
+      indexes.add(indexDirectory);
+      sizes.put(indexDirectory, size);
+      lastUses.put(indexDirectory, f.lastModified());
+      totalSize += size;
+    }
+
+    indexes.sort((a, b) -> Long.compare(lastUses.get(a), lastUses.get(b)));
+
+    for (File indexDirectory : indexes) {
+
+      if (totalSize <= this.maxSize) {
+        break;
+      }
+
+      if (removeIndex(indexDirectory)) {
+        totalSize -= sizes.get(indexDirectory);
+      }
+    }
+  }
+
+  /**
+   * Remove an index from the cache if it is not in use.
+   * @param indexDirectory the directory of the index
+   * @return true if the index has been removed
+   */
+  private boolean removeIndex(final File indexDirectory) {
+
+    final References references = references(indexDirectory);
+
+    synchronized (references) {
+
+      // The index is in use by the JVM
+      if (references.count > 0) {
+        return false;
+      }
+
+      try (FileChannel lockChannel = openLockFile(indexDirectory);
+          FileLock lock = lockChannel.lock();
+          FileChannel inUseChannel = FileChannel.open(
+              sibling(indexDirectory, IN_USE_EXTENSION).toPath(),
+              StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+        // The index is in use by another JVM
+        final FileLock inUseLock = inUseChannel.tryLock();
+        if (inUseLock == null) {
+          return false;
+        }
+
+        try {
+
+          final File sizeFile = sibling(indexDirectory, SIZE_EXTENSION);
+          if (!sizeFile.exists()) {
+            return false;
+          }
+
+          // Remains of an interrupted uncompression
+          if (!indexDirectory.isDirectory()) {
+            return sizeFile.delete();
+          }
+
+          getLogger().info("Remove unused mapper index directory: "
+              + indexDirectory);
+
+          // Rename the index before removing it, so a partially removed
+          // index is never used
+          final File removedDirectory =
+              sibling(indexDirectory, REMOVED_EXTENSION);
+          FileUtils.recursiveDelete(removedDirectory);
+          Files.move(indexDirectory.toPath(), removedDirectory.toPath(),
+              StandardCopyOption.ATOMIC_MOVE);
+
+          if (!sizeFile.delete()) {
+            getLogger().warning("Cannot remove file: " + sizeFile);
+          }
+
+          if (!FileUtils.recursiveDelete(removedDirectory)) {
+            getLogger().warning(
+                "Cannot remove mapper index directory: " + removedDirectory);
+          }
+
+        } finally {
+          inUseLock.release();
+        }
+
+        return true;
+
+      } catch (IOException | OverlappingFileLockException e) {
+        getLogger().warning("Cannot remove unused mapper index directory ("
+            + indexDirectory + "): " + e.getMessage());
+        return false;
+      }
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Uncompress an index archive in the cache. The archive is uncompressed in a
+   * temporary directory that is renamed at the end of the uncompression.
+   * @param archiveFile archive of the index
+   * @param indexDirectory the directory of the index
+   * @throws IOException if an error occurs while uncompressing the archive
+   */
+  private static void unzip(final DataFile archiveFile,
+      final File indexDirectory) throws IOException {
+
+    // Remove the remains of an interrupted uncompression
+    final File temporaryDirectory =
+        sibling(indexDirectory, TEMPORARY_EXTENSION);
+    if (temporaryDirectory.exists()
+        && !FileUtils.recursiveDelete(temporaryDirectory)) {
+      throw new IOException(
+          "Cannot remove temporary directory: " + temporaryDirectory);
+    }
+
+    if (!temporaryDirectory.mkdir()) {
+      throw new IOException(
+          "Can't create directory for mapper index: " + temporaryDirectory);
+    }
+
+    getLogger()
+        .info("Unzip mapper index " + archiveFile + " in " + indexDirectory);
+
+    try (InputStream in = archiveFile.open()) {
+      FileUtils.unzip(in, temporaryDirectory);
+    }
+
+    // Save the size of the index
+    Files.write(sibling(indexDirectory, SIZE_EXTENSION).toPath(),
+        Long.toString(directorySize(temporaryDirectory.toPath()))
+            .getBytes(StandardCharsets.US_ASCII));
+
+    // Publish the index
+    Files.move(temporaryDirectory.toPath(), indexDirectory.toPath(),
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Get the references of the JVM on an index.
+   * @param indexDirectory the directory of the index
+   * @return a References object
+   */
+  private static References references(final File indexDirectory) {
+
+    return REFERENCES.computeIfAbsent(indexDirectory.getAbsoluteFile(),
+        k -> new References());
+  }
+
+  /**
+   * Open the lock file of an index.
+   * @param indexDirectory the directory of the index
+   * @return a FileChannel object
+   * @throws IOException if an error occurs while opening the lock file
+   */
+  private static FileChannel openLockFile(final File indexDirectory)
+      throws IOException {
+
+    return FileChannel.open(sibling(indexDirectory, LOCK_EXTENSION).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Update the time of the last use of an index.
+   * @param indexDirectory the directory of the index
+   */
+  private static void touch(final File indexDirectory) {
+
+    final File sizeFile = sibling(indexDirectory, SIZE_EXTENSION);
+
+    if (!sizeFile.setLastModified(System.currentTimeMillis())) {
+      getLogger().warning(
+          "Unable to set the modification time of the file: " + sizeFile);
+    }
+  }
+
+  /**
+   * Read the size of an index.
+   * @param sizeFile the file that contains the size of the index
+   * @return the size of the index or 0 if the file cannot be read
+   */
+  private static long readSize(final File sizeFile) {
+
+    try {
+      return Long.parseLong(new String(Files.readAllBytes(sizeFile.toPath()),
+          StandardCharsets.US_ASCII).trim());
+    } catch (IOException | NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Compute the size of the files of a directory.
+   * @param directory the directory
+   * @return the size of the files of the directory
+   * @throws IOException if an error occurs while reading the directory
+   */
+  private static long directorySize(final Path directory) throws IOException {
+
+    try (Stream<Path> stream = Files.walk(directory)) {
+      return stream.filter(Files::isRegularFile).mapToLong(p -> {
+        try {
+          return Files.size(p);
+        } catch (IOException e) {
+          return 0;
+        }
+      }).sum();
+    }
+  }
+
+  /**
+   * Get a file in the cache directory named after an index directory.
+   * @param indexDirectory the directory of the index
+   * @param extension extension of the file
+   * @return a File object
+   */
+  private static File sibling(final File indexDirectory,
+      final String extension) {
+
+    return new File(indexDirectory.getParentFile(),
+        indexDirectory.getName() + extension);
+  }
+
+  //
+  // Checksum methods
+  //
+
+  /**
+   * Compute the checksum of an index archive. The checksum is computed from
+   * the names, the sizes and the CRCs of the entries of the archive. For a
+   * local file, only the central directory of the archive is read.
+   * @param archiveFile the archive file
+   * @return the checksum as a string
+   * @throws IOException if an error occurs while creating the checksum
+   */
+  public static String computeArchiveChecksum(final DataFile archiveFile)
+      throws IOException {
+
+    requireNonNull(archiveFile, "archiveFile argument cannot be null");
+
+    if (!archiveFile.isLocalFile()) {
+      return computeArchiveChecksum(archiveFile.open());
+    }
+
+    final Map<String, long[]> entries = new HashMap<>();
+
+    try (ZipFile zipFile = new ZipFile(archiveFile.toFile())) {
+
+      for (ZipArchiveEntry e : Collections.list(zipFile.getEntries())) {
+        entries.put(e.getName(), new long[] {e.getSize(), e.getCrc()});
+      }
+    }
+
+    return computeArchiveChecksum(entries);
+  }
+
+  /**
+   * Compute the checksum of an index archive. The checksum is computed from
+   * the names, the sizes and the CRCs of the entries of the archive. As the
+   * sizes and the CRCs of the entries may be stored after their data (e.g.
+   * DEFLATED entries created by FileUtils.createZip()), each entry is read to
+   * compute its own size and CRC.
+   * @param in input stream of the archive
+   * @return the checksum as a string
+   * @throws IOException if an error occurs while creating the checksum
+   */
+  public static String computeArchiveChecksum(final InputStream in)
+      throws IOException {
+
+    requireNonNull(in, "in argument cannot be null");
+
+    final Map<String, long[]> entries = new HashMap<>();
+
+    try (ZipArchiveInputStream zais = new ZipArchiveInputStream(in)) {
+
+      final byte[] buffer = new byte[64 * 1024];
+      final CRC32 crc = new CRC32();
+
+      ZipArchiveEntry e;
+      while ((e = zais.getNextZipEntry()) != null) {
+
+        crc.reset();
+        long size = 0;
+        int n;
+        while ((n = zais.read(buffer)) != -1) {
+          crc.update(buffer, 0, n);
+          size += n;
+        }
+
+        entries.put(e.getName(), new long[] {size, crc.getValue()});
+      }
+    }
+
+    return computeArchiveChecksum(entries);
+  }
+
+  /**
+   * Compute the checksum of the entries of an archive.
+   * @param entries the entries of the archive
+   * @return the checksum as a string
+   */
+  private static String computeArchiveChecksum(
+      final Map<String, long[]> entries) {
+
+    // Create Hash function
+    final Hasher hs = Hashing.md5().newHasher();
+
+    // Add values to hash function in an ordered manner
+    for (String filename : new TreeSet<>(entries.keySet())) {
+
+      hs.putString(filename, StandardCharsets.UTF_8);
+      for (long l : entries.get(filename)) {
+        hs.putLong(l);
+      }
+    }
+
+    return hs.hash().toString();
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param cacheDirectory the directory of the cache
+   * @param maxSize the maximal size of the cache in bytes, a value lower or
+   *          equals to 0 means no limit
+   * @throws IOException if the cache directory cannot be created
+   */
+  public MapperIndexCache(final File cacheDirectory, final long maxSize)
+      throws IOException {
+
+    requireNonNull(cacheDirectory, "cacheDirectory argument cannot be null");
+
+    if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()
+        && !cacheDirectory.isDirectory()) {
+      throw new IOException(
+          "Unable to create mapper index cache directory: " + cacheDirectory);
+    }
+
+    this.cacheDirectory = cacheDirectory;
+    this.maxSize = maxSize;
+  }
+
+}
@@ -503,6 +503,23 @@ public class MapperInstance {
     return new MapperIndex(this, in, indexOutputDir);
   }
 
+  /**
+   * Create an instance of MapperIndex for an index of a mapper index cache.
+   * @param lease lease on the index in the cache
+   * @return a new instance of MapperIndexArchive
+   * @throws IOException if an error occurs while installing the mapper
+   */
+  public MapperIndex newMapperIndex(final MapperIndexCache.Lease lease)
+      throws IOException {
+
+    requireNonNull(lease, "lease argument cannot be null");
+
+    // Install the mapper
+    installMapper();
+
+    return new MapperIndex(this, lease.getIndexDirectory());
+  }
+
   //
   // Constructor
   //
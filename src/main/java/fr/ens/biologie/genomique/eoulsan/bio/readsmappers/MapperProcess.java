@@ -35,14 +35,21 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperExecutor.Result;
@@ -295,101 +302,194 @@ public abstract class MapperProcess {
   }
 
   /**
-   * This class allow to do asynchronous writes in a named piped.
+   * This class allow to do asynchronous writes in a named piped. The data to
+   * write is stored in a bounded ring buffer of bytes that is emptied in the
+   * named pipe by the thread. The write() method only blocks when the buffer
+   * is full. The counters of the writer are named after the name of the
+   * writer, so the two writers of paired-end data are reported separately.
    */
   static class FastqWriterThread extends Thread implements FastqWriter {
 
-    // The queue can store a little more than 1,00,000 * 1000 = 100,000,000
-    // characters
-    private static final int MAX_CAPACITY = 100000;
-    private static final int MIN_LINE_SIZE = 1000;
+    private static final int BUFFER_SIZE = 16 * 1024 * 1024;
 
-    private volatile boolean closed;
-    private final BlockingDeque<String> queue =
-        new LinkedBlockingDeque<>(MAX_CAPACITY);
-    private final Writer writer;
-    private Exception exception;
+    // The maximal queue depths already reported to each reporter
+    private static final Map<ReporterIncrementer, Map<String, Long>>
+        REPORTED_MAX_QUEUE_DEPTHS = new WeakHashMap<>();
+
+    private final String writerName;
+    private final WritableByteChannel channel;
+    private final byte[] ring;
+    private final ByteBuffer view;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+
+    // Guarded by lock
+    private int head;
+    private int tail;
+    private int size;
+    private boolean closed;
+    private volatile Exception exception;
 
-    private int lineCount;
-    private final StringBuilder buffer = new StringBuilder();
+    // Only accessed by the thread that call write()
+    private long stallTime;
+    private int maxQueueDepth;
+    private boolean countersReported;
 
     @Override
     public void run() {
 
       try {
-        while (!this.closed || !queue.isEmpty()) {
 
-          if (!this.queue.isEmpty()) {
+        while (true) {
 
-            while (!this.queue.isEmpty()) {
+          final int start;
+          final int length;
 
-              this.writer.write(queue.take());
+          this.lock.lock();
+          try {
+
+            while (this.size == 0 && !this.closed) {
+              this.notEmpty.await();
             }
 
-          } else {
-            Thread.sleep(1000);
+            if (this.size == 0) {
+              break;
+            }
+
+            // Only write the contiguous part of the data, the remaining data
+            // will be written at the next iteration
+            start = this.tail;
+            length = Math.min(this.size, this.ring.length - start);
+          } finally {
+            this.lock.unlock();
+          }
+
+          // The bytes to write cannot be overwritten by write() until the
+          // size of the queue has been updated
+          this.view.limit(start + length).position(start);
+          while (this.view.hasRemaining()) {
+            this.channel.write(this.view);
           }
-        }
 
-        this.writer.close();
+          this.lock.lock();
+          try {
+            this.tail = (start + length) % this.ring.length;
+            this.size -= length;
+            this.notFull.signal();
+          } finally {
+            this.lock.unlock();
+          }
+        }
 
       } catch (IOException e) {
         this.exception = e;
       } catch (InterruptedException e) {
         this.exception = new IOException(e);
+      } finally {
+
+        try {
+          this.channel.close();
+        } catch (IOException e) {
+          if (this.exception == null) {
+            this.exception = e;
+          }
+        }
+
+        // Unblock the write() method if the writing has failed
+        this.lock.lock();
+        try {
+          this.notFull.signalAll();
+        } finally {
+          this.lock.unlock();
+        }
       }
     }
 
     /**
-     * Write a string to the pipe. This method is not synchronized.
+     * Write a string to the pipe. This method is not synchronized. The
+     * characters of the string are written as ISO-8859-1 bytes.
      * @param s string to write
      * @throws IOException if an error has occurred in writings
      */
     @Override
     public void write(final String s) throws IOException {
 
-      if (this.closed) {
-        throw new IllegalStateException("FastqWriterThread is closed");
-      }
+      final int len = s.length();
+      int pos = 0;
 
-      this.buffer.append(s);
-      this.lineCount++;
+      while (pos < len) {
 
-      // We only add lines of about 1000 character in the queue
-      if (this.buffer.length() < MIN_LINE_SIZE || this.lineCount % 4 != 0) {
-        return;
-      }
+        int free;
+        int headPos;
 
-      if (this.queue.remainingCapacity() == 0) {
+        this.lock.lock();
+        try {
 
-        this.writer.flush();
+          if (this.closed) {
+            throw new IllegalStateException("FastqWriterThread is closed");
+          }
 
-        while (this.queue.remainingCapacity() == 0) {
+          while ((free = this.ring.length - this.size) == 0
+              && this.exception == null && isAlive()) {
 
-          try {
-            Thread.sleep(1000);
-          } catch (InterruptedException e) {
+            final long waitStart = System.nanoTime();
+            this.notFull.await();
+            this.stallTime += System.nanoTime() - waitStart;
           }
+
+          headPos = this.head;
+
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        } finally {
+          this.lock.unlock();
         }
-      }
 
-      this.queue.add(this.buffer.toString());
-      this.buffer.setLength(0);
-      this.lineCount = 0;
+        throwExceptionIfExists();
 
-      throwExceptionIfExists();
+        if (free == 0) {
+          throw new IOException("FastqWriterThread has stopped");
+        }
+
+        // Copy the characters in the free space of the buffer, this space
+        // cannot be read by the thread until the size has been updated
+        final int count = Math.min(free, len - pos);
+        for (int i = 0; i < count; i++) {
+          this.ring[headPos] = (byte) s.charAt(pos + i);
+          if (++headPos == this.ring.length) {
+            headPos = 0;
+          }
+        }
+        pos += count;
+
+        this.lock.lock();
+        try {
+          this.head = headPos;
+          this.size += count;
+          this.maxQueueDepth = Math.max(this.maxQueueDepth, this.size);
+          this.notEmpty.signal();
+        } finally {
+          this.lock.unlock();
+        }
+      }
     }
 
     /**
-     * Asynchronous close. This method is not synchronized. A call to write()
-     * just after close() may to lead to lose data.
+     * Close the writer. This method is not synchronized and wait that all the
+     * data has been written in the pipe.
      */
     @Override
     public void close() throws IOException {
 
-      this.queue.add(buffer.toString());
-      this.buffer.setLength(0);
-      this.closed = true;
+      this.lock.lock();
+      try {
+        this.closed = true;
+        this.notEmpty.signal();
+      } finally {
+        this.lock.unlock();
+      }
 
       try {
         join();
@@ -400,6 +500,67 @@ public abstract class MapperProcess {
       throwExceptionIfExists();
     }
 
+    /**
+     * Report the stall time and the maximal depth of the queue of the writer.
+     * The counters are only reported once. As the reporters sum the values of
+     * the counters, the stall times of the writers with the same name of all
+     * the mapper processes that use the same counter group are summed. The
+     * maximal queue depth counter is only incremented by the difference
+     * between the depth of the writer and the greatest depth already reported
+     * to the reporter, so its value is the maximal depth of these writers.
+     * @param incrementer incrementer to use
+     * @param counterGroup counter group to use
+     */
+    void reportCounters(final ReporterIncrementer incrementer,
+        final String counterGroup) {
+
+      if (incrementer == null || this.countersReported) {
+        return;
+      }
+
+      incrementer.incrCounter(counterGroup,
+          stallTimeCounterName(this.writerName), this.stallTime / 1000000);
+
+      final String counterName = maxQueueDepthCounterName(this.writerName);
+      final long increment;
+
+      synchronized (REPORTED_MAX_QUEUE_DEPTHS) {
+
+        final Map<String, Long> reported = REPORTED_MAX_QUEUE_DEPTHS
+            .computeIfAbsent(incrementer, k -> new HashMap<>());
+        final String key = counterGroup + '\t' + counterName;
+        final long previous = reported.getOrDefault(key, 0L);
+
+        increment = Math.max(0L, this.maxQueueDepth - previous);
+        reported.put(key, previous + increment);
+      }
+
+      if (increment > 0) {
+        incrementer.incrCounter(counterGroup, counterName, increment);
+      }
+      this.countersReported = true;
+    }
+
+    /**
+     * Get the name of the stall time counter of a writer.
+     * @param writerName name of the writer
+     * @return the name of the counter
+     */
+    static String stallTimeCounterName(final String writerName) {
+
+      return "mapper input " + writerName + " stall time in ms";
+    }
+
+    /**
+     * Get the name of the maximal queue depth counter of a writer.
+     * @param writerName name of the writer
+     * @return the name of the counter
+     */
+    static String maxQueueDepthCounterName(final String writerName) {
+
+      return "mapper input " + writerName + " max queue depth in bytes";
+    }
+
     /**
      * Throw an exception if an exception has occurred while writing data.
      * @throws IOException if an exception has occurred while writing data
@@ -417,13 +578,29 @@ public abstract class MapperProcess {
 
     /**
      * Constructor.
-     * @param writer the writer to use to write data
+     * @param channel the channel to use to write data
+     * @param threadName the name of the thread
+     * @param writerName the name of the writer in the counters
+     * @param bufferSize the size of the buffer in bytes
      */
-    public FastqWriterThread(final Writer writer, final String threadName) {
+    FastqWriterThread(final WritableByteChannel channel,
+        final String threadName, final String writerName,
+        final int bufferSize) {
 
       super(threadName);
 
-      this.writer = writer;
+      requireNonNull(channel, "channel argument cannot be null");
+      requireNonNull(writerName, "writerName argument cannot be null");
+
+      if (bufferSize < 1) {
+        throw new IllegalArgumentException(
+            "bufferSize must be greater than 0: " + bufferSize);
+      }
+
+      this.writerName = writerName;
+      this.channel = channel;
+      this.ring = new byte[bufferSize];
+      this.view = ByteBuffer.wrap(this.ring);
 
       // Start the thread
       start();
@@ -432,11 +609,14 @@ public abstract class MapperProcess {
     /**
      * Constructor.
      * @param namedPipeFile the named pipe file
+     * @param threadName the name of the thread
+     * @param writerName the name of the writer in the counters
      */
-    public FastqWriterThread(final File namedPipeFile, final String threadName)
-        throws IOException {
+    public FastqWriterThread(final File namedPipeFile, final String threadName,
+        final String writerName) throws IOException {
 
-      this(createPipeWriter(namedPipeFile), threadName);
+      this(createPipeChannel(namedPipeFile), threadName, writerName,
+          BUFFER_SIZE);
     }
 
   }
@@ -671,7 +851,7 @@ public abstract class MapperProcess {
       } catch (InterruptedException e) {
       }
 
-      this.writer1.close();
+      closeWriter(this.writer1);
     }
   }
 
@@ -689,7 +869,7 @@ public abstract class MapperProcess {
       } catch (InterruptedException e) {
       }
 
-      this.writer2.close();
+      closeWriter(this.writer2);
     }
   }
 
@@ -702,11 +882,36 @@ public abstract class MapperProcess {
   public void closeEntriesWriter() throws IOException, InterruptedException {
 
     if (this.writer1 != null) {
-      this.writer1.close();
+      closeWriter(this.writer1);
     }
 
     if (this.writer2 != null) {
-      this.writer2.close();
+      closeWriter(this.writer2);
+    }
+  }
+
+  /**
+   * Close a writer and report its counters.
+   * @param writer the writer to close
+   * @throws IOException if an error occurs while closing the writer
+   */
+  private void closeWriter(final FastqWriter writer) throws IOException {
+
+    writer.close();
+
+    if (writer instanceof FastqWriterThread) {
+      reportWriterCounters((FastqWriterThread) writer);
+    }
+  }
+
+  /**
+   * Report the counters of a closed FastqWriterThread.
+   * @param writer the writer
+   */
+  void reportWriterCounters(final FastqWriterThread writer) {
+
+    if (writer != null) {
+      writer.reportCounters(this.incrementer, this.counterGroup);
     }
   }
 
@@ -803,6 +1008,24 @@ public abstract class MapperProcess {
     }
   }
 
+  /**
+   * Stop the mapper after an error. The threads that write the reads are
+   * stopped without waiting that their buffered data has been written and the
+   * processes are destroyed.
+   */
+  public void destroy() {
+
+    for (FastqWriter writer : Arrays.asList(this.writer1, this.writer2)) {
+      if (writer instanceof FastqWriterThread) {
+        ((FastqWriterThread) writer).interrupt();
+      }
+    }
+
+    for (Result result : this.processResults) {
+      result.destroy();
+    }
+  }
+
   /**
    * Remove a temporary file.
    * @param f f file to remove
@@ -836,6 +1059,24 @@ public abstract class MapperProcess {
     return new OutputStreamWriter(os, StandardCharsets.ISO_8859_1);
   }
 
+  /**
+   * Create pipe channel.
+   * @param file the pipe file to create
+   * @return a channel on the pipe
+   * @throws IOException if an error occurs while creating the pipe or the
+   *           channel
+   */
+  private static FileChannel createPipeChannel(final File file)
+      throws IOException {
+
+    FileUtils.createNamedPipe(file);
+
+    @SuppressWarnings("resource")
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    return raf.getChannel();
+  }
+
   /**
    * Add a list of temporary files to remove at the end of the mapping.
    * @param files files to remove
@@ -1001,10 +1242,12 @@ public abstract class MapperProcess {
     if (inputFile1 == null) {
 
       this.writer1 = threadForRead1
-          ? new FastqWriterThread(this.pipeFile1, "FastqWriterThread fastq1")
+          ? new FastqWriterThread(this.pipeFile1,
+              "FastqWriterThread fastq1", "writer1")
           : new FastqWriterNoThread(this.pipeFile1);
       this.writer2 = pairedEnd
-          ? new FastqWriterThread(this.pipeFile2, "FastqWriterThread fastq2")
+          ? new FastqWriterThread(this.pipeFile2,
+              "FastqWriterThread fastq2", "writer2")
           : null;
 
       addFilesToRemove(this.pipeFile1, this.pipeFile2);
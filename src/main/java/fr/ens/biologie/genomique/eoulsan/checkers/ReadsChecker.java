@@ -158,6 +158,7 @@ public class ReadsChecker implements Checker {
       final int pairMember) throws IOException, BadBioEntryException {
 
     final FastqReader reader = new FastqReader(is);
+    reader.setReuseResultObject(true);
 
     int count = 0;
 
@@ -29,9 +29,12 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
 import fr.ens.biologie.genomique.eoulsan.core.AbstractPorts;
 import fr.ens.biologie.genomique.eoulsan.core.OutputPort;
 import fr.ens.biologie.genomique.eoulsan.core.OutputPorts;
+import fr.ens.biologie.genomique.eoulsan.core.Step.StepType;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
 
 /**
  * This class define a group of Workflow output ports.
@@ -88,11 +91,20 @@ class StepOutputPorts extends AbstractPorts<StepOutputPort>
     }
 
     final Set<StepOutputPort> result = new HashSet<>();
+    final CompressionType intermediateCompression =
+        getIntermediateOutputCompression(step);
 
     for (OutputPort port : ports) {
       if (port != null) {
+
+        // Compress the uncompressed intermediate text outputs if required
+        final CompressionType compression =
+            port.getCompression() == CompressionType.NONE
+                && port.getFormat().isIntermediateCompressionAllowed()
+                    ? intermediateCompression : port.getCompression();
+
         result.add(new StepOutputPort(step, port.getName(), port.isList(),
-            port.getFormat(), port.getCompression()));
+            port.getFormat(), compression));
       }
 
     }
@@ -100,6 +112,29 @@ class StepOutputPorts extends AbstractPorts<StepOutputPort>
     return result;
   }
 
+  /**
+   * Get the compression to use for the outputs of a step if they are
+   * intermediate outputs. Only the outputs of the standard steps that are
+   * discarded in local mode are concerned.
+   * @param step the step
+   * @return the compression to use for the intermediate outputs or NONE if the
+   *         outputs of the step are not intermediate outputs
+   */
+  private static CompressionType getIntermediateOutputCompression(
+      final AbstractStep step) {
+
+    if (step == null
+        || step.getType() != StepType.STANDARD_STEP
+        || step.getDiscardOutput() == null
+        || step.getDiscardOutput().isCopyResultsToOutput()
+        || !EoulsanRuntime.isRuntime()
+        || EoulsanRuntime.getRuntime().getMode().isHadoopMode()) {
+      return CompressionType.NONE;
+    }
+
+    return EoulsanRuntime.getSettings().getIntermediateOutputCompression();
+  }
+
   //
   // Constructor.
   //
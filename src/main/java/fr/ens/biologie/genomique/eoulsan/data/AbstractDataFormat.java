@@ -74,6 +74,12 @@ abstract class AbstractDataFormat implements DataFormat {
     return null;
   }
 
+  @Override
+  public boolean isIntermediateCompressionAllowed() {
+
+    return false;
+  }
+
   @Override
   public String getContentType() {
 
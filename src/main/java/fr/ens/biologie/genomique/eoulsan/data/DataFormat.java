@@ -68,6 +68,15 @@ public interface DataFormat {
    */
   boolean isOneFilePerAnalysis();
 
+  /**
+   * Test if the files of this DataFormat can be compressed when they are
+   * intermediate outputs of a workflow. Only the text formats read
+   * sequentially by their consumers can be compressed.
+   * @return true if the intermediate files of this DataFormat can be
+   *         compressed
+   */
+  boolean isIntermediateCompressionAllowed();
+
   /**
    * Test if the DataFormat is provided by the design file.
    * @return true if the DataType is provided by the design file
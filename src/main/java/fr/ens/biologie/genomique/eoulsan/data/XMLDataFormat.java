@@ -69,6 +69,7 @@ public final class XMLDataFormat extends AbstractDataFormat
   private String alias;
   private String prefix;
   private boolean oneFilePerAnalysis;
+  private boolean intermediateCompressionAllowed;
   private boolean dataFormatFromDesignFile;
   private String designMetadataKeyName;
   private String sampleMetadataKeyName;
@@ -106,6 +107,12 @@ public final class XMLDataFormat extends AbstractDataFormat
     return this.oneFilePerAnalysis;
   }
 
+  @Override
+  public boolean isIntermediateCompressionAllowed() {
+
+    return this.intermediateCompressionAllowed;
+  }
+
   @Override
   public boolean isDataFormatFromDesignFile() {
 
@@ -279,6 +286,8 @@ public final class XMLDataFormat extends AbstractDataFormat
       this.prefix = XMLUtils.getTagValue(e, "prefix");
       this.oneFilePerAnalysis =
           Boolean.parseBoolean(XMLUtils.getTagValue(e, "onefileperanalysis"));
+      this.intermediateCompressionAllowed = Boolean
+          .parseBoolean(XMLUtils.getTagValue(e, "intermediatecompression"));
       this.designMetadataKeyName = XMLUtils.getTagValue(e, "designmetadatakey");
       this.sampleMetadataKeyName = XMLUtils.getTagValue(e, "samplemetadatakey");
       this.contentType = XMLUtils.getTagValue(e, "content-type");
@@ -453,6 +462,8 @@ public final class XMLDataFormat extends AbstractDataFormat
         && Objects.equals(this.alias, that.alias)
         && Objects.equals(this.prefix, that.prefix)
         && Objects.equals(this.oneFilePerAnalysis, that.oneFilePerAnalysis)
+        && Objects.equals(this.intermediateCompressionAllowed,
+            that.intermediateCompressionAllowed)
         && Objects.equals(this.dataFormatFromDesignFile,
             that.dataFormatFromDesignFile)
         && Objects.equals(this.designMetadataKeyName,
@@ -473,11 +484,11 @@ public final class XMLDataFormat extends AbstractDataFormat
   public int hashCode() {
 
     return Objects.hash(this.name, this.description, this.alias, this.prefix,
-        this.oneFilePerAnalysis, this.dataFormatFromDesignFile,
-        this.designMetadataKeyName, this.sampleMetadataKeyName,
-        this.contentType, this.extensions, this.galaxyFormatNames,
-        this.generatorClassName, this.checkerClassName, this.splitterClassName,
-        this.mergerClassName, this.maxFilesCount);
+        this.oneFilePerAnalysis, this.intermediateCompressionAllowed,
+        this.dataFormatFromDesignFile, this.designMetadataKeyName,
+        this.sampleMetadataKeyName, this.contentType, this.extensions,
+        this.galaxyFormatNames, this.generatorClassName, this.checkerClassName,
+        this.splitterClassName, this.mergerClassName, this.maxFilesCount);
   }
 
   @Override
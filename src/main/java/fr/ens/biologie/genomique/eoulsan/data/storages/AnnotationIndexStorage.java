@@ -0,0 +1,58 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.data.storages;
+
+import java.util.Map;
+
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+
+/**
+ * This interface define a storage for compiled annotation indexes.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public interface AnnotationIndexStorage {
+
+  /**
+   * Get the compiled index that corresponds to an annotation file and to the
+   * parameters used to compile it.
+   * @param annotationFile annotation DataFile
+   * @param parameters parameters used to compile the index (e.g. feature type,
+   *          attribute id, strandedness)
+   * @return a DataFile that contains the compiled index or null if the index
+   *         has not yet been computed
+   */
+  DataFile get(DataFile annotationFile, Map<String, String> parameters);
+
+  /**
+   * Put a compiled index in the storage.
+   * @param annotationFile annotation DataFile
+   * @param parameters parameters used to compile the index
+   * @param compiledIndex the DataFile that contains the compiled index
+   */
+  void put(DataFile annotationFile, Map<String, String> parameters,
+      DataFile compiledIndex);
+
+}
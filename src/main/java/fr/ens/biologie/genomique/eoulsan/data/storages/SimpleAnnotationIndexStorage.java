@@ -0,0 +1,387 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.data.storages;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import fr.ens.biologie.genomique.eoulsan.Globals;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
+
+/**
+ * This class define a basic AnnotationIndexStorage based on an index file. The
+ * entries of the storage are identified by the checksum and the length of the
+ * annotation file and by the checksum of the compilation parameters. As the
+ * storage is shared by all the counters of a JVM, its methods are
+ * synchronized.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class SimpleAnnotationIndexStorage implements AnnotationIndexStorage {
+
+  private static final String INDEX_FILENAME = "annotations_index_storage.txt";
+  private static final String INDEX_EXTENSION = ".annidx";
+
+  private final DataFile dir;
+  private final Map<String, IndexEntry> entries = new LinkedHashMap<>();
+  private String lastMD5Computed;
+  private DataFile lastAnnotationFile;
+  private long lastAnnotationFileModified;
+
+  /**
+   * This inner class define an entry of the index file.
+   * @author Laurent Jourdren
+   */
+  private static final class IndexEntry {
+
+    String annotationName;
+    long annotationFileLength;
+    String annotationFileMD5Sum;
+    String parametersMD5Sum;
+    DataFile file;
+    String description;
+
+    private String getKey() {
+      return createKey(this.annotationFileLength, this.annotationFileMD5Sum,
+          this.parametersMD5Sum);
+    }
+
+    @Override
+    public String toString() {
+      return this.getClass().getSimpleName()
+          + "{annotationName=" + this.annotationName
+          + ", annotationFileLength=" + this.annotationFileLength
+          + ", annotationFileMD5Sum=" + this.annotationFileMD5Sum
+          + ", parametersMD5Sum=" + this.parametersMD5Sum + ", file="
+          + this.file + "}";
+    }
+  }
+
+  //
+  // Interface methods
+  //
+
+  @Override
+  public synchronized DataFile get(final DataFile annotationFile,
+      final Map<String, String> parameters) {
+
+    requireNonNull(annotationFile, "Annotation file is null");
+    requireNonNull(parameters, "parameters is null");
+
+    final IndexEntry entry =
+        this.entries.get(createKey(annotationFile, parameters));
+
+    return entry == null ? null : entry.file;
+  }
+
+  @Override
+  public synchronized void put(final DataFile annotationFile,
+      final Map<String, String> parameters, final DataFile compiledIndex) {
+
+    requireNonNull(annotationFile, "Annotation file is null");
+    requireNonNull(parameters, "parameters is null");
+    requireNonNull(compiledIndex, "compiledIndex is null");
+
+    // Update the index to avoid to lost entries when several instances of
+    // Eoulsan are running
+    try {
+      load();
+    } catch (IOException e) {
+      getLogger().warning("Unable to reload the annotation index storage");
+    }
+
+    if (!compiledIndex.exists()) {
+      return;
+    }
+
+    final String key = createKey(annotationFile, parameters);
+
+    if (key == null || this.entries.containsKey(key)) {
+      return;
+    }
+
+    try {
+      final DataFileMetadata md = annotationFile.getMetaData();
+
+      final IndexEntry entry = new IndexEntry();
+      entry.annotationName = annotationFile.getName();
+      entry.annotationFileLength = md.getContentLength();
+      entry.annotationFileMD5Sum = computeMD5Sum(annotationFile);
+      entry.parametersMD5Sum = createMD5Sum(parameters);
+      entry.description = new TreeMap<>(parameters).toString();
+      entry.file = new DataFile(this.dir,
+          entry.annotationFileMD5Sum
+              + "_" + entry.annotationFileLength + "_"
+              + entry.parametersMD5Sum + INDEX_EXTENSION);
+
+      FileUtils.copy(compiledIndex.rawOpen(), entry.file.create());
+      this.entries.put(entry.getKey(), entry);
+      save();
+      getLogger().info("Successfully added "
+          + entry.annotationName
+          + " compiled index to annotation index storage.");
+    } catch (IOException e) {
+      getLogger().warning(
+          "Cannot add compiled index to annotation index storage: "
+              + e.getMessage());
+    }
+  }
+
+  //
+  // Index management methods
+  //
+
+  /**
+   * Load the information from the index file
+   * @throws IOException if an error occurs while loading the index file
+   */
+  private void load() throws IOException {
+
+    if (!this.dir.exists()) {
+      throw new IOException("Annotation index storage directory not found: "
+          + this.dir.getSource());
+    }
+
+    final DataFile indexFile = new DataFile(this.dir, INDEX_FILENAME);
+
+    // Create an empty index file if no index exists
+    if (!indexFile.exists()) {
+
+      save();
+      return;
+    }
+
+    // Clear the entries (useful when reloading the index)
+    this.entries.clear();
+
+    try (final BufferedReader br = new BufferedReader(
+        new InputStreamReader(indexFile.open(), Globals.DEFAULT_CHARSET))) {
+
+      final Pattern pattern = Pattern.compile("\t");
+      String line = null;
+
+      while ((line = br.readLine()) != null) {
+
+        final String trimmedLine = line.trim();
+        if ("".equals(trimmedLine) || trimmedLine.startsWith("#")) {
+          continue;
+        }
+
+        final List<String> fields = Arrays.asList(pattern.split(trimmedLine));
+
+        if (fields.size() < 5 || fields.size() > 6) {
+          continue;
+        }
+
+        final IndexEntry e = new IndexEntry();
+        e.annotationName = fields.get(0);
+        e.annotationFileMD5Sum = fields.get(1);
+        e.annotationFileLength = Long.parseLong(fields.get(2));
+        e.parametersMD5Sum = fields.get(3);
+        e.file = new DataFile(this.dir, fields.get(4));
+
+        if (fields.size() == 6) {
+          e.description = fields.get(5);
+        }
+
+        if (e.file.exists()) {
+          this.entries.put(e.getKey(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Save the information in the index file
+   * @throws IOException if an error occurs while saving the index file
+   */
+  private void save() throws IOException {
+
+    if (!this.dir.exists()) {
+      throw new IOException("Annotation index storage directory not found: "
+          + this.dir.getSource());
+    }
+
+    final DataFile indexFile = new DataFile(this.dir, INDEX_FILENAME);
+
+    // Create an empty index file
+    try (final BufferedWriter writer = new BufferedWriter(
+        new OutputStreamWriter(indexFile.create(), Globals.DEFAULT_CHARSET))) {
+      writer.write("#Annotation\tAnnotationFileMD5\tAnnotationFileLength"
+          + "\tParametersChecksum\tIndexFile\tDescription\n");
+
+      for (Map.Entry<String, IndexEntry> e : this.entries.entrySet()) {
+
+        IndexEntry ie = e.getValue();
+
+        writer.append(ie.annotationName);
+        writer.append("\t");
+        writer.append(ie.annotationFileMD5Sum);
+        writer.append("\t");
+        writer.append(Long.toString(ie.annotationFileLength));
+        writer.append("\t");
+        writer.append(ie.parametersMD5Sum);
+        writer.append("\t");
+        writer.append(ie.file.getName());
+
+        if (ie.description != null) {
+          writer.append("\t");
+          writer.append(ie.description);
+        }
+
+        writer.append("\n");
+      }
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  private String createKey(final DataFile annotationFile,
+      final Map<String, String> parameters) {
+
+    try {
+      final DataFileMetadata md = annotationFile.getMetaData();
+
+      return createKey(md.getContentLength(), computeMD5Sum(annotationFile),
+          createMD5Sum(parameters));
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static String createKey(final long annotationFileLength,
+      final String annotationFileMD5Sum, final String parametersMD5Sum) {
+
+    return annotationFileMD5Sum
+        + '\t' + annotationFileLength + '\t' + parametersMD5Sum;
+  }
+
+  private String computeMD5Sum(final DataFile annotationFile)
+      throws IOException {
+
+    DataFileMetadata md = null;
+
+    try {
+      md = annotationFile.getMetaData();
+    } catch (IOException e) {
+    }
+
+    if (md != null
+        && annotationFile.equals(this.lastAnnotationFile)
+        && this.lastAnnotationFileModified == md.getLastModified()
+        && this.lastMD5Computed != null) {
+      return this.lastMD5Computed;
+    }
+
+    final String md5Sum = FileUtils.computeMD5Sum(annotationFile.rawOpen());
+
+    if (md != null && md5Sum != null) {
+      this.lastAnnotationFile = annotationFile;
+      this.lastAnnotationFileModified = md.getLastModified();
+      this.lastMD5Computed = md5Sum;
+    }
+
+    return md5Sum;
+  }
+
+  private static String createMD5Sum(final Map<String, String> parameters)
+      throws IOException {
+
+    final MessageDigest md5Digest;
+    try {
+      md5Digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(
+          "Failed to create checksum for annotation index: " + e.getMessage());
+    }
+
+    for (Map.Entry<String, String> e : new TreeMap<>(parameters).entrySet()) {
+
+      md5Digest.update(e.getKey().getBytes(Globals.DEFAULT_CHARSET));
+      md5Digest.update(e.getValue().getBytes(Globals.DEFAULT_CHARSET));
+    }
+
+    return StringUtils.md5DigestToString(md5Digest);
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Create an AnnotationIndexStorage
+   * @param dir the path of the annotation index storage
+   * @return an AnnotationIndexStorage object if the path contains an index
+   *         storage or null if no index storage is found
+   */
+  public static AnnotationIndexStorage getInstance(final DataFile dir) {
+
+    try {
+      return new SimpleAnnotationIndexStorage(dir);
+    } catch (IOException | NullPointerException e) {
+      return null;
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   * @param dir Path to the index storage
+   * @throws IOException if an error occurs while testing the index storage
+   */
+  private SimpleAnnotationIndexStorage(final DataFile dir) throws IOException {
+
+    requireNonNull(dir, "Index directory is null");
+
+    this.dir = dir;
+    load();
+
+    getLogger().info("Annotation index storage found. "
+        + this.entries.size() + " entries in : " + dir.getSource());
+  }
+
+}
@@ -40,6 +40,7 @@ import java.util.regex.Pattern;
 
 import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescriptionComputer;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
 import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
 import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
@@ -192,6 +193,30 @@ public class SimpleGenomeDescStorage implements GenomeDescStorage {
     }
   }
 
+  /**
+   * Test if the storage contains a genome file with the same length as a
+   * genome file. This test does not require to read the genome file.
+   * @param genomeFile the genome file
+   * @return true if the storage contains a genome file with the same length
+   */
+  private boolean containsGenomeFileLength(final DataFile genomeFile) {
+
+    final long length;
+    try {
+      length = genomeFile.getMetaData().getContentLength();
+    } catch (IOException e) {
+      return false;
+    }
+
+    for (IndexEntry e : this.entries.values()) {
+      if (e.genomeFileLength == length) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   private static String createKey(final long genomeFileLength,
       final String genomeFileMD5Sum) {
 
@@ -214,7 +239,14 @@ public class SimpleGenomeDescStorage implements GenomeDescStorage {
       return this.lastMD5Computed;
     }
 
-    final String md5Sum = FileUtils.computeMD5Sum(genomeFile.rawOpen());
+    // Reuse the MD5 sum computed with the genome description if the genome
+    // has been already processed, the genome is never parsed only to compute
+    // the key of the storage
+    final GenomeDescriptionComputer.Result result =
+        GenomeDescriptionComputer.getCachedResult(genomeFile);
+    final String md5Sum = result != null
+        ? result.getFileMD5Sum()
+        : FileUtils.computeMD5Sum(genomeFile.rawOpen());
 
     if (md != null && md5Sum != null) {
       this.lastGenomeFile = genomeFile;
@@ -234,6 +266,13 @@ public class SimpleGenomeDescStorage implements GenomeDescStorage {
 
     requireNonNull(genomeFile, "Genome file is null");
 
+    // If no stored genome has the same length, the genome file is not read
+    // here and its MD5 sum will be computed in the same pass as its
+    // description
+    if (!containsGenomeFileLength(genomeFile)) {
+      return null;
+    }
+
     final IndexEntry entry = this.entries.get(createKey(genomeFile));
 
     if (entry == null || entry.file == null) {
@@ -0,0 +1,348 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class contains utility methods to handle BGZF blocks. A BGZF file is a
+ * valid gzip file made of independent gzip members of at most 64 KiB, each
+ * member containing its compressed size in an extra field of its header.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class BGZFUtils {
+
+  /** Maximal size of the uncompressed data of a block. */
+  static final int MAX_UNCOMPRESSED_BLOCK_SIZE = 0xff00;
+
+  /** Maximal size of a compressed block. */
+  static final int MAX_BLOCK_SIZE = 0x10000;
+
+  /** Length of the header of a BGZF block. */
+  static final int HEADER_LENGTH = 18;
+
+  /** Length of the footer of a BGZF block. */
+  static final int FOOTER_LENGTH = 8;
+
+  /** Empty block that ends a BGZF file. */
+  static final byte[] EOF_BLOCK = {0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00,
+      0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00, 0x1b,
+      0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
+
+  private static final int GZIP_ID1 = 0x1f;
+  private static final int GZIP_ID2 = 0x8b;
+  private static final int GZIP_CM_DEFLATE = 8;
+  private static final int GZIP_FLG_FEXTRA = 4;
+  private static final int GZIP_OS_UNKNOWN = 0xff;
+  private static final int BGZF_SI1 = 'B';
+  private static final int BGZF_SI2 = 'C';
+
+  //
+  // Compression
+  //
+
+  /**
+   * Compress data in a BGZF block.
+   * @param deflater the deflater to use, must be created with the nowrap
+   *          option
+   * @param data the data to compress
+   * @param len the length of the data to compress
+   * @return an array with the BGZF block
+   */
+  static byte[] compressBlock(final Deflater deflater, final byte[] data,
+      final int len) {
+
+    if (len > MAX_UNCOMPRESSED_BLOCK_SIZE) {
+      throw new IllegalArgumentException("Block too large: " + len);
+    }
+
+    final byte[] buffer = new byte[MAX_BLOCK_SIZE];
+    final int maxCompressedLength =
+        MAX_BLOCK_SIZE - HEADER_LENGTH - FOOTER_LENGTH;
+
+    int compressedLength = deflate(deflater, data, len, buffer,
+        maxCompressedLength);
+
+    // Uncompressible data, store the data without compression
+    if (compressedLength < 0) {
+
+      final Deflater noCompression =
+          new Deflater(Deflater.NO_COMPRESSION, true);
+      try {
+        compressedLength = deflate(noCompression, data, len, buffer,
+            maxCompressedLength);
+      } finally {
+        noCompression.end();
+      }
+    }
+
+    final int blockSize = HEADER_LENGTH + compressedLength + FOOTER_LENGTH;
+
+    // Write the header
+    buffer[0] = (byte) GZIP_ID1;
+    buffer[1] = (byte) GZIP_ID2;
+    buffer[2] = GZIP_CM_DEFLATE;
+    buffer[3] = GZIP_FLG_FEXTRA;
+    buffer[4] = 0;
+    buffer[5] = 0;
+    buffer[6] = 0;
+    buffer[7] = 0;
+    buffer[8] = 0;
+    buffer[9] = (byte) GZIP_OS_UNKNOWN;
+    writeShort(buffer, 10, 6);
+    buffer[12] = BGZF_SI1;
+    buffer[13] = BGZF_SI2;
+    writeShort(buffer, 14, 2);
+    writeShort(buffer, 16, blockSize - 1);
+
+    // Write the footer
+    final CRC32 crc = new CRC32();
+    crc.update(data, 0, len);
+    writeInt(buffer, HEADER_LENGTH + compressedLength, (int) crc.getValue());
+    writeInt(buffer, HEADER_LENGTH + compressedLength + 4, len);
+
+    final byte[] result = new byte[blockSize];
+    System.arraycopy(buffer, 0, result, 0, blockSize);
+
+    return result;
+  }
+
+  /**
+   * Deflate data.
+   * @param deflater deflater to use
+   * @param data data to compress
+   * @param len length of the data
+   * @param out output buffer
+   * @param maxLength maximal length of the compressed data
+   * @return the length of the compressed data or -1 if the compressed data
+   *         does not fit in the output buffer
+   */
+  private static int deflate(final Deflater deflater, final byte[] data,
+      final int len, final byte[] out, final int maxLength) {
+
+    deflater.reset();
+    deflater.setInput(data, 0, len);
+    deflater.finish();
+
+    int count = 0;
+    while (!deflater.finished()) {
+
+      if (count == maxLength) {
+        return -1;
+      }
+
+      count += deflater.deflate(out, HEADER_LENGTH + count, maxLength - count);
+    }
+
+    return count;
+  }
+
+  //
+  // Decompression
+  //
+
+  /**
+   * Test if the header of a gzip member is the header of a BGZF block.
+   * @param header the bytes of the header
+   * @param len the number of bytes available in the header array
+   * @return true if the header is a BGZF header
+   */
+  static boolean isBGZFHeader(final byte[] header, final int len) {
+
+    return len >= HEADER_LENGTH
+        && (header[0] & 0xff) == GZIP_ID1 && (header[1] & 0xff) == GZIP_ID2
+        && header[2] == GZIP_CM_DEFLATE
+        && (header[3] & GZIP_FLG_FEXTRA) != 0 && readShort(header, 10) == 6
+        && header[12] == BGZF_SI1 && header[13] == BGZF_SI2
+        && readShort(header, 14) == 2;
+  }
+
+  /**
+   * Read a BGZF block.
+   * @param is input stream
+   * @return an array with the block or null if the end of the stream has been
+   *         reached
+   * @throws IOException if an error occurs while reading the block or if the
+   *           block is not a valid BGZF block
+   */
+  static byte[] readBlock(final InputStream is) throws IOException {
+
+    final byte[] header = new byte[HEADER_LENGTH];
+    final int n = readFully(is, header, 0, HEADER_LENGTH);
+
+    if (n == 0) {
+      return null;
+    }
+
+    if (!isBGZFHeader(header, n)) {
+      throw new IOException("Invalid BGZF block header");
+    }
+
+    final int blockSize = readShort(header, 16) + 1;
+    if (blockSize < HEADER_LENGTH + FOOTER_LENGTH) {
+      throw new IOException("Invalid BGZF block size: " + blockSize);
+    }
+
+    final byte[] result = new byte[blockSize];
+    System.arraycopy(header, 0, result, 0, HEADER_LENGTH);
+
+    if (readFully(is, result, HEADER_LENGTH,
+        blockSize - HEADER_LENGTH) != blockSize - HEADER_LENGTH) {
+      throw new EOFException("Truncated BGZF block");
+    }
+
+    return result;
+  }
+
+  /**
+   * Decompress a BGZF block.
+   * @param inflater inflater to use, must be created with the nowrap option
+   * @param block the block to decompress
+   * @return an array with the decompressed data
+   * @throws IOException if the block is corrupted
+   */
+  static byte[] decompressBlock(final Inflater inflater, final byte[] block)
+      throws IOException {
+
+    final int blockSize = block.length;
+    final int expectedCrc = readInt(block, blockSize - 8);
+    final int uncompressedSize = readInt(block, blockSize - 4);
+
+    if (uncompressedSize < 0 || uncompressedSize > MAX_BLOCK_SIZE) {
+      throw new IOException(
+          "Invalid uncompressed size of BGZF block: " + uncompressedSize);
+    }
+
+    final byte[] result = new byte[uncompressedSize];
+
+    inflater.reset();
+    inflater.setInput(block, HEADER_LENGTH,
+        blockSize - HEADER_LENGTH - FOOTER_LENGTH);
+
+    try {
+      int count = 0;
+      while (count < uncompressedSize) {
+
+        final int n = inflater.inflate(result, count, uncompressedSize - count);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          break;
+        }
+        count += n;
+      }
+
+      if (count != uncompressedSize) {
+        throw new IOException("Invalid BGZF block: "
+            + count + " bytes decompressed, " + uncompressedSize
+            + " expected");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(result, 0, uncompressedSize);
+    if ((int) crc.getValue() != expectedCrc) {
+      throw new IOException("Invalid CRC32 of BGZF block");
+    }
+
+    return result;
+  }
+
+  //
+  // Utility methods
+  //
+
+  /**
+   * Read bytes from a stream until the requested length or the end of the
+   * stream.
+   * @param is input stream
+   * @param b output array
+   * @param off offset in the output array
+   * @param len number of bytes to read
+   * @return the number of bytes read
+   * @throws IOException if an error occurs while reading the stream
+   */
+  static int readFully(final InputStream is, final byte[] b, final int off,
+      final int len) throws IOException {
+
+    int count = 0;
+    while (count < len) {
+
+      final int n = is.read(b, off + count, len - count);
+      if (n == -1) {
+        break;
+      }
+      count += n;
+    }
+
+    return count;
+  }
+
+  private static int readShort(final byte[] b, final int off) {
+
+    return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+  }
+
+  private static int readInt(final byte[] b, final int off) {
+
+    return (b[off] & 0xff)
+        | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16
+        | (b[off + 3] & 0xff) << 24;
+  }
+
+  private static void writeShort(final byte[] b, final int off,
+      final int value) {
+
+    b[off] = (byte) value;
+    b[off + 1] = (byte) (value >>> 8);
+  }
+
+  private static void writeInt(final byte[] b, final int off,
+      final int value) {
+
+    b[off] = (byte) value;
+    b[off + 1] = (byte) (value >>> 8);
+    b[off + 2] = (byte) (value >>> 16);
+    b[off + 3] = (byte) (value >>> 24);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private BGZFUtils() {
+  }
+
+}
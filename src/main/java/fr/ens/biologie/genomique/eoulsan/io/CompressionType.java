@@ -30,18 +30,34 @@ import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
+import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
 import fr.ens.biologie.genomique.eoulsan.util.SystemUtils;
 
 /**
- * This enum allow to create InputStreams and OutputStream for Gzip and Bzip2
- * according environment (local or hadoop mode).
+ * This enum allow to create InputStreams and OutputStream for Gzip, Bzip2,
+ * Zstandard and LZ4 according environment (local or hadoop mode).
  * @since 1.0
  * @author Laurent Jourdren
  */
 public enum CompressionType {
 
-  GZIP("gzip", ".gz"), BZIP2("bzip2", ".bz2"), NONE("", "");
+  GZIP("gzip", ".gz"), BZIP2("bzip2", ".bz2"), ZSTD("zstd", ".zst"),
+  LZ4("lz4", ".lz4"), NONE("", "");
+
+  private static final String APACHE_BZIP2_CLASS =
+      "org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream";
+  private static final String APACHE_ZSTD_CLASS =
+      "org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream";
+  private static final String APACHE_LZ4_CLASS =
+      "org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream";
+  private static final String ZSTD_JNI_CLASS =
+      "com.github.luben.zstd.ZstdInputStream";
+  private static final String HADOOP_BZIP2_CLASS =
+      "org.apache.hadoop.io.compress.BZip2Codec";
+  private static final String HADOOP_ZSTD_CLASS =
+      "org.apache.hadoop.io.compress.ZStandardCodec";
 
   private final String contentEncoding;
   private final String extension;
@@ -102,6 +118,12 @@ public enum CompressionType {
     case BZIP2:
       return createBZip2InputStream(is);
 
+    case ZSTD:
+      return createZstdInputStream(is);
+
+    case LZ4:
+      return createLZ4InputStream(is);
+
     case NONE:
       return is;
 
@@ -133,6 +155,12 @@ public enum CompressionType {
     case BZIP2:
       return createBZip2OutputStream(os);
 
+    case ZSTD:
+      return createZstdOutputStream(os);
+
+    case LZ4:
+      return createLZ4OutputStream(os);
+
     case NONE:
       return os;
 
@@ -205,7 +233,21 @@ public enum CompressionType {
   }
 
   /**
-   * Create a GZip input stream.
+   * Get the number of threads to use for gzip compression and decompression.
+   * @return the number of threads defined in the settings
+   */
+  private static int getCompressionThreadsNumber() {
+
+    if (!EoulsanRuntime.isRuntime()) {
+      return Globals.COMPRESSION_THREADS_NUMBER_DEFAULT;
+    }
+
+    return EoulsanRuntime.getSettings().getCompressionThreadsNumber();
+  }
+
+  /**
+   * Create a GZip input stream. If more than one thread is set for compression
+   * in the settings, the data will be uncompressed in background threads.
    * @param is the input stream to uncompress
    * @return a uncompressed input stream
    * @throws IOException if an error occurs while creating the input stream
@@ -213,6 +255,12 @@ public enum CompressionType {
   public static InputStream createGZipInputStream(final InputStream is)
       throws IOException {
 
+    final int threads = getCompressionThreadsNumber();
+
+    if (threads > 1) {
+      return new ParallelGZIPInputStream(is, threads);
+    }
+
     return new GZIPInputStream(is);
   }
 
@@ -225,12 +273,11 @@ public enum CompressionType {
   public static InputStream createBZip2InputStream(final InputStream is)
       throws IOException {
 
-    if (SystemUtils.isClass(
-        "org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream")) {
+    if (SystemUtils.isClass(APACHE_BZIP2_CLASS)) {
       return ApacheCommonCompressionCodecs.createBZip2InputStream(is);
     }
 
-    if (SystemUtils.isClass("org.apache.hadoop.io.compress.BZip2Codec")) {
+    if (SystemUtils.isClass(HADOOP_BZIP2_CLASS)) {
       return HadoopCompressionCodecs.createBZip2InputStream(is);
     }
 
@@ -238,12 +285,51 @@ public enum CompressionType {
         "Unable to find a class to create a BZip2InputStream.");
   }
 
+  /**
+   * Create a Zstandard input stream.
+   * @param is the input stream to uncompress
+   * @return a uncompressed input stream
+   * @throws IOException if an error occurs while creating the input stream
+   */
+  public static InputStream createZstdInputStream(final InputStream is)
+      throws IOException {
+
+    if (SystemUtils.isClass(APACHE_ZSTD_CLASS)
+        && SystemUtils.isClass(ZSTD_JNI_CLASS)) {
+      return ApacheCommonCompressionCodecs.createZstdInputStream(is);
+    }
+
+    if (SystemUtils.isClass(HADOOP_ZSTD_CLASS)) {
+      return HadoopCompressionCodecs.createZstdInputStream(is);
+    }
+
+    throw new IOException(
+        "Unable to find a class to create a ZstdInputStream.");
+  }
+
+  /**
+   * Create a LZ4 input stream.
+   * @param is the input stream to uncompress
+   * @return a uncompressed input stream
+   * @throws IOException if an error occurs while creating the input stream
+   */
+  public static InputStream createLZ4InputStream(final InputStream is)
+      throws IOException {
+
+    if (SystemUtils.isClass(APACHE_LZ4_CLASS)) {
+      return ApacheCommonCompressionCodecs.createLZ4InputStream(is);
+    }
+
+    throw new IOException("Unable to find a class to create a LZ4InputStream.");
+  }
+
   //
   // OutputStream
   //
 
   /**
-   * Create a GZip output stream.
+   * Create a GZip output stream. If more than one thread is set for compression
+   * in the settings, the data will be compressed in parallel.
    * @param os the output stream to compress
    * @return a compressed output stream
    * @throws IOException if an error occurs while creating the output stream
@@ -251,6 +337,12 @@ public enum CompressionType {
   public static OutputStream createGZipOutputStream(final OutputStream os)
       throws IOException {
 
+    final int threads = getCompressionThreadsNumber();
+
+    if (threads > 1) {
+      return new ParallelGZIPOutputStream(os, threads);
+    }
+
     return new GZIPOutputStream(os);
   }
 
@@ -263,12 +355,11 @@ public enum CompressionType {
   public static OutputStream createBZip2OutputStream(final OutputStream os)
       throws IOException {
 
-    if (SystemUtils.isClass(
-        "org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream")) {
+    if (SystemUtils.isClass(APACHE_BZIP2_CLASS)) {
       return ApacheCommonCompressionCodecs.createBZip2OutputStream(os);
     }
 
-    if (SystemUtils.isClass("org.apache.hadoop.io.compress.BZip2Codec")) {
+    if (SystemUtils.isClass(HADOOP_BZIP2_CLASS)) {
       return HadoopCompressionCodecs.createBZip2OutputStream(os);
     }
 
@@ -276,6 +367,45 @@ public enum CompressionType {
         "Unable to find a class to create a BZip2InputStream.");
   }
 
+  /**
+   * Create a Zstandard output stream.
+   * @param os the output stream to compress
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createZstdOutputStream(final OutputStream os)
+      throws IOException {
+
+    if (SystemUtils.isClass(APACHE_ZSTD_CLASS)
+        && SystemUtils.isClass(ZSTD_JNI_CLASS)) {
+      return ApacheCommonCompressionCodecs.createZstdOutputStream(os);
+    }
+
+    if (SystemUtils.isClass(HADOOP_ZSTD_CLASS)) {
+      return HadoopCompressionCodecs.createZstdOutputStream(os);
+    }
+
+    throw new IOException(
+        "Unable to find a class to create a ZstdOutputStream.");
+  }
+
+  /**
+   * Create a LZ4 output stream.
+   * @param os the output stream to compress
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createLZ4OutputStream(final OutputStream os)
+      throws IOException {
+
+    if (SystemUtils.isClass(APACHE_LZ4_CLASS)) {
+      return ApacheCommonCompressionCodecs.createLZ4OutputStream(os);
+    }
+
+    throw new IOException(
+        "Unable to find a class to create a LZ4OutputStream.");
+  }
+
   //
   // Other methods
   //
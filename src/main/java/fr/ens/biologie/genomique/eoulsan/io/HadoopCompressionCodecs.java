@@ -28,7 +28,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.ReflectionUtils;
 
 /**
  * This class allow to create input and output stream for compression codec of
@@ -38,6 +41,10 @@ import org.apache.hadoop.io.compress.BZip2Codec;
  */
 public class HadoopCompressionCodecs {
 
+  /** Zstandard codec is only available since Hadoop 2.9. */
+  private static final String ZSTD_CODEC_CLASS =
+      "org.apache.hadoop.io.compress.ZStandardCodec";
+
   //
   // InputStreams
   //
@@ -54,6 +61,18 @@ public class HadoopCompressionCodecs {
     return new BZip2Codec().createInputStream(is);
   }
 
+  /**
+   * Create a Zstandard input stream.
+   * @param is input stream
+   * @return an uncompressed input stream
+   * @throws IOException if an error occurs while creating the input stream
+   */
+  public static InputStream createZstdInputStream(final InputStream is)
+      throws IOException {
+
+    return newCodec(ZSTD_CODEC_CLASS).createInputStream(is);
+  }
+
   //
   // OutputStreams
   //
@@ -70,4 +89,39 @@ public class HadoopCompressionCodecs {
     return new BZip2Codec().createOutputStream(os);
   }
 
+  /**
+   * Create a Zstandard output stream.
+   * @param os the output stream to compress
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createZstdOutputStream(final OutputStream os)
+      throws IOException {
+
+    return newCodec(ZSTD_CODEC_CLASS).createOutputStream(os);
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Create a new instance of a Hadoop codec from its class name.
+   * @param className the name of the class of the codec
+   * @return a new configured codec
+   * @throws IOException if the codec class cannot be found
+   */
+  private static CompressionCodec newCodec(final String className)
+      throws IOException {
+
+    try {
+      final Class<?> clazz = Class.forName(className);
+
+      return (CompressionCodec) ReflectionUtils.newInstance(clazz,
+          new Configuration());
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unable to find Hadoop codec: " + className, e);
+    }
+  }
+
 }
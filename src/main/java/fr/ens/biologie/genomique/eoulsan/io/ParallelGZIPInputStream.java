@@ -0,0 +1,375 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static fr.ens.biologie.genomique.eoulsan.io.BGZFUtils.HEADER_LENGTH;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * This class implements an InputStream that uncompress gzip data in background
+ * threads. If the data is in BGZF format (e.g. files created by
+ * ParallelGZIPOutputStream, bgzip or BAM files), the blocks are uncompressed
+ * in parallel. Otherwise the data is uncompressed by a read-ahead thread, from
+ * the first gzip member that is not a BGZF block.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class ParallelGZIPInputStream extends InputStream {
+
+  private static final int READ_AHEAD_BUFFER_SIZE = 64 * 1024;
+
+  private final InputStream in;
+  private final ExecutorService executor;
+  private final BlockingQueue<Inflater> inflaters;
+  private final BlockingQueue<Future<byte[]>> blocks;
+  private final Thread readerThread;
+  private final boolean bgzf;
+
+  private byte[] current = new byte[0];
+  private int pos;
+  private boolean eof;
+  private boolean closed;
+
+  /**
+   * This class define the thread that read the compressed data.
+   */
+  private final class ReaderThread extends Thread {
+
+    @Override
+    public void run() {
+
+      try {
+
+        if (bgzf) {
+          readBGZFBlocks();
+        } else {
+          readGZIPStream();
+        }
+
+        // Inform the consumer that the end of the stream has been reached
+        blocks.put(CompletableFuture.completedFuture(null));
+
+      } catch (InterruptedException e) {
+        // The stream has been closed
+      } catch (IOException | RuntimeException e) {
+
+        final CompletableFuture<byte[]> error = new CompletableFuture<>();
+        error.completeExceptionally(e);
+        try {
+          blocks.put(error);
+        } catch (InterruptedException e1) {
+          // The stream has been closed
+        }
+      }
+    }
+
+    /**
+     * Read the BGZF blocks and submit them for decompression. If a gzip member
+     * that is not a BGZF block is found (e.g. a BGZF file concatenated with a
+     * standard gzip file), the remaining data is uncompressed sequentially.
+     * @throws IOException if an error occurs while reading the blocks
+     * @throws InterruptedException if the stream has been closed
+     */
+    private void readBGZFBlocks() throws IOException, InterruptedException {
+
+      final byte[] header = new byte[HEADER_LENGTH];
+
+      while (true) {
+
+        // Check the header of the next gzip member
+        in.mark(HEADER_LENGTH);
+        final int n = BGZFUtils.readFully(in, header, 0, HEADER_LENGTH);
+        in.reset();
+
+        if (n == 0) {
+          return;
+        }
+
+        if (!BGZFUtils.isBGZFHeader(header, n)) {
+          readGZIPStream();
+          return;
+        }
+
+        final byte[] b = BGZFUtils.readBlock(in);
+        blocks.put(executor.submit(() -> {
+
+          final Inflater inflater = inflaters.take();
+          try {
+            return BGZFUtils.decompressBlock(inflater, b);
+          } finally {
+            // Unlike put(), offer() cannot fail if the task has been
+            // interrupted
+            inflaters.offer(inflater);
+          }
+        }));
+      }
+    }
+
+    /**
+     * Uncompress a standard gzip stream.
+     * @throws IOException if an error occurs while reading the stream
+     * @throws InterruptedException if the stream has been closed
+     */
+    private void readGZIPStream() throws IOException, InterruptedException {
+
+      final InputStream gzis = new GZIPInputStream(in, READ_AHEAD_BUFFER_SIZE);
+
+      while (true) {
+
+        final byte[] buffer = new byte[READ_AHEAD_BUFFER_SIZE];
+        final int n =
+            BGZFUtils.readFully(gzis, buffer, 0, READ_AHEAD_BUFFER_SIZE);
+
+        if (n == 0) {
+          break;
+        }
+
+        final byte[] data;
+        if (n == READ_AHEAD_BUFFER_SIZE) {
+          data = buffer;
+        } else {
+          data = new byte[n];
+          System.arraycopy(buffer, 0, data, 0, n);
+        }
+
+        blocks.put(CompletableFuture.completedFuture(data));
+      }
+    }
+
+    //
+    // Constructor
+    //
+
+    private ReaderThread() {
+
+      super("ParallelGZIPInputStream reader");
+      setDaemon(true);
+    }
+  }
+
+  //
+  // InputStream methods
+  //
+
+  @Override
+  public int read() throws IOException {
+
+    if (!fillCurrent()) {
+      return -1;
+    }
+
+    return this.current[this.pos++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len)
+      throws IOException {
+
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    if (len == 0) {
+      return 0;
+    }
+
+    if (!fillCurrent()) {
+      return -1;
+    }
+
+    final int n = Math.min(len, this.current.length - this.pos);
+    System.arraycopy(this.current, this.pos, b, off, n);
+    this.pos += n;
+
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+
+    return this.current.length - this.pos;
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+
+    try {
+
+      // Wait the end of the reader thread before closing the stream it reads
+      this.readerThread.interrupt();
+      this.readerThread.join();
+
+      // Wait the end of the decompression tasks to release all the inflaters
+      if (this.executor != null) {
+        this.executor.shutdownNow();
+        this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        for (Inflater inflater : this.inflaters) {
+          inflater.end();
+        }
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } finally {
+      this.in.close();
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Get the next uncompressed data if the current data has been consumed.
+   * @return false if the end of the stream has been reached
+   * @throws IOException if an error occurs while uncompressing the data
+   */
+  private boolean fillCurrent() throws IOException {
+
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+
+    while (this.pos == this.current.length) {
+
+      if (this.eof) {
+        return false;
+      }
+
+      try {
+
+        final byte[] data = this.blocks.take().get();
+        if (data == null) {
+          this.eof = true;
+          return false;
+        }
+
+        this.current = data;
+        this.pos = 0;
+
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException(e.getMessage());
+      } catch (ExecutionException e) {
+
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Test if the stream is in BGZF format.
+   * @return true if the stream is in BGZF format
+   */
+  public boolean isBGZF() {
+
+    return this.bgzf;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param in input stream
+   * @param threads number of threads to use to uncompress BGZF blocks
+   * @throws IOException if an error occurs while reading the header of the
+   *           stream
+   */
+  public ParallelGZIPInputStream(final InputStream in, final int threads)
+      throws IOException {
+
+    if (in == null) {
+      throw new NullPointerException("in argument cannot be null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    this.in = in.markSupported() ? in : new BufferedInputStream(in);
+
+    // Check if the stream is in BGZF format
+    final byte[] header = new byte[HEADER_LENGTH];
+    this.in.mark(HEADER_LENGTH);
+    final int n = BGZFUtils.readFully(this.in, header, 0, HEADER_LENGTH);
+    this.in.reset();
+    this.bgzf = BGZFUtils.isBGZFHeader(header, n);
+
+    if (this.bgzf) {
+
+      this.executor = Executors.newFixedThreadPool(threads, r -> {
+        final Thread t = new Thread(r, "ParallelGZIPInputStream");
+        t.setDaemon(true);
+        return t;
+      });
+
+      this.inflaters = new ArrayBlockingQueue<>(threads);
+      for (int i = 0; i < threads; i++) {
+        this.inflaters.add(new Inflater(true));
+      }
+
+    } else {
+      this.executor = null;
+      this.inflaters = null;
+    }
+
+    this.blocks = new ArrayBlockingQueue<>(threads * 4);
+    this.readerThread = new ReaderThread();
+    this.readerThread.start();
+  }
+
+}
@@ -0,0 +1,260 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static fr.ens.biologie.genomique.eoulsan.io.BGZFUtils.MAX_UNCOMPRESSED_BLOCK_SIZE;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * This class implements an OutputStream that compress data in gzip format
+ * using several threads. The data is split in independent blocks that are
+ * compressed in parallel and written in order as BGZF blocks. The output is a
+ * valid multi-member gzip file that can also be read as a BGZF file. To keep
+ * a good compression ratio, flush() only writes the blocks that are full, the
+ * last partial block is only written when the stream is closed.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+  private final OutputStream out;
+  private final ExecutorService executor;
+  private final BlockingQueue<Deflater> deflaters;
+  private final Queue<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+  private final int maxPendingBlocks;
+
+  private byte[] buffer = new byte[MAX_UNCOMPRESSED_BLOCK_SIZE];
+  private int count;
+  private boolean closed;
+
+  @Override
+  public void write(final int b) throws IOException {
+
+    checkClosed();
+
+    if (this.count == this.buffer.length) {
+      submitBlock();
+    }
+
+    this.buffer[this.count++] = (byte) b;
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len)
+      throws IOException {
+
+    checkClosed();
+
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    int pos = off;
+    int remaining = len;
+
+    while (remaining > 0) {
+
+      if (this.count == this.buffer.length) {
+        submitBlock();
+      }
+
+      final int n = Math.min(remaining, this.buffer.length - this.count);
+      System.arraycopy(b, pos, this.buffer, this.count, n);
+      this.count += n;
+      pos += n;
+      remaining -= n;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+
+    checkClosed();
+
+    // The current block is not full and is kept in the buffer
+    writePendingBlocks();
+
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (this.closed) {
+      return;
+    }
+
+    try {
+
+      if (this.count > 0) {
+        submitBlock();
+      }
+      writePendingBlocks();
+      this.out.write(BGZFUtils.EOF_BLOCK);
+      this.out.close();
+
+    } finally {
+
+      this.closed = true;
+      this.executor.shutdownNow();
+
+      // Wait the end of the compression tasks to release all the deflaters
+      try {
+        this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        for (Deflater deflater : this.deflaters) {
+          deflater.end();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Submit the current buffer for compression.
+   * @throws IOException if an error occurs while writing compressed blocks
+   */
+  private void submitBlock() throws IOException {
+
+    final byte[] block = this.buffer;
+    final int len = this.count;
+
+    this.pendingBlocks.add(this.executor.submit(() -> {
+
+      final Deflater deflater = this.deflaters.take();
+      try {
+        return BGZFUtils.compressBlock(deflater, block, len);
+      } finally {
+        // Unlike put(), offer() cannot fail if the task has been interrupted
+        this.deflaters.offer(deflater);
+      }
+    }));
+
+    this.buffer = new byte[MAX_UNCOMPRESSED_BLOCK_SIZE];
+    this.count = 0;
+
+    // Limit the number of blocks in memory
+    while (this.pendingBlocks.size() > this.maxPendingBlocks) {
+      writeNextBlock();
+    }
+  }
+
+  /**
+   * Write all the submitted blocks.
+   * @throws IOException if an error occurs while writing the blocks
+   */
+  private void writePendingBlocks() throws IOException {
+
+    while (!this.pendingBlocks.isEmpty()) {
+      writeNextBlock();
+    }
+  }
+
+  /**
+   * Write the next compressed block.
+   * @throws IOException if an error occurs while writing the block
+   */
+  private void writeNextBlock() throws IOException {
+
+    try {
+      this.out.write(this.pendingBlocks.remove().get());
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private void checkClosed() throws IOException {
+
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   * @param out output stream
+   * @param threads number of threads to use
+   */
+  public ParallelGZIPOutputStream(final OutputStream out, final int threads) {
+
+    this(out, threads, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Public constructor.
+   * @param out output stream
+   * @param threads number of threads to use
+   * @param level compression level
+   */
+  public ParallelGZIPOutputStream(final OutputStream out, final int threads,
+      final int level) {
+
+    if (out == null) {
+      throw new NullPointerException("out argument cannot be null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    this.out = out;
+    this.maxPendingBlocks = threads * 2;
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      final Thread t = new Thread(r, "ParallelGZIPOutputStream");
+      t.setDaemon(true);
+      return t;
+    });
+
+    this.deflaters = new ArrayBlockingQueue<>(threads);
+    for (int i = 0; i < threads; i++) {
+      this.deflaters.add(new Deflater(level, true));
+    }
+  }
+
+}
@@ -36,11 +36,14 @@ import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GFF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GTF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.EXPRESSION_RESULTS_TSV;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.GENOME_DESC_TXT;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_INDEX_BAI;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
 
 import java.util.Set;
 
 import fr.ens.biologie.genomique.eoulsan.AbstractEoulsanRuntime.EoulsanExecMode;
+import fr.ens.biologie.genomique.eoulsan.Common;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
@@ -71,8 +74,16 @@ public abstract class AbstractExpressionModule extends AbstractModule {
   public static final String COUNTER_PARAMETER_NAME = "counter";
   public static final String FEATURES_FILE_FORMAT_PARAMETER_NAME =
       "features.file.format";
+  public static final String INPUT_FILE_FORMAT_PARAMETER_NAME =
+      "input.file.format";
+  public static final String BAM_INDEX_PARAMETER_NAME = "bam.index";
   public static final String OUTPUT_FILE_FORMAT_PARAMETER_NAME =
       "output.file.format";
+  public static final String LOCAL_THREADS_PARAMETER_NAME = "local.threads";
+  public static final String MAX_LOCAL_THREADS_PARAMETER_NAME =
+      "max.local.threads";
+  public static final String SHARED_ANNOTATION_PARAMETER_NAME =
+      "shared.annotation";
 
   private static final String OLD_EOULSAN_COUNTER_NAME = "eoulsanCounter";
   private static final String OLD_REMOVE_AMBIGUOUS_CASES_PARAMETER_NAME =
@@ -84,8 +95,13 @@ public abstract class AbstractExpressionModule extends AbstractModule {
       "splitattributevalues";
 
   private boolean gtfInputFormat;
+  private boolean bamInputFormat;
+  private boolean bamIndex;
   private boolean samOutputFormat;
   private ExpressionCounter counter;
+  private int localThreads = 1;
+  private int maxLocalThreads;
+  private boolean sharedAnnotation;
 
   //
   // Protected methods
@@ -99,6 +115,22 @@ public abstract class AbstractExpressionModule extends AbstractModule {
     return this.gtfInputFormat;
   }
 
+  /**
+   * Test if the alignments are in BAM format.
+   * @return true if the alignments are in BAM format
+   */
+  protected boolean isBAMInputFormat() {
+    return this.bamInputFormat;
+  }
+
+  /**
+   * Test if the index of the BAM file must be used.
+   * @return true if the index of the BAM file must be used
+   */
+  protected boolean isBAMIndex() {
+    return this.bamIndex;
+  }
+
   /**
    * Test if SAM output format must be used.
    * @return true if SAM output format must be used
@@ -107,6 +139,26 @@ public abstract class AbstractExpressionModule extends AbstractModule {
     return this.samOutputFormat;
   }
 
+  /**
+   * Get the number of threads to use in local mode.
+   * @return the number of threads to use in local mode
+   */
+  protected int getLocalThreads() {
+
+    // The main.local.threads global property may be set to 0
+    return Math.max(1,
+        Common.getThreadsNumber(this.localThreads, this.maxLocalThreads));
+  }
+
+  /**
+   * Test if the annotation must be shared with the other tasks of the JVM.
+   * @return true if the annotation must be shared
+   */
+  protected boolean isSharedAnnotation() {
+
+    return this.sharedAnnotation;
+  }
+
   /**
    * Get the counter.
    * @return the counter
@@ -143,7 +195,11 @@ public abstract class AbstractExpressionModule extends AbstractModule {
 
     final InputPortsBuilder builder = new InputPortsBuilder();
 
-    builder.addPort("alignments", MAPPER_RESULTS_SAM);
+    builder.addPort("alignments",
+        this.bamInputFormat ? MAPPER_RESULTS_BAM : MAPPER_RESULTS_SAM);
+    if (this.bamIndex) {
+      builder.addPort("alignmentsindex", MAPPER_RESULTS_INDEX_BAI);
+    }
     builder.addPort("featuresannotation",
         this.gtfInputFormat ? ANNOTATION_GTF : ANNOTATION_GFF);
     builder.addPort("genomedescription", GENOME_DESC_TXT);
@@ -187,7 +243,12 @@ public abstract class AbstractExpressionModule extends AbstractModule {
 
     // Test if counter engine exists
     if (this.counter == null) {
-      Modules.invalidConfiguration(context, "Unknown counter: " + counterName);
+      Modules.invalidConfiguration(context,
+          "Unknown counter: "
+              + counterName + " (available counters: "
+              + String.join(", ", ExpressionCounterService.getInstance()
+                  .getServiceClasses().keySet())
+              + ")");
     }
 
     // Handle old parameter names for HTSeq-count counter
@@ -250,6 +311,40 @@ public abstract class AbstractExpressionModule extends AbstractModule {
         }
         break;
 
+      case INPUT_FILE_FORMAT_PARAMETER_NAME:
+
+        switch (p.getLowerStringValue()) {
+
+        case "sam":
+          this.bamInputFormat = false;
+          break;
+
+        case "bam":
+          this.bamInputFormat = true;
+          break;
+
+        default:
+          Modules.badParameterValue(context, p, "Unknown input file format");
+          break;
+        }
+        break;
+
+      case BAM_INDEX_PARAMETER_NAME:
+        this.bamIndex = p.getBooleanValue();
+        break;
+
+      case LOCAL_THREADS_PARAMETER_NAME:
+        this.localThreads = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
+      case MAX_LOCAL_THREADS_PARAMETER_NAME:
+        this.maxLocalThreads = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
+      case SHARED_ANNOTATION_PARAMETER_NAME:
+        this.sharedAnnotation = p.getBooleanValue();
+        break;
+
       case OUTPUT_FILE_FORMAT_PARAMETER_NAME:
 
         switch (p.getLowerStringValue()) {
@@ -281,6 +376,12 @@ public abstract class AbstractExpressionModule extends AbstractModule {
 
     }
 
+    // The index can only be used with BAM files
+    if (this.bamIndex && !this.bamInputFormat) {
+      Modules.invalidConfiguration(context,
+          "The index of the alignments can only be used with BAM files");
+    }
+
     // Check the counter configuration
     this.counter.checkConfiguration();
 
@@ -46,6 +46,10 @@ public enum ExpressionCounterCounter {
       "no_feature"),
   AMBIGUOUS_ALIGNMENTS_COUNTER("number of ambiguous alignments", "ambiguous"),
   MISSING_MATES_COUNTER("number of missing mate alignments"),
+  SECONDARY_ALIGNMENTS_COUNTER("number of secondary alignments"),
+  DUPLICATE_ALIGNMENTS_COUNTER("number of duplicate alignments"),
+  OVERLAP_CACHE_HITS_COUNTER("number of aligned blocks found in cache"),
+  OVERLAP_CACHE_MISSES_COUNTER("number of aligned blocks not found in cache"),
 
   PARENTS_COUNTER("parent"), INVALID_CHROMOSOME_COUNTER("invalid chromosome"),
   PARENT_ID_NOT_FOUND_COUNTER("Parent Id not found in exon range");
@@ -43,6 +43,7 @@ import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -56,10 +57,12 @@ import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.Settings;
 import fr.ens.biologie.genomique.eoulsan.annotations.HadoopOnly;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.ExpressionOutputFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.SAMInputFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.SAMOutputFormat;
 import fr.ens.biologie.genomique.eoulsan.core.InputPorts;
+import fr.ens.biologie.genomique.eoulsan.core.Modules;
 import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
@@ -90,7 +93,8 @@ import htsjdk.samtools.SamReaderFactory;
 public class ExpressionHadoopModule extends AbstractExpressionModule {
 
   private static final String TSAM_EXTENSION = ".tsam";
-  private static final String SERIALIZATION_EXTENSION = ".ser";
+  static final String SERIALIZATION_EXTENSION = ".ser";
+  static final String FEATURE_ORDINALS_EXTENSION = ".ordinals";
   static final char SAM_RECORD_PAIRED_END_SERPARATOR = '£';
   static final String GENOME_DESC_PATH_KEY =
       Globals.PARAMETER_PREFIX + ".expression.genome.desc.file";
@@ -112,6 +116,21 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
       final Set<Parameter> stepParameters) throws EoulsanException {
 
     super.configure(context, stepParameters);
+
+    if (isBAMInputFormat()) {
+      Modules.invalidConfiguration(context,
+          "BAM input files are not supported in Hadoop mode");
+    }
+
+    // The mappers count the alignments one by one, fractional counts would
+    // be rounded for each alignment
+    if (getExpressionCounter() instanceof FeatureCountsCounter
+        && ((FeatureCountsCounter) getExpressionCounter())
+            .isFractionalCounting()) {
+      Modules.invalidConfiguration(context,
+          "Fractional counts are not supported in Hadoop mode");
+    }
+
     this.conf = CommonHadoop.createConfiguration(EoulsanRuntime.getSettings());
   }
 
@@ -258,11 +277,19 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
             featureAnnotationFile.getBasename() + SERIALIZATION_EXTENSION)
                 .getSource());
 
+    // Define feature ordinal table file
+    final Path featureOrdinalsFilePath =
+        new Path(new DataFile(featureAnnotationFile.getParent(),
+            featureAnnotationFile.getBasename() + FEATURE_ORDINALS_EXTENSION)
+                .getSource());
+
     getLogger()
         .info("counterSerializationFilePath: " + counterSerializationFilePath);
+    getLogger().info("featureOrdinalsFilePath: " + featureOrdinalsFilePath);
 
-    // Create serialized feature index
-    if (!PathUtils.isFile(counterSerializationFilePath, jobConf)) {
+    // Create serialized feature index and feature ordinal table
+    if (!PathUtils.isFile(counterSerializationFilePath, jobConf)
+        || !PathUtils.isFile(featureOrdinalsFilePath, jobConf)) {
 
       final Locker lock = createZookeeperLock(parentConf, context);
 
@@ -271,6 +298,9 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
       // Serialize the counter
       serializeCounter(context, counter, counterSerializationFilePath, jobConf);
 
+      // Write the feature ordinal table
+      writeFeatureOrdinalTable(counter, featureOrdinalsFilePath, jobConf);
+
       lock.unlock();
     }
 
@@ -283,6 +313,9 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
     // Set the path to the features index
     job.addCacheFile(counterSerializationFilePath.toUri());
 
+    // Set the path to the feature ordinal table
+    job.addCacheFile(featureOrdinalsFilePath.toUri());
+
     // Set the jar
     job.setJarByClass(ExpressionHadoopModule.class);
 
@@ -314,11 +347,15 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
 
     } else {
 
-      // Set the mapper class for TSV output
+      // Set the mapper class for TSV output. The counts are aggregated in the
+      // mappers, so no combiner is required
       job.setMapperClass(ExpressionMapper.class);
 
-      // Set the combiner class
-      job.setCombinerClass(ExpressionReducer.class);
+      // Set the map output key class
+      job.setMapOutputKeyClass(IntWritable.class);
+
+      // Set the map output value class
+      job.setMapOutputValueClass(LongWritable.class);
 
       // Set the reducer class
       job.setReducerClass(ExpressionReducer.class);
@@ -489,6 +526,26 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
     }
   }
 
+  /**
+   * Write the feature ordinal table of a counter.
+   * @param counter the initialized counter
+   * @param featureOrdinalsFilePath feature ordinal table output path
+   * @param conf Hadoop configuration object
+   * @throws IOException if an error occurs while writing the table
+   */
+  private static void writeFeatureOrdinalTable(final ExpressionCounter counter,
+      final Path featureOrdinalsFilePath, final Configuration conf)
+      throws IOException {
+
+    // Do nothing if the file already exists
+    if (PathUtils.isFile(featureOrdinalsFilePath, conf)) {
+      return;
+    }
+
+    FeatureOrdinalTable.create(counter).write(
+        PathUtils.createOutputStream(featureOrdinalsFilePath, conf));
+  }
+
   //
   // Other methods
   //
@@ -26,7 +26,9 @@ package fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop;
 
 import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
 import static fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter.INVALID_SAM_ENTRIES_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop.ExpressionHadoopModule.FEATURE_ORDINALS_EXTENSION;
 import static fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop.ExpressionHadoopModule.SAM_RECORD_PAIRED_END_SERPARATOR;
+import static fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop.ExpressionHadoopModule.SERIALIZATION_EXTENSION;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -39,6 +41,7 @@ import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -58,11 +61,15 @@ import htsjdk.samtools.SAMLineParser;
 import htsjdk.samtools.SAMRecord;
 
 /**
- * Mapper for the expression estimation.
+ * Mapper for the expression estimation. The counts of the features are
+ * aggregated in the mapper and written in the cleanup() method, the output keys
+ * are the ordinals of the features in the feature ordinal table of the
+ * distributed cache.
  * @since 1.2
  * @author Claire Wallon
  */
-public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
+public class ExpressionMapper
+    extends Mapper<Text, Text, IntWritable, LongWritable> {
 
   private ExpressionCounter counter;
   private String counterGroup;
@@ -73,8 +80,10 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
 
   private final List<SAMRecord> samRecords = new ArrayList<>();
   private ReporterIncrementer reporter;
-  private final Text outKey = new Text();
-  private final LongWritable outValue = new LongWritable(1L);
+  private FeatureOrdinalTable ordinalTable;
+  private long[] featureCounts;
+  private final IntWritable outKey = new IntWritable();
+  private final LongWritable outValue = new LongWritable();
 
   @Override
   public void setup(final Context context)
@@ -100,6 +109,10 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
     // Initialize counter and parser
     this.counter = initCounterAndParser(conf, this.parser, localCacheFiles);
 
+    // Load the feature ordinal table
+    this.ordinalTable = loadFeatureOrdinalTable(conf, localCacheFiles);
+    this.featureCounts = new long[this.ordinalTable.size()];
+
     getLogger().info("End of setup()");
   }
 
@@ -109,30 +122,15 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
 
     try {
 
-      if (localCacheFiles == null || localCacheFiles.length == 0) {
-        throw new IOException("Unable to retrieve genome index");
-      }
-
-      if (localCacheFiles.length > 1) {
-        throw new IOException(
-            "Retrieve more than one file in distributed cache");
-      }
-
-      getLogger().info("Genome index compressed file (from distributed cache): "
-          + localCacheFiles[0]);
-
-      if (localCacheFiles == null || localCacheFiles.length == 0) {
-        throw new IOException("Unable to retrieve annotation index");
-      }
+      final URI counterFile = FeatureOrdinalTable
+          .findCacheFile(localCacheFiles, SERIALIZATION_EXTENSION);
 
-      if (localCacheFiles.length > 1) {
-        throw new IOException(
-            "Retrieve more than one file in distributed cache");
-      }
+      getLogger().info("Counter serialization file (from distributed cache): "
+          + counterFile);
 
       // Deserialize counter
       ExpressionCounter counter = loadSerializedCounter(
-          PathUtils.createInputStream(new Path(localCacheFiles[0]), conf));
+          PathUtils.createInputStream(new Path(counterFile), conf));
 
       // Get the genome description filename
       final String genomeDescFile =
@@ -197,12 +195,8 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
       final Map<String, Integer> counts =
           this.counter.count(samRecords, this.reporter, this.counterGroup);
 
-      // Write the results
-      for (Map.Entry<String, Integer> e : counts.entrySet()) {
-        this.outKey.set(e.getKey());
-        this.outValue.set(e.getValue());
-        context.write(this.outKey, this.outValue);
-      }
+      // Aggregate the results, they will be written by cleanup()
+      this.ordinalTable.addCounts(counts, this.featureCounts);
 
     } catch (SAMFormatException | EoulsanException e) {
 
@@ -216,13 +210,45 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
   }
 
   @Override
-  public void cleanup(final Context context) throws IOException {
+  public void cleanup(final Context context)
+      throws IOException, InterruptedException {
+
+    // Write only the features with reads, the reducer and the final expression
+    // file creation add the missing features
+    for (int i = 0; i < this.featureCounts.length; i++) {
+
+      if (this.featureCounts[i] != 0) {
+        this.outKey.set(i);
+        this.outValue.set(this.featureCounts[i]);
+        context.write(this.outKey, this.outValue);
+      }
+    }
   }
 
   //
   // Other methods
   //
 
+  /**
+   * Load the feature ordinal table from the distributed cache.
+   * @param conf Hadoop configuration
+   * @param localCacheFiles files of the distributed cache
+   * @return a FeatureOrdinalTable object
+   * @throws IOException if an error occurs while loading the table
+   */
+  static FeatureOrdinalTable loadFeatureOrdinalTable(final Configuration conf,
+      final URI[] localCacheFiles) throws IOException {
+
+    final URI tableFile = FeatureOrdinalTable.findCacheFile(localCacheFiles,
+        FEATURE_ORDINALS_EXTENSION);
+
+    getLogger().info(
+        "Feature ordinal table file (from distributed cache): " + tableFile);
+
+    return FeatureOrdinalTable
+        .load(PathUtils.createInputStream(new Path(tableFile), conf));
+  }
+
   private static ExpressionCounter loadSerializedCounter(final InputStream in)
       throws IOException {
 
@@ -27,20 +27,34 @@ package fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop;
 import java.io.IOException;
 import java.util.Iterator;
 
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
 /**
- * Reducer for the expression estimation.
+ * Reducer for the expression estimation. The ordinals of the features are
+ * converted to feature identifiers using the feature ordinal table of the
+ * distributed cache.
  * @since 1.2
  * @author Claire Wallon
  */
 public class ExpressionReducer
-    extends Reducer<Text, LongWritable, Text, LongWritable> {
+    extends Reducer<IntWritable, LongWritable, Text, LongWritable> {
 
+  private FeatureOrdinalTable ordinalTable;
+  final Text outKey = new Text();
   final LongWritable outValue = new LongWritable();
 
+  @Override
+  protected void setup(final Context context)
+      throws IOException, InterruptedException {
+
+    // Load the feature ordinal table
+    this.ordinalTable = ExpressionMapper.loadFeatureOrdinalTable(
+        context.getConfiguration(), context.getCacheFiles());
+  }
+
   /**
    * This method allow to sum of the values of an Iterable of longs.
    * @param values values to sum
@@ -59,16 +73,18 @@ public class ExpressionReducer
   }
 
   /**
-   * 'key': annotation identifier of the feature (gene, mRNA, exon...).
-   * 'values': a list of '1', the size of this list is the number of reads found
-   * on the feature.
+   * 'key': ordinal of the feature (gene, mRNA, exon...) in the feature ordinal
+   * table. 'values': the counts of the feature for each mapper, the sum of
+   * this list is the number of reads found on the feature.
    */
   @Override
-  protected void reduce(final Text key, final Iterable<LongWritable> values,
-      final Context context) throws IOException, InterruptedException {
+  protected void reduce(final IntWritable key,
+      final Iterable<LongWritable> values, final Context context)
+      throws IOException, InterruptedException {
 
+    this.outKey.set(this.ordinalTable.getFeatureId(key.get()));
     this.outValue.set(sum(values));
-    context.write(key, this.outValue);
+    context.write(this.outKey, this.outValue);
   }
 
 }
@@ -0,0 +1,278 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.io.FileCharsets;
+
+/**
+ * This class define the table that associate an ordinal to each feature of the
+ * annotation used by an expression counter. The table is shared by the mappers
+ * and the reducers of the expression job through the distributed cache, so the
+ * intermediate data of the job can use compact integer keys instead of the
+ * feature identifiers.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class FeatureOrdinalTable {
+
+  private final List<String> featureIds;
+  private final Map<String, Integer> ordinals;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of features in the table.
+   * @return the number of features in the table
+   */
+  public int size() {
+
+    return this.featureIds.size();
+  }
+
+  /**
+   * Get the ordinal of a feature.
+   * @param featureId feature identifier
+   * @return the ordinal of the feature or -1 if the feature is not in the table
+   */
+  public int getOrdinal(final String featureId) {
+
+    final Integer result = this.ordinals.get(featureId);
+
+    return result == null ? -1 : result;
+  }
+
+  /**
+   * Get the identifier of a feature.
+   * @param ordinal ordinal of the feature
+   * @return the identifier of the feature
+   */
+  public String getFeatureId(final int ordinal) {
+
+    if (ordinal < 0 || ordinal >= this.featureIds.size()) {
+      throw new IllegalArgumentException("Invalid feature ordinal: " + ordinal);
+    }
+
+    return this.featureIds.get(ordinal);
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Add the counts of features to an array of counts indexed by the ordinals
+   * of the features.
+   * @param counts the counts of the features
+   * @param featureCounts the array of counts to update
+   * @throws IOException if a feature is not in the table
+   */
+  public void addCounts(final Map<String, Integer> counts,
+      final long[] featureCounts) throws IOException {
+
+    if (counts == null) {
+      throw new NullPointerException("counts argument cannot be null");
+    }
+
+    if (featureCounts == null) {
+      throw new NullPointerException("featureCounts argument cannot be null");
+    }
+
+    if (featureCounts.length != this.featureIds.size()) {
+      throw new IllegalArgumentException(
+          "The length of featureCounts is not the number of features: "
+              + featureCounts.length);
+    }
+
+    for (Map.Entry<String, Integer> e : counts.entrySet()) {
+
+      final int ordinal = getOrdinal(e.getKey());
+
+      if (ordinal == -1) {
+        throw new IOException("Unknown feature: " + e.getKey());
+      }
+
+      featureCounts[ordinal] += e.getValue();
+    }
+  }
+
+  //
+  // Save and load
+  //
+
+  /**
+   * Write the table. Each line of the output contains a feature identifier,
+   * the ordinal of the feature is the number of the line.
+   * @param out output stream
+   * @throws IOException if an error occurs while writing the table
+   */
+  public void write(final OutputStream out) throws IOException {
+
+    if (out == null) {
+      throw new NullPointerException("out argument cannot be null");
+    }
+
+    try (Writer writer = new BufferedWriter(
+        new OutputStreamWriter(out, FileCharsets.UTF8_CHARSET))) {
+
+      for (String featureId : this.featureIds) {
+        writer.write(featureId);
+        writer.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Load a table.
+   * @param in input stream
+   * @return a new FeatureOrdinalTable object
+   * @throws IOException if an error occurs while reading the table
+   */
+  public static FeatureOrdinalTable load(final InputStream in)
+      throws IOException {
+
+    if (in == null) {
+      throw new NullPointerException("in argument cannot be null");
+    }
+
+    final List<String> featureIds = new ArrayList<>();
+
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(in, FileCharsets.UTF8_CHARSET))) {
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        featureIds.add(line);
+      }
+    }
+
+    return new FeatureOrdinalTable(featureIds);
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Create the table of the features of an expression counter. The features
+   * are sorted by their identifiers.
+   * @param counter the initialized counter
+   * @return a new FeatureOrdinalTable object
+   */
+  public static FeatureOrdinalTable create(final ExpressionCounter counter) {
+
+    if (counter == null) {
+      throw new NullPointerException("counter argument cannot be null");
+    }
+
+    final Map<String, Integer> counts = new HashMap<>();
+    counter.addZeroCountFeatures(counts);
+
+    final List<String> featureIds = new ArrayList<>(counts.keySet());
+    Collections.sort(featureIds);
+
+    return new FeatureOrdinalTable(featureIds);
+  }
+
+  /**
+   * Find a file of the distributed cache using its extension.
+   * @param cacheFiles files of the distributed cache
+   * @param extension extension of the file to find
+   * @return the URI of the file
+   * @throws IOException if there is not exactly one file with the extension in
+   *           the distributed cache
+   */
+  static URI findCacheFile(final URI[] cacheFiles, final String extension)
+      throws IOException {
+
+    if (extension == null) {
+      throw new NullPointerException("extension argument cannot be null");
+    }
+
+    if (cacheFiles == null || cacheFiles.length == 0) {
+      throw new IOException("No file found in distributed cache");
+    }
+
+    URI result = null;
+
+    for (URI uri : cacheFiles) {
+
+      if (new Path(uri).getName().endsWith(extension)) {
+
+        if (result != null) {
+          throw new IOException("Retrieve more than one \""
+              + extension + "\" file in distributed cache");
+        }
+        result = uri;
+      }
+    }
+
+    if (result == null) {
+      throw new IOException(
+          "No \"" + extension + "\" file found in distributed cache");
+    }
+
+    return result;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   * @param featureIds identifiers of the features
+   */
+  private FeatureOrdinalTable(final List<String> featureIds) {
+
+    this.featureIds = featureIds;
+    this.ordinals = new HashMap<>(featureIds.size() * 2);
+
+    for (int i = 0; i < featureIds.size(); i++) {
+      this.ordinals.put(featureIds.get(i), i);
+    }
+  }
+
+}
@@ -28,6 +28,8 @@ import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GFF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GTF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.EXPRESSION_RESULTS_TSV;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.GENOME_DESC_TXT;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_INDEX_BAI;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
 
 import java.io.FileNotFoundException;
@@ -65,7 +67,8 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
 
       final Data featuresAnnotationData = context
           .getInputData(isGTFInputFormat() ? ANNOTATION_GTF : ANNOTATION_GFF);
-      final Data alignmentData = context.getInputData(MAPPER_RESULTS_SAM);
+      final Data alignmentData = context.getInputData(
+          isBAMInputFormat() ? MAPPER_RESULTS_BAM : MAPPER_RESULTS_SAM);
       final Data genomeDescriptionData = context.getInputData(GENOME_DESC_TXT);
       final Data expressionData = context.getOutputData(
           isSAMOutputFormat() ? MAPPER_RESULTS_SAM : EXPRESSION_RESULTS_TSV,
@@ -88,7 +91,13 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
       // Get final expression file
       final DataFile expressionFile = expressionData.getDataFile();
 
-      counter.init(genomeDescFile, annotationFile, isGTFInputFormat());
+      // Load the annotation, a shared annotation is loaded only once for all
+      // the tasks of the JVM
+      if (isSharedAnnotation()) {
+        counter.initShared(genomeDescFile, annotationFile, isGTFInputFormat());
+      } else {
+        counter.init(genomeDescFile, annotationFile, isGTFInputFormat());
+      }
 
       final String sampleCounterHeader = "Expression computation with "
           + counter.getName() + " (" + alignmentData.getName() + ", "
@@ -105,7 +114,19 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
             context.getLocalTempDirectory(), reporter, COUNTER_GROUP);
       } else {
         // Launch counting
-        result = counter.count(alignmentFile, reporter, COUNTER_GROUP);
+        if (isBAMInputFormat()) {
+
+          // Get the index of the alignment file
+          final DataFile indexFile = isBAMIndex()
+              ? context.getInputData(MAPPER_RESULTS_INDEX_BAI).getDataFile()
+              : null;
+
+          result = counter.count(alignmentFile, indexFile, reporter,
+              COUNTER_GROUP, getLocalThreads());
+        } else {
+          result = counter.count(alignmentFile, reporter, COUNTER_GROUP,
+              getLocalThreads());
+        }
 
         // Add features with zero count
         counter.addZeroCountFeatures(result);
@@ -132,6 +153,10 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
     } catch (EoulsanException e) {
       return status.createTaskResult(e,
           "Error while reading the annotation file: " + e.getMessage());
+    } finally {
+
+      // Release the shared annotation if used
+      getExpressionCounter().releaseSharedAnnotation();
     }
   }
 
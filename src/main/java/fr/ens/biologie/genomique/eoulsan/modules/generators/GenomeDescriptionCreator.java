@@ -24,10 +24,13 @@
 
 package fr.ens.biologie.genomique.eoulsan.modules.generators;
 
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+
 import java.io.IOException;
 
 import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescriptionComputer;
 import fr.ens.biologie.genomique.eoulsan.checkers.CheckStore;
 import fr.ens.biologie.genomique.eoulsan.checkers.GenomeChecker;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
@@ -108,8 +111,7 @@ public class GenomeDescriptionCreator {
     if (desc == null) {
 
       // Compute the genome description
-      desc = GenomeDescription.createGenomeDescFromFasta(genomeDataFile.open(),
-          genomeDataFile.getName());
+      desc = computeGenomeDescription(genomeDataFile, gffFormat);
 
       // Store it if storage exists
       if (this.storage != null) {
@@ -123,6 +125,38 @@ public class GenomeDescriptionCreator {
     return desc;
   }
 
+  /**
+   * Compute the genome description. For FASTA files, the description, the MD5
+   * sum of the file and the MD5 sums of the sequences are computed in one
+   * parallel pass. If the FASTA file cannot be processed this way, the file is
+   * parsed line by line.
+   * @param genomeDataFile genome file
+   * @param gffFormat the input file is in GFF format
+   * @return the genome description object
+   * @throws BadBioEntryException if an error occurs while computing the genome
+   *           description
+   * @throws IOException if an error occurs while computing the genome
+   *           description
+   */
+  private static GenomeDescription computeGenomeDescription(
+      final DataFile genomeDataFile, final boolean gffFormat)
+      throws BadBioEntryException, IOException {
+
+    if (!gffFormat) {
+
+      try {
+        return new GenomeDescriptionComputer().compute(genomeDataFile)
+            .getGenomeDescription();
+      } catch (BadBioEntryException e) {
+        getLogger().fine("Unable to process the genome in one pass, "
+            + "parse it line by line: " + e.getMessage());
+      }
+    }
+
+    return GenomeDescription.createGenomeDesc(genomeDataFile.open(),
+        genomeDataFile.getName(), gffFormat);
+  }
+
   //
   // Constructor
   //
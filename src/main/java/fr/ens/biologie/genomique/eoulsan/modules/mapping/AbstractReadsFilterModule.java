@@ -32,6 +32,7 @@ import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_FASTQ;
 import java.util.Map;
 import java.util.Set;
 
+import fr.ens.biologie.genomique.eoulsan.Common;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilter;
@@ -56,8 +57,14 @@ public abstract class AbstractReadsFilterModule extends AbstractModule {
 
   protected static final String COUNTER_GROUP = "reads_filtering";
 
+  public static final String LOCAL_THREADS_PARAMETER_NAME = "local.threads";
+  public static final String MAX_LOCAL_THREADS_PARAMETER_NAME =
+      "max.local.threads";
+
   private Map<String, String> readsFiltersParameters;
   private int reducerTaskCount = -1;
+  private int localThreads = 1;
+  private int maxLocalThreads;
 
   //
   // Getters
@@ -81,6 +88,17 @@ public abstract class AbstractReadsFilterModule extends AbstractModule {
     return this.reducerTaskCount;
   }
 
+  /**
+   * Get the number of threads to use to filter reads in local mode.
+   * @return the number of threads to use
+   */
+  protected int getLocalThreads() {
+
+    // The main.local.threads global property may be set to 0
+    return Math.max(1,
+        Common.getThreadsNumber(this.localThreads, this.maxLocalThreads));
+  }
+
   //
   // Module methods
   //
@@ -131,6 +149,14 @@ public abstract class AbstractReadsFilterModule extends AbstractModule {
 
         break;
 
+      case LOCAL_THREADS_PARAMETER_NAME:
+        this.localThreads = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
+      case MAX_LOCAL_THREADS_PARAMETER_NAME:
+        this.maxLocalThreads = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
       default:
         filterBuilder.addParameter(p.getName(), p.getStringValue());
         break;
@@ -27,6 +27,7 @@ package fr.ens.biologie.genomique.eoulsan.modules.mapping;
 import static fr.ens.biologie.genomique.eoulsan.CommonHadoop.HADOOP_REDUCER_TASK_COUNT_PARAMETER_NAME;
 import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
 import static fr.ens.biologie.genomique.eoulsan.core.OutputPortsBuilder.singleOutputPort;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
 
 import java.io.IOException;
@@ -41,6 +42,7 @@ import fr.ens.biologie.genomique.eoulsan.core.OutputPorts;
 import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
 import fr.ens.biologie.genomique.eoulsan.core.Version;
+import fr.ens.biologie.genomique.eoulsan.data.DataFormat;
 import fr.ens.biologie.genomique.eoulsan.modules.AbstractModule;
 
 /**
@@ -75,8 +77,21 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
   public static final String MAX_LOCAL_THREADS_PARAMETER_NAME =
       "max.local.threads";
 
+  public static final String OUTPUT_FORMAT_PARAMETER_NAME = "output.format";
+  public static final String OUTPUT_SORTED_PARAMETER_NAME = "output.sorted";
+  public static final String COMPRESSION_LEVEL_PARAMETER_NAME =
+      "compression.level";
+  public static final String MAX_ENTRIES_IN_RAM_PARAMETER_NAME =
+      "max.entries.in.ram";
+  public static final String LOCAL_MAPPER_PROCESSES_PARAMETER_NAME =
+      "local.mapper.processes";
+  public static final String LOCAL_MAPPER_PROCESS_THREADS_PARAMETER_NAME =
+      "local.mapper.process.threads";
+
   public static final int HADOOP_TIMEOUT = 60 * 60 * 1000;
   static final int DEFAULT_MAPPER_REQUIRED_MEMORY = 8 * 1024;
+  private static final int DEFAULT_COMPRESSION_LEVEL = 5;
+  private static final int DEFAULT_MAX_RECORDS_IN_RAM = 500000;
 
   private Mapper mapper;
   private String mapperVersion = "";
@@ -90,6 +105,12 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
   private int localThreads;
   private int maxLocalThreads;
   private int hadoopMapperRequiredMemory = DEFAULT_MAPPER_REQUIRED_MEMORY;
+  private DataFormat outputFormat = MAPPER_RESULTS_SAM;
+  private boolean sortedOutput = true;
+  private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+  private int maxRecordsInRam = DEFAULT_MAX_RECORDS_IN_RAM;
+  private int localMapperProcesses = 1;
+  private int localMapperProcessThreads;
 
   //
   // Getters
@@ -171,6 +192,69 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
     return this.hadoopMapperRequiredMemory;
   }
 
+  /**
+   * Get the format of the alignments written by the module.
+   * @return the format of the output of the module
+   */
+  protected DataFormat getOutputFormat() {
+
+    return this.outputFormat;
+  }
+
+  /**
+   * Test if the BAM output must be sorted by coordinate.
+   * @return true if the BAM output must be sorted by coordinate
+   */
+  protected boolean isSortedOutput() {
+
+    return this.sortedOutput;
+  }
+
+  /**
+   * Get the compression level of the BAM output.
+   * @return the compression level of the BAM output
+   */
+  protected int getCompressionLevel() {
+
+    return this.compressionLevel;
+  }
+
+  /**
+   * Get the maximum number of records to keep in memory while sorting the BAM
+   * output. When this number is reached, the records are spilled to the
+   * temporary directory.
+   * @return the maximum number of records in memory
+   */
+  protected int getMaxRecordsInRam() {
+
+    return this.maxRecordsInRam;
+  }
+
+  /**
+   * Get the number of mapper processes to launch for a sample in local mode.
+   * @return the number of mapper processes
+   */
+  protected int getLocalMapperProcesses() {
+
+    return this.localMapperProcesses;
+  }
+
+  /**
+   * Get the number of threads of each mapper process when several mapper
+   * processes are launched for a sample in local mode. If this number has not
+   * been set, the threads available in local mode are shared between the
+   * processes.
+   * @return the number of threads of each mapper process
+   */
+  protected int getLocalMapperProcessThreads() {
+
+    if (this.localMapperProcessThreads > 0) {
+      return this.localMapperProcessThreads;
+    }
+
+    return Math.max(1, getMapperLocalThreads() / this.localMapperProcesses);
+  }
+
   /**
    * Get the mapper object.
    * @return the mapper object
@@ -269,6 +353,43 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
         this.reducerTaskCount = p.getIntValueGreaterOrEqualsTo(1);
         break;
 
+      case OUTPUT_FORMAT_PARAMETER_NAME:
+        switch (p.getLowerStringValue()) {
+
+        case "sam":
+          this.outputFormat = MAPPER_RESULTS_SAM;
+          break;
+
+        case "bam":
+          this.outputFormat = MAPPER_RESULTS_BAM;
+          break;
+
+        default:
+          Modules.badParameterValue(context, p,
+              "Unknown output format: " + p.getValue());
+        }
+        break;
+
+      case OUTPUT_SORTED_PARAMETER_NAME:
+        this.sortedOutput = p.getBooleanValue();
+        break;
+
+      case COMPRESSION_LEVEL_PARAMETER_NAME:
+        this.compressionLevel = p.getIntValueInRange(0, 9);
+        break;
+
+      case MAX_ENTRIES_IN_RAM_PARAMETER_NAME:
+        this.maxRecordsInRam = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
+      case LOCAL_MAPPER_PROCESSES_PARAMETER_NAME:
+        this.localMapperProcesses = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
+      case LOCAL_MAPPER_PROCESS_THREADS_PARAMETER_NAME:
+        this.localMapperProcessThreads = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
       default:
         Modules.unknownParameter(context, p);
       }
@@ -304,6 +425,13 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
       throw new EoulsanException(e);
     }
 
+    // Check if the reads can be split between several mapper processes
+    if (this.localMapperProcesses > 1 && !this.mapper.isSplitsAllowed()) {
+      Modules.invalidConfiguration(context,
+          "The selected mapper cannot be used with several processes as "
+              + "computation cannot be parallelized: " + mapperName);
+    }
+
     final int requiredMemory = context.getCurrentStep().getRequiredMemory();
     if (requiredMemory > 0) {
       this.hadoopMapperRequiredMemory = requiredMemory;
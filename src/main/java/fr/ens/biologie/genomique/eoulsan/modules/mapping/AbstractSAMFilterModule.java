@@ -27,11 +27,13 @@ package fr.ens.biologie.genomique.eoulsan.modules.mapping;
 import static fr.ens.biologie.genomique.eoulsan.CommonHadoop.HADOOP_REDUCER_TASK_COUNT_PARAMETER_NAME;
 import static fr.ens.biologie.genomique.eoulsan.core.InputPortsBuilder.singleInputPort;
 import static fr.ens.biologie.genomique.eoulsan.core.OutputPortsBuilder.singleOutputPort;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
 
 import java.util.Map;
 import java.util.Set;
 
+import fr.ens.biologie.genomique.eoulsan.Common;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilter;
@@ -58,8 +60,17 @@ public abstract class AbstractSAMFilterModule extends AbstractModule {
 
   protected static final String COUNTER_GROUP = "sam_filtering";
 
+  public static final String INPUT_FILE_FORMAT_PARAMETER_NAME =
+      "input.file.format";
+  public static final String LOCAL_THREADS_PARAMETER_NAME = "local.threads";
+  public static final String MAX_LOCAL_THREADS_PARAMETER_NAME =
+      "max.local.threads";
+
   private Map<String, String> alignmentsFiltersParameters;
   private int reducerTaskCount = -1;
+  private boolean bamFormat;
+  private int localThreads = 1;
+  private int maxLocalThreads;
 
   /**
    * Get the parameters of the alignments filter.
@@ -79,6 +90,26 @@ public abstract class AbstractSAMFilterModule extends AbstractModule {
     return this.reducerTaskCount;
   }
 
+  /**
+   * Test if the input and output alignments are in BAM format.
+   * @return true if the alignments are in BAM format
+   */
+  protected boolean isBAMFormat() {
+
+    return this.bamFormat;
+  }
+
+  /**
+   * Get the number of threads to use in local mode to uncompress BAM files.
+   * @return the number of threads to use in local mode
+   */
+  protected int getLocalThreads() {
+
+    // The main.local.threads global property may be set to 0
+    return Math.max(1,
+        Common.getThreadsNumber(this.localThreads, this.maxLocalThreads));
+  }
+
   //
   // Module methods
   //
@@ -104,12 +135,14 @@ public abstract class AbstractSAMFilterModule extends AbstractModule {
   @Override
   public InputPorts getInputPorts() {
 
-    return singleInputPort(MAPPER_RESULTS_SAM);
+    return singleInputPort(
+        this.bamFormat ? MAPPER_RESULTS_BAM : MAPPER_RESULTS_SAM);
   }
 
   @Override
   public OutputPorts getOutputPorts() {
-    return singleOutputPort(MAPPER_RESULTS_SAM);
+    return singleOutputPort(
+        this.bamFormat ? MAPPER_RESULTS_BAM : MAPPER_RESULTS_SAM);
   }
 
   @Override
@@ -130,6 +163,32 @@ public abstract class AbstractSAMFilterModule extends AbstractModule {
         this.reducerTaskCount = p.getIntValueGreaterOrEqualsTo(1);
         break;
 
+      case INPUT_FILE_FORMAT_PARAMETER_NAME:
+
+        switch (p.getLowerStringValue()) {
+
+        case "sam":
+          this.bamFormat = false;
+          break;
+
+        case "bam":
+          this.bamFormat = true;
+          break;
+
+        default:
+          Modules.badParameterValue(context, p, "Unknown input file format");
+          break;
+        }
+        break;
+
+      case LOCAL_THREADS_PARAMETER_NAME:
+        this.localThreads = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
+      case MAX_LOCAL_THREADS_PARAMETER_NAME:
+        this.maxLocalThreads = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
       default:
 
         filterBuilder.addParameter(p.getName(), p.getStringValue());
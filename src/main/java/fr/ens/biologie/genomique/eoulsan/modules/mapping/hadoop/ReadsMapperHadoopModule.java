@@ -31,16 +31,9 @@ import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_TFQ;
 import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.doubleQuotes;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileSystem;
@@ -51,9 +44,6 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
-
 import fr.ens.biologie.genomique.eoulsan.CommonHadoop;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.Settings;
@@ -61,6 +51,7 @@ import fr.ens.biologie.genomique.eoulsan.annotations.HadoopOnly;
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.FastqInputFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.SAMOutputFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndexCache;
 import fr.ens.biologie.genomique.eoulsan.core.InputPorts;
 import fr.ens.biologie.genomique.eoulsan.core.InputPortsBuilder;
 import fr.ens.biologie.genomique.eoulsan.core.Modules;
@@ -119,6 +110,19 @@ public class ReadsMapperHadoopModule extends AbstractReadsMapperModule {
           "Cannot use a mapper Docker image in Hadoop mode");
     }
 
+    // Check if user wants a BAM output
+    if (!MAPPER_RESULTS_SAM.equals(getOutputFormat())) {
+      Modules.invalidConfiguration(context,
+          "Only the SAM output format can be used in Hadoop mode");
+    }
+
+    // Check if user wants several mapper processes for a sample
+    if (getLocalMapperProcesses() > 1) {
+      Modules.invalidConfiguration(context,
+          "Several mapper processes for a sample cannot be used in Hadoop "
+              + "mode, the reads are already split by Hadoop");
+    }
+
   }
 
   @Override
@@ -355,44 +359,7 @@ public class ReadsMapperHadoopModule extends AbstractReadsMapperModule {
     }
 
     // Fallback solution
-    return computeZipCheckSum(file.open());
-  }
-
-  /**
-   * Compute the checksum of a ZIP file.
-   * @param in input stream
-   * @return the checksum as a string
-   * @throws IOException if an error occurs while creating the checksum
-   */
-  private static String computeZipCheckSum(final InputStream in)
-      throws IOException {
-
-    ZipArchiveInputStream zais = new ZipArchiveInputStream(in);
-
-    // Create Hash function
-    final Hasher hs = Hashing.md5().newHasher();
-
-    // Store entries in a map
-    final Map<String, long[]> map = new HashMap<>();
-
-    ZipArchiveEntry e;
-
-    while ((e = zais.getNextZipEntry()) != null) {
-      map.put(e.getName(), new long[] {e.getSize(), e.getCrc()});
-    }
-
-    zais.close();
-
-    // Add values to hash function in an ordered manner
-    for (String filename : new TreeSet<>(map.keySet())) {
-
-      hs.putString(filename, StandardCharsets.UTF_8);
-      for (long l : map.get(filename)) {
-        hs.putLong(l);
-      }
-    }
-
-    return hs.hash().toString();
+    return MapperIndexCache.computeArchiveChecksum(file.open());
   }
 
 }
@@ -27,22 +27,14 @@ import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER;
 import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.unDoubleQuotes;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.URI;
-import java.nio.channels.FileLock;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
@@ -53,9 +45,11 @@ import fr.ens.biologie.genomique.eoulsan.EoulsanLogger;
 import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
 import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.HadoopEoulsanRuntime;
+import fr.ens.biologie.genomique.eoulsan.Settings;
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.EntryMapping;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndexCache;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperInstance;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
@@ -95,24 +89,19 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
       Globals.PARAMETER_PREFIX + ".mapper.zookeeper.session.timeout";
 
   private static final Splitter TAB_SPLITTER = Splitter.on('\t').trimResults();
-  private static final String MAPPER_INDEX_DIR_PREFIX =
-      Globals.APP_NAME + "-mapper-index-";
-  private static final String MAPPER_LAST_USED_FILENAME =
-      Globals.APP_NAME.toUpperCase() + "_LAST_USED";
-  private static final long DEFAULT_AGE_OF_UNUSED_MAPPER_INDEXES = 7;
-  private static final String LOCK_SUFFIX = ".lock";
+  private static final String MAPPER_INDEX_CACHE_DIRNAME =
+      Globals.APP_NAME + "-mapper-indexes";
 
   private String counterGroup = this.getClass().getName();
-  private File mapperIndexDir;
+  private MapperIndexCache indexCache;
+  private MapperIndexCache.Lease indexLease;
 
   private Locker lock;
 
   private EntryMapping mapping;
   private MapperProcess process;
   private Thread samResultsParserThread;
-  private final BlockingDeque<String> queue = new LinkedBlockingDeque<>();
-  private final ExceptionWrapper exception = new ExceptionWrapper();
-  private int entriesParsed;
+  private SAMOutputChunks samOutput;
   private boolean writeHeaders;
 
   private final List<String> fields = new ArrayList<>();
@@ -120,10 +109,6 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
   private final Text outKey = new Text();
   private final Text outValue = new Text();
 
-  private static final class ExceptionWrapper {
-    private IOException exception;
-  }
-
   /**
    * 'key': offset of the beginning of the line from the beginning of the TFQ
    * file. 'value': the TFQ line (3 fields if data are in single-end mode, 6
@@ -154,7 +139,8 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
           this.fields.get(5));
     }
 
-    writeResults(context, this.writeHeaders);
+    // Write the alignments already produced by the mapper
+    this.samOutput.process();
   }
 
   @Override
@@ -234,17 +220,17 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
     getLogger().info("Genome index compressed file (from distributed cache): "
         + archiveIndexFile);
 
-    // Set index directory
-    this.mapperIndexDir = new File(
-        EoulsanRuntime.getRuntime().getTempDirectory(), MAPPER_INDEX_DIR_PREFIX
-            + mapper.getName() + "-index-" + conf.get(INDEX_CHECKSUM_KEY));
+    // Get the uncompressed index from the mapper index cache of the node
+    this.indexCache = createMapperIndexCache(tempDir);
+    this.indexLease = this.indexCache.acquire(mapper.getName(),
+        conf.get(INDEX_CHECKSUM_KEY), archiveIndexFile);
 
-    getLogger()
-        .info("Genome index directory where decompressed: " + mapperIndexDir);
+    getLogger().info("Genome index directory where decompressed: "
+        + this.indexLease.getIndexDirectory());
 
     // Create the MapperIndex object
     final MapperIndex mapperIndex =
-        mapperInstance.newMapperIndex(archiveIndexFile.open(), mapperIndexDir);
+        mapperInstance.newMapperIndex(this.indexLease);
 
     getLogger().info("Fastq format: " + fastqFormat);
 
@@ -268,9 +254,6 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
     getLogger().info("Use "
         + mapper.getName() + " with " + mapperThreads + " threads option");
 
-    // Update last used file timestamp for the mapper indexes clean up
-    updateLastUsedMapperIndex(this.mapperIndexDir);
-
     context.setStatus("Wait lock");
 
     // Lock if mapper
@@ -301,6 +284,11 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
     }
 
     this.writeHeaders = context.getTaskAttemptID().getTaskID().getId() == 0;
+
+    // The lines split between two chunks of the SAM output of the mapper are
+    // kept by the same object during all the task
+    this.samOutput = new SAMOutputChunks((buffer, start, end,
+        headerLine) -> writeLine(context, buffer, start, end, headerLine));
     this.samResultsParserThread = startParseSAMResultsThread(this.process);
 
     context.setStatus("Run " + this.mapping.getName());
@@ -327,14 +315,21 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
       this.lock.unlock();
     }
 
-    // Write headers
-    writeResults(context, this.writeHeaders);
+    // Write the last alignments
+    this.samOutput.finish();
 
-    getLogger().info(this.entriesParsed
+    // Increment counters
+    final long entriesParsed = this.samOutput.getAlignmentCount();
+    context.getCounter(this.counterGroup,
+        OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName())
+        .increment(entriesParsed);
+
+    getLogger().info(entriesParsed
         + " entries parsed in " + this.mapping.getName() + " output file");
 
-    // Clear old mapper indexes
-    removeUnusedMapperIndexes(context.getConfiguration());
+    // Release the mapper index and clear the least recently used indexes
+    this.indexLease.close();
+    this.indexCache.removeUnusedIndexes();
 
     getLogger().info("End of close() of the mapper.");
   }
@@ -370,21 +365,9 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
    */
   private Thread startParseSAMResultsThread(final MapperProcess mp) {
 
-    final Thread t = new Thread(() -> {
-
-      // Parse SAM result file
-
-      String line;
-      try (BufferedReader readerResults =
-          new BufferedReader(new InputStreamReader(mp.getStout()))) {
-        while ((line = readerResults.readLine()) != null) {
-
-          queue.add(line);
-        }
-      } catch (IOException e) {
-        exception.exception = e;
-      }
-    });
+    // Read SAM result file by chunks, the lines are only parsed while
+    // writing the results
+    final Thread t = new Thread(() -> this.samOutput.readFrom(mp.getStout()));
 
     t.start();
 
@@ -392,181 +375,66 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
   }
 
   /**
-   * Write results.
+   * Write a line of the SAM output of the mapper.
    * @param context the Hadoop context
-   * @param writeHeader true if SAM header must be written
-   * @throws InterruptedException if an error occurs while writing data
+   * @param buffer the buffer that contains the line
+   * @param start start of the trimmed line in the buffer
+   * @param end end of the trimmed line in the buffer (exclusive)
+   * @param headerLine true if the line is a header line
    * @throws IOException if an error occurs while writing data
    */
-  private void writeResults(final Context context, boolean writeHeader)
-      throws InterruptedException, IOException {
-
-    while (!this.queue.isEmpty()) {
-
-      final String line = this.queue.take().trim();
-
-      if (line.length() == 0) {
-        continue;
-      }
-
-      // Test if line is an header line
-      final boolean headerLine = line.charAt(0) == '@';
-
-      // Only write header lines once (on the first output file)
-      if (headerLine && !writeHeader) {
-        continue;
-      }
+  private void writeLine(final Context context, final byte[] buffer,
+      final int start, final int end, final boolean headerLine)
+      throws IOException {
 
-      if (!headerLine) {
-
-        // Set the output key as the read id
-        final int tabPos = line.indexOf('\t');
-        if (tabPos == -1) {
-          outKey.set("");
-        } else {
-          outKey.set(line.substring(0, tabPos));
-        }
-
-        // Increment counters if not header
-        this.entriesParsed++;
-        context.getCounter(this.counterGroup,
-            OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName()).increment(1);
-
-      } else {
-
-        // Set empty key for headers
-        this.outKey.set("");
-      }
-
-      // Set the output value
-      this.outValue.set(line);
-
-      // Write the result
-      context.write(this.outKey, this.outValue);
-
-    }
-
-    // Throw reader exception if exists
-    if (this.exception.exception != null) {
-      throw this.exception.exception;
+    // Only write header lines once (on the first output file)
+    if (headerLine && !this.writeHeaders) {
+      return;
     }
 
-  }
-
-  //
-  // Old mappers indexes cleanup methods
-  //
-
-  /**
-   * Update the last usage of the current mapper index.
-   * @param mapperIndexDir the mapper index directory
-   */
-  private void updateLastUsedMapperIndex(final File mapperIndexDir) {
-
-    final File lockFile = new File(mapperIndexDir.getParentFile(),
-        mapperIndexDir.getName() + LOCK_SUFFIX);
-
-    try (FileOutputStream out = new FileOutputStream(lockFile)) {
+    if (!headerLine) {
 
-      // Lock the mapper directory
-      FileLock lock = out.getChannel().lock();
-
-      final File lastMapperUsedFile =
-          new File(mapperIndexDir, MAPPER_LAST_USED_FILENAME);
-
-      if (lastMapperUsedFile.exists()) {
-        if (!lastMapperUsedFile.setLastModified(System.currentTimeMillis())) {
-          getLogger()
-              .warning("Unable to set the modification time of the file: "
-                  + lastMapperUsedFile);
-        }
+      // Set the output key as the read id
+      int tabPos = start;
+      while (tabPos < end && buffer[tabPos] != '\t') {
+        tabPos++;
       }
+      this.outKey.set(buffer, start, tabPos == end ? 0 : tabPos - start);
 
-      // Unlock the mapper directory
-      lock.release();
-    } catch (IOException e) {
-      getLogger().warning(
-          "Cannot update the timestamp of the last usage of the current mapper index: "
-              + e.getMessage());
-    }
-  }
-
-  /**
-   * Remove unused mapper indexes.
-   * @param conf Hadoop configuration
-   */
-  private void removeUnusedMapperIndexes(final Configuration conf) {
-
-    final File mapperIndexesDir = this.mapperIndexDir.getParentFile();
-
-    for (File dir : mapperIndexesDir.listFiles((dir, name) -> {
-
-      final File f = new File(dir, name);
-
-      return f.isDirectory() && name.startsWith(MAPPER_INDEX_DIR_PREFIX);
-    })) {
+    } else {
 
-      // First check without lock on the mapper index directory
-      if (isMapperIndexMustBeRemoved(mapperIndexesDir)) {
-        removeUnusedMapperIndex(dir, conf);
-      }
+      // Set empty key for headers
+      this.outKey.set(buffer, start, 0);
     }
-  }
-
-  /**
-   * Check if a mapper index directory must be removed.
-   * @param mapperIndexDir the mapper index directory
-   * @return true if the mapper index directory must be removed
-   */
-  private boolean isMapperIndexMustBeRemoved(final File mapperIndexDir) {
-
-    final File lastModifiedFile =
-        new File(mapperIndexDir, MAPPER_LAST_USED_FILENAME);
 
-    if (!lastModifiedFile.exists())
-      return false;
+    // Set the output value
+    this.outValue.set(buffer, start, end - start);
 
-    final long duration =
-        System.currentTimeMillis() - lastModifiedFile.lastModified();
-
-    return duration > (DEFAULT_AGE_OF_UNUSED_MAPPER_INDEXES * 24 * 3600 * 1000);
+    // Write the result
+    try {
+      context.write(this.outKey, this.outValue);
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
   }
 
   /**
-   * Remove an unused mapper index directory.
-   * @param mapperIndexDir the mapper index directory to remove
-   * @param conf Hadoop configuration
+   * Create the mapper index cache of the node.
+   * @param tempDir the temporary directory
+   * @return a MapperIndexCache object
+   * @throws IOException if the directory of the cache cannot be created
    */
-  private void removeUnusedMapperIndex(final File mapperIndexDir,
-      final Configuration conf) {
-
-    final File lockFile = new File(mapperIndexDir.getParentFile(),
-        mapperIndexDir.getName() + LOCK_SUFFIX);
-
-    try (FileOutputStream out = new FileOutputStream(lockFile)) {
-
-      // Lock the mapper directory
-      FileLock lock = out.getChannel().lock();
+  private static MapperIndexCache createMapperIndexCache(final File tempDir)
+      throws IOException {
 
-      // Second check with lock on the mapper index directory
-      if (isMapperIndexMustBeRemoved(mapperIndexDir)) {
+    final Settings settings = EoulsanRuntime.getSettings();
+    final String cacheDirectory = settings.getMapperIndexCacheDirectory();
 
-        getLogger()
-            .info("Remove  unused mapper index directory: " + mapperIndexDir);
-
-        // Remove the mapper index
-        // TODO use Datafile.delete(true)
-        final Path mapperIndexPath = new Path(mapperIndexDir.toURI());
-        final FileSystem fs = FileSystem.get(mapperIndexDir.toURI(), conf);
-        fs.delete(mapperIndexPath, true);
-      }
-
-      // Unlock the mapper directory
-      lock.release();
-    } catch (IOException e) {
-      getLogger().warning("Cannot remove unused mapper index directory ("
-          + mapperIndexDir + "): " + e.getMessage());
-    }
+    return new MapperIndexCache(
+        cacheDirectory == null
+            ? new File(tempDir, MAPPER_INDEX_CACHE_DIRNAME)
+            : new File(cacheDirectory),
+        settings.getMapperIndexCacheMaxSize() * 1024 * 1024);
   }
 
 }
@@ -0,0 +1,141 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import fr.ens.biologie.genomique.eoulsan.bio.io.SAMOutputPump;
+
+/**
+ * This class allow to process the SAM output of a mapper by chunks. The chunks
+ * are read by a thread and queued, then they are given to a single
+ * SAMOutputPump, so the lines split between two chunks are correctly handled.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class SAMOutputChunks {
+
+  private final BlockingDeque<byte[]> queue = new LinkedBlockingDeque<>();
+  private final SAMOutputPump pump;
+  private volatile IOException exception;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of alignments processed.
+   * @return the number of alignments processed
+   */
+  long getAlignmentCount() {
+
+    return this.pump.getAlignmentCount();
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Read the SAM output of the mapper and queue its chunks. This method is
+   * intended to be called by the reader thread.
+   * @param in the SAM output of the mapper
+   */
+  void readFrom(final InputStream in) {
+
+    final byte[] buffer = new byte[SAMOutputPump.DEFAULT_BUFFER_SIZE];
+
+    int n;
+    try (InputStream is = in) {
+      while ((n = is.read(buffer)) != -1) {
+
+        if (n > 0) {
+          add(Arrays.copyOf(buffer, n));
+        }
+      }
+    } catch (IOException e) {
+      this.exception = e;
+    }
+  }
+
+  /**
+   * Queue a chunk of the SAM output.
+   * @param chunk the chunk to queue
+   */
+  void add(final byte[] chunk) {
+
+    this.queue.add(chunk);
+  }
+
+  /**
+   * Process the queued chunks. The last line is kept until the next chunks if
+   * it is not complete.
+   * @throws IOException if an error occurs while processing the lines or if an
+   *           error has occurred while reading the output of the mapper
+   */
+  void process() throws IOException {
+
+    byte[] chunk;
+    while ((chunk = this.queue.poll()) != null) {
+      this.pump.update(chunk, 0, chunk.length);
+    }
+
+    // Throw reader exception if exists
+    if (this.exception != null) {
+      throw this.exception;
+    }
+  }
+
+  /**
+   * Process the queued chunks and the last line. This method must be called
+   * once, after the end of the reading of the SAM output.
+   * @throws IOException if an error occurs while processing the lines or if an
+   *           error has occurred while reading the output of the mapper
+   */
+  void finish() throws IOException {
+
+    process();
+    this.pump.finish();
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param handler the handler of the lines
+   */
+  SAMOutputChunks(final SAMOutputPump.LineHandler handler) {
+
+    this.pump = new SAMOutputPump(handler);
+  }
+
+}
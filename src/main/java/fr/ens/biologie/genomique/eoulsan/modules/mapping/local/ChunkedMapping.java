@@ -0,0 +1,715 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.SAMOutputPump;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.EntryMapping;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+/**
+ * This class allow to map the reads of a sample with several processes of the
+ * same mapper. The reads are split on the fly in chunks that are sent in turn
+ * to the processes, all the processes use the same unpacked index. The output
+ * of each process is stored in a temporary file, then the temporary files are
+ * merged. The name of each read sent to a mapper is prefixed by the index of
+ * its chunk, this prefix is used to merge the outputs in chunk order and is
+ * removed from the merged output. As the merge does not rely on the number of
+ * reads of the chunks, the mappers can drop or reorder reads. The alignments
+ * of a read are never separated. If all the reads are reported by the mapper
+ * in input order, the output is in the order of the input reads.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+final class ChunkedMapping {
+
+  /** Default number of reads in a chunk. */
+  static final int DEFAULT_CHUNK_SIZE = 10000;
+
+  /** Separator between the chunk index and the name of a read. */
+  static final char CHUNK_SEPARATOR = ':';
+
+  private final EntryMapping mapping;
+  private final int processCount;
+  private final int chunkSize;
+  private final File temporaryDirectory;
+
+  //
+  // Inner classes
+  //
+
+  /**
+   * This class define a thread that copy the output of a mapper process in a
+   * file.
+   */
+  private static final class OutputThread extends Thread {
+
+    private final MapperProcess process;
+    private final File outputFile;
+    private IOException exception;
+
+    @Override
+    public void run() {
+
+      try (InputStream in = this.process.getStout();
+          OutputStream out = new FileOutputStream(this.outputFile)) {
+
+        FileUtils.copy(in, out);
+
+      } catch (IOException e) {
+        this.exception = e;
+      }
+    }
+
+    /**
+     * Wait the end of the thread.
+     * @throws IOException if an error has occurred while copying the output
+     */
+    void waitEnd() throws IOException {
+
+      try {
+        join();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      if (this.exception != null) {
+        throw this.exception;
+      }
+    }
+
+    OutputThread(final MapperProcess process, final File outputFile) {
+
+      super("Mapper output thread " + outputFile.getName());
+
+      this.process = process;
+      this.outputFile = outputFile;
+
+      // A blocked thread must not keep the JVM alive after an error
+      setDaemon(true);
+    }
+  }
+
+  /**
+   * This class allow to read the alignments of a SAM file grouped by read
+   * name, without creating objects for each line.
+   */
+  private static final class SAMReadGroupReader implements AutoCloseable {
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[SAMOutputPump.DEFAULT_BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    // Current line, without the newline
+    private byte[] line = new byte[1024];
+    private int lineLength = -1;
+
+    // Name of the read of the current group
+    private byte[] groupName = new byte[256];
+    private int groupNameLength;
+
+    // Chunk of the current group and length of the chunk prefix of its name
+    private int chunk;
+    private int chunkPrefixLength;
+
+    /**
+     * Read the next non empty line.
+     * @return true if a line has been read
+     * @throws IOException if an error occurs while reading the file
+     */
+    private boolean nextLine() throws IOException {
+
+      do {
+
+        this.lineLength = 0;
+        boolean eol = false;
+
+        while (!eol) {
+
+          if (this.pos == this.limit) {
+
+            this.limit = this.in.read(this.buffer);
+            this.pos = 0;
+
+            if (this.limit == -1) {
+              this.limit = 0;
+              if (this.lineLength == 0) {
+                this.lineLength = -1;
+                return false;
+              }
+              break;
+            }
+          }
+
+          int end = this.pos;
+          while (end < this.limit && this.buffer[end] != '\n') {
+            end++;
+          }
+
+          append(this.buffer, this.pos, end);
+          eol = end < this.limit;
+          this.pos = eol ? end + 1 : end;
+        }
+
+      } while (this.lineLength == 0);
+
+      return true;
+    }
+
+    /**
+     * Append bytes to the current line.
+     * @param src source buffer
+     * @param start start of the bytes to append
+     * @param end end of the bytes to append (exclusive)
+     */
+    private void append(final byte[] src, final int start, final int end) {
+
+      final int len = end - start;
+
+      if (this.lineLength + len > this.line.length) {
+        this.line = Arrays.copyOf(this.line,
+            Math.max(this.lineLength + len, 2 * this.line.length));
+      }
+
+      System.arraycopy(src, start, this.line, this.lineLength, len);
+      this.lineLength += len;
+    }
+
+    /**
+     * Get the length of the read name of the current line.
+     * @return the length of the read name of the current line
+     */
+    private int readNameLength() {
+
+      int i = 0;
+      while (i < this.lineLength && this.line[i] != '\t') {
+        i++;
+      }
+
+      return i;
+    }
+
+    /**
+     * Parse the chunk prefix of the read name of the current line.
+     * @throws IOException if the read name does not contain a chunk prefix
+     */
+    private void parseChunk() throws IOException {
+
+      // Chunk indexes greater than 10^9 are not expected
+      final int maxLength = Math.min(this.lineLength, 9);
+      int value = 0;
+      int i = 0;
+
+      while (i < maxLength && this.line[i] >= '0' && this.line[i] <= '9') {
+        value = value * 10 + this.line[i] - '0';
+        i++;
+      }
+
+      if (i == 0 || i == this.lineLength || this.line[i] != CHUNK_SEPARATOR) {
+        throw new IOException("Read name without chunk prefix found in "
+            + "mapper output: "
+            + new String(this.line, 0, readNameLength(),
+                StandardCharsets.ISO_8859_1));
+      }
+
+      this.chunk = value;
+      this.chunkPrefixLength = i + 1;
+    }
+
+    /**
+     * Test if all the alignments of the file have been read.
+     * @return true if all the alignments of the file have been read
+     */
+    boolean isEnded() {
+
+      return this.lineLength == -1;
+    }
+
+    /**
+     * Get the index of the chunk of the current read.
+     * @return the index of the chunk of the current read
+     */
+    int getChunk() {
+
+      return this.chunk;
+    }
+
+    /**
+     * Read the header of the file, the header lines are copied in an output
+     * stream.
+     * @param out the output stream, can be null to skip the header
+     * @return the number of lines of the header
+     * @throws IOException if an error occurs while reading or writing data
+     */
+    int readHeader(final OutputStream out) throws IOException {
+
+      int count = 0;
+
+      while (nextLine() && this.line[0] == '@') {
+
+        if (out != null) {
+          out.write(this.line, 0, this.lineLength);
+          out.write('\n');
+        }
+        count++;
+      }
+
+      if (this.lineLength != -1) {
+        parseChunk();
+      }
+
+      return count;
+    }
+
+    /**
+     * Copy the alignments of the next read to an output stream. The chunk
+     * prefix is removed from the read name.
+     * @param out the output stream
+     * @return the number of alignments copied, -1 if the end of the file has
+     *         been reached
+     * @throws IOException if an error occurs while reading or writing data
+     */
+    int copyReadGroup(final OutputStream out) throws IOException {
+
+      if (this.lineLength == -1) {
+        return -1;
+      }
+
+      // Save the name of the read of the group
+      this.groupNameLength = readNameLength();
+      if (this.groupNameLength > this.groupName.length) {
+        this.groupName = new byte[2 * this.groupNameLength];
+      }
+      System.arraycopy(this.line, 0, this.groupName, 0, this.groupNameLength);
+
+      final int prefixLength = this.chunkPrefixLength;
+      int count = 0;
+
+      do {
+        out.write(this.line, prefixLength, this.lineLength - prefixLength);
+        out.write('\n');
+        count++;
+      } while (nextLine() && sameReadName());
+
+      if (this.lineLength != -1) {
+        parseChunk();
+      }
+
+      return count;
+    }
+
+    /**
+     * Test if the current line has the same read name that the current group.
+     * @return true if the current line has the same read name
+     */
+    private boolean sameReadName() {
+
+      final int len = readNameLength();
+
+      if (len != this.groupNameLength) {
+        return false;
+      }
+
+      for (int i = 0; i < len; i++) {
+        if (this.line[i] != this.groupName[i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      this.in.close();
+    }
+
+    SAMReadGroupReader(final File file) throws IOException {
+
+      this.in = new FileInputStream(file);
+    }
+  }
+
+  //
+  // Mapping methods
+  //
+
+  /**
+   * Map reads.
+   * @param readsFile1 first FASTQ file
+   * @param readsFile2 second FASTQ file, null in single-end mode
+   * @param errorFile standard error file
+   * @param logFile log file
+   * @param out output stream for the merged SAM data
+   * @return the number of alignments written
+   * @throws IOException if an error occurs while mapping the reads
+   */
+  long map(final DataFile readsFile1, final DataFile readsFile2,
+      final File errorFile, final File logFile, final OutputStream out)
+      throws IOException {
+
+    requireNonNull(readsFile1, "readsFile1 argument cannot be null");
+    requireNonNull(errorFile, "errorFile argument cannot be null");
+    requireNonNull(logFile, "logFile argument cannot be null");
+    requireNonNull(out, "out argument cannot be null");
+
+    final boolean pairedEnd = readsFile2 != null;
+    final List<MapperProcess> processes = new ArrayList<>();
+    final List<OutputThread> threads = new ArrayList<>();
+    final List<File> samFiles = new ArrayList<>();
+    final List<File> errorFiles = new ArrayList<>();
+    final List<File> logFiles = new ArrayList<>();
+    boolean success = false;
+
+    try {
+
+      // Launch the mapper processes
+      for (int i = 0; i < this.processCount; i++) {
+
+        final File processErrorFile = processFile(errorFile, i);
+        final File processLogFile = processFile(logFile, i);
+        final File samFile = File.createTempFile("mapper-process" + i + "-",
+            ".sam", this.temporaryDirectory);
+
+        errorFiles.add(processErrorFile);
+        logFiles.add(processLogFile);
+        samFiles.add(samFile);
+
+        final MapperProcess process = pairedEnd
+            ? this.mapping.mapPE(processErrorFile, processLogFile)
+            : this.mapping.mapSE(processErrorFile, processLogFile);
+        processes.add(process);
+
+        final OutputThread thread = new OutputThread(process, samFile);
+        thread.start();
+        threads.add(thread);
+      }
+
+      getLogger().info("Launch "
+          + this.processCount + " processes of " + this.mapping.getName()
+          + " with " + this.mapping.getThreadNumber() + " threads each");
+
+      // Split the reads between the processes
+      writeReads(readsFile1, readsFile2, processes);
+
+      // Wait the end of the processes
+      for (int i = 0; i < this.processCount; i++) {
+        threads.get(i).waitEnd();
+        processes.get(i).waitFor();
+      }
+
+      // Merge the standard error files
+      FileUtils.concat(errorFiles, errorFile);
+
+      // Merge the log files, only some mappers create a log file
+      final List<File> existingLogFiles = new ArrayList<>();
+      for (File f : logFiles) {
+        if (f.exists()) {
+          existingLogFiles.add(f);
+        }
+      }
+      if (!existingLogFiles.isEmpty()) {
+        FileUtils.concat(existingLogFiles, logFile);
+      }
+
+      // Merge the outputs of the processes
+      final long result = merge(samFiles, out);
+      success = true;
+
+      return result;
+
+    } finally {
+
+      if (!success) {
+        abort(processes, threads);
+      }
+
+      for (File f : samFiles) {
+        removeFile(f);
+      }
+
+      for (File f : errorFiles) {
+        removeFile(f);
+      }
+
+      for (File f : logFiles) {
+        removeFile(f);
+      }
+    }
+  }
+
+  /**
+   * Stop the mapper processes and the output threads after an error.
+   * @param processes the mapper processes
+   * @param threads the output threads
+   */
+  private static void abort(final List<MapperProcess> processes,
+      final List<OutputThread> threads) {
+
+    for (MapperProcess process : processes) {
+
+      process.destroy();
+
+      try {
+        process.closeEntriesWriter();
+      } catch (IOException | InterruptedException e) {
+        // The writers have been stopped by the error
+      }
+    }
+
+    for (OutputThread thread : threads) {
+
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Write the reads to the mapper processes. The name of each read is prefixed
+   * by the index of its chunk.
+   * @param readsFile1 first FASTQ file
+   * @param readsFile2 second FASTQ file, null in single-end mode
+   * @param processes the mapper processes
+   * @throws IOException if an error occurs while reading or writing the reads
+   */
+  private void writeReads(final DataFile readsFile1, final DataFile readsFile2,
+      final List<MapperProcess> processes) throws IOException {
+
+    try (FastqReader reader1 = new FastqReader(readsFile1.open());
+        FastqReader reader2 =
+            readsFile2 == null ? null : new FastqReader(readsFile2.open())) {
+
+      int chunk = 0;
+      int readsInChunk = 0;
+      String prefix = chunkPrefix(chunk);
+
+      for (ReadSequence read1 : reader1) {
+
+        final MapperProcess process = processes.get(chunk % processes.size());
+
+        if (reader2 == null) {
+          process.writeEntry(prefix + read1.getName(), read1.getSequence(),
+              read1.getQuality());
+        } else {
+
+          if (!reader2.hasNext()) {
+            throw new IOException("The second FASTQ file contains less reads "
+                + "than the first one");
+          }
+
+          final ReadSequence read2 = reader2.next();
+          process.writeEntry(prefix + read1.getName(), read1.getSequence(),
+              read1.getQuality(), prefix + read2.getName(),
+              read2.getSequence(), read2.getQuality());
+        }
+
+        // Change of chunk, and of process, at the end of the chunk
+        if (++readsInChunk == this.chunkSize) {
+          readsInChunk = 0;
+          prefix = chunkPrefix(++chunk);
+        }
+      }
+
+      if (reader2 != null && reader2.hasNext()) {
+        throw new IOException(
+            "The first FASTQ file contains less reads than the second one");
+      }
+
+      reader1.throwException();
+      if (reader2 != null) {
+        reader2.throwException();
+      }
+
+    } catch (BadBioEntryException e) {
+      throw new IOException("Invalid FASTQ entry: " + e.getMessage(), e);
+    }
+
+    // Close the inputs of the mappers
+    for (MapperProcess process : processes) {
+      try {
+        process.closeEntriesWriter();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * Merge the SAM outputs of the processes. The header is taken from the first
+   * output that contains one, then the alignments of the read with the lowest
+   * chunk index among the current reads of the outputs are copied until all
+   * the outputs have been read. Each output is read only once, so a read
+   * missing or out of order in an output cannot shift the other reads.
+   * @param samFiles the SAM outputs of the processes
+   * @param out output stream
+   * @return the number of alignments written
+   * @throws IOException if an error occurs while merging the files
+   */
+  static long merge(final List<File> samFiles, final OutputStream out)
+      throws IOException {
+
+    final List<SAMReadGroupReader> readers = new ArrayList<>();
+    long count = 0;
+    boolean header = false;
+
+    try (OutputStream bos = new BufferedOutputStream(out,
+        SAMOutputPump.DEFAULT_BUFFER_SIZE)) {
+
+      for (File f : samFiles) {
+
+        final SAMReadGroupReader reader = new SAMReadGroupReader(f);
+        readers.add(reader);
+
+        // Only keep the first header found
+        header |= reader.readHeader(header ? null : bos) > 0;
+      }
+
+      while (true) {
+
+        // Get the output with the lowest chunk index
+        SAMReadGroupReader next = null;
+        for (SAMReadGroupReader reader : readers) {
+
+          if (!reader.isEnded()
+              && (next == null || reader.getChunk() < next.getChunk())) {
+            next = reader;
+          }
+        }
+
+        if (next == null) {
+          break;
+        }
+
+        count += next.copyReadGroup(bos);
+      }
+
+    } finally {
+
+      for (SAMReadGroupReader reader : readers) {
+        reader.close();
+      }
+    }
+
+    return count;
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Get the prefix to add to the names of the reads of a chunk.
+   * @param chunk index of the chunk
+   * @return the prefix of the read names
+   */
+  static String chunkPrefix(final int chunk) {
+
+    return Integer.toString(chunk) + CHUNK_SEPARATOR;
+  }
+
+  /**
+   * Get the file to use by a process for an output file of the mapper.
+   * @param file output file of the mapper
+   * @param processIndex index of the process
+   * @return a File object
+   */
+  private static File processFile(final File file, final int processIndex) {
+
+    return new File(file.getParentFile(),
+        "process" + processIndex + "-" + file.getName());
+  }
+
+  /**
+   * Remove a temporary file.
+   * @param f file to remove
+   */
+  private static void removeFile(final File f) {
+
+    if (f.exists() && !f.delete()) {
+      getLogger().warning("Cannot remove temporary file: " + f);
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param mapping the mapping to use to launch the processes
+   * @param processCount the number of mapper processes
+   * @param chunkSize the number of reads in a chunk
+   * @param temporaryDirectory temporary directory
+   */
+  ChunkedMapping(final EntryMapping mapping, final int processCount,
+      final int chunkSize, final File temporaryDirectory) {
+
+    requireNonNull(mapping, "mapping argument cannot be null");
+    requireNonNull(temporaryDirectory,
+        "temporaryDirectory argument cannot be null");
+
+    if (processCount < 1) {
+      throw new IllegalArgumentException(
+          "processCount must be greater than 0: " + processCount);
+    }
+
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException(
+          "chunkSize must be greater than 0: " + chunkSize);
+    }
+
+    this.mapping = mapping;
+    this.processCount = processCount;
+    this.chunkSize = chunkSize;
+    this.temporaryDirectory = temporaryDirectory;
+  }
+
+}
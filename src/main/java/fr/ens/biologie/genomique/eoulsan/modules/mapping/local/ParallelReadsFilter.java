@@ -0,0 +1,482 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_RAW_READS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_READS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.READS_REJECTED_BY_FILTERS_COUNTER;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Joiner;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilter;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
+
+/**
+ * This class implements a multi-threaded reads filter. A reader thread parses
+ * batches of reads, a pool of worker threads filter the batches with their own
+ * MultiReadFilter instance and the calling thread writes the accepted reads in
+ * the order of the input file(s). In paired-end mode, the two reads of a pair
+ * are always in the same batch.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class ParallelReadsFilter {
+
+  /** Number of reads in a batch. */
+  private static final int BATCH_SIZE = 4096;
+
+  private final int threads;
+  private final Reporter reporter;
+  private final String counterGroup;
+
+  private final BlockingQueue<MultiReadFilter> filters;
+  private final List<LocalReporter> filterReporters = new ArrayList<>();
+
+  /**
+   * This interface define a factory for the read filters used by the worker
+   * threads.
+   */
+  public interface ReadFilterFactory {
+
+    /**
+     * Create a new read filter.
+     * @param incrementer incrementer to use by the new filter
+     * @return a new MultiReadFilter object
+     * @throws EoulsanException if an error occurs while creating the filter
+     */
+    MultiReadFilter newReadFilter(ReporterIncrementer incrementer)
+        throws EoulsanException;
+  }
+
+  /**
+   * This class define a batch of reads.
+   */
+  private static final class Batch {
+
+    private final ReadSequence[] reads1 = new ReadSequence[BATCH_SIZE];
+    private final ReadSequence[] reads2;
+    private final boolean[] accepted = new boolean[BATCH_SIZE];
+    private int size;
+
+    private Batch(final boolean pairedEnd) {
+      this.reads2 = pairedEnd ? new ReadSequence[BATCH_SIZE] : null;
+    }
+  }
+
+  /**
+   * This class define the thread that read the input files.
+   */
+  private final class ReaderThread extends Thread {
+
+    private final FastqReader reader1;
+    private final FastqReader reader2;
+    private final DataFile inFile1;
+    private final DataFile inFile2;
+    private final FastqFormat fastqFormat;
+    private final ExecutorService executor;
+    private final BlockingQueue<Future<Batch>> queue;
+    private Exception exception;
+
+    @Override
+    public void run() {
+
+      // Last element of the queue, completed exceptionally on unexpected error
+      final CompletableFuture<Batch> end = new CompletableFuture<>();
+
+      try {
+
+        Batch batch;
+        do {
+          batch = readBatch();
+
+          if (batch.size > 0) {
+            final Batch b = batch;
+            this.queue.put(this.executor.submit(() -> filterBatch(b)));
+          }
+
+        } while (batch.size == BATCH_SIZE);
+
+        end.complete(null);
+
+      } catch (InterruptedException e) {
+        // The writer has stopped
+      } catch (IOException | BadBioEntryException e) {
+        this.exception = e;
+        end.complete(null);
+      } catch (RuntimeException | Error e) {
+        end.completeExceptionally(e);
+      } finally {
+
+        // Inform the writer that there is no more batch
+        if (end.isDone()) {
+          try {
+            this.queue.put(end);
+          } catch (InterruptedException e) {
+            // The writer has stopped
+          }
+        }
+      }
+    }
+
+    /**
+     * Read a batch of reads.
+     * @return a batch of reads
+     * @throws IOException if an error occurs while reading the files
+     * @throws BadBioEntryException if an invalid entry is found
+     */
+    private Batch readBatch() throws IOException, BadBioEntryException {
+
+      final boolean pairedEnd = this.reader2 != null;
+      final Batch batch = new Batch(pairedEnd);
+
+      while (batch.size < BATCH_SIZE) {
+
+        if (!this.reader1.hasNext()) {
+
+          this.reader1.throwException();
+
+          if (pairedEnd) {
+            this.reader2.throwException();
+
+            if (this.reader2.hasNext()) {
+              throw new IOException("Unexcepted end of the first read file. "
+                  + this.inFile1.getName() + " and " + this.inFile2.getName()
+                  + " must have the same number of entries/lines.");
+            }
+          }
+          break;
+        }
+
+        final ReadSequence read1 = this.reader1.next();
+        read1.setFastqFormat(this.fastqFormat);
+        batch.reads1[batch.size] = read1;
+
+        if (pairedEnd) {
+
+          // Test if the second read exists
+          if (!this.reader2.hasNext()) {
+            this.reader2.throwException();
+            throw new IOException("Unexcepted end of the second read file. "
+                + this.inFile1.getName() + " and " + this.inFile2.getName()
+                + " must have the same number of entries/lines.");
+          }
+
+          final ReadSequence read2 = this.reader2.next();
+          read2.setFastqFormat(this.fastqFormat);
+          batch.reads2[batch.size] = read2;
+        }
+
+        batch.size++;
+      }
+
+      return batch;
+    }
+
+    //
+    // Constructor
+    //
+
+    private ReaderThread(final FastqReader reader1, final FastqReader reader2,
+        final DataFile inFile1, final DataFile inFile2,
+        final FastqFormat fastqFormat, final ExecutorService executor,
+        final BlockingQueue<Future<Batch>> queue) {
+
+      super("ParallelReadsFilter reader");
+      this.reader1 = reader1;
+      this.reader2 = reader2;
+      this.inFile1 = inFile1;
+      this.inFile2 = inFile2;
+      this.fastqFormat = fastqFormat;
+      this.executor = executor;
+      this.queue = queue;
+    }
+  }
+
+  //
+  // Filtering methods
+  //
+
+  /**
+   * Filter a batch of reads.
+   * @param batch the batch to filter
+   * @return the filtered batch
+   * @throws InterruptedException if the thread has been interrupted while
+   *           waiting a filter
+   */
+  private Batch filterBatch(final Batch batch) throws InterruptedException {
+
+    final MultiReadFilter filter = this.filters.take();
+
+    try {
+
+      final int size = batch.size;
+      final ReadSequence[] reads1 = batch.reads1;
+      final ReadSequence[] reads2 = batch.reads2;
+      final boolean[] accepted = batch.accepted;
+
+      if (reads2 == null) {
+        for (int i = 0; i < size; i++) {
+          accepted[i] = filter.accept(reads1[i]);
+        }
+      } else {
+        for (int i = 0; i < size; i++) {
+          accepted[i] = filter.accept(reads1[i], reads2[i]);
+        }
+      }
+
+    } finally {
+      this.filters.put(filter);
+    }
+
+    return batch;
+  }
+
+  /**
+   * Filter a file in single-end mode.
+   * @param inFile input file
+   * @param outFile output file
+   * @param fastqFormat FastqFormat
+   * @throws IOException if an error occurs while filtering data
+   */
+  public void filter(final DataFile inFile, final DataFile outFile,
+      final FastqFormat fastqFormat) throws IOException {
+
+    getLogger().info("Filter file: "
+        + inFile + " using " + this.threads + " threads, FastqFormat: "
+        + fastqFormat);
+
+    try (FastqReader reader = new FastqReader(inFile.open());
+        FastqWriter writer = new FastqWriter(outFile.create())) {
+
+      filter(reader, null, writer, null, inFile, null, fastqFormat);
+
+    } catch (BadBioEntryException e) {
+
+      throw new IOException("Invalid Fastq format: "
+          + e.getMessage() + " File: " + inFile + " Entry: " + e.getEntry());
+    }
+  }
+
+  /**
+   * Filter files in paired-end mode.
+   * @param inFile1 first input file
+   * @param inFile2 second input file
+   * @param outFile1 first output file
+   * @param outFile2 second output file
+   * @param fastqFormat FastqFormat
+   * @throws IOException if an error occurs while filtering data
+   */
+  public void filter(final DataFile inFile1, final DataFile inFile2,
+      final DataFile outFile1, final DataFile outFile2,
+      final FastqFormat fastqFormat) throws IOException {
+
+    getLogger().info("Filter files: "
+        + inFile1 + ", " + inFile2 + " using " + this.threads
+        + " threads, Fastq format: " + fastqFormat);
+
+    try (FastqReader reader1 = new FastqReader(inFile1.open());
+        FastqReader reader2 = new FastqReader(inFile2.open());
+        FastqWriter writer1 = new FastqWriter(outFile1.create());
+        FastqWriter writer2 = new FastqWriter(outFile2.create())) {
+
+      filter(reader1, reader2, writer1, writer2, inFile1, inFile2,
+          fastqFormat);
+
+    } catch (BadBioEntryException e) {
+
+      throw new IOException("Invalid Fastq format: "
+          + e.getMessage() + " File 1: " + inFile1 + " File2:" + inFile2
+          + " Entry: " + e.getEntry());
+    }
+  }
+
+  /**
+   * Filter reads.
+   * @param reader1 first reader
+   * @param reader2 second reader, null in single-end mode
+   * @param writer1 first writer
+   * @param writer2 second writer, null in single-end mode
+   * @param inFile1 first input file
+   * @param inFile2 second input file, null in single-end mode
+   * @param fastqFormat FastqFormat
+   * @throws IOException if an error occurs while filtering data
+   * @throws BadBioEntryException if an invalid entry is found
+   */
+  private void filter(final FastqReader reader1, final FastqReader reader2,
+      final FastqWriter writer1, final FastqWriter writer2,
+      final DataFile inFile1, final DataFile inFile2,
+      final FastqFormat fastqFormat) throws IOException, BadBioEntryException {
+
+    final ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+    final BlockingQueue<Future<Batch>> queue =
+        new ArrayBlockingQueue<>(this.threads * 2);
+
+    final ReaderThread readerThread = new ReaderThread(reader1, reader2,
+        inFile1, inFile2, fastqFormat, executor, queue);
+    readerThread.start();
+
+    final String group = this.counterGroup;
+    boolean success = false;
+
+    try {
+
+      Batch batch;
+      while ((batch = queue.take().get()) != null) {
+
+        int acceptedCount = 0;
+
+        for (int i = 0; i < batch.size; i++) {
+
+          if (batch.accepted[i]) {
+            writer1.write(batch.reads1[i]);
+            if (writer2 != null) {
+              writer2.write(batch.reads2[i]);
+            }
+            acceptedCount++;
+          }
+        }
+
+        this.reporter.incrCounter(group, INPUT_RAW_READS_COUNTER.counterName(),
+            batch.size);
+        this.reporter.incrCounter(group,
+            OUTPUT_FILTERED_READS_COUNTER.counterName(), acceptedCount);
+        this.reporter.incrCounter(group,
+            READS_REJECTED_BY_FILTERS_COUNTER.counterName(),
+            batch.size - acceptedCount);
+      }
+
+      readerThread.join();
+      success = true;
+
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } finally {
+
+      if (!success) {
+        readerThread.interrupt();
+        executor.shutdownNow();
+      } else {
+        executor.shutdown();
+      }
+    }
+
+    // Throw the exception of the reader thread if exists
+    if (readerThread.exception instanceof BadBioEntryException) {
+      throw (BadBioEntryException) readerThread.exception;
+    }
+    if (readerThread.exception != null) {
+      throw (IOException) readerThread.exception;
+    }
+
+    // Merge the counters of the filters
+    mergeFilterCounters();
+  }
+
+  /**
+   * Merge the counters of the filters of the workers in the reporter.
+   */
+  private void mergeFilterCounters() {
+
+    for (LocalReporter filterReporter : this.filterReporters) {
+      for (String group : filterReporter.getCounterGroups()) {
+        for (String counter : filterReporter.getCounterNames(group)) {
+          this.reporter.incrCounter(group, counter,
+              filterReporter.getCounterValue(group, counter));
+        }
+      }
+      filterReporter.clear();
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param factory factory for the read filters
+   * @param threads number of worker threads
+   * @param reporter reporter to use
+   * @param counterGroup counter group
+   * @throws EoulsanException if an error occurs while creating the filters
+   */
+  public ParallelReadsFilter(final ReadFilterFactory factory, final int threads,
+      final Reporter reporter, final String counterGroup)
+      throws EoulsanException {
+
+    if (factory == null) {
+      throw new NullPointerException("factory argument cannot be null");
+    }
+
+    if (reporter == null) {
+      throw new NullPointerException("reporter argument cannot be null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    this.threads = threads;
+    this.reporter = reporter;
+    this.counterGroup = counterGroup;
+    this.filters = new ArrayBlockingQueue<>(threads);
+
+    // As filters are not thread safe, each worker use its own filter
+    for (int i = 0; i < threads; i++) {
+
+      final LocalReporter filterReporter = new LocalReporter();
+      this.filterReporters.add(filterReporter);
+      this.filters.add(factory.newReadFilter(filterReporter));
+    }
+
+    getLogger().info("Reads filters to apply: "
+        + Joiner.on(", ").join(this.filters.peek().getFilterNames()));
+  }
+
+}
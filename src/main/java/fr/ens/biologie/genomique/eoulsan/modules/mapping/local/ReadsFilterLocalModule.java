@@ -25,6 +25,8 @@
 package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
 
 import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.OWN_PARALLELIZATION;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.STANDARD;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_FASTQ;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_RAW_READS_COUNTER;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_READS_COUNTER;
@@ -44,6 +46,7 @@ import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
 import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
 import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilter;
 import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.ReadFilter;
+import fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
 import fr.ens.biologie.genomique.eoulsan.core.TaskResult;
 import fr.ens.biologie.genomique.eoulsan.core.TaskStatus;
@@ -62,6 +65,14 @@ import fr.ens.biologie.genomique.eoulsan.util.Reporter;
 @LocalOnly
 public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
 
+  @Override
+  public ParallelizationMode getParallelizationMode() {
+
+    // When the module use several threads, the samples are processed one by
+    // one
+    return getLocalThreads() > 1 ? OWN_PARALLELIZATION : STANDARD;
+  }
+
   @Override
   public TaskResult execute(final TaskContext context,
       final TaskStatus status) {
@@ -90,16 +101,29 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
             "Cannot handle more than 2 reads files at the same time.");
       }
 
-      // Get the read filter
-      final MultiReadFilter filter = getReadFilter(reporter, COUNTER_GROUP);
-      getLogger().info("Reads filters to apply: "
-          + Joiner.on(", ").join(filter.getFilterNames()));
+      if (getLocalThreads() > 1) {
+
+        // Each worker thread use its own instance of the filters
+        final ParallelReadsFilter parallelFilter = new ParallelReadsFilter(
+            incrementer -> getReadFilter(incrementer, COUNTER_GROUP),
+            getLocalThreads(), reporter, COUNTER_GROUP);
+
+        parallelFilter(inData, outData, fastqFormat, reporter, status,
+            parallelFilter);
 
-      // Run the filter in single or pair-end mode
-      if (inFileCount == 1) {
-        singleEnd(inData, outData, fastqFormat, reporter, status, filter);
       } else {
-        pairedEnd(inData, outData, fastqFormat, reporter, status, filter);
+
+        // Get the read filter
+        final MultiReadFilter filter = getReadFilter(reporter, COUNTER_GROUP);
+        getLogger().info("Reads filters to apply: "
+            + Joiner.on(", ").join(filter.getFilterNames()));
+
+        // Run the filter in single or pair-end mode
+        if (inFileCount == 1) {
+          singleEnd(inData, outData, fastqFormat, reporter, status, filter);
+        } else {
+          pairedEnd(inData, outData, fastqFormat, reporter, status, filter);
+        }
       }
 
     } catch (FileNotFoundException e) {
@@ -115,6 +139,46 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
     return status.createTaskResult();
   }
 
+  /**
+   * Filter a sample data using several threads.
+   * @param inData input Data
+   * @param outData output Data
+   * @param fastqFormat FASTQ format
+   * @param reporter reporter to use
+   * @param status step status
+   * @param filter parallel reads filter to use
+   * @throws IOException if an error occurs while filtering reads
+   */
+  private static void parallelFilter(final Data inData, final Data outData,
+      final FastqFormat fastqFormat, final Reporter reporter,
+      final TaskStatus status, final ParallelReadsFilter filter)
+      throws IOException {
+
+    final DataFile inFile1 = inData.getDataFile(0);
+    final DataFile outFile1 = outData.getDataFile(0);
+
+    if (inData.getDataFileCount() == 1) {
+
+      filter.filter(inFile1, outFile1, fastqFormat);
+
+      status.setDescription(
+          "Filter reads (" + inData.getName() + ", " + inFile1.getName() + ")");
+    } else {
+
+      final DataFile inFile2 = inData.getDataFile(1);
+
+      filter.filter(inFile1, inFile2, outFile1, outData.getDataFile(1),
+          fastqFormat);
+
+      status.setDescription("Filter reads ("
+          + inData.getName() + ", " + inFile1.getName() + ", "
+          + inFile2.getName() + ")");
+    }
+
+    // Add counters for this sample to log file
+    status.setCounters(reporter, COUNTER_GROUP);
+  }
+
   /**
    * Filter a sample data in single end mode.
    * @param inData input Data
@@ -191,6 +255,10 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
 
     try (FastqReader reader = new FastqReader(inFile.open());
         FastqWriter writer = new FastqWriter(outFile.create())) {
+
+      // Reuse the same ReadSequence object for all the reads
+      reader.setReuseResultObject(true);
+
       for (final ReadSequence read : reader) {
 
         // Set Fastq format
@@ -243,6 +311,11 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
         FastqWriter writer1 = new FastqWriter(outFile1.create());
         FastqWriter writer2 = new FastqWriter(outFile2.create());
         FastqReader reader1 = new FastqReader(inFile1.open())) {
+
+      // Reuse the same ReadSequence objects for all the reads
+      reader1.setReuseResultObject(true);
+      reader2.setReuseResultObject(true);
+
       for (final ReadSequence read1 : reader1) {
 
         // Test if the second read exists
@@ -27,25 +27,33 @@ package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
 import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
 import static fr.ens.biologie.genomique.eoulsan.core.OutputPortsBuilder.DEFAULT_SINGLE_OUTPUT_PORT_NAME;
 import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.OWN_PARALLELIZATION;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_INDEX_BAI;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_LOG;
-import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_FASTQ;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.ens.biologie.genomique.eoulsan.Settings;
 import fr.ens.biologie.genomique.eoulsan.annotations.LocalOnly;
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.io.SAMOutputPump;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.EntryMapping;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.FileMapping;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.Mapper;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndexCache;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperInstance;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.STARMapperProvider;
@@ -61,11 +69,19 @@ import fr.ens.biologie.genomique.eoulsan.data.Data;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
 import fr.ens.biologie.genomique.eoulsan.modules.mapping.AbstractReadsMapperModule;
 import fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters;
-import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
 import fr.ens.biologie.genomique.eoulsan.util.Reporter;
 import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
-import fr.ens.biologie.genomique.eoulsan.util.UnSynchronizedBufferedWriter;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 
 /**
  * This class define a module for reads mapping.
@@ -97,9 +113,14 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
 
     OutputPortsBuilder builder = new OutputPortsBuilder();
 
-    builder.addPort(DEFAULT_SINGLE_OUTPUT_PORT_NAME, MAPPER_RESULTS_SAM);
+    builder.addPort(DEFAULT_SINGLE_OUTPUT_PORT_NAME, getOutputFormat());
     builder.addPort("log", MAPPER_RESULTS_LOG);
 
+    // The index is only created for sorted BAM output
+    if (isBAMIndexOutput()) {
+      builder.addPort("bai", MAPPER_RESULTS_INDEX_BAI);
+    }
+
     return builder.create();
   }
 
@@ -107,6 +128,8 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
   public TaskResult execute(final TaskContext context,
       final TaskStatus status) {
 
+    MapperIndexCache.Lease indexLease = null;
+
     try {
 
       // Create the reporter
@@ -122,11 +145,17 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
       final Data inData = context.getInputData(READS_FASTQ);
 
       // Get output data
-      final Data outData = context.getOutputData(MAPPER_RESULTS_SAM, inData);
+      final Data outData = context.getOutputData(getOutputFormat(), inData);
 
-      // Define final output SAM file
+      // Define final output SAM or BAM file
       final File samFile = outData.getDataFile().toFile();
 
+      // Define output BAM index file
+      final DataFile bamIndexFile = isBAMIndexOutput()
+          ? context.getOutputData(MAPPER_RESULTS_INDEX_BAI, inData)
+              .getDataFile()
+          : null;
+
       // Get error log data
       final Data logData = context.getOutputData(MAPPER_RESULTS_LOG, inData);
 
@@ -145,10 +174,6 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
       // Get FASTQ format
       final FastqFormat fastqFormat = inData.getMetadata().getFastqFormat();
 
-      // Initialize the mapper
-      final FileMapping mapper = initMapper(context, fastqFormat,
-          archiveIndexFile, indexDir, reporter);
-
       if (inData.getDataFileCount() < 1) {
         throw new IOException("No reads file found.");
       }
@@ -158,6 +183,33 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
             "Cannot handle more than 2 reads files at the same time.");
       }
 
+      // Get the uncompressed index from the mapper index cache if enabled
+      indexLease = acquireCachedIndex(context, archiveIndexFile);
+
+      // Create the index of the mapper
+      final MapperIndex mapperIndex =
+          initMapperIndex(context, archiveIndexFile, indexDir, indexLease);
+
+      // Map the reads of the sample with several mapper processes
+      if (getLocalMapperProcesses() > 1) {
+
+        final String logMsg = mapWithSeveralProcesses(context, mapperIndex,
+            fastqFormat, inData, errorFile, logFile, outData.getDataFile(),
+            bamIndexFile, reporter);
+
+        // Set the description of the context
+        status.setDescription(logMsg);
+
+        // Add counters for this sample to log file
+        status.setCounters(reporter, COUNTER_GROUP);
+
+        return status.createTaskResult();
+      }
+
+      // Initialize the mapper
+      final FileMapping mapper =
+          initMapper(mapperIndex, fastqFormat, reporter);
+
       String logMsg = "";
 
       // Single end mode
@@ -179,7 +231,8 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
         status.setCommandLine(process.getCommandLine());
 
         // Parse output of the mapper
-        parseSAMResults(process.getStout(), samFile, reporter);
+        writeResults(context, process.getStout(), outData.getDataFile(),
+            bamIndexFile, reporter);
 
         // Wait the end of the process and do cleanup
         process.waitFor();
@@ -210,7 +263,8 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
             mapper.mapPE(inFile1, inFile2, errorFile, logFile);
 
         // Parse output of the mapper
-        parseSAMResults(process.getStout(), samFile, reporter);
+        writeResults(context, process.getStout(), outData.getDataFile(),
+            bamIndexFile, reporter);
 
         // Wait the end of the process and do cleanup
         process.waitFor();
@@ -237,23 +291,175 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
 
       return status.createTaskResult(e,
           "Error while mapping reads: " + e.getMessage());
+    } finally {
+
+      // Allow the removal of the index from the cache
+      if (indexLease != null) {
+        try {
+          indexLease.close();
+        } catch (IOException e) {
+          getLogger().warning(
+              "Cannot release the cached mapper index: " + e.getMessage());
+        }
+      }
     }
 
     return status.createTaskResult();
   }
 
   /**
-   * Initialize the mapper to use.
+   * Map the reads of a sample with several processes of the mapper. The reads
+   * are split on the fly between the processes that share the same index and
+   * the outputs of the processes are merged.
    * @param context Eoulsan context
+   * @param mapperIndex mapper index
    * @param format FASTQ format
+   * @param inData input reads data
+   * @param errorFile standard error file of the mapper
+   * @param logFile log file of the mapper
+   * @param outFile output file to be written
+   * @param bamIndexFile output BAM index file, can be null
+   * @param reporter reporter
+   * @return a message that describe the mapping
+   * @throws IOException if an error occurs while mapping the reads
+   */
+  private String mapWithSeveralProcesses(final TaskContext context,
+      final MapperIndex mapperIndex, final FastqFormat format,
+      final Data inData, final File errorFile, final File logFile,
+      final DataFile outFile, final DataFile bamIndexFile,
+      final Reporter reporter) throws IOException {
+
+    final int processes = getLocalMapperProcesses();
+
+    // The multiple instances mode of the mappers is not enabled as it only
+    // allows one thread by process
+    final EntryMapping mapping =
+        mapperIndex.newEntryMapping(format, getMapperArguments(),
+            getLocalMapperProcessThreads(), false, reporter, COUNTER_GROUP);
+
+    final ChunkedMapping chunkedMapping = new ChunkedMapping(mapping,
+        processes, ChunkedMapping.DEFAULT_CHUNK_SIZE,
+        context.getLocalTempDirectory());
+
+    final DataFile inFile1 = inData.getDataFile(0);
+    final DataFile inFile2 =
+        inData.getDataFileCount() == 2 ? inData.getDataFile(1) : null;
+
+    final String inFilenames =
+        inFile1.getName() + (inFile2 == null ? "" : "," + inFile2.getName());
+
+    getLogger().info("Map files: "
+        + inFilenames + ", Fastq format: " + format + ", use "
+        + mapping.getName() + " with " + processes + " processes of "
+        + mapping.getThreadNumber() + " threads");
+
+    if (MAPPER_RESULTS_BAM.equals(getOutputFormat())) {
+
+      // The merged output is directly converted in BAM format
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+      try (PipedInputStream in =
+          new PipedInputStream(SAMOutputPump.DEFAULT_BUFFER_SIZE);
+          PipedOutputStream out = new PipedOutputStream(in)) {
+
+        final Future<Void> future = executor.submit(() -> {
+          parseBAMResults(in, outFile, bamIndexFile,
+              context.getLocalTempDirectory(), reporter);
+          return null;
+        });
+
+        IOException mappingException = null;
+
+        try {
+          chunkedMapping.map(inFile1, inFile2, errorFile, logFile, out);
+        } catch (IOException e) {
+          mappingException = e;
+        } finally {
+          out.close();
+        }
+
+        // An error while converting the alignments also stops the mapping,
+        // so this error is thrown first
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof IOException
+              ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+
+        if (mappingException != null) {
+          throw mappingException;
+        }
+
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        executor.shutdown();
+      }
+
+    } else {
+
+      final long entriesParsed;
+
+      try (OutputStream out = new FileOutputStream(outFile.toFile())) {
+        entriesParsed =
+            chunkedMapping.map(inFile1, inFile2, errorFile, logFile, out);
+      }
+
+      reporter.incrCounter(COUNTER_GROUP,
+          MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(),
+          entriesParsed);
+
+      getLogger().info(entriesParsed
+          + " entries parsed in " + getMapperName() + " output files");
+    }
+
+    return "Mapping reads in "
+        + format + " with " + processes + " processes of "
+        + mapping.getName() + " (" + inData.getName() + ", " + inFilenames
+        + ")";
+  }
+
+  /**
+   * Get the uncompressed index of the mapper from the node local mapper index
+   * cache.
+   * @param context Eoulsan context
+   * @param archiveIndexFile genome index for the mapper as a ZIP file
+   * @return a lease on the cached index or null if the cache is not enabled
+   * @throws IOException if an error occurs while uncompressing the index
+   */
+  private MapperIndexCache.Lease acquireCachedIndex(final TaskContext context,
+      final DataFile archiveIndexFile) throws IOException {
+
+    final Settings settings = context.getSettings();
+    final String cacheDirectory = settings.getMapperIndexCacheDirectory();
+
+    if (cacheDirectory == null) {
+      return null;
+    }
+
+    final MapperIndexCache cache = new MapperIndexCache(
+        new File(cacheDirectory),
+        settings.getMapperIndexCacheMaxSize() * 1024 * 1024);
+
+    return cache.acquire(getMapperName(),
+        MapperIndexCache.computeArchiveChecksum(archiveIndexFile),
+        archiveIndexFile);
+  }
+
+  /**
+   * Create the index of the mapper to use.
+   * @param context Eoulsan context
    * @param archiveIndexFile genome index for the mapper as a ZIP file
    * @param indexDir uncompressed directory for the genome index
-   * @param reporter reporter
-   * @throws IOException if an error while initializing the mapper
+   * @param indexLease lease on the index in the mapper index cache, can be
+   *          null
+   * @return a MapperIndex object
+   * @throws IOException if an error while creating the index of the mapper
    */
-  private FileMapping initMapper(final TaskContext context,
-      final FastqFormat format, final DataFile archiveIndexFile,
-      final File indexDir, final Reporter reporter) throws IOException {
+  private MapperIndex initMapperIndex(final TaskContext context,
+      final DataFile archiveIndexFile, final File indexDir,
+      final MapperIndexCache.Lease indexLease) throws IOException {
 
     // Get the mapper object
     final Mapper mapper = getMapper();
@@ -270,10 +476,32 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
         mapper.newMapperInstance(getMapperVersion(), getMapperFlavor(),
             isUseBundledBinaries(), getMapperDockerImage());
 
+    // The cached index is kept at the end of the workflow
+    if (indexLease != null) {
+      return mapperInstance.newMapperIndex(indexLease);
+    }
+
     // Create the MapperIndex object
     final MapperIndex mapperIndex =
         mapperInstance.newMapperIndex(archiveIndexFile.open(), indexDir);
 
+    // Delete the index directory at the end of the workflow
+    context.getWorkflow()
+        .deleteOnExit(new DataFile(mapperIndex.getIndexDirectory()));
+
+    return mapperIndex;
+  }
+
+  /**
+   * Initialize the mapper to use.
+   * @param mapperIndex mapper index
+   * @param format FASTQ format
+   * @param reporter reporter
+   * @throws IOException if an error while initializing the mapper
+   */
+  private FileMapping initMapper(final MapperIndex mapperIndex,
+      final FastqFormat format, final Reporter reporter) throws IOException {
+
     // Get the number of threads to use
     int mapperThreads = getMapperLocalThreads();
     if (mapperThreads > Runtime.getRuntime().availableProcessors()
@@ -284,56 +512,171 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
     final FileMapping mapping = mapperIndex.newFileMapping(format,
         getMapperArguments(), mapperThreads, false, reporter, COUNTER_GROUP);
 
-    // Delete the index directory at the end of the workflow
-    context.getWorkflow()
-        .deleteOnExit(new DataFile(mapperIndex.getIndexDirectory()));
-
     return mapping;
   }
 
   /**
-   * Parse the output the mapper (in SAM format).
+   * Test if the module creates an index for its output.
+   * @return true if the module creates an index for its output
+   */
+  private boolean isBAMIndexOutput() {
+
+    return MAPPER_RESULTS_BAM.equals(getOutputFormat()) && isSortedOutput();
+  }
+
+  /**
+   * Write the output of the mapper in the format of the output of the module.
+   * @param context Eoulsan context
    * @param samFileInputStream SAM input stream
-   * @param samFile output file to be written
+   * @param outFile output file to be written
+   * @param bamIndexFile output BAM index file, can be null
    * @param reporter Eoulsan reporter for the step
-   * @throws IOException if an error occurs while reading the sAM file
+   * @throws IOException if an error occurs while reading or writing the
+   *           alignments
    */
-  private void parseSAMResults(final InputStream samFileInputStream,
-      final File samFile, final Reporter reporter) throws IOException {
+  private void writeResults(final TaskContext context,
+      final InputStream samFileInputStream, final DataFile outFile,
+      final DataFile bamIndexFile, final Reporter reporter) throws IOException {
+
+    if (MAPPER_RESULTS_BAM.equals(getOutputFormat())) {
+      parseBAMResults(samFileInputStream, outFile, bamIndexFile,
+          context.getLocalTempDirectory(), reporter);
+    } else {
+      parseSAMResults(samFileInputStream, outFile.toFile(), reporter);
+    }
+  }
 
-    String line;
+  /**
+   * Parse the output the mapper (in SAM format) and write it in BAM format.
+   * @param samFileInputStream SAM input stream
+   * @param bamDataFile output BAM file to be written
+   * @param bamIndexDataFile output BAM index file, can be null
+   * @param tmpDir temporary directory
+   * @param reporter Eoulsan reporter for the step
+   * @throws IOException if an error occurs while reading the SAM output of the
+   *           mapper or writing the BAM file
+   */
+  private void parseBAMResults(final InputStream samFileInputStream,
+      final DataFile bamDataFile, final DataFile bamIndexDataFile,
+      final File tmpDir, final Reporter reporter) throws IOException {
+
+    final long entriesParsed = writeBAM(samFileInputStream, bamDataFile,
+        bamIndexDataFile, tmpDir, getMapperName(), getCompressionLevel(),
+        getMaxRecordsInRam(), reporter);
+
+    getLogger().info(entriesParsed
+        + " entries parsed in " + getMapperName() + " output file");
+  }
+
+  /**
+   * Write the output the mapper (in SAM format) in BAM format. The SAM output
+   * of the mapper is decoded only once and the BAM file is directly written,
+   * without an intermediate SAM file. If the output is sorted, the records
+   * that do not fit in memory are spilled in the temporary directory.
+   * @param samFileInputStream SAM input stream
+   * @param bamDataFile output BAM file to be written
+   * @param bamIndexDataFile output BAM index file, null if the output must not
+   *          be sorted
+   * @param tmpDir temporary directory
+   * @param mapperName name of the mapper for the error messages
+   * @param compressionLevel compression level of the BAM file
+   * @param maxRecordsInRam maximal number of records to sort in memory
+   * @param reporter Eoulsan reporter for the step
+   * @return the number of alignments written
+   * @throws IOException if an error occurs while reading the SAM output of the
+   *           mapper or writing the BAM file
+   */
+  static long writeBAM(final InputStream samFileInputStream,
+      final DataFile bamDataFile, final DataFile bamIndexDataFile,
+      final File tmpDir, final String mapperName, final int compressionLevel,
+      final int maxRecordsInRam, final Reporter reporter) throws IOException {
+
+    final boolean sorted = bamIndexDataFile != null;
+    final File bamFile = bamDataFile.toFile();
+    long entriesParsed = 0;
 
     // Parse SAM result file
-    final BufferedReader readerResults =
-        FileUtils.createBufferedReader(samFileInputStream);
-    final Writer writer =
-        new UnSynchronizedBufferedWriter(new OutputStreamWriter(
-            new FileOutputStream(samFile), StandardCharsets.ISO_8859_1));
+    try (SamReader samReader =
+        SamReaderFactory.makeDefault()
+            .validationStringency(ValidationStringency.SILENT)
+            .open(SamInputResource.of(samFileInputStream))) {
 
-    int entriesParsed = 0;
+      final SAMFileHeader header = samReader.getFileHeader();
 
-    while ((line = readerResults.readLine()) != null) {
+      // Check the header of the mapper output
+      checkSAMHeader(header, mapperName);
 
-      writer.write(line);
-      writer.write('\n');
+      header.setSortOrder(sorted ? SortOrder.coordinate : SortOrder.unsorted);
 
-      final String trimmedLine = line.trim();
-      if ("".equals(trimmedLine) || trimmedLine.startsWith("@")) {
-        continue;
+      // Open BAM file
+      try (SAMFileWriter samWriter = new SAMFileWriterFactory()
+          .setCreateIndex(sorted).setTempDirectory(tmpDir)
+          .setMaxRecordsInRam(maxRecordsInRam)
+          .makeBAMWriter(header, !sorted, bamFile, compressionLevel)) {
+
+        for (final SAMRecord samRecord : samReader) {
+
+          samWriter.addAlignment(samRecord);
+          entriesParsed++;
+        }
       }
 
-      final int tabPos = trimmedLine.indexOf('\t');
+    } catch (SAMFormatException e) {
+      throw new IOException(
+          "Invalid " + mapperName + " output: " + e.getMessage(), e);
+    }
 
-      if (tabPos != -1) {
+    reporter.incrCounter(COUNTER_GROUP,
+        MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(),
+        entriesParsed);
 
-        entriesParsed++;
-        reporter.incrCounter(COUNTER_GROUP,
-            MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(), 1);
-      }
+    if (sorted) {
+      SAM2BAMLocalModule.renameBAMIndex(bamDataFile, bamIndexDataFile);
+    }
+
+    return entriesParsed;
+  }
+
+  /**
+   * Check the SAM header of the output of the mapper.
+   * @param header the header to check
+   * @param mapperName name of the mapper for the error messages
+   * @throws IOException if the header is invalid
+   */
+  private static void checkSAMHeader(final SAMFileHeader header,
+      final String mapperName) throws IOException {
+
+    if (header == null || header.getSequenceDictionary() == null
+        || header.getSequenceDictionary().isEmpty()) {
+      throw new IOException("Invalid SAM header in "
+          + mapperName + " output: no reference sequence found");
+    }
+  }
+
+  /**
+   * Parse the output the mapper (in SAM format). The output of the mapper is
+   * copied by large chunks and the alignments are counted without decoding
+   * the lines.
+   * @param samFileInputStream SAM input stream
+   * @param samFile output file to be written
+   * @param reporter Eoulsan reporter for the step
+   * @throws IOException if an error occurs while reading the sAM file
+   */
+  private void parseSAMResults(final InputStream samFileInputStream,
+      final File samFile, final Reporter reporter) throws IOException {
+
+    final long entriesParsed;
+
+    // Copy SAM result file
+    try (InputStream in = samFileInputStream;
+        OutputStream out = new FileOutputStream(samFile)) {
+
+      entriesParsed = SAMOutputPump.copy(in, out);
     }
 
-    readerResults.close();
-    writer.close();
+    reporter.incrCounter(COUNTER_GROUP,
+        MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(),
+        entriesParsed);
 
     getLogger().info(entriesParsed
         + " entries parsed in " + getMapperName() + " output file");
@@ -118,6 +118,21 @@ public class SAM2BAMLocalModule extends AbstractSAM2BAMModule {
     samReader.close();
     samWriter.close();
 
+    renameBAMIndex(bamDataFile, bamIndexDataFile);
+  }
+
+  /**
+   * Rename the index created by Picard with a BAM file to the index output
+   * file of the step. Symbolic links with the name of the index created by
+   * Picard and with the ".bai" suffix are created for the tools that search
+   * the index next to the BAM file.
+   * @param bamDataFile the BAM file
+   * @param bamIndexDataFile the output index file
+   * @throws IOException if an error occurs while creating the symbolic links
+   */
+  static void renameBAMIndex(final DataFile bamDataFile,
+      final DataFile bamIndexDataFile) throws IOException {
+
     // Rename index bai file
     final String createdBamIndexFilename =
         bamDataFile.getName().substring(0, bamDataFile.getName().length() - 1)
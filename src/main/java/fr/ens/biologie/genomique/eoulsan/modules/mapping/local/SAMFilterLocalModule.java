@@ -30,9 +30,11 @@ import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_ALIGNMENTS_COUNTER;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_ALIGNMENTS_COUNTER;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import com.google.common.base.Joiner;
@@ -43,20 +45,23 @@ import fr.ens.biologie.genomique.eoulsan.bio.SAMComparator;
 import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilter;
 import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilter;
 import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilterBuffer;
+import fr.ens.biologie.genomique.eoulsan.bio.io.BAMReader;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
 import fr.ens.biologie.genomique.eoulsan.core.TaskResult;
 import fr.ens.biologie.genomique.eoulsan.core.TaskStatus;
 import fr.ens.biologie.genomique.eoulsan.data.Data;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFormat;
 import fr.ens.biologie.genomique.eoulsan.data.DataFormats;
 import fr.ens.biologie.genomique.eoulsan.modules.mapping.AbstractSAMFilterModule;
 import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
 import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMFormatException;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
@@ -85,7 +90,8 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
       getLogger().info("Read alignments filters to apply: "
           + Joiner.on(", ").join(filter.getFilterNames()));
 
-      filterSample(context, reporter, status, filter);
+      filterSample(context, reporter, status, filter, isBAMFormat(),
+          getLocalThreads());
 
     } catch (IOException e) {
       status.createTaskResult(e,
@@ -104,16 +110,21 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
    * @param reporter reporter to use
    * @param status task status
    * @param filter alignments filter to use
+   * @param bamFormat true if the alignments are in BAM format
+   * @param threads number of threads to use to uncompress BAM files
    * @throws IOException if an error occurs while filtering reads
    */
   private static void filterSample(final TaskContext context,
       final Reporter reporter, final TaskStatus status,
-      final ReadAlignmentsFilter filter) throws IOException {
+      final ReadAlignmentsFilter filter, final boolean bamFormat,
+      final int threads) throws IOException {
+
+    final DataFormat format = bamFormat
+        ? DataFormats.MAPPER_RESULTS_BAM : DataFormats.MAPPER_RESULTS_SAM;
 
     // Get input and output data
-    final Data inData = context.getInputData(DataFormats.MAPPER_RESULTS_SAM);
-    final Data outData =
-        context.getOutputData(DataFormats.MAPPER_RESULTS_SAM, inData);
+    final Data inData = context.getInputData(format);
+    final Data outData = context.getOutputData(format, inData);
 
     // Get the source
     final DataFile inFile = inData.getDataFile();
@@ -123,11 +134,12 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
 
     // Filter alignments in single-end mode or in paired-end mode
     filterFile(inFile, outFile, reporter, filter,
-        context.getLocalTempDirectory());
+        context.getLocalTempDirectory(), bamFormat, threads);
 
     // Set the description of the context
-    status.setDescription(
-        "Filter SAM file (" + inData.getName() + ", " + inFile.getName() + ")");
+    status.setDescription("Filter "
+        + (bamFormat ? "BAM" : "SAM") + " file (" + inData.getName() + ", "
+        + inFile.getName() + ")");
 
     // Add counters for this sample to log file
     status.setCounters(reporter, COUNTER_GROUP);
@@ -140,11 +152,15 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
    * @param reporter reporter to use
    * @param filter alignments filter to use
    * @param tmpDir temporary directory
-   * @throws IOException if an error occurs while filtering data
+   * @param bamFormat true if the alignments are in BAM format
+   * @param threads number of threads to use to uncompress BAM files
+   * @throws IOException if an error occurs while filtering data or if the
+   *           alignments are sorted by coordinate
    */
-  private static void filterFile(final DataFile inFile, final DataFile outFile,
+  static void filterFile(final DataFile inFile, final DataFile outFile,
       final Reporter reporter, final ReadAlignmentsFilter filter,
-      final File tmpDir) throws IOException {
+      final File tmpDir, final boolean bamFormat, final int threads)
+      throws IOException {
 
     final List<SAMRecord> records = new ArrayList<>();
     int counterInput = 0;
@@ -156,18 +172,42 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
     final ReadAlignmentsFilterBuffer rafb =
         new ReadAlignmentsFilterBuffer(filter);
 
-    getLogger().info("Filter SAM file: " + inFile);
+    getLogger()
+        .info("Filter " + (bamFormat ? "BAM" : "SAM") + " file: " + inFile);
+
+    // Get reader, the blocks of the BAM files are uncompressed in background
+    // threads
+    final Closeable inputSam;
+    final SAMFileHeader header;
+    final Iterator<SAMRecord> it;
+
+    if (bamFormat) {
+      final BAMReader reader = new BAMReader(inFile.open(), threads);
+      inputSam = reader;
+      header = reader.getFileHeader();
+      it = reader.iterator();
+    } else {
+      final SamReader reader = SamReaderFactory.makeDefault()
+          .open(SamInputResource.of(inFile.open()));
+      inputSam = reader;
+      header = reader.getFileHeader();
+      it = reader.iterator();
+    }
 
-    // Get reader
-    final SamReader inputSam =
-        SamReaderFactory.makeDefault().open(SamInputResource.of(inFile.open()));
+    // The filters need all the alignments of a read to be consecutive, this is
+    // not the case for alignments sorted by coordinate
+    if (header.getSortOrder() == SortOrder.coordinate) {
+      inputSam.close();
+      throw new IOException("Cannot filter alignments sorted by coordinate, "
+          + "the alignments of a read must be consecutive: " + inFile);
+    }
 
     // Get Writer
-    final SAMFileWriter outputSam =
-        new SAMFileWriterFactory().setTempDirectory(tmpDir)
-            .makeSAMWriter(inputSam.getFileHeader(), false, outFile.create());
-
-    final SAMRecordIterator it = inputSam.iterator();
+    final SAMFileWriterFactory factory =
+        new SAMFileWriterFactory().setTempDirectory(tmpDir);
+    final SAMFileWriter outputSam = bamFormat
+        ? factory.makeBAMWriter(header, false, outFile.create())
+        : factory.makeSAMWriter(header, false, outFile.create());
 
     while (it.hasNext()) {
 
@@ -77,6 +77,7 @@ public class FastqMerger implements Merger {
           .info("Merge " + inFile.getName() + " to " + outFile.getName());
 
       final FastqReader reader = new FastqReader(inFile.open());
+      reader.setReuseResultObject(true);
 
       for (final ReadSequence read : reader) {
         writer.write(read);
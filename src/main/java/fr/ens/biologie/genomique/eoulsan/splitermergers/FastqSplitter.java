@@ -78,6 +78,7 @@ public class FastqSplitter implements Splitter {
       final Iterator<DataFile> outFileIterator) throws IOException {
 
     final FastqReader reader = new FastqReader(inFile.open());
+    reader.setReuseResultObject(true);
 
     final int max = this.splitMaxEntries;
     int entryCount = 0;
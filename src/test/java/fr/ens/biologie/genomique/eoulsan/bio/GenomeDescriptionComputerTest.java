@@ -0,0 +1,140 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+public class GenomeDescriptionComputerTest {
+
+  private static final String FASTA =
+      ">chr1 first\nACGTACGTAC\nGTACGTACGT\nNNA\n"
+          + ">chr2\nacgtacgt\nacgtacgt\n>chr3\nTTTTT\n";
+
+  private static final String IRREGULAR_FASTA =
+      ">chr1\nACGTACGTAC\nGT\nACGT\n";
+
+  @Test
+  public void testSequential() throws IOException, BadBioEntryException {
+
+    check(FASTA, 1, true);
+  }
+
+  @Test
+  public void testParallel() throws IOException, BadBioEntryException {
+
+    check(FASTA, 4, true);
+  }
+
+  @Test
+  public void testIrregularLines() throws IOException, BadBioEntryException {
+
+    check(IRREGULAR_FASTA, 1, false);
+    check(IRREGULAR_FASTA, 4, false);
+  }
+
+  @Test(expected = BadBioEntryException.class)
+  public void testInvalidBase() throws IOException, BadBioEntryException {
+
+    final File file = createFile(">chr1\nACGTJ\n");
+    try {
+      new GenomeDescriptionComputer(4).compute(new DataFile(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void check(final String fasta, final int threads,
+      final boolean indexable) throws IOException, BadBioEntryException {
+
+    final File file = createFile(fasta);
+
+    try {
+
+      final GenomeDescriptionComputer.Result result =
+          new GenomeDescriptionComputer(threads).compute(new DataFile(file));
+
+      final GenomeDescription expected =
+          GenomeDescription.createGenomeDescFromFasta(
+              new ByteArrayInputStream(fasta.getBytes(StandardCharsets.UTF_8)),
+              file.getName());
+      final GenomeDescription desc = result.getGenomeDescription();
+
+      assertEquals(expected.getMD5Sum(), desc.getMD5Sum());
+      assertEquals(expected.getSequencesNames(), desc.getSequencesNames());
+      for (String name : expected.getSequencesNames()) {
+        assertEquals(expected.getSequenceLength(name),
+            desc.getSequenceLength(name));
+      }
+
+      assertEquals(FileUtils.computeMD5Sum(new FileInputStream(file)),
+          result.getFileMD5Sum());
+
+      if (indexable) {
+        assertNotNull(result.getIndex());
+        assertEquals(md5("ACGTACGTACGTACGTACGTNNA"),
+            desc.getSequenceMD5Sum("chr1"));
+        assertEquals(md5("ACGTACGTACGTACGT"), desc.getSequenceMD5Sum("chr2"));
+        assertEquals(md5("TTTTT"), desc.getSequenceMD5Sum("chr3"));
+      } else {
+        assertNull(result.getIndex());
+      }
+
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static String md5(final String s) throws IOException {
+
+    return FileUtils.computeMD5Sum(
+        new ByteArrayInputStream(s.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  private static File createFile(final String content) throws IOException {
+
+    final File file = File.createTempFile("genome-", ".fasta");
+    try (OutputStream os = new FileOutputStream(file)) {
+      os.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    return file;
+  }
+
+}
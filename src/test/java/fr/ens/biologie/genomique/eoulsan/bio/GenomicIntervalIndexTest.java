@@ -0,0 +1,146 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Test the GenomicIntervalIndex class.
+ * @since 2.5
+ * @author Laurent Jourdren
+ */
+public class GenomicIntervalIndexTest {
+
+  private static GenomicArray<String> createGenomicArray(final Random random) {
+
+    final GenomicArray<String> ga = new GenomicArray<>();
+    ga.addChromosome("chrEmpty");
+
+    for (int i = 0; i < 200; i++) {
+
+      final String chr = random.nextBoolean() ? "chr1" : "chr2";
+      final char strand = random.nextBoolean() ? '+' : '-';
+      final int start = 1 + random.nextInt(5000);
+      final int end = start + random.nextInt(300);
+
+      ga.addEntry(new GenomicInterval(chr, start, end, strand),
+          "f" + random.nextInt(50));
+    }
+
+    return ga;
+  }
+
+  private static Map<GenomicInterval, Set<String>> query(
+      final GenomicIntervalIndex.Cursor cursor, final String chr,
+      final int start, final int end) {
+
+    if (!cursor.query(chr, start, end)) {
+      return null;
+    }
+
+    final Map<GenomicInterval, Set<String>> result = new HashMap<>();
+
+    while (cursor.next()) {
+
+      final Set<String> values = new HashSet<>();
+      for (int i = 0; i < cursor.getFeatureCount(); i++) {
+        values.add(cursor.getIndex()
+            .getFeatureId(cursor.getFeatureOrdinal(i)));
+      }
+
+      result.put(new GenomicInterval(chr, cursor.getStart(), cursor.getEnd(),
+          cursor.getStrand()), values);
+    }
+
+    return result;
+  }
+
+  @Test
+  public void testSameResultsAsGenomicArray() {
+
+    final Random random = new Random(42);
+    final GenomicArray<String> ga = createGenomicArray(random);
+    final GenomicIntervalIndex index = GenomicIntervalIndex.create(ga);
+    final GenomicIntervalIndex.Cursor cursor = index.newCursor();
+
+    assertEquals(ga.getFeaturesIds(), index.getFeaturesIds());
+    assertEquals(ga.getChromosomesNames(), index.getChromosomesNames());
+
+    for (int i = 0; i < 2000; i++) {
+
+      final String chr = random.nextBoolean() ? "chr1" : "chr2";
+      final int start = random.nextInt(5500);
+      final int end = start + random.nextInt(500);
+
+      assertEquals(ga.getEntries(chr, start, end),
+          query(cursor, chr, start, end));
+    }
+
+    // Chromosome without zones
+    assertEquals(ga.getEntries("chrEmpty", 1, 100),
+        query(cursor, "chrEmpty", 1, 100));
+
+    // Unknown chromosome
+    assertNull(query(cursor, "chrUnknown", 1, 100));
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  public void testFeatureOrdinals() {
+
+    final GenomicArray<String> ga = new GenomicArray<>();
+    ga.addEntry(new GenomicInterval("chr1", 10, 20, '+'), "b");
+    ga.addEntry(new GenomicInterval("chr1", 15, 30, '+'), "a");
+
+    final GenomicIntervalIndex index = GenomicIntervalIndex.create(ga);
+    assertEquals(2, index.getFeatureCount());
+    assertEquals("a", index.getFeatureId(0));
+    assertEquals("b", index.getFeatureId(1));
+
+    final GenomicIntervalIndex.Cursor cursor = index.newCursor();
+    assertTrue(cursor.query("chr1", 16, 16));
+    assertTrue(cursor.next());
+    assertEquals(15, cursor.getStart());
+    assertEquals(20, cursor.getEnd());
+    assertEquals('+', cursor.getStrand());
+    assertEquals(2, cursor.getFeatureCount());
+    assertEquals(0, cursor.getFeatureOrdinal(0));
+    assertEquals(1, cursor.getFeatureOrdinal(1));
+    assertFalse(cursor.next());
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class AlignmentBlocksTest {
+
+  private static GenomicIntervalIndex createIndex() {
+
+    final GenomicArray<String> annot = new GenomicArray<>();
+    annot.addEntry(new GenomicInterval("chr1", 100, 200, '+'), "g1");
+    annot.addEntry(new GenomicInterval("chr2", 100, 200, '-'), "g2");
+
+    return GenomicIntervalIndex.create(annot);
+  }
+
+  private static void testAdd(final SAMFileHeader header) {
+
+    final Random random = new Random(11);
+    final GenomicIntervalIndex index = createIndex();
+    final AlignmentBlocks blocks = new AlignmentBlocks(index);
+    final String[] cigars = {"50M", "10M200N40M", "5S20M3I10M2D15M", "30M1X9="};
+
+    for (int i = 0; i < 200; i++) {
+
+      final SAMRecord record = new SAMRecord(header);
+      record.setReadName("r" + i);
+      record.setReferenceName(random.nextBoolean() ? "chr1" : "chr3");
+      record.setAlignmentStart(1 + random.nextInt(1000));
+      record.setCigarString(cigars[random.nextInt(cigars.length)]);
+      record.setFlags(
+          random.nextBoolean() ? 0 : 1 + (random.nextBoolean() ? 64 : 128));
+      record.setReadNegativeStrandFlag(random.nextBoolean());
+
+      for (StrandUsage stranded : StrandUsage.values()) {
+
+        final List<GenomicInterval> expected =
+            HTSeqUtils.addIntervals(record, stranded);
+
+        blocks.clear();
+        blocks.add(record, stranded);
+
+        assertEquals(expected.size(), blocks.size());
+        for (int j = 0; j < blocks.size(); j++) {
+
+          final GenomicInterval iv = expected.get(j);
+          assertEquals(iv.getChromosome(), blocks.getChromosomeName(j));
+          assertEquals(index.getChromosomeOrdinal(iv.getChromosome()),
+              blocks.getChromosomeOrdinal(j));
+          assertEquals(iv.getStart(), blocks.getStart(j));
+          assertEquals(iv.getEnd(), blocks.getEnd(j));
+          assertEquals(iv.getStrand(), blocks.getStrand(j));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAddWithSequenceDictionary() {
+
+    // The order of the chromosomes in the header is not the order of the
+    // chromosomes in the index
+    final SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+    dictionary.addSequence(new SAMSequenceRecord("chr3", 10000));
+    dictionary.addSequence(new SAMSequenceRecord("chr2", 10000));
+    dictionary.addSequence(new SAMSequenceRecord("chr1", 10000));
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.setSequenceDictionary(dictionary);
+
+    testAdd(header);
+  }
+
+  @Test
+  public void testAddWithoutSequenceDictionary() {
+
+    testAdd(new SAMFileHeader());
+  }
+
+  @Test
+  public void testClear() {
+
+    final AlignmentBlocks blocks = new AlignmentBlocks(createIndex());
+    assertTrue(blocks.isEmpty());
+
+    for (int i = 0; i < 100; i++) {
+      blocks.add("chr2", i * 10, i * 10 + 5, '+');
+    }
+
+    assertEquals(100, blocks.size());
+    assertEquals(1, blocks.getChromosomeOrdinal(99));
+    assertEquals(990, blocks.getStart(99));
+    assertEquals(995, blocks.getEnd(99));
+
+    blocks.clear();
+    assertTrue(blocks.isEmpty());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testInvalidIndex() {
+
+    new AlignmentBlocks(createIndex()).getStart(0);
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+
+public class CompiledAnnotationTest {
+
+  private static GenomicArray<String> createGenomicArray() {
+
+    final GenomicArray<String> ga = new GenomicArray<>();
+
+    ga.addEntry(new GenomicInterval("chr1", 10, 50, '+'), "gene1");
+    ga.addEntry(new GenomicInterval("chr1", 30, 80, '+'), "gene2");
+    ga.addEntry(new GenomicInterval("chr1", 40, 45, '+'), "gene3");
+    ga.addEntry(new GenomicInterval("chr1", 20, 60, '-'), "gene4");
+    ga.addEntry(new GenomicInterval("chr2", 100, 200, '.'), "gene5");
+    ga.addEntry(new GenomicInterval("chr2", 300, 400, '.'), "gene5");
+
+    return ga;
+  }
+
+  @Test
+  public void testReadWrite() throws IOException {
+
+    final GenomicArray<String> ga = createGenomicArray();
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CompiledAnnotation.write(ga, out);
+
+    final GenomicArray<String> loaded = CompiledAnnotation
+        .read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(ga, loaded);
+    assertEquals(ga.getFeaturesIds(), loaded.getFeaturesIds());
+    assertEquals(ga.getEntries("chr1", 35, 42),
+        loaded.getEntries("chr1", 35, 42));
+
+    // Test with a memory mapped file
+    final File file = File.createTempFile("compiled-annotation-", ".annidx");
+    try {
+      try (OutputStream os = new FileOutputStream(file)) {
+        os.write(out.toByteArray());
+      }
+
+      assertEquals(ga, CompiledAnnotation.read(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testInvalidData() {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      CompiledAnnotation.write(createGenomicArray(), out);
+    } catch (IOException e) {
+      fail();
+    }
+
+    final byte[] data = out.toByteArray();
+
+    // Invalid magic number
+    final byte[] badMagic = data.clone();
+    badMagic[0] = 0;
+    assertInvalid(badMagic);
+
+    // Truncated data
+    assertInvalid(Arrays.copyOf(data, data.length - 3));
+  }
+
+  private static void assertInvalid(final byte[] data) {
+
+    try {
+      CompiledAnnotation.read(new ByteArrayInputStream(data));
+      fail();
+    } catch (IOException e) {
+      // Expected exception
+    }
+  }
+
+}
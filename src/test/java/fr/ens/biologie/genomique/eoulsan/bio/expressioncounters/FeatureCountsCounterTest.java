@@ -0,0 +1,222 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter.ALLOW_MULTI_OVERLAP_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter.COUNT_MULTI_MAPPING_READS_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter.FRACTION_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter.LARGEST_OVERLAP_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter.MIN_OVERLAP_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter.READ_EXTENSION_3_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter.STRANDED_PARAMETER_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+public class FeatureCountsCounterTest {
+
+  private static final String COUNTER_GROUP = "expression";
+
+  private final SAMFileHeader header = new SAMFileHeader();
+
+  private static GFFEntry exon(final int start, final int end,
+      final char strand, final String geneId) {
+
+    final GFFEntry e = new GFFEntry();
+    e.setSeqId("chr1");
+    e.setType("exon");
+    e.setStart(start);
+    e.setEnd(end);
+    e.setStrand(strand);
+    e.setAttributeValue("gene_id", geneId);
+
+    return e;
+  }
+
+  private static FeatureCountsCounter newCounter(final String... parameters)
+      throws EoulsanException {
+
+    final FeatureCountsCounter counter = new FeatureCountsCounter();
+    for (int i = 0; i < parameters.length; i += 2) {
+      counter.setParameter(parameters[i], parameters[i + 1]);
+    }
+
+    final GenomeDescription desc = new GenomeDescription();
+    desc.addSequence("chr1", 10000);
+
+    // g1 has two exons, the second exon of g1 overlaps the exon of g2
+    counter.init(desc, Arrays.asList(exon(100, 199, '+', "g1"),
+        exon(300, 399, '+', "g1"), exon(350, 449, '-', "g2")));
+
+    return counter;
+  }
+
+  private SAMRecord newRecord(final int start, final String cigar,
+      final int nh) {
+
+    final SAMRecord record = new SAMRecord(this.header);
+    record.setReadName("r" + start);
+    record.setReferenceName("chr1");
+    record.setAlignmentStart(start);
+    record.setCigarString(cigar);
+    record.setMappingQuality(60);
+    if (nh > 1) {
+      record.setAttribute("NH", nh);
+    }
+
+    return record;
+  }
+
+  private static Map<String, Integer> count(
+      final FeatureCountsCounter counter, final SAMRecord... records)
+      throws EoulsanException {
+
+    return counter.count(Arrays.asList(records), new LocalReporter(),
+        COUNTER_GROUP);
+  }
+
+  @Test
+  public void testMetaFeatures() throws EoulsanException {
+
+    // A spliced read that overlaps the two exons of g1 is counted once
+    final Map<String, Integer> counts = count(newCounter(),
+        newRecord(180, "20M100N20M", 1), newRecord(150, "50M", 1));
+
+    assertEquals(1, counts.size());
+    assertEquals(2, (int) counts.get("g1"));
+  }
+
+  @Test
+  public void testMultiOverlap() throws EoulsanException {
+
+    // 50 bases overlap g1 and 20 bases overlap g2
+    final SAMRecord record = newRecord(320, "50M", 1);
+
+    assertEquals(0, count(newCounter(), record).size());
+
+    Map<String, Integer> counts =
+        count(newCounter(LARGEST_OVERLAP_PARAMETER_NAME, "true"), record);
+    assertEquals(1, (int) counts.get("g1"));
+    assertNull(counts.get("g2"));
+
+    counts = count(newCounter(MIN_OVERLAP_PARAMETER_NAME, "30"), record);
+    assertEquals(1, (int) counts.get("g1"));
+    assertNull(counts.get("g2"));
+
+    counts = count(newCounter(ALLOW_MULTI_OVERLAP_PARAMETER_NAME, "true"),
+        record);
+    assertEquals(1, (int) counts.get("g1"));
+    assertEquals(1, (int) counts.get("g2"));
+
+    // Each read count for 0.5 for each gene
+    counts = count(newCounter(ALLOW_MULTI_OVERLAP_PARAMETER_NAME, "true",
+        FRACTION_PARAMETER_NAME, "true"), record, newRecord(321, "50M", 1));
+    assertEquals(1, (int) counts.get("g1"));
+    assertEquals(1, (int) counts.get("g2"));
+
+    // The features are on different strands
+    counts = count(newCounter(STRANDED_PARAMETER_NAME, "yes"), record);
+    assertEquals(1, (int) counts.get("g1"));
+    assertNull(counts.get("g2"));
+  }
+
+  @Test
+  public void testMultiMapping() throws EoulsanException {
+
+    final SAMRecord[] records = new SAMRecord[4];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = newRecord(110 + i, "50M", 4);
+    }
+
+    assertEquals(0, count(newCounter(), records).size());
+
+    assertEquals(4, (int) count(
+        newCounter(COUNT_MULTI_MAPPING_READS_PARAMETER_NAME, "true"), records)
+            .get("g1"));
+
+    assertEquals(1,
+        (int) count(newCounter(COUNT_MULTI_MAPPING_READS_PARAMETER_NAME,
+            "true", FRACTION_PARAMETER_NAME, "true"), records).get("g1"));
+  }
+
+  @Test
+  public void testReadExtension() throws EoulsanException {
+
+    // The read ends 10 bases before g1
+    final SAMRecord record = newRecord(60, "30M", 1);
+
+    assertEquals(0, count(newCounter(), record).size());
+    assertEquals(1, (int) count(
+        newCounter(READ_EXTENSION_3_PARAMETER_NAME, "20"), record).get("g1"));
+
+    // The 3' end of a read on the reverse strand is its start
+    record.setReadNegativeStrandFlag(true);
+    assertEquals(0, count(
+        newCounter(READ_EXTENSION_3_PARAMETER_NAME, "20"), record).size());
+  }
+
+  @Test
+  public void testThreads() throws EoulsanException {
+
+    final Random random = new Random(5);
+    final List<SAMRecord> records = new ArrayList<>();
+
+    for (int i = 0; i < 20000; i++) {
+      final SAMRecord record = newRecord(1 + random.nextInt(500),
+          random.nextBoolean() ? "50M" : "20M80N30M", 1 + random.nextInt(3));
+      record.setReadNegativeStrandFlag(random.nextBoolean());
+      records.add(record);
+    }
+
+    final FeatureCountsCounter counter =
+        newCounter(COUNT_MULTI_MAPPING_READS_PARAMETER_NAME, "true",
+            ALLOW_MULTI_OVERLAP_PARAMETER_NAME, "true",
+            FRACTION_PARAMETER_NAME, "true");
+
+    final Map<String, Integer> expected =
+        counter.count(records, new LocalReporter(), COUNTER_GROUP);
+
+    for (int threads = 2; threads <= 4; threads++) {
+      assertEquals(expected,
+          counter.count(records, new LocalReporter(), COUNTER_GROUP, threads));
+    }
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+
+public class FeatureOrdinalSetTest {
+
+  @Test
+  public void testAddAndClear() {
+
+    final FeatureOrdinalSet set = new FeatureOrdinalSet(130);
+    assertTrue(set.isEmpty());
+
+    set.add(129);
+    set.add(3);
+    set.add(129);
+    set.add(64);
+
+    assertEquals(3, set.size());
+    assertTrue(set.contains(3));
+    assertTrue(set.contains(64));
+    assertTrue(set.contains(129));
+    assertFalse(set.contains(65));
+
+    set.sort();
+    assertEquals(3, set.get(0));
+    assertEquals(64, set.get(1));
+    assertEquals(129, set.get(2));
+
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(3));
+    assertFalse(set.contains(129));
+  }
+
+  @Test
+  public void testRetainAll() {
+
+    final GenomicArray<String> ga = new GenomicArray<>();
+    ga.addEntry(new GenomicInterval("chr1", 1, 10, '+'), "a");
+    ga.addEntry(new GenomicInterval("chr1", 5, 20, '+'), "b");
+    ga.addEntry(new GenomicInterval("chr1", 1, 30, '+'), "c");
+
+    final GenomicIntervalIndex index = GenomicIntervalIndex.create(ga);
+    final GenomicIntervalIndex.Cursor cursor = index.newCursor();
+    final FeatureOrdinalSet set =
+        new FeatureOrdinalSet(index.getFeatureCount());
+
+    // Zone [1,4] contains a and c
+    assertTrue(cursor.query("chr1", 2, 2));
+    assertTrue(cursor.next());
+    set.addAll(cursor);
+    assertEquals(2, set.size());
+
+    // Zone [11,20] contains b and c
+    assertTrue(cursor.query("chr1", 15, 15));
+    assertTrue(cursor.next());
+    set.retainAll(cursor);
+
+    assertEquals(1, set.size());
+    assertEquals("c", index.getFeatureId(set.get(0)));
+    assertFalse(set.contains(0));
+  }
+
+}
@@ -305,6 +305,51 @@ public class HTSeqCountTest {
         "/yeast_RNASeq_excerpt_withNH_counts_ignore_secondary.tsv");
   }
 
+  @Test
+  public void testCountWithSeveralThreads()
+      throws EoulsanException, IOException, BadBioEntryException {
+
+    for (OverlapMode mode : OverlapMode.values()) {
+
+      HTSeqCounter counter = new HTSeqCounter();
+      counter.setParameter(OVERLAP_MODE_PARAMETER_NAME, mode.getName());
+      counter.setParameter(GENOMIC_TYPE_PARAMETER_NAME, "exon");
+      counter.setParameter(ATTRIBUTE_ID_PARAMETER_NAME, "gene_id");
+      counter.setParameter(STRANDED_PARAMETER_NAME, YES.getName());
+
+      try (GTFReader reader =
+          new GTFReader(this.getClass().getResourceAsStream(GTF_RESSOURCE))) {
+        counter.init(this.genomeDescription, reader);
+      }
+
+      // Count using one thread
+      LocalReporter expectedReporter = new LocalReporter();
+      Map<String, Integer> expectedCounts;
+      try (
+          InputStream in = this.getClass().getResourceAsStream(SAM_RESSOURCE)) {
+        expectedCounts = counter.count(in, expectedReporter, COUNTER_GROUP);
+      }
+
+      // Count using several threads
+      LocalReporter reporter = new LocalReporter();
+      Map<String, Integer> counts;
+      try (
+          InputStream in = this.getClass().getResourceAsStream(SAM_RESSOURCE);
+          SamReader samReader = SamReaderFactory.makeDefault()
+              .open(SamInputResource.of(in))) {
+        counts = counter.count(samReader, reporter, COUNTER_GROUP, 4);
+      }
+
+      assertEquals(expectedCounts, counts);
+      assertEquals(expectedReporter.getCounterNames(COUNTER_GROUP),
+          reporter.getCounterNames(COUNTER_GROUP));
+      for (String name : expectedReporter.getCounterNames(COUNTER_GROUP)) {
+        assertEquals(expectedReporter.getCounterValue(COUNTER_GROUP, name),
+            reporter.getCounterValue(COUNTER_GROUP, name));
+      }
+    }
+  }
+
   @Test
   public void testCountSamOutput()
       throws EoulsanException, IOException, BadBioEntryException {
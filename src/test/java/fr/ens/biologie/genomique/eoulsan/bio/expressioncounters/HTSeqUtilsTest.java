@@ -24,12 +24,14 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Before;
@@ -38,6 +40,7 @@ import org.junit.Test;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
 
 public class HTSeqUtilsTest {
 
@@ -168,4 +171,104 @@ public class HTSeqUtilsTest {
     assertFalse(results.contains("b"));
   }
 
+  @Test
+  public void testFeaturesOverlappedWithIndex() throws EoulsanException {
+
+    final Random random = new Random(7);
+
+    // annotation
+    final GenomicArray<String> annot = new GenomicArray<>();
+    for (int i = 0; i < 100; i++) {
+      final int start = 1 + random.nextInt(2000);
+      annot.addEntry(new GenomicInterval("chr1", start,
+          start + random.nextInt(200), random.nextBoolean() ? '+' : '-'),
+          "g" + random.nextInt(30));
+    }
+
+    final GenomicIntervalIndex.Cursor cursor =
+        GenomicIntervalIndex.create(annot).newCursor();
+    final List<GenomicInterval> ivSeq = new ArrayList<>();
+
+    for (int i = 0; i < 500; i++) {
+
+      // intervals of a spliced SAM alignment
+      ivSeq.clear();
+      final char strand = random.nextBoolean() ? '+' : '-';
+      int pos = 1 + random.nextInt(2300);
+      for (int j = random.nextInt(3); j >= 0; j--) {
+        final int len = 1 + random.nextInt(60);
+        ivSeq.add(new GenomicInterval("chr1", pos, pos + len - 1, strand));
+        pos += len + random.nextInt(100);
+      }
+
+      for (OverlapMode mode : OverlapMode.values()) {
+        for (StrandUsage stranded : StrandUsage.values()) {
+          assertEquals(
+              HTSeqUtils.featuresOverlapped(ivSeq, annot, mode, stranded),
+              HTSeqUtils.featuresOverlapped(ivSeq, cursor, mode, stranded));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFeaturesOverlappedWithCache() throws EoulsanException {
+
+    final Random random = new Random(11);
+
+    // annotation
+    final GenomicArray<String> annot = new GenomicArray<>();
+    for (int i = 0; i < 100; i++) {
+      final int start = 1 + random.nextInt(2000);
+      annot.addEntry(new GenomicInterval("chr1", start,
+          start + random.nextInt(200), random.nextBoolean() ? '+' : '-'),
+          "g" + random.nextInt(30));
+    }
+
+    final GenomicIntervalIndex index = GenomicIntervalIndex.create(annot);
+    final GenomicIntervalIndex.Cursor cursor = index.newCursor();
+    final AlignmentBlocks blocks = new AlignmentBlocks(index);
+    final FeatureOrdinalSet expected =
+        new FeatureOrdinalSet(index.getFeatureCount());
+    final FeatureOrdinalSet result =
+        new FeatureOrdinalSet(index.getFeatureCount());
+
+    // A small cache to test the replacement of the entries
+    final OverlapCache cache = new OverlapCache(index, 8);
+    assertEquals(8, cache.getCapacity());
+
+    for (int i = 0; i < 2000; i++) {
+
+      // blocks of a spliced alignment, the starts are often the same
+      blocks.clear();
+      final char strand = random.nextBoolean() ? '+' : '-';
+      int pos = 1 + 50 * random.nextInt(40);
+      for (int j = random.nextInt(3); j >= 0; j--) {
+        final int len = 10 + 10 * random.nextInt(5);
+        blocks.add("chr1", pos, pos + len - 1, strand);
+        pos += len + 50 * random.nextInt(3);
+      }
+
+      for (OverlapMode mode : OverlapMode.values()) {
+        for (StrandUsage stranded : StrandUsage.values()) {
+
+          HTSeqUtils.featuresOverlapped(blocks, cursor, mode, stranded,
+              expected);
+          HTSeqUtils.featuresOverlapped(blocks, cursor, mode, stranded,
+              result, cache);
+
+          expected.sort();
+          result.sort();
+          assertEquals(expected.size(), result.size());
+          for (int j = 0; j < expected.size(); j++) {
+            assertEquals(expected.get(j), result.get(j));
+          }
+        }
+      }
+    }
+
+    assertTrue(cache.getHits() > 0);
+    assertTrue(cache.getMisses() > 0);
+  }
+
 }
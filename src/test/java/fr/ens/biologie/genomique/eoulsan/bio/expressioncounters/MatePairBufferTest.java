@@ -0,0 +1,179 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class MatePairBufferTest {
+
+  private static SAMRecord createRecord(final SAMFileHeader header,
+      final String name, final boolean first, final int start,
+      final int mateStart) {
+
+    final SAMRecord result = new SAMRecord(header);
+    result.setReadName(name);
+    result.setFlags(first ? 1 + 64 : 1 + 128);
+    result.setReferenceName("chr1");
+    result.setAlignmentStart(start);
+    result.setMappingQuality(60);
+    result.setCigarString("10M");
+    result.setMateReferenceName("chr1");
+    result.setMateAlignmentStart(mateStart);
+    result.setReadString("ACGTACGTAC");
+    result.setBaseQualityString("IIIIIIIIII");
+
+    return result;
+  }
+
+  private void testPairing(final int maxRecordsInMemory)
+      throws EoulsanException, IOException {
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.setSortOrder(SortOrder.coordinate);
+
+    // Create pairs with mates far from each other, the last read has no mate
+    final List<SAMRecord> records = new ArrayList<>();
+    final int pairCount = 20;
+    for (int i = 0; i < pairCount; i++) {
+      records.add(
+          createRecord(header, "read" + i, true, 1 + i * 10, 1000 + i * 10));
+    }
+    for (int i = 0; i < pairCount; i++) {
+      records.add(
+          createRecord(header, "read" + i, false, 1000 + i * 10, 1 + i * 10));
+    }
+    records.add(createRecord(header, "alone", true, 5000, 6000));
+
+    final Set<String> pairs = new HashSet<>();
+    final List<SAMRecord> missingMates = new ArrayList<>();
+
+    try (MatePairBuffer buffer =
+        new MatePairBuffer(maxRecordsInMemory, null)) {
+
+      final MatePairBuffer.PairHandler handler = (first, second) -> {
+
+        if (first == null || second == null) {
+          missingMates.add(first == null ? second : first);
+          return;
+        }
+
+        assertEquals(first.getReadName(), second.getReadName());
+        assertTrue(first.getFirstOfPairFlag());
+        assertTrue(second.getSecondOfPairFlag());
+        assertEquals(first.getMateAlignmentStart(),
+            second.getAlignmentStart());
+        pairs.add(first.getReadName());
+      };
+
+      for (SAMRecord r : records) {
+        buffer.add(r, handler);
+      }
+      buffer.finish(handler);
+    }
+
+    assertEquals(pairCount, pairs.size());
+    assertEquals(1, missingMates.size());
+    assertEquals("alone", missingMates.get(0).getReadName());
+    assertNotNull(missingMates.get(0).getHeader());
+  }
+
+  @Test
+  public void testPairingInMemory() throws EoulsanException, IOException {
+
+    testPairing(1000);
+  }
+
+  @Test
+  public void testPairingWithTemporaryFiles()
+      throws EoulsanException, IOException {
+
+    testPairing(3);
+  }
+
+  @Test
+  public void testSpillInvalidRecords() throws EoulsanException, IOException {
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.addSequence(new SAMSequenceRecord("chr1", 10000));
+    header.setSortOrder(SortOrder.coordinate);
+
+    // The unmapped mates have a mapping quality, the alignments are rejected
+    // by a strict validation
+    final List<SAMRecord> records = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      records.add(
+          createRecord(header, "read" + i, true, 1 + i * 10, 1 + i * 10));
+    }
+    for (int i = 0; i < 5; i++) {
+      final SAMRecord r =
+          createRecord(header, "read" + i, false, 1 + i * 10, 1 + i * 10);
+      r.setReadUnmappedFlag(true);
+      records.add(r);
+    }
+
+    final List<String> pairs = new ArrayList<>();
+
+    try (MatePairBuffer buffer = new MatePairBuffer(2, null)) {
+
+      final MatePairBuffer.PairHandler handler = (first, second) -> {
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(second.getReadUnmappedFlag());
+        pairs.add(first.getReadName());
+      };
+
+      for (SAMRecord r : records) {
+        buffer.add(r, handler);
+      }
+      buffer.finish(handler);
+    }
+
+    assertEquals(5, pairs.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxRecords() {
+
+    new MatePairBuffer(0, null);
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicIntervalIndex;
+
+public class OverlapCacheTest {
+
+  private static GenomicIntervalIndex newIndex() {
+
+    final GenomicArray<String> annot = new GenomicArray<>();
+    annot.addEntry(new GenomicInterval("chr1", 100, 199, '+'), "g1");
+    annot.addEntry(new GenomicInterval("chr1", 150, 299, '+'), "g2");
+    annot.addEntry(new GenomicInterval("chr1", 400, 499, '-'), "g3");
+
+    return GenomicIntervalIndex.create(annot);
+  }
+
+  private static void assertSameFeatures(final FeatureOrdinalSet expected,
+      final FeatureOrdinalSet result) {
+
+    expected.sort();
+    result.sort();
+    assertEquals(expected.size(), result.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i), result.get(i));
+    }
+  }
+
+  @Test
+  public void testGetAndPut() {
+
+    final OverlapCache cache = new OverlapCache(newIndex(), 5);
+    assertEquals(8, cache.getCapacity());
+
+    final FeatureOrdinalSet features = new FeatureOrdinalSet(3);
+    features.add(2);
+    features.add(0);
+
+    cache.setOverlapMode(OverlapMode.UNION);
+    assertFalse(cache.get(0, 100, 149, '+', cache.getBlockFeatures()));
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    cache.put(0, 100, 149, '+', features, true);
+
+    final FeatureOrdinalSet result = cache.getBlockFeatures();
+    result.add(1);
+    assertTrue(cache.get(0, 100, 149, '+', result));
+    assertTrue(cache.isConstrained());
+    assertSameFeatures(features, result);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // Another strand, end or chromosome is another block
+    assertFalse(cache.get(0, 100, 149, '-', result));
+    assertFalse(cache.get(0, 100, 150, '+', result));
+    assertFalse(cache.get(1, 100, 149, '+', result));
+    assertEquals(1, cache.getHits());
+    assertEquals(4, cache.getMisses());
+
+    // The same overlap mode keeps the entries
+    cache.setOverlapMode(OverlapMode.UNION);
+    assertTrue(cache.get(0, 100, 149, '+', result));
+    assertEquals(2, cache.getHits());
+
+    // Another overlap mode empties the cache
+    cache.setOverlapMode(OverlapMode.INTERSECTION_STRICT);
+    assertFalse(cache.get(0, 100, 149, '+', result));
+    assertEquals(2, cache.getHits());
+    assertEquals(5, cache.getMisses());
+  }
+
+  @Test
+  public void testFeaturesOverlapped() throws EoulsanException {
+
+    final GenomicIntervalIndex index = newIndex();
+    final GenomicIntervalIndex.Cursor cursor = index.newCursor();
+    final FeatureOrdinalSet expected =
+        new FeatureOrdinalSet(index.getFeatureCount());
+    final FeatureOrdinalSet result =
+        new FeatureOrdinalSet(index.getFeatureCount());
+
+    // A spliced alignment with two blocks stored in distinct entries
+    final AlignmentBlocks blocks = new AlignmentBlocks(index);
+    blocks.add("chr1", 120, 179, '+');
+    blocks.add("chr1", 250, 289, '+');
+
+    for (OverlapMode mode : OverlapMode.values()) {
+      for (StrandUsage stranded : StrandUsage.values()) {
+
+        final OverlapCache cache = new OverlapCache(index, 16);
+
+        HTSeqUtils.featuresOverlapped(blocks, cursor, mode, stranded,
+            expected);
+
+        // The first time, the blocks are not in the cache
+        HTSeqUtils.featuresOverlapped(blocks, cursor, mode, stranded, result,
+            cache);
+        assertSameFeatures(expected, result);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // The second time, the blocks are found in the cache
+        HTSeqUtils.featuresOverlapped(blocks, cursor, mode, stranded, result,
+            cache);
+        assertSameFeatures(expected, result);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+      }
+    }
+  }
+
+  @Test
+  public void testReplacement() {
+
+    final OverlapCache cache = new OverlapCache(newIndex(), 16);
+    final FeatureOrdinalSet features = new FeatureOrdinalSet(3);
+    final FeatureOrdinalSet result = new FeatureOrdinalSet(3);
+
+    // These two blocks use the same entry of the cache
+    cache.setOverlapMode(OverlapMode.UNION);
+    features.add(0);
+    cache.put(0, 120, 179, '.', features, true);
+    features.clear();
+    features.add(1);
+    cache.put(0, 250, 279, '.', features, false);
+
+    assertFalse(cache.get(0, 120, 179, '.', result));
+    assertTrue(cache.get(0, 250, 279, '.', result));
+    assertFalse(cache.isConstrained());
+    assertSameFeatures(features, result);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+}
@@ -0,0 +1,197 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+
+public class SharedAnnotationCacheTest {
+
+  @Test
+  public void testAcquireAndRelease() throws EoulsanException, IOException {
+
+    final SharedAnnotationCache cache = SharedAnnotationCache.getInstance();
+    final String key = "testAcquireAndRelease";
+    final AtomicInteger loads = new AtomicInteger();
+
+    final SharedAnnotationCache.Loader loader = () -> {
+      loads.incrementAndGet();
+      return new Object();
+    };
+
+    final Object a1 = cache.acquire(key, loader);
+    final Object a2 = cache.acquire(key, loader);
+
+    assertSame(a1, a2);
+    assertEquals(1, loads.get());
+    assertEquals(2, cache.getReferenceCount(key));
+
+    cache.release(key);
+    assertEquals(1, cache.getReferenceCount(key));
+
+    // The annotation is kept in the cache when it is no more used
+    cache.release(key);
+    assertEquals(0, cache.getReferenceCount(key));
+    assertTrue(cache.contains(key));
+
+    assertSame(a1, cache.acquire(key, loader));
+    assertEquals(1, loads.get());
+    cache.release(key);
+  }
+
+  @Test
+  public void testRemoveReleasedAnnotations()
+      throws EoulsanException, IOException {
+
+    final SharedAnnotationCache cache = SharedAnnotationCache.getInstance();
+    final String key1 = "testRemoveReleasedAnnotations1";
+    final String key2 = "testRemoveReleasedAnnotations2";
+    final String key3 = "testRemoveReleasedAnnotations3";
+    final SharedAnnotationCache.Loader loader = Object::new;
+
+    cache.setMaxReleasedAnnotations(2);
+    try {
+
+      cache.acquire(key1, loader);
+      cache.acquire(key2, loader);
+      cache.acquire(key3, loader);
+
+      cache.release(key1);
+      cache.release(key2);
+      assertTrue(cache.contains(key1));
+      assertTrue(cache.contains(key2));
+
+      // The least recently released annotation is removed
+      cache.release(key3);
+      assertFalse(cache.contains(key1));
+      assertTrue(cache.contains(key2));
+      assertTrue(cache.contains(key3));
+
+      // A used annotation is never removed
+      cache.acquire(key2, loader);
+      cache.setMaxReleasedAnnotations(0);
+      assertTrue(cache.contains(key2));
+      assertFalse(cache.contains(key3));
+
+      cache.release(key2);
+      assertFalse(cache.contains(key2));
+
+    } finally {
+      cache.setMaxReleasedAnnotations(
+          SharedAnnotationCache.DEFAULT_MAX_RELEASED_ANNOTATIONS);
+    }
+  }
+
+  @Test
+  public void testConcurrentAcquire() throws Exception {
+
+    final SharedAnnotationCache cache = SharedAnnotationCache.getInstance();
+    final String key = "testConcurrentAcquire";
+    final AtomicInteger loads = new AtomicInteger();
+    final int threads = 8;
+
+    final SharedAnnotationCache.Loader loader = () -> {
+      loads.incrementAndGet();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new Object();
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+
+      final List<Future<Object>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        final Callable<Object> task = () -> cache.acquire(key, loader);
+        futures.add(executor.submit(task));
+      }
+
+      final Object annotation = futures.get(0).get();
+      for (Future<Object> f : futures) {
+        assertSame(annotation, f.get());
+      }
+
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // The annotation has been loaded only once
+    assertEquals(1, loads.get());
+    assertEquals(threads, cache.getReferenceCount(key));
+
+    for (int i = 0; i < threads; i++) {
+      cache.release(key);
+    }
+    assertEquals(0, cache.getReferenceCount(key));
+  }
+
+  @Test
+  public void testLoadingError() throws EoulsanException, IOException {
+
+    final SharedAnnotationCache cache = SharedAnnotationCache.getInstance();
+    final String key = "testLoadingError";
+
+    try {
+      cache.acquire(key, () -> {
+        throw new IOException("error");
+      });
+      fail();
+    } catch (IOException e) {
+      assertEquals(0, cache.getReferenceCount(key));
+    }
+
+    // The annotation can be loaded after an error
+    final Object annotation = new Object();
+    assertSame(annotation, cache.acquire(key, () -> annotation));
+    cache.release(key);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReleaseUnknownKey() {
+
+    SharedAnnotationCache.getInstance().release("testReleaseUnknownKey");
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class BAMReaderTest {
+
+  @Test
+  public void testRead() throws IOException {
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+    header.setSequenceDictionary(
+        new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("chr1",
+            100000), new SAMSequenceRecord("chr2", 50000))));
+
+    // Create the alignments
+    final Random random = new Random(1);
+    final List<SAMRecord> records = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+
+      final SAMRecord r = new SAMRecord(header);
+      r.setReadName("read" + i);
+      r.setReferenceName(i < 6000 ? "chr1" : "chr2");
+      r.setAlignmentStart(1 + i);
+      r.setCigarString("20M" + (1 + random.nextInt(100)) + "N30M");
+      r.setReadString("ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTAC");
+      r.setBaseQualityString(
+          "IIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII");
+      r.setMappingQuality(random.nextInt(60));
+      r.setReadNegativeStrandFlag(random.nextBoolean());
+      r.setAttribute("NH", 1 + random.nextInt(3));
+      records.add(r);
+    }
+
+    // Write the BAM file
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final SAMFileWriter writer =
+        new SAMFileWriterFactory().makeBAMWriter(header, true, out);
+    for (SAMRecord r : records) {
+      writer.addAlignment(r);
+    }
+    writer.close();
+
+    // Read the BAM file
+    try (BAMReader reader =
+        new BAMReader(new ByteArrayInputStream(out.toByteArray()), 3)) {
+
+      assertEquals(SAMFileHeader.SortOrder.coordinate,
+          reader.getFileHeader().getSortOrder());
+      assertEquals(2, reader.getFileHeader().getSequenceDictionary().size());
+
+      final Iterator<SAMRecord> it = reader.iterator();
+      for (SAMRecord r : records) {
+        assertEquals(r.getSAMString(), it.next().getSAMString());
+      }
+      assertFalse(it.hasNext());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotBAM() throws IOException {
+
+    final byte[] data = "@HD\tVN:1.0\n".getBytes();
+
+    try (BAMReader reader = new BAMReader(new ByteArrayInputStream(data), 1)) {
+      reader.iterator();
+    }
+  }
+
+}
@@ -2,7 +2,13 @@ package fr.ens.biologie.genomique.eoulsan.bio.io;
 
 import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.md5DigestToString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,12 +16,17 @@ import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
 import com.google.common.io.ByteStreams;
 
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
 
 public class FastqReaderWriterTest {
 
@@ -26,6 +37,125 @@ public class FastqReaderWriterTest {
     testFile("/fast5/alexander_PC_20161027_R9-4_1D_template.fastq");
   }
 
+  @Test
+  public void testByteParser() throws IOException, BadBioEntryException {
+
+    final String s =
+        "\n@read1\r\nACGT\r\n+\r\nIIII\r\n@read2 desc\nTT\n+read2\nI#";
+
+    // Use a tiny buffer to check the refill of the buffer
+    try (FastqByteParser parser =
+        new FastqByteParser(new ByteArrayInputStream(s.getBytes()), 3)) {
+
+      assertTrue(parser.parseNextEntry());
+      ReadSequence read = new ReadSequence();
+      parser.fill(read);
+      assertEquals(new ReadSequence("read1", "ACGT", "IIII"), read);
+
+      assertTrue(parser.parseNextEntry());
+      parser.fill(read);
+      assertEquals(new ReadSequence("read2 desc", "TT", "I#"), read);
+
+      assertFalse(parser.parseNextEntry());
+      assertEquals(9, parser.getLineCount());
+    }
+
+    try (FastqByteParser parser = new FastqByteParser(
+        new ByteArrayInputStream("@read1\nACGT\n".getBytes()))) {
+
+      parser.parseNextEntry();
+      fail();
+    } catch (BadBioEntryException e) {
+      assertTrue(true);
+    }
+  }
+
+  @Test
+  public void testReuseResultObject() throws IOException, BadBioEntryException {
+
+    final String s = "@read1\nACGT\n+\nIIII\n@read2\nTT\n+\nI#\n";
+
+    try (ReadSequenceReader reader =
+        new FastqReader(new ByteArrayInputStream(s.getBytes()))) {
+
+      reader.setReuseResultObject(true);
+      assertTrue(reader.isReuseResultObject());
+
+      assertTrue(reader.hasNext());
+      final ReadSequence read1 = reader.next();
+      assertEquals(new ReadSequence("read1", "ACGT", "IIII"), read1);
+
+      assertTrue(reader.hasNext());
+      final ReadSequence read2 = reader.next();
+      assertSame(read1, read2);
+      assertEquals(new ReadSequence("read2", "TT", "I#"), read2);
+
+      assertFalse(reader.hasNext());
+      reader.throwException();
+    }
+  }
+
+  @Test
+  public void testWriteLargeEntries()
+      throws IOException, BadBioEntryException {
+
+    // Entries larger than the 64 KiB buffer of the writer
+    final List<ReadSequence> reads = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+
+      final int length = 70000 + i * 12345;
+      final char[] sequence = new char[length];
+      final char[] quality = new char[length];
+      for (int j = 0; j < length; j++) {
+        sequence[j] = "ACGT".charAt((i + j) % 4);
+        quality[j] = (char) ('#' + (j % 40));
+      }
+
+      reads.add(new ReadSequence("read" + i + " desc", new String(sequence),
+          new String(quality)));
+    }
+
+    // Without compression the output is the FASTQ text of the entries
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ReadSequenceWriter writer = new FastqWriter(out, null)) {
+      for (ReadSequence read : reads) {
+        writer.write(read);
+      }
+    }
+
+    final StringBuilder expected = new StringBuilder();
+    for (ReadSequence read : reads) {
+      expected.append(read.toFastQ()).append('\n');
+    }
+    assertEquals(expected.toString(), new String(out.toByteArray(), "UTF-8"));
+
+    // Round trip with a compressed stream
+    for (CompressionType compression : Arrays.asList(CompressionType.GZIP,
+        CompressionType.BZIP2)) {
+
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (ReadSequenceWriter writer =
+          new FastqWriter(compressed, compression)) {
+        for (ReadSequence read : reads) {
+          writer.write(read);
+        }
+      }
+
+      final List<ReadSequence> result = new ArrayList<>();
+      try (ReadSequenceReader reader =
+          new FastqReader(compression.createInputStream(
+              new ByteArrayInputStream(compressed.toByteArray())))) {
+
+        for (ReadSequence read : reader) {
+          result.add(read);
+        }
+        reader.throwException();
+      }
+
+      assertEquals(reads, result);
+    }
+  }
+
   private void testFile(final String resourcePath)
       throws NoSuchAlgorithmException, IOException {
 
@@ -2,19 +2,25 @@ package fr.ens.biologie.genomique.eoulsan.bio.io;
 
 import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.md5DigestToString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 
 import com.google.common.io.ByteStreams;
 
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
 
 public class GTFReaderWriterTest {
@@ -25,6 +31,56 @@ public class GTFReaderWriterTest {
     testFile("/htseq-count/Saccharomyces_cerevisiae.SGD1.01.56-fixed.gtf");
   }
 
+  @Test
+  public void testStreamingMode() throws IOException, BadBioEntryException {
+
+    final String gtf = "#!genome-build R64-1-1\n"
+        + "I\tSGD\tgene\t335\t649\t.\t+\t.\tgene_id \"YAL069W\";\n"
+        + "I\tSGD\texon\t335\t649\t.\t+\t.\tgene_id \"YAL069W\"; "
+        + "transcript_id \"YAL069W\"; exon_number \"1\";\n"
+        + "I\tSGD\tCDS\t335\t646\t.\t+\t0\tgene_id \"YAL069W\";\n"
+        + "I\tSGD\texon\t538\t792\t.\t+\t.\tgene_id \"YAL068W-A\"; "
+        + "transcript_id \"YAL068W-A\"; exon_number \"1\";\n";
+
+    final List<GFFEntry> expected = new ArrayList<>();
+    try (GTFReader reader = new GTFReader(
+        new ByteArrayInputStream(gtf.getBytes(StandardCharsets.UTF_8)))) {
+
+      for (GFFEntry e : reader) {
+        if ("exon".equals(e.getType())) {
+          expected.add(e);
+        }
+      }
+      reader.throwException();
+    }
+
+    final List<GFFEntry> entries = new ArrayList<>();
+    try (GTFReader reader = new GTFReader(
+        new ByteArrayInputStream(gtf.getBytes(StandardCharsets.UTF_8)))) {
+
+      reader.setStreamingMode("exon"::equals);
+      for (GFFEntry e : reader) {
+        entries.add(e);
+      }
+      reader.throwException();
+    }
+
+    assertEquals(2, entries.size());
+    assertEquals("YAL068W-A", entries.get(1).getAttributeValue("gene_id"));
+
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i), entries.get(i));
+      assertEquals(expected.get(i).toGTF(), entries.get(i).toGTF());
+    }
+
+    // Sequence ids and attribute names are interned
+    final GFFEntry first = entries.get(0);
+    final GFFEntry second = entries.get(1);
+    assertSame(first.getSeqId(), second.getSeqId());
+    assertSame(first.getAttributesNames().iterator().next(),
+        second.getAttributesNames().iterator().next());
+  }
+
   private void testFile(final String resourcePath)
       throws NoSuchAlgorithmException, IOException {
 
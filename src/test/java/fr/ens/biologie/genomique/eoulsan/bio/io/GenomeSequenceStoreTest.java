@@ -0,0 +1,154 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+
+public class GenomeSequenceStoreTest {
+
+  private static final String FASTA = ">chr1 first chromosome\n"
+      + "ACGTACGTAC\n" + "GTACGTACGT\n" + "ACG\n" + "\n" + ">chr2\r\n"
+      + "NNNNAAAA\r\n" + "CCCCGGGG\r\n" + ">chr3\n" + "TTTTT\n";
+
+  private static final String FAI = "chr1\t23\t23\t10\t11\n"
+      + "chr2\t16\t57\t8\t10\n" + "chr3\t5\t83\t5\t6\n";
+
+  @Test
+  public void testCreateIndex() throws IOException, BadBioEntryException {
+
+    final FastaIndex index = FastaIndex.create(toInputStream(FASTA), null, null);
+
+    assertEquals(3, index.getSequenceCount());
+    assertEquals(23, index.getEntry("chr1").getLength());
+    assertEquals(16, index.getEntry("chr2").getLength());
+    assertNull(index.getEntry("chr4"));
+
+    // Check the index is the same as the one created by samtools faidx
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    index.write(baos);
+    assertEquals(FAI, new String(baos.toByteArray(), StandardCharsets.UTF_8));
+
+    // Read the index
+    final FastaIndex index2 = FastaIndex.read(toInputStream(FAI));
+    assertEquals(index.getSequenceNames(), index2.getSequenceNames());
+    assertEquals(83, index2.getEntry("chr3").getOffset());
+  }
+
+  @Test
+  public void testInvalidFasta() throws IOException {
+
+    try {
+      FastaIndex.create(toInputStream(">chr1\nACGTA\nACGTACG\n"), null, null);
+      fail();
+    } catch (BadBioEntryException e) {
+      assertTrue(e.getMessage().startsWith("Different line length"));
+    }
+
+    try {
+      FastaIndex.create(toInputStream(">chr1\nACG\nACG\n>chr1\nA\n"), null,
+          null);
+      fail();
+    } catch (BadBioEntryException e) {
+      assertTrue(e.getMessage().startsWith("Sequence name found twice"));
+    }
+  }
+
+  @Test
+  public void testGenomeDescription()
+      throws IOException, BadBioEntryException {
+
+    final GenomeDescription desc1 =
+        GenomeDescription.createGenomeDescFromFasta(toInputStream(FASTA),
+            "genome.fasta");
+    final GenomeDescription desc2 = GenomeDescription
+        .createGenomeDescFromFastaIndex(toInputStream(FASTA), "genome.fasta");
+
+    assertEquals(desc1.getGenomeName(), desc2.getGenomeName());
+    assertEquals(desc1.getSequencesNames(), desc2.getSequencesNames());
+    assertEquals(desc1.getGenomeLength(), desc2.getGenomeLength());
+    assertEquals(desc1.getMD5Sum(), desc2.getMD5Sum());
+  }
+
+  @Test
+  public void testGetSubSequence() throws IOException, BadBioEntryException {
+
+    final File fastaFile = File.createTempFile("genome-", ".fasta");
+
+    try {
+      try (OutputStream os = new FileOutputStream(fastaFile)) {
+        os.write(FASTA.getBytes(StandardCharsets.UTF_8));
+      }
+
+      try (GenomeSequenceStore store = new GenomeSequenceStore(fastaFile)) {
+
+        assertEquals(23, store.getSequenceLength("chr1"));
+        assertEquals(-1, store.getSequenceLength("chr4"));
+        assertFalse(store.containsSequence("chr4"));
+
+        assertEquals("ACGTACGTACGTACGTACGTACG",
+            store.getSubSequence("chr1", 1, 23));
+        assertEquals("TACGTA", store.getSubSequence("chr1", 8, 13));
+        assertEquals("ACG", store.getSubSequence("chr1", 21, 23));
+        assertEquals("AAAACCCC", store.getSubSequence("chr2", 5, 12));
+        assertEquals("TTTTT", store.getSubSequence("chr3", 1, 5));
+        assertEquals('N', store.getBase("chr2", 1));
+        assertEquals('G', store.getBase("chr2", 16));
+
+        try {
+          store.getSubSequence("chr3", 1, 6);
+          fail();
+        } catch (IllegalArgumentException e) {
+          assertTrue(true);
+        }
+      }
+    } finally {
+      fastaFile.delete();
+    }
+  }
+
+  private static InputStream toInputStream(final String s) {
+
+    return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
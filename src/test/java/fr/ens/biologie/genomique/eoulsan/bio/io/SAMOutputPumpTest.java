@@ -0,0 +1,88 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SAMOutputPumpTest {
+
+  private static final String SAM = "@HD\tVN:1.0\n"
+      + "@SQ\tSN:chr1\tLN:100\n" + "\n" + "  read1\t0\tchr1\t1\t255\t4M\n"
+      + "read2\t4\t*\t0\t0\t*\t \r\n" + "invalid line\t \n" + "read3\t16";
+
+  @Test
+  public void testCopy() throws IOException {
+
+    final byte[] bytes = SAM.getBytes(StandardCharsets.ISO_8859_1);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertEquals(3,
+        SAMOutputPump.copy(new ByteArrayInputStream(bytes), out));
+    assertArrayEquals(bytes, out.toByteArray());
+  }
+
+  @Test
+  public void testLineHandler() throws IOException {
+
+    final byte[] bytes = SAM.getBytes(StandardCharsets.ISO_8859_1);
+
+    // Use all the possible chunk sizes to check the lines split between
+    // chunks
+    for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+
+      final List<String> lines = new ArrayList<>();
+      final SAMOutputPump pump =
+          new SAMOutputPump((buffer, start, end, header) -> lines
+              .add((header ? "H:" : "A:") + new String(buffer, start,
+                  end - start, StandardCharsets.ISO_8859_1)));
+
+      for (int i = 0; i < bytes.length; i += chunkSize) {
+        pump.update(bytes, i, Math.min(chunkSize, bytes.length - i));
+      }
+      pump.finish();
+
+      assertEquals(3, pump.getAlignmentCount());
+      assertEquals(6, lines.size());
+      assertEquals("H:@HD\tVN:1.0", lines.get(0));
+      assertEquals("H:@SQ\tSN:chr1\tLN:100", lines.get(1));
+      assertEquals("A:read1\t0\tchr1\t1\t255\t4M", lines.get(2));
+      assertEquals("A:read2\t4\t*\t0\t0\t*", lines.get(3));
+      assertEquals("A:invalid line", lines.get(4));
+      assertEquals("A:read3\t16", lines.get(5));
+    }
+  }
+
+}
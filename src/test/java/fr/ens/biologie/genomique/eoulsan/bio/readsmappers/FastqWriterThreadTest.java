@@ -0,0 +1,261 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess.FastqWriterThread;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+
+public class FastqWriterThreadTest {
+
+  private static final String COUNTER_GROUP = "test";
+
+  /**
+   * This class define a channel that waits to be released before writing the
+   * data in memory or failing.
+   */
+  private static final class BlockingChannel implements WritableByteChannel {
+
+    private final CountDownLatch writeStarted = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final boolean fail;
+    private volatile boolean open = true;
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+
+      this.writeStarted.countDown();
+
+      try {
+        this.release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      if (this.fail) {
+        throw new IOException("Broken pipe");
+      }
+
+      final int result = src.remaining();
+      while (src.hasRemaining()) {
+        this.out.write(src.get());
+      }
+
+      return result;
+    }
+
+    @Override
+    public boolean isOpen() {
+
+      return this.open;
+    }
+
+    @Override
+    public void close() {
+
+      this.open = false;
+    }
+
+    private BlockingChannel(final boolean fail) {
+
+      this.fail = fail;
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testWrapAround() throws IOException, InterruptedException {
+
+    final Pipe pipe = Pipe.open();
+
+    // Read the pipe in another thread
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    final Thread reader = new Thread(() -> {
+
+      final ByteBuffer buffer = ByteBuffer.allocate(5);
+      try {
+        while (pipe.source().read(buffer) != -1) {
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            received.write(buffer.get());
+          }
+          buffer.clear();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    reader.start();
+
+    // A buffer smaller than the entries and not a divisor of their lengths
+    final FastqWriterThread writer =
+        new FastqWriterThread(pipe.sink(), "test writer", "writer1", 7);
+
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+
+      final String s = "@read" + i + "\nACGT\n+\nIIII\n";
+      writer.write(s);
+      expected.append(s);
+    }
+    writer.close();
+    reader.join();
+
+    assertEquals(expected.toString(),
+        new String(received.toByteArray(), StandardCharsets.ISO_8859_1));
+
+    final LocalReporter reporter = new LocalReporter();
+    writer.reportCounters(reporter, COUNTER_GROUP);
+    final long maxQueueDepth = reporter.getCounterValue(COUNTER_GROUP,
+        FastqWriterThread.maxQueueDepthCounterName("writer1"));
+    assertTrue(maxQueueDepth > 0 && maxQueueDepth <= 7);
+  }
+
+  @Test(timeout = 60000)
+  public void testWriteBlockedWhenBufferFull()
+      throws IOException, InterruptedException {
+
+    final BlockingChannel channel = new BlockingChannel(false);
+    final FastqWriterThread writer =
+        new FastqWriterThread(channel, "test writer", "writer2", 8);
+
+    // Fill the buffer, the thread is then blocked in the channel
+    writer.write("ACGTACGT");
+    assertTrue(channel.writeStarted.await(10, TimeUnit.SECONDS));
+
+    final CountDownLatch written = new CountDownLatch(1);
+    final AtomicReference<Exception> exception = new AtomicReference<>();
+    final Thread t = new Thread(() -> {
+      try {
+        writer.write("TTTT");
+        written.countDown();
+      } catch (IOException e) {
+        exception.set(e);
+      }
+    });
+    t.start();
+
+    // The second write must wait for free space in the buffer
+    assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+
+    channel.release.countDown();
+    assertTrue(written.await(10, TimeUnit.SECONDS));
+    t.join();
+    writer.close();
+
+    assertEquals(null, exception.get());
+    assertEquals("ACGTACGTTTTT",
+        new String(channel.out.toByteArray(), StandardCharsets.ISO_8859_1));
+    assertFalse(channel.isOpen());
+
+    final LocalReporter reporter = new LocalReporter();
+    writer.reportCounters(reporter, COUNTER_GROUP);
+    assertEquals(8, reporter.getCounterValue(COUNTER_GROUP,
+        FastqWriterThread.maxQueueDepthCounterName("writer2")));
+    assertTrue(reporter.getCounterValue(COUNTER_GROUP,
+        FastqWriterThread.stallTimeCounterName("writer2")) >= 100);
+  }
+
+  @Test(timeout = 60000)
+  public void testMaxQueueDepthNotSummed()
+      throws IOException, InterruptedException {
+
+    final LocalReporter reporter = new LocalReporter();
+    final String counterName =
+        FastqWriterThread.maxQueueDepthCounterName("writer3");
+
+    // The writers of several mapper processes use the same counter
+    for (String s : new String[] {"ACG", "ACGTA", "AC"}) {
+
+      final BlockingChannel channel = new BlockingChannel(false);
+      final FastqWriterThread writer =
+          new FastqWriterThread(channel, "test writer", "writer3", 8);
+
+      // The data stays in the buffer until the channel is released
+      writer.write(s);
+      assertTrue(channel.writeStarted.await(10, TimeUnit.SECONDS));
+      channel.release.countDown();
+      writer.close();
+
+      writer.reportCounters(reporter, COUNTER_GROUP);
+    }
+
+    assertEquals(5, reporter.getCounterValue(COUNTER_GROUP, counterName));
+  }
+
+  @Test(timeout = 60000)
+  public void testChannelFailureUnblocksWrite()
+      throws IOException, InterruptedException {
+
+    final BlockingChannel channel = new BlockingChannel(true);
+    final FastqWriterThread writer =
+        new FastqWriterThread(channel, "test writer", "writer1", 8);
+
+    // Fill the buffer, the thread is then blocked in the channel
+    writer.write("ACGTACGT");
+    assertTrue(channel.writeStarted.await(10, TimeUnit.SECONDS));
+
+    final AtomicReference<Exception> exception = new AtomicReference<>();
+    final Thread t = new Thread(() -> {
+      try {
+        writer.write("TTTT");
+      } catch (IOException e) {
+        exception.set(e);
+      }
+    });
+    t.start();
+
+    // The channel fails while the write is blocked
+    Thread.sleep(100);
+    channel.release.countDown();
+    t.join();
+
+    assertTrue(exception.get() instanceof IOException);
+
+    try {
+      writer.close();
+      fail();
+    } catch (IOException e) {
+      assertEquals("Broken pipe", e.getCause().getMessage());
+    }
+  }
+
+}
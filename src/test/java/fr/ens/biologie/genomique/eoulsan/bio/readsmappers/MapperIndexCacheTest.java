@@ -0,0 +1,186 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+public class MapperIndexCacheTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("mapper-index-cache-").toFile();
+  }
+
+  @After
+  public void tearDown() {
+
+    FileUtils.recursiveDelete(this.dir);
+  }
+
+  private DataFile createArchive(final String name, final String content)
+      throws IOException {
+
+    final File file = new File(this.dir, name + ".zip");
+
+    try (ZipOutputStream out =
+        new ZipOutputStream(new FileOutputStream(file))) {
+
+      out.putNextEntry(new ZipEntry("index.txt"));
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+
+    return new DataFile(file);
+  }
+
+  @Test
+  public void testAcquire() throws IOException {
+
+    final DataFile archive = createArchive("genome", "ACGT");
+    final String checksum = MapperIndexCache.computeArchiveChecksum(archive);
+    final MapperIndexCache cache =
+        new MapperIndexCache(new File(this.dir, "cache"), 0);
+
+    try (MapperIndexCache.Lease lease1 =
+        cache.acquire("bowtie", checksum, archive);
+        MapperIndexCache.Lease lease2 =
+            cache.acquire("bowtie", checksum, archive)) {
+
+      final File indexDirectory = lease1.getIndexDirectory();
+      assertEquals(indexDirectory, lease2.getIndexDirectory());
+      assertTrue(indexDirectory.getName().endsWith(checksum));
+      assertEquals("ACGT",
+          new String(Files.readAllBytes(
+              new File(indexDirectory, "index.txt").toPath()),
+              StandardCharsets.UTF_8));
+    }
+
+    assertNotEquals(checksum, MapperIndexCache
+        .computeArchiveChecksum(createArchive("other", "ACGTN")));
+  }
+
+  @Test
+  public void testStreamChecksum() throws IOException {
+
+    // Archives with the same entry names and DEFLATED entries whose sizes and
+    // CRCs are stored after their data
+    final File archive1 = createDirectoryArchive("genome1", "AAAA");
+    final File archive2 = createDirectoryArchive("genome2", "CCCC");
+
+    final String checksum1 = streamChecksum(archive1);
+    final String checksum2 = streamChecksum(archive2);
+
+    assertNotEquals(checksum1, checksum2);
+
+    // The stream checksum is the same as the local file checksum
+    assertEquals(checksum1,
+        MapperIndexCache.computeArchiveChecksum(new DataFile(archive1)));
+    assertEquals(checksum2,
+        MapperIndexCache.computeArchiveChecksum(new DataFile(archive2)));
+  }
+
+  private File createDirectoryArchive(final String name, final String content)
+      throws IOException {
+
+    final File indexDirectory = new File(this.dir, name);
+    final File subDirectory = new File(indexDirectory, "data");
+    Files.createDirectories(subDirectory.toPath());
+
+    Files.write(new File(indexDirectory, "index.txt").toPath(),
+        content.getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(subDirectory, "index.bin").toPath(),
+        content.toLowerCase().getBytes(StandardCharsets.UTF_8));
+
+    final File file = new File(this.dir, name + ".zip");
+    FileUtils.createZip(indexDirectory, file);
+
+    return file;
+  }
+
+  private static String streamChecksum(final File archive) throws IOException {
+
+    try (InputStream in = new FileInputStream(archive)) {
+      return MapperIndexCache.computeArchiveChecksum(in);
+    }
+  }
+
+  @Test
+  public void testRemoveUnusedIndexes() throws IOException {
+
+    final DataFile archive1 = createArchive("genome1", "AAAA");
+    final DataFile archive2 = createArchive("genome2", "CCCC");
+
+    // The cache can only contain one index
+    final MapperIndexCache cache =
+        new MapperIndexCache(new File(this.dir, "cache"), 6);
+
+    final MapperIndexCache.Lease lease1 = cache.acquire("bwa",
+        MapperIndexCache.computeArchiveChecksum(archive1), archive1);
+    final File indexDirectory1 = lease1.getIndexDirectory();
+
+    // The first index is in use and cannot be removed
+    final MapperIndexCache.Lease lease2 = cache.acquire("bwa",
+        MapperIndexCache.computeArchiveChecksum(archive2), archive2);
+    final File indexDirectory2 = lease2.getIndexDirectory();
+    assertTrue(indexDirectory1.isDirectory());
+    assertTrue(indexDirectory2.isDirectory());
+
+    // The first index is no more used
+    lease1.close();
+    cache.removeUnusedIndexes();
+    assertFalse(indexDirectory1.exists());
+    assertTrue(indexDirectory2.isDirectory());
+
+    // No index is removed while the cache is not too large
+    lease2.close();
+    cache.removeUnusedIndexes();
+    assertTrue(indexDirectory2.isDirectory());
+  }
+
+}
@@ -24,6 +24,7 @@
 
 package fr.ens.biologie.genomique.eoulsan.data;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -45,4 +46,21 @@ public class XMLDataFormatTest {
     }
   }
 
+  @Test
+  public void testIsIntermediateCompressionAllowed() throws EoulsanException {
+
+    assertTrue(load("mapper_results_sam").isIntermediateCompressionAllowed());
+    assertTrue(load("reads_fastq").isIntermediateCompressionAllowed());
+    assertFalse(load("mapper_results_bam").isIntermediateCompressionAllowed());
+    assertFalse(
+        load("mapper_results_index_bai").isIntermediateCompressionAllowed());
+    assertFalse(load("star_index_zip").isIntermediateCompressionAllowed());
+  }
+
+  private XMLDataFormat load(final String name) throws EoulsanException {
+
+    return new XMLDataFormat(this.getClass().getResourceAsStream(
+        "/META-INF/services/xmldataformats/" + name + ".xml"), null);
+  }
+
 }
@@ -24,11 +24,20 @@
 
 package fr.ens.biologie.genomique.eoulsan.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import org.junit.Test;
 
+import com.google.common.io.ByteStreams;
+
 public class CompressionTypeTest {
 
   @Test
@@ -36,6 +45,8 @@ public class CompressionTypeTest {
 
     assertEquals("gzip", CompressionType.GZIP.getContentEncoding());
     assertEquals("bzip2", CompressionType.BZIP2.getContentEncoding());
+    assertEquals("zstd", CompressionType.ZSTD.getContentEncoding());
+    assertEquals("lz4", CompressionType.LZ4.getContentEncoding());
     assertEquals("", CompressionType.NONE.getContentEncoding());
   }
 
@@ -44,6 +55,8 @@ public class CompressionTypeTest {
 
     assertEquals(".gz", CompressionType.GZIP.getExtension());
     assertEquals(".bz2", CompressionType.BZIP2.getExtension());
+    assertEquals(".zst", CompressionType.ZSTD.getExtension());
+    assertEquals(".lz4", CompressionType.LZ4.getExtension());
     assertEquals("", CompressionType.NONE.getExtension());
   }
 
@@ -54,6 +67,10 @@ public class CompressionTypeTest {
         CompressionType.getCompressionTypeByContentEncoding("gzip"));
     assertEquals(CompressionType.BZIP2,
         CompressionType.getCompressionTypeByContentEncoding("bzip2"));
+    assertEquals(CompressionType.ZSTD,
+        CompressionType.getCompressionTypeByContentEncoding("zstd"));
+    assertEquals(CompressionType.LZ4,
+        CompressionType.getCompressionTypeByContentEncoding("lz4"));
     assertEquals(CompressionType.NONE,
         CompressionType.getCompressionTypeByContentEncoding(""));
     assertNull(CompressionType.getCompressionTypeByContentEncoding(null));
@@ -66,6 +83,10 @@ public class CompressionTypeTest {
         CompressionType.getCompressionTypeByExtension(".gz"));
     assertEquals(CompressionType.BZIP2,
         CompressionType.getCompressionTypeByExtension(".bz2"));
+    assertEquals(CompressionType.ZSTD,
+        CompressionType.getCompressionTypeByExtension(".zst"));
+    assertEquals(CompressionType.LZ4,
+        CompressionType.getCompressionTypeByExtension(".lz4"));
     assertEquals(CompressionType.NONE,
         CompressionType.getCompressionTypeByExtension(""));
     assertNull(CompressionType.getCompressionTypeByExtension(null));
@@ -82,6 +103,10 @@ public class CompressionTypeTest {
         CompressionType.getCompressionTypeByFilename("toto.txt.gz"));
     assertEquals(CompressionType.BZIP2,
         CompressionType.getCompressionTypeByFilename("titi.txt.bz2"));
+    assertEquals(CompressionType.ZSTD,
+        CompressionType.getCompressionTypeByFilename("titi.sam.zst"));
+    assertEquals(CompressionType.LZ4,
+        CompressionType.getCompressionTypeByFilename("titi.fq.lz4"));
     assertEquals(CompressionType.NONE,
         CompressionType.getCompressionTypeByFilename("titi.txt"));
     assertEquals(CompressionType.NONE,
@@ -99,6 +124,10 @@ public class CompressionTypeTest {
         CompressionType.removeCompressionExtension("toto.txt.gz"));
     assertEquals("titi.txt",
         CompressionType.removeCompressionExtension("titi.txt.bz2"));
+    assertEquals("titi.sam",
+        CompressionType.removeCompressionExtension("titi.sam.zst"));
+    assertEquals("titi.fq",
+        CompressionType.removeCompressionExtension("titi.fq.lz4"));
     assertEquals("titi.txt",
         CompressionType.removeCompressionExtension("titi.txt"));
     assertEquals("", CompressionType.removeCompressionExtension(""));
@@ -106,4 +135,24 @@ public class CompressionTypeTest {
 
   }
 
+  @Test
+  public void testLZ4Streams() throws IOException {
+
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      sb.append("@read").append(i).append("\nACGTACGTTTGA\n+\nIIIIIIIIIIII\n");
+    }
+    final byte[] data = sb.toString().getBytes();
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream os = CompressionType.LZ4.createOutputStream(baos)) {
+      os.write(data);
+    }
+
+    try (InputStream is = CompressionType.LZ4
+        .createInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+      assertArrayEquals(data, ByteStreams.toByteArray(is));
+    }
+  }
+
 }
@@ -0,0 +1,203 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class ParallelGZIPStreamsTest {
+
+  @Test
+  public void testParallelGZIPOutputStream() throws IOException {
+
+    for (int size : new int[] {0, 1, 0xff00, 0xff01, 1000000}) {
+
+      final byte[] data = createData(size);
+      final byte[] compressed = compressParallel(data);
+
+      // The output must be readable by a standard gzip decoder
+      try (InputStream is =
+          new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+        assertArrayEquals(data, ByteStreams.toByteArray(is));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelGZIPInputStream() throws IOException {
+
+    for (int size : new int[] {0, 1, 0xff00, 0xff01, 1000000}) {
+
+      final byte[] data = createData(size);
+
+      // BGZF data
+      try (ParallelGZIPInputStream is = new ParallelGZIPInputStream(
+          new ByteArrayInputStream(compressParallel(data)), 3)) {
+        assertTrue(is.isBGZF());
+        assertArrayEquals(data, ByteStreams.toByteArray(is));
+      }
+
+      // Standard gzip data
+      final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (OutputStream os = new GZIPOutputStream(baos)) {
+        os.write(data);
+      }
+
+      try (ParallelGZIPInputStream is = new ParallelGZIPInputStream(
+          new ByteArrayInputStream(baos.toByteArray()), 3)) {
+        assertFalse(is.isBGZF());
+        assertArrayEquals(data, ByteStreams.toByteArray(is));
+      }
+    }
+  }
+
+  @Test
+  public void testBGZFFollowedByGZIP() throws IOException {
+
+    final byte[] data1 = createData(1000000);
+    final byte[] data2 = createData(100000);
+
+    // A BGZF file concatenated with a standard gzip file
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(compressParallel(data1));
+    try (OutputStream os = new GZIPOutputStream(baos)) {
+      os.write(data2);
+    }
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(data1);
+    expected.write(data2);
+
+    try (ParallelGZIPInputStream is = new ParallelGZIPInputStream(
+        new ByteArrayInputStream(baos.toByteArray()), 3)) {
+      assertTrue(is.isBGZF());
+      assertArrayEquals(expected.toByteArray(), ByteStreams.toByteArray(is));
+    }
+  }
+
+  @Test
+  public void testFlushKeepsPartialBlock() throws IOException {
+
+    final byte[] data = createData(100000);
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try (OutputStream os = new ParallelGZIPOutputStream(baos, 4)) {
+
+      // Flush after each record, the partial blocks are not written
+      for (int i = 0; i < data.length; i += 100) {
+        os.write(data, i, 100);
+        os.flush();
+
+        if (i + 100 < BGZFUtils.MAX_UNCOMPRESSED_BLOCK_SIZE) {
+          assertEquals(0, baos.size());
+        }
+      }
+    }
+
+    // The output is the same as without flush
+    assertArrayEquals(compressParallel(data), baos.toByteArray());
+  }
+
+  @Test
+  public void testCloseBeforeEnd() throws IOException {
+
+    final byte[] compressed = compressParallel(createData(1000000));
+    final AtomicBoolean closed = new AtomicBoolean();
+    final AtomicBoolean readAfterClose = new AtomicBoolean();
+
+    // Check that the underlying stream is never read once closed
+    final InputStream in = new ByteArrayInputStream(compressed) {
+
+      @Override
+      public synchronized int read(final byte[] b, final int off,
+          final int len) {
+
+        if (closed.get()) {
+          readAfterClose.set(true);
+        }
+        return super.read(b, off, len);
+      }
+
+      @Override
+      public void close() {
+        closed.set(true);
+      }
+    };
+
+    final ParallelGZIPInputStream is = new ParallelGZIPInputStream(in, 3);
+    assertTrue(is.read() != -1);
+    is.close();
+
+    assertTrue(closed.get());
+    assertFalse(readAfterClose.get());
+  }
+
+  private static byte[] compressParallel(final byte[] data)
+      throws IOException {
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try (OutputStream os = new ParallelGZIPOutputStream(baos, 4)) {
+
+      // Use both write methods
+      final int half = data.length / 2;
+      os.write(data, 0, half);
+      for (int i = half; i < data.length; i++) {
+        os.write(data[i]);
+      }
+    }
+
+    return baos.toByteArray();
+  }
+
+  private static byte[] createData(final int size) {
+
+    final Random random = new Random(size);
+    final byte[] result = new byte[size];
+
+    for (int i = 0; i < size; i++) {
+      result[i] = i % 3 == 0 ? (byte) random.nextInt(256) : (byte) ('A' + i % 4);
+    }
+
+    return result;
+  }
+
+}
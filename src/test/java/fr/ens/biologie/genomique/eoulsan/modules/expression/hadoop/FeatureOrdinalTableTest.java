@@ -0,0 +1,191 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCountsCounter;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+public class FeatureOrdinalTableTest {
+
+  private static final String COUNTER_GROUP = "expression";
+
+  private final SAMFileHeader header = new SAMFileHeader();
+
+  private static GFFEntry exon(final int start, final int end,
+      final String geneId) {
+
+    final GFFEntry e = new GFFEntry();
+    e.setSeqId("chr1");
+    e.setType("exon");
+    e.setStart(start);
+    e.setEnd(end);
+    e.setStrand('+');
+    e.setAttributeValue("gene_id", geneId);
+
+    return e;
+  }
+
+  private static ExpressionCounter newCounter() throws EoulsanException {
+
+    final ExpressionCounter counter = new FeatureCountsCounter();
+
+    final GenomeDescription desc = new GenomeDescription();
+    desc.addSequence("chr1", 10000);
+
+    // The genes are not sorted in the annotation
+    counter.init(desc, Arrays.asList(exon(500, 599, "g3"),
+        exon(100, 199, "g1"), exon(300, 399, "g2"), exon(700, 799, "g4")));
+
+    return counter;
+  }
+
+  private SAMRecord newRecord(final int start) {
+
+    final SAMRecord record = new SAMRecord(this.header);
+    record.setReadName("r" + start);
+    record.setReferenceName("chr1");
+    record.setAlignmentStart(start);
+    record.setCigarString("50M");
+    record.setMappingQuality(60);
+
+    return record;
+  }
+
+  @Test
+  public void testOrdinals() throws EoulsanException, IOException {
+
+    final FeatureOrdinalTable table =
+        FeatureOrdinalTable.create(newCounter());
+
+    // The features are sorted by their identifiers
+    assertEquals(4, table.size());
+    final List<String> ids = Arrays.asList("g1", "g2", "g3", "g4");
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals(i, table.getOrdinal(ids.get(i)));
+      assertEquals(ids.get(i), table.getFeatureId(i));
+    }
+    assertEquals(-1, table.getOrdinal("g5"));
+
+    // Save and load the table
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    table.write(out);
+    final FeatureOrdinalTable loaded = FeatureOrdinalTable
+        .load(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(table.size(), loaded.size());
+    for (String id : ids) {
+      assertEquals(id, loaded.getFeatureId(loaded.getOrdinal(id)));
+      assertEquals(table.getOrdinal(id), loaded.getOrdinal(id));
+    }
+
+    try {
+      loaded.getFeatureId(ids.size());
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected exception
+    }
+  }
+
+  @Test
+  public void testCounts() throws EoulsanException, IOException {
+
+    final ExpressionCounter counter = newCounter();
+    final FeatureOrdinalTable table = FeatureOrdinalTable.create(counter);
+
+    // Alignments processed by each mapper
+    final int[][] mapperStarts =
+        {{100, 120, 320, 520}, {150, 330, 330}, {}, {110, 900, 540}};
+
+    final Map<String, Long> expected = new HashMap<>();
+    final List<long[]> mapperOutputs = new ArrayList<>();
+
+    for (int[] starts : mapperStarts) {
+
+      final long[] featureCounts = new long[table.size()];
+
+      for (int start : starts) {
+
+        final Map<String, Integer> counts =
+            counter.count(Arrays.asList(newRecord(start)),
+                new LocalReporter(), COUNTER_GROUP);
+
+        // The string-keyed counts summed by the previous reducer
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+          expected.merge(e.getKey(), (long) e.getValue(), Long::sum);
+        }
+
+        // The ordinal-keyed counts aggregated by the mapper
+        table.addCounts(counts, featureCounts);
+      }
+
+      mapperOutputs.add(featureCounts);
+    }
+
+    // Like the mapper cleanup() and the reducer, only the features with
+    // reads are written
+    final Map<String, Long> result = new HashMap<>();
+    for (long[] featureCounts : mapperOutputs) {
+      for (int i = 0; i < featureCounts.length; i++) {
+        if (featureCounts[i] != 0) {
+          result.merge(table.getFeatureId(i), featureCounts[i], Long::sum);
+        }
+      }
+    }
+
+    assertEquals(3, expected.size());
+    assertEquals(expected, result);
+
+    // Features that are not in the table
+    final Map<String, Integer> unknown = new HashMap<>();
+    unknown.put("g5", 1);
+    try {
+      table.addCounts(unknown, new long[table.size()]);
+      fail();
+    } catch (IOException e) {
+      // Expected exception
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.hadoop;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SAMOutputChunksTest {
+
+  private static final String SAM = "@HD\tVN:1.0\n"
+      + "@SQ\tSN:chr1\tLN:100\n" + "read1\t0\tchr1\t1\t255\t4M\n"
+      + "read2\t4\t*\t0\t0\t*\n" + "read3\t16\tchr1\t5\t255\t4M\n";
+
+  @Test
+  public void testLinesSplitBetweenCalls() throws IOException {
+
+    final byte[] bytes = SAM.getBytes(StandardCharsets.ISO_8859_1);
+
+    for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+
+      final List<String> lines = new ArrayList<>();
+      final SAMOutputChunks chunks = new SAMOutputChunks(
+          (buffer, start, end, header) -> lines.add(new String(buffer, start,
+              end - start, StandardCharsets.ISO_8859_1)));
+
+      // One chunk is processed by each call, like in the map() method
+      for (int i = 0; i < bytes.length; i += chunkSize) {
+        chunks.add(Arrays.copyOfRange(bytes, i,
+            Math.min(i + chunkSize, bytes.length)));
+        chunks.process();
+      }
+      chunks.finish();
+
+      assertEquals(3, chunks.getAlignmentCount());
+      assertEquals(Arrays.asList("@HD\tVN:1.0", "@SQ\tSN:chr1\tLN:100",
+          "read1\t0\tchr1\t1\t255\t4M", "read2\t4\t*\t0\t0\t*",
+          "read3\t16\tchr1\t5\t255\t4M"), lines);
+    }
+  }
+
+  @Test
+  public void testReadFrom() throws IOException {
+
+    final List<String> lines = new ArrayList<>();
+    final SAMOutputChunks chunks = new SAMOutputChunks(
+        (buffer, start, end, header) -> lines.add(new String(buffer, start,
+            end - start, StandardCharsets.ISO_8859_1)));
+
+    chunks.readFrom(new ByteArrayInputStream(
+        SAM.getBytes(StandardCharsets.ISO_8859_1)));
+    chunks.finish();
+
+    assertEquals(3, chunks.getAlignmentCount());
+    assertEquals(5, lines.size());
+  }
+
+}
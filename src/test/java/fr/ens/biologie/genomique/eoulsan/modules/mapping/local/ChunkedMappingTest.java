@@ -0,0 +1,196 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ChunkedMappingTest {
+
+  private static final String HEADER =
+      "@HD\tVN:1.4\n@SQ\tSN:chr1\tLN:1000\n@PG\tID:mapper\n";
+
+  private final List<File> files = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+
+    for (File f : this.files) {
+      f.delete();
+    }
+  }
+
+  @Test
+  public void testMerge() throws IOException {
+
+    // Chunks of 2 reads sent in turn to 2 processes
+    final File process0 = createSAMFile(HEADER
+        + alignment(0, "read1", 10) + alignment(0, "read1", 20)
+        + alignment(0, "read2", 30)
+        + alignment(2, "read5", 50)
+        + alignment(2, "read6", 60) + alignment(2, "read6", 61)
+        + alignment(2, "read6", 62));
+    final File process1 = createSAMFile(HEADER
+        + alignment(1, "read3", 30) + alignment(1, "read4", 40)
+        + alignment(1, "read4", 41)
+        + alignment(3, "read7", 70));
+
+    final String expected = HEADER
+        + alignment("read1", 10) + alignment("read1", 20)
+        + alignment("read2", 30) + alignment("read3", 30)
+        + alignment("read4", 40) + alignment("read4", 41)
+        + alignment("read5", 50) + alignment("read6", 60)
+        + alignment("read6", 61) + alignment("read6", 62)
+        + alignment("read7", 70);
+
+    assertMerge(expected, 11, process0, process1);
+  }
+
+  @Test
+  public void testMergeEmptyOutput() throws IOException {
+
+    // The first process has not produced any output, the third one has not
+    // received any read
+    final File process0 = createSAMFile("");
+    final File process1 = createSAMFile(HEADER
+        + alignment(1, "read3", 30) + alignment(1, "read3", 31)
+        + alignment(1, "read4", 40));
+    final File process2 = createSAMFile(HEADER);
+
+    final String expected = HEADER
+        + alignment("read3", 30) + alignment("read3", 31)
+        + alignment("read4", 40);
+
+    assertMerge(expected, 3, process0, process1, process2);
+  }
+
+  @Test
+  public void testMergeMissingReads() throws IOException {
+
+    // Chunks of 2 reads sent in turn to 2 processes, the unmapped reads read2,
+    // read3 and read4 have been dropped by the mapper
+    final File process0 = createSAMFile(HEADER
+        + alignment(0, "read1", 10)
+        + alignment(2, "read5", 50) + alignment(2, "read6", 60)
+        + alignment(4, "read9", 90));
+    final File process1 = createSAMFile(HEADER
+        + alignment(3, "read7", 70) + alignment(3, "read8", 80)
+        + alignment(3, "read8", 81));
+
+    final String expected = HEADER
+        + alignment("read1", 10) + alignment("read5", 50)
+        + alignment("read6", 60) + alignment("read7", 70)
+        + alignment("read8", 80) + alignment("read8", 81)
+        + alignment("read9", 90);
+
+    assertMerge(expected, 7, process0, process1);
+  }
+
+  @Test
+  public void testMergeReorderedReads() throws IOException {
+
+    // Chunks of 2 reads sent in turn to 2 processes, the reads have been
+    // reordered by the threads of the mappers
+    final File process0 = createSAMFile(HEADER
+        + alignment(0, "read2", 20) + alignment(0, "read1", 10)
+        + alignment(0, "read1", 11)
+        + alignment(2, "read6", 60) + alignment(2, "read5", 50));
+    final File process1 = createSAMFile(HEADER
+        + alignment(3, "read7", 70)
+        + alignment(1, "read4", 40) + alignment(1, "read3", 30)
+        + alignment(3, "read8", 80));
+
+    // The reads of chunk 1 are output after the reads of the chunk 2 that
+    // precede them in their output, but no read is lost or split
+    final String expected = HEADER
+        + alignment("read2", 20) + alignment("read1", 10)
+        + alignment("read1", 11) + alignment("read6", 60)
+        + alignment("read5", 50) + alignment("read7", 70)
+        + alignment("read4", 40) + alignment("read3", 30)
+        + alignment("read8", 80);
+
+    assertMerge(expected, 9, process0, process1);
+  }
+
+  @Test(expected = IOException.class)
+  public void testMergeWithoutChunkPrefix() throws IOException {
+
+    final File process0 = createSAMFile(HEADER + alignment("read1", 10));
+
+    ChunkedMapping.merge(Arrays.asList(process0), new ByteArrayOutputStream());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static void assertMerge(final String expected,
+      final long expectedCount, final File... samFiles) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final long count = ChunkedMapping.merge(Arrays.asList(samFiles), out);
+
+    assertEquals(expectedCount, count);
+    assertEquals(expected,
+        new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  private static String alignment(final int chunk, final String readName,
+      final int start) {
+
+    return alignment(ChunkedMapping.chunkPrefix(chunk) + readName, start);
+  }
+
+  private static String alignment(final String readName, final int start) {
+
+    return readName
+        + "\t0\tchr1\t" + start + "\t255\t4M\t*\t0\t0\tACGT\tIIII\n";
+  }
+
+  private File createSAMFile(final String content) throws IOException {
+
+    final File result = File.createTempFile("mapper-process-", ".sam");
+    this.files.add(result);
+
+    try (OutputStream out = new FileOutputStream(result)) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,272 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.LengthReadFilter;
+import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilter;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
+
+public class ParallelReadsFilterTest {
+
+  private static final String COUNTER_GROUP = "test";
+
+  /** More reads than in a batch of the parallel filter. */
+  private static final int READ_COUNT = 10000;
+
+  private static final int THREADS = 4;
+
+  private final List<File> files = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+
+    this.files.clear();
+  }
+
+  @After
+  public void tearDown() {
+
+    for (File f : this.files) {
+      f.delete();
+    }
+  }
+
+  @Test
+  public void testSingleEnd() throws IOException, EoulsanException {
+
+    final List<ReadSequence> reads = createReads("/1", 0);
+    final File inFile = writeReads(reads);
+    final File outFile = newFile();
+
+    final LocalReporter reporter = new LocalReporter();
+    new ParallelReadsFilter(ParallelReadsFilterTest::newReadFilter, THREADS,
+        reporter, COUNTER_GROUP).filter(new DataFile(inFile),
+            new DataFile(outFile), FastqFormat.FASTQ_SANGER);
+
+    // The sequential path
+    final MultiReadFilter filter = newReadFilter(null);
+    final List<String> expected = new ArrayList<>();
+    for (ReadSequence read : reads) {
+      if (filter.accept(read)) {
+        expected.add(read.getName());
+      }
+    }
+
+    assertTrue(expected.size() > 0);
+    assertTrue(expected.size() < READ_COUNT);
+    assertEquals(expected, readNames(outFile));
+    assertEquals(READ_COUNT, reporter.getCounterValue(COUNTER_GROUP,
+        "input raw reads"));
+    assertEquals(expected.size(), reporter.getCounterValue(COUNTER_GROUP,
+        "output accepted reads"));
+  }
+
+  @Test
+  public void testPairedEnd() throws IOException, EoulsanException {
+
+    final List<ReadSequence> reads1 = createReads("/1", 0);
+    final List<ReadSequence> reads2 = createReads("/2", 7);
+    final File inFile1 = writeReads(reads1);
+    final File inFile2 = writeReads(reads2);
+    final File outFile1 = newFile();
+    final File outFile2 = newFile();
+
+    new ParallelReadsFilter(ParallelReadsFilterTest::newReadFilter, THREADS,
+        new LocalReporter(), COUNTER_GROUP).filter(new DataFile(inFile1),
+            new DataFile(inFile2), new DataFile(outFile1),
+            new DataFile(outFile2), FastqFormat.FASTQ_SANGER);
+
+    // The sequential path
+    final MultiReadFilter filter = newReadFilter(null);
+    final List<String> expected1 = new ArrayList<>();
+    final List<String> expected2 = new ArrayList<>();
+    for (int i = 0; i < READ_COUNT; i++) {
+      if (filter.accept(reads1.get(i), reads2.get(i))) {
+        expected1.add(reads1.get(i).getName());
+        expected2.add(reads2.get(i).getName());
+      }
+    }
+
+    final List<String> names1 = readNames(outFile1);
+    final List<String> names2 = readNames(outFile2);
+
+    assertTrue(expected1.size() > 0);
+    assertEquals(expected1, names1);
+    assertEquals(expected2, names2);
+
+    // The mates must stay in sync
+    for (int i = 0; i < names1.size(); i++) {
+      assertEquals(names1.get(i).replace("/1", "/2"), names2.get(i));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testReaderError() throws IOException, EoulsanException {
+
+    final File inFile = writeReads(createReads("/1", 0));
+    final File outFile = newFile();
+
+    final ParallelReadsFilter filter =
+        new ParallelReadsFilter(ParallelReadsFilterTest::newReadFilter,
+            THREADS, new LocalReporter(), COUNTER_GROUP);
+
+    // A null FASTQ format make the reader thread throw a RuntimeException
+    try {
+      filter.filter(new DataFile(inFile), new DataFile(outFile), null);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof NullPointerException);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testFilterError() throws IOException, EoulsanException {
+
+    final File inFile = writeReads(createReads("/1", 0));
+    final File outFile = newFile();
+
+    final ParallelReadsFilter filter = new ParallelReadsFilter(incrementer -> {
+
+      final MultiReadFilter result =
+          new MultiReadFilter(incrementer, COUNTER_GROUP);
+      result.addFilter(new LengthReadFilter() {
+
+        @Override
+        public boolean accept(final ReadSequence read) {
+
+          if ("read5000/1".equals(read.getName())) {
+            throw new IllegalStateException("Invalid read");
+          }
+          return true;
+        }
+      });
+
+      return result;
+    }, THREADS, new LocalReporter(), COUNTER_GROUP);
+
+    try {
+      filter.filter(new DataFile(inFile), new DataFile(outFile),
+          FastqFormat.FASTQ_SANGER);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static MultiReadFilter newReadFilter(
+      final ReporterIncrementer incrementer) throws EoulsanException {
+
+    final LengthReadFilter lengthFilter = new LengthReadFilter();
+    lengthFilter.setParameter("minimal.length.threshold", "20");
+    lengthFilter.init();
+
+    final MultiReadFilter result =
+        new MultiReadFilter(incrementer, COUNTER_GROUP);
+    result.addFilter(lengthFilter);
+
+    return result;
+  }
+
+  private static List<ReadSequence> createReads(final String suffix,
+      final int shift) {
+
+    final List<ReadSequence> result = new ArrayList<>();
+
+    for (int i = 0; i < READ_COUNT; i++) {
+
+      final int length = (i * 13 + shift) % 50 + 1;
+      final StringBuilder sequence = new StringBuilder();
+      final StringBuilder quality = new StringBuilder();
+      for (int j = 0; j < length; j++) {
+        sequence.append("ACGT".charAt((i + j) % 4));
+        quality.append('I');
+      }
+
+      result.add(new ReadSequence("read" + i + suffix, sequence.toString(),
+          quality.toString()));
+    }
+
+    return result;
+  }
+
+  private File newFile() throws IOException {
+
+    final File result = File.createTempFile("reads-", ".fq");
+    this.files.add(result);
+
+    return result;
+  }
+
+  private File writeReads(final List<ReadSequence> reads) throws IOException {
+
+    final File result = newFile();
+
+    try (FastqWriter writer = new FastqWriter(result)) {
+      for (ReadSequence read : reads) {
+        writer.write(read);
+      }
+    }
+
+    return result;
+  }
+
+  private static List<String> readNames(final File file) throws IOException {
+
+    final List<String> result = new ArrayList<>();
+
+    try (FastqReader reader = new FastqReader(file)) {
+      for (ReadSequence read : reader) {
+        result.add(read.getName());
+      }
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,177 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+public class ReadsMapperLocalModuleTest {
+
+  private static final String COUNTER_GROUP = "reads_mapping";
+
+  private static final String HEADER =
+      "@HD\tVN:1.4\n@SQ\tSN:chr1\tLN:1000\n@PG\tID:mapper\n";
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("reads-mapper-").toFile();
+  }
+
+  @After
+  public void tearDown() {
+
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Test
+  public void testWriteBAMWithoutReferenceSequence() throws IOException {
+
+    final File bamFile = new File(this.dir, "mapper.bam");
+    final LocalReporter reporter = new LocalReporter();
+
+    try {
+      ReadsMapperLocalModule.writeBAM(
+          samInput("@HD\tVN:1.4\n" + alignment("read1", 10)),
+          new DataFile(bamFile), null, this.dir, "mapper", 5, 1000, reporter);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("no reference sequence found"));
+    }
+
+    assertTrue(reporter.getCounterGroups().isEmpty());
+  }
+
+  @Test
+  public void testWriteUnsortedBAM() throws IOException {
+
+    final File bamFile = new File(this.dir, "mapper.bam");
+    final LocalReporter reporter = new LocalReporter();
+
+    final long count = ReadsMapperLocalModule.writeBAM(
+        samInput(HEADER
+            + alignment("read1", 30) + alignment("read2", 10)
+            + alignment("read3", 20)),
+        new DataFile(bamFile), null, this.dir, "mapper", 5, 1000, reporter);
+
+    assertEquals(3, count);
+    assertEquals(3, reporter.getCounterValue(COUNTER_GROUP,
+        MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName()));
+
+    // The order of the mapper output is kept and no index is created
+    assertEquals(Arrays.asList("read1", "read2", "read3"),
+        readNames(bamFile, SortOrder.unsorted));
+    assertFalse(new File(this.dir, "mapper.bai").exists());
+  }
+
+  @Test
+  public void testWriteSortedBAM() throws IOException {
+
+    final File bamFile = new File(this.dir, "mapper.bam");
+    final File indexFile = new File(this.dir, "mapper_output.bai");
+    final LocalReporter reporter = new LocalReporter();
+
+    final long count = ReadsMapperLocalModule.writeBAM(
+        samInput(HEADER
+            + alignment("read1", 30) + alignment("read2", 10)
+            + alignment("read3", 20)),
+        new DataFile(bamFile), new DataFile(indexFile), this.dir, "mapper", 5,
+        1, reporter);
+
+    assertEquals(3, count);
+    assertEquals(3, reporter.getCounterValue(COUNTER_GROUP,
+        MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName()));
+
+    // The alignments are sorted by coordinate and the index is renamed
+    assertEquals(Arrays.asList("read2", "read3", "read1"),
+        readNames(bamFile, SortOrder.coordinate));
+    assertTrue(indexFile.length() > 0);
+    assertTrue(new File(this.dir, "mapper.bai").exists());
+    assertTrue(new File(this.dir, "mapper.bam.bai").exists());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static String alignment(final String readName, final int start) {
+
+    return readName
+        + "\t0\tchr1\t" + start + "\t255\t4M\t*\t0\t0\tACGT\tIIII\n";
+  }
+
+  private static InputStream samInput(final String content) {
+
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> readNames(final File bamFile,
+      final SortOrder expectedSortOrder) throws IOException {
+
+    final List<String> result = new ArrayList<>();
+
+    try (SamReader reader = SamReaderFactory.makeDefault().open(bamFile)) {
+
+      assertEquals(expectedSortOrder,
+          reader.getFileHeader().getSortOrder());
+
+      for (SAMRecord record : reader) {
+        result.add(record.getReadName());
+      }
+    }
+
+    return result;
+  }
+
+}
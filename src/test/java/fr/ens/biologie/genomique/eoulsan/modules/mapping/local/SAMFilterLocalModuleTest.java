@@ -0,0 +1,117 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilter;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.RemoveMultiMatchesReadAlignmentsFilter;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class SAMFilterLocalModuleTest {
+
+  private File inFile;
+  private File outFile;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.inFile = File.createTempFile("alignments-", ".bam");
+    this.outFile = File.createTempFile("filtered-", ".bam");
+  }
+
+  @After
+  public void tearDown() {
+
+    this.inFile.delete();
+    this.outFile.delete();
+  }
+
+  private static SAMRecord createRecord(final SAMFileHeader header,
+      final String readName, final int start) {
+
+    final SAMRecord record = new SAMRecord(header);
+    record.setReadName(readName);
+    record.setReferenceName("chr1");
+    record.setAlignmentStart(start);
+    record.setMappingQuality(255);
+    record.setCigarString("4M");
+    record.setReadString("ACGT");
+    record.setBaseQualityString("IIII");
+
+    return record;
+  }
+
+  @Test
+  public void testCoordinateSortedBAM() throws IOException {
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.addSequence(new SAMSequenceRecord("chr1", 1000));
+    header.setSortOrder(SortOrder.coordinate);
+
+    // The alignments of the multi-matches read1 are not consecutive
+    try (SAMFileWriter writer =
+        new SAMFileWriterFactory().makeBAMWriter(header, true, this.inFile)) {
+      writer.addAlignment(createRecord(header, "read1", 10));
+      writer.addAlignment(createRecord(header, "read2", 20));
+      writer.addAlignment(createRecord(header, "read1", 30));
+    }
+
+    final ReadAlignmentsFilter filter =
+        new RemoveMultiMatchesReadAlignmentsFilter();
+    final LocalReporter reporter = new LocalReporter();
+
+    try {
+      SAMFilterLocalModule.filterFile(new DataFile(this.inFile),
+          new DataFile(this.outFile), reporter, filter,
+          this.inFile.getParentFile(), true, 1);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("sorted by coordinate"));
+    }
+
+    // Nothing has been filtered
+    assertTrue(reporter.getCounterGroups().isEmpty());
+    assertEquals(0, this.outFile.length());
+  }
+
+}